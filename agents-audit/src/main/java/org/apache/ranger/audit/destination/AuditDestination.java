@@ -24,6 +24,7 @@ import java.util.Properties;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.ranger.audit.provider.BaseAuditHandler;
+import org.apache.ranger.audit.queue.AuditQueue;
 
 /**
  * This class needs to be extended by anyone who wants to build custom
@@ -32,6 +33,8 @@ import org.apache.ranger.audit.provider.BaseAuditHandler;
 public abstract class AuditDestination extends BaseAuditHandler {
 	private static final Log logger = LogFactory.getLog(AuditDestination.class);
 
+	protected AuditQueue parentQueue = null;
+
 	public AuditDestination() {
 		logger.info("AuditDestination() enter");
 	}
@@ -58,6 +61,28 @@ public abstract class AuditDestination extends BaseAuditHandler {
 
 	}
 
+	/**
+	 * Set by the queue which feeds this destination. Destinations which
+	 * deliver asynchronously use it to hand back batches that could not be
+	 * delivered after log() had already returned
+	 */
+	public void setParentQueue(AuditQueue parentQueue) {
+		this.parentQueue = parentQueue;
+	}
+
+	public AuditQueue getParentQueue() {
+		return parentQueue;
+	}
+
+	/**
+	 * Destinations which report the outcome of each batch to the parent
+	 * queue, with logDeliveredBatch() and logFailedBatch(), return true. The
+	 * queue then doesn't count a batch as delivered when log() returns true
+	 */
+	public boolean isReportingDelivery() {
+		return false;
+	}
+
 	@Override
 	public void start() {
 		
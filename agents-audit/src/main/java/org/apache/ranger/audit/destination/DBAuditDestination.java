@@ -19,8 +19,16 @@
 
 package org.apache.ranger.audit.destination;
 
+import java.sql.SQLException;
+import java.sql.SQLNonTransientConnectionException;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTransientConnectionException;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 
@@ -35,6 +43,7 @@ import javax.persistence.Persistence;
 import org.apache.ranger.audit.dao.DaoManager;
 import org.apache.ranger.audit.model.AuditEventBase;
 import org.apache.ranger.audit.provider.MiscUtil;
+import org.eclipse.persistence.exceptions.DatabaseException;
 
 public class DBAuditDestination extends AuditDestination {
 
@@ -46,6 +55,15 @@ public class DBAuditDestination extends AuditDestination {
 	public static final String PROP_DB_USER = "user";
 	public static final String PROP_DB_PASSWORD = "password";
 	public static final String PROP_DB_PASSWORD_ALIAS = "password.alias";
+	public static final String PROP_DB_BATCH_WRITE_SIZE = "jdbc.batch.size";
+	public static final String PROP_DB_RETRY_TIMES = "retry.times";
+	public static final String PROP_DB_RETRY_SLEEP_MS = "retry.sleep.ms";
+
+	public static final int DEFAULT_BATCH_WRITE_SIZE = 100;
+
+	private static final int PERSIST_SUCCESS = 0;
+	private static final int PERSIST_CONNECTION_ERROR = 1;
+	private static final int PERSIST_EVENT_ERROR = 2;
 
 	private EntityManagerFactory entityManagerFactory;
 	private DaoManager daoManager;
@@ -54,6 +72,7 @@ public class DBAuditDestination extends AuditDestination {
 	private String jdbcURL = null;
 	private String dbUser = null;
 	private String dbPasswordAlias = "auditDBCred";
+	private int batchWriteSize = DEFAULT_BATCH_WRITE_SIZE;
 
 	public DBAuditDestination() {
 		logger.info("DBAuditDestination() called");
@@ -64,6 +83,16 @@ public class DBAuditDestination extends AuditDestination {
 		logger.info("init() called");
 		super.init(props, propPrefix);
 
+		batchWriteSize = MiscUtil.getIntProperty(props, propPrefix + "."
+				+ PROP_DB_BATCH_WRITE_SIZE, DEFAULT_BATCH_WRITE_SIZE);
+		failedRetryTimes = MiscUtil.getIntProperty(props, propPrefix + "."
+				+ PROP_DB_RETRY_TIMES, failedRetryTimes);
+		failedRetrySleep = MiscUtil.getIntProperty(props, propPrefix + "."
+				+ PROP_DB_RETRY_SLEEP_MS, failedRetrySleep);
+
+		logger.info("batchWriteSize=" + batchWriteSize + ", retryTimes="
+				+ failedRetryTimes + ", retrySleepMS=" + failedRetrySleep);
+
 		// Initial connect
 		connect();
 	}
@@ -77,35 +106,53 @@ public class DBAuditDestination extends AuditDestination {
 	 */
 	@Override
 	public boolean log(Collection<AuditEventBase> events) {
-		boolean retValue = false;
 		logStatusIfRequired();
 		addTotalCount(events.size());
-		
-		if (beginTransaction()) {
-			boolean isFailed = false;
-			for (AuditEventBase event : events) {
-				try {
-					event.persist(daoManager);
-				} catch (Throwable t) {
-					logger.error("Error persisting data. event=" + event, t);
-					isFailed = true;
-					break;
-				}
-			}
-			if (isFailed) {
-				retValue = false;
-				rollbackTransaction();
-			} else {
-				retValue = commitTransaction();
+
+		// The whole batch is written in one transaction, so a failed attempt
+		// leaves nothing behind and can safely be retried. Only connection
+		// errors are retried; a batch failing because of one of its events
+		// would fail the same way again
+		int result = persistEvents(events);
+		for (int attempt = 1; result == PERSIST_CONNECTION_ERROR
+				&& attempt <= failedRetryTimes; attempt++) {
+			logger.warn("Error connecting audit database. Will retry. batchSize="
+					+ events.size() + ", attempt=" + attempt + "/"
+					+ failedRetryTimes);
+			try {
+				Thread.sleep(failedRetrySleep);
+			} catch (InterruptedException e) {
+				logger.info("Interrupted while waiting to retry. Shutdown might be in progress");
+				break;
 			}
+			result = persistEvents(events);
 		}
-		
-		if (retValue) {
+
+		if (result == PERSIST_SUCCESS) {
 			addSuccessCount(events.size());
-		} else {
+			if (parentQueue != null) {
+				parentQueue.logDeliveredBatch(events);
+			}
+			return true;
+		} else if (result == PERSIST_CONNECTION_ERROR) {
+			// Nothing was written, so the queue can spool the whole batch
 			addDeferredCount(events.size());
+			return false;
 		}
-		return retValue;
+
+		// Database is reachable, so the batch is failing because of one or
+		// more bad events. Write the events one at a time so that only the
+		// offending ones are dropped
+		return persistEventsIndividually(events);
+	}
+
+	/**
+	 * The outcome of each batch is reported to the queue, as a batch written
+	 * one event at a time can be partly written when the database goes down
+	 */
+	@Override
+	public boolean isReportingDelivery() {
+		return parentQueue != null;
 	}
 
 	@Override
@@ -115,6 +162,118 @@ public class DBAuditDestination extends AuditDestination {
 	}
 
 	// Local methods
+	private int persistEvents(Collection<AuditEventBase> events) {
+		if (!beginTransaction()) {
+			return PERSIST_CONNECTION_ERROR;
+		}
+
+		AuditEventBase event = null;
+		try {
+			for (AuditEventBase e : events) {
+				event = e;
+				event.persist(daoManager);
+			}
+			event = null;
+			commitTransaction();
+			return PERSIST_SUCCESS;
+		} catch (Throwable t) {
+			boolean isConnectionError = isConnectionError(t);
+
+			logger.error("Error persisting data. isConnectionError="
+					+ isConnectionError + ", "
+					+ (event != null ? "event=" + event : "batchSize=" + events.size()), t);
+			if (isConnectionError) {
+				cleanUp(); // so that next insert will try to init()
+			} else {
+				rollbackTransaction();
+			}
+			return isConnectionError ? PERSIST_CONNECTION_ERROR
+					: PERSIST_EVENT_ERROR;
+		}
+	}
+
+	private boolean persistEventsIndividually(Collection<AuditEventBase> events) {
+		List<AuditEventBase> persistedEvents = new ArrayList<AuditEventBase>();
+		List<AuditEventBase> failedEvents = new ArrayList<AuditEventBase>();
+		List<AuditEventBase> pendingEvents = new ArrayList<AuditEventBase>();
+
+		for (Iterator<AuditEventBase> iter = events.iterator(); iter.hasNext();) {
+			AuditEventBase event = iter.next();
+			int result = persistEvents(Collections.singletonList(event));
+
+			if (result == PERSIST_SUCCESS) {
+				persistedEvents.add(event);
+			} else if (result == PERSIST_EVENT_ERROR) {
+				failedEvents.add(event);
+				logFailedEvent(event);
+			} else {
+				// Database went down; the remaining events are handed back
+				pendingEvents.add(event);
+				while (iter.hasNext()) {
+					pendingEvents.add(iter.next());
+				}
+			}
+		}
+		logger.info("Persisted audit batch one event at a time. successCount="
+				+ persistedEvents.size() + ", failedCount="
+				+ failedEvents.size() + ", pendingCount="
+				+ pendingEvents.size());
+
+		addSuccessCount(persistedEvents.size());
+		addFailedCount(failedEvents.size());
+
+		if (parentQueue == null) {
+			if (!pendingEvents.isEmpty()) {
+				addFailedCount(pendingEvents.size());
+				logFailedEvent(pendingEvents);
+			}
+			return true;
+		}
+
+		parentQueue.logDeliveredBatch(persistedEvents);
+		parentQueue.logDroppedBatch(failedEvents);
+		if (!pendingEvents.isEmpty()) {
+			// Spooled by the queue, or dropped if spooling is disabled
+			addDeferredCount(pendingEvents.size());
+			parentQueue.logFailedBatch(pendingEvents);
+		}
+		return true;
+	}
+
+	/**
+	 * @return true if the error is due to the connection to the database,
+	 *         rather than to the data being written
+	 */
+	private boolean isConnectionError(Throwable t) {
+		for (Throwable cause = t; cause != null; cause = (cause.getCause() == cause ? null
+				: cause.getCause())) {
+			if (cause instanceof SQLTransientConnectionException
+					|| cause instanceof SQLNonTransientConnectionException
+					|| cause instanceof SQLRecoverableException) {
+				return true;
+			}
+			if (cause instanceof SQLException) {
+				// SQL state class 08 is connection exception
+				String sqlState = ((SQLException) cause).getSQLState();
+				if (sqlState != null && sqlState.startsWith("08")) {
+					return true;
+				}
+			}
+			if (cause instanceof DatabaseException) {
+				DatabaseException dbException = (DatabaseException) cause;
+				if (dbException.isCommunicationFailure()) {
+					return true;
+				}
+				if (dbException.getInternalException() != null
+						&& dbException.getInternalException() != cause.getCause()
+						&& isConnectionError(dbException.getInternalException())) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
 	protected void connect() {
 		if (isDbConnected()) {
 			return;
@@ -173,6 +332,12 @@ public class DBAuditDestination extends AuditDestination {
 			if (dbPassword != null) {
 				dbProperties.put("javax.persistence.jdbc.password", dbPassword);
 			}
+			if (batchWriteSize > 1) {
+				// Group the inserts of a transaction into JDBC statement batches
+				dbProperties.put("eclipselink.jdbc.batch-writing", "JDBC");
+				dbProperties.put("eclipselink.jdbc.batch-writing.size",
+						Integer.toString(batchWriteSize));
+			}
 
 			entityManagerFactory = Persistence.createEntityManagerFactory(
 					"xa_server", dbProperties);
@@ -271,28 +436,19 @@ public class DBAuditDestination extends AuditDestination {
 		return trx != null;
 	}
 
-	private boolean commitTransaction() {
-		boolean ret = false;
-		EntityTransaction trx = null;
-
+	private void commitTransaction() throws Exception {
 		try {
-			trx = getTransaction();
+			EntityTransaction trx = getTransaction();
 
 			if (trx != null && trx.isActive()) {
 				trx.commit();
-				ret = true;
 			} else {
-				throw new Exception("trx is null or not active");
+				throw new SQLNonTransientConnectionException(
+						"trx is null or not active");
 			}
-		} catch (Throwable excp) {
-			logger.error("DBAuditDestination.commitTransaction(): failed", excp);
-
-			cleanUp(); // so that next insert will try to init()
 		} finally {
 			clearEntityManager();
 		}
-
-		return ret;
 	}
 
 	private boolean rollbackTransaction() {
@@ -302,11 +458,10 @@ public class DBAuditDestination extends AuditDestination {
 		try {
 			trx = getTransaction();
 
+			// a failed commit has already rolled back the transaction
 			if (trx != null && trx.isActive()) {
 				trx.rollback();
 				ret = true;
-			} else {
-				throw new Exception("trx is null or not active");
 			}
 		} catch (Throwable excp) {
 			logger.error("DBAuditDestination.rollbackTransaction(): failed",
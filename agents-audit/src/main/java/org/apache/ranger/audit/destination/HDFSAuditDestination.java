@@ -19,8 +19,10 @@
 
 package org.apache.ranger.audit.destination;
 
+import java.io.BufferedWriter;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.net.URI;
 import java.util.ArrayList;
@@ -28,6 +30,9 @@ import java.util.Collection;
 import java.util.Date;
 import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -36,8 +41,11 @@ import org.apache.hadoop.fs.FSDataOutputStream;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.ranger.audit.model.AuditEventBase;
+import org.apache.ranger.audit.model.AuthzAuditEvent;
 import org.apache.ranger.audit.provider.MiscUtil;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
 /**
  * This class write the logs to local file
  */
@@ -49,23 +57,37 @@ public class HDFSAuditDestination extends AuditDestination {
 	public static final String PROP_HDFS_SUBDIR = "subdir";
 	public static final String PROP_HDFS_FILE_NAME_FORMAT = "filename.format";
 	public static final String PROP_HDFS_ROLLOVER = "file.rollover.sec";
+	public static final String PROP_HDFS_FLUSH_SIZE = "flush.size.bytes";
+	public static final String PROP_HDFS_FLUSH_INTERVAL = "flush.interval.ms";
 
 	String baseFolder = null;
 	String fileFormat = null;
 	int fileRolloverSec = 24 * 60 * 60; // In seconds
+	int flushSizeBytes = 64 * 1024;
+	int flushIntervalMS = 5 * 1000;
 	private String logFileNameFormat;
 
 	boolean initDone = false;
 
 	private String logFolder;
 	PrintWriter logWriter = null;
+	FSDataOutputStream logStream = null;
 
 	private Date fileCreateTime = null;
 
 	private String currentFileName;
 
+	private long lastFlushTime = 0;
+
+	private ScheduledExecutorService flushTimer = null;
+
 	private boolean isStopped = false;
 
+	// Events written to logWriter since its last successful flush. They are
+	// counted as delivered only once that flush succeeded
+	private List<AuditEventBase> unflushedEvents = new ArrayList<AuditEventBase>();
+	private long unflushedSize = 0;
+
 	@Override
 	public void init(Properties prop, String propPrefix) {
 		super.init(prop, propPrefix);
@@ -90,6 +112,10 @@ public class HDFSAuditDestination extends AuditDestination {
 				+ PROP_HDFS_FILE_NAME_FORMAT);
 		fileRolloverSec = MiscUtil.getIntProperty(props, propPrefix + "."
 				+ PROP_HDFS_ROLLOVER, fileRolloverSec);
+		flushSizeBytes = MiscUtil.getIntProperty(props, propPrefix + "."
+				+ PROP_HDFS_FLUSH_SIZE, flushSizeBytes);
+		flushIntervalMS = MiscUtil.getIntProperty(props, propPrefix + "."
+				+ PROP_HDFS_FLUSH_INTERVAL, flushIntervalMS);
 
 		if (logFileNameFormat == null || logFileNameFormat.isEmpty()) {
 			logFileNameFormat = "%app-type%_ranger_audit_%hostname%" + ".log";
@@ -99,21 +125,38 @@ public class HDFSAuditDestination extends AuditDestination {
 		logger.info("logFolder=" + logFolder + ", destName=" + getName());
 		logger.info("logFileNameFormat=" + logFileNameFormat + ", destName="
 				+ getName());
+		logger.info("flushSizeBytes=" + flushSizeBytes + ", flushIntervalMS="
+				+ flushIntervalMS + ", destName=" + getName());
 
 		initDone = true;
 	}
 
 	@Override
-	synchronized public boolean logJSON(Collection<String> events) {
+	public boolean logJSON(Collection<String> events) {
+		// Build the text outside the lock, so that only the copy into the
+		// write buffer is serialized
+		StringBuilder sb = new StringBuilder();
+		List<AuditEventBase> eventList = new ArrayList<AuditEventBase>();
+		for (String event : events) {
+			sb.append(event).append(MiscUtil.LINE_SEPARATOR);
+			// Kept to hand the event back if the write fails
+			eventList.add(MiscUtil.fromJson(event, AuthzAuditEvent.class));
+		}
+		return writeLogs(sb.toString(), eventList);
+	}
+
+	synchronized private boolean writeLogs(String text,
+			List<AuditEventBase> events) {
+		int count = events.size();
 		logStatusIfRequired();
-		addTotalCount(events.size());
+		addTotalCount(count);
 
 		if (!initDone) {
-			addDeferredCount(events.size());
+			addDeferredCount(count);
 			return false;
 		}
 		if (isStopped) {
-			addDeferredCount(events.size());
+			addDeferredCount(count);
 			logError("log() called after stop was requested. name=" + getName());
 			return false;
 		}
@@ -124,16 +167,17 @@ public class HDFSAuditDestination extends AuditDestination {
 						+ ". Will write to HDFS file=" + currentFileName);
 			}
 			PrintWriter out = getLogFileStream();
-			for (String event : events) {
-				out.println(event);
-			}
-			out.flush();
+			out.write(text);
 		} catch (Throwable t) {
-			addDeferredCount(events.size());
+			addDeferredCount(count);
 			logError("Error writing to log file.", t);
 			return false;
 		}
-		addSuccessCount(events.size());
+		// From here on the events are reported when the writer is flushed,
+		// whether or not that succeeds
+		unflushedEvents.addAll(events);
+		unflushedSize += text.length();
+		flushIfNeeded(unflushedSize >= flushSizeBytes);
 		return true;
 	}
 
@@ -152,10 +196,13 @@ public class HDFSAuditDestination extends AuditDestination {
 			logError("log() called after stop was requested. name=" + getName());
 			return false;
 		}
-		List<String> jsonList = new ArrayList<String>();
+		StringBuilder sb = new StringBuilder();
+		List<AuditEventBase> eventList = new ArrayList<AuditEventBase>();
 		for (AuditEventBase event : events) {
 			try {
-				jsonList.add(MiscUtil.stringify(event));
+				sb.append(MiscUtil.stringify(event)).append(
+						MiscUtil.LINE_SEPARATOR);
+				eventList.add(event);
 			} catch (Throwable t) {
 				logger.error("Error converting to JSON. event=" + event);
 				addTotalCount(1);
@@ -163,7 +210,7 @@ public class HDFSAuditDestination extends AuditDestination {
 				logFailedEvent(event);
 			}
 		}
-		return logJSON(jsonList);
+		return writeLogs(sb.toString(), eventList);
 
 	}
 
@@ -174,27 +221,134 @@ public class HDFSAuditDestination extends AuditDestination {
 	 */
 	@Override
 	public void start() {
-		// Nothing to do here. We will open the file when the first log request
-		// comes
+		// We will open the file when the first log request comes. Buffered
+		// events still need to go out if no further requests arrive
+		if (flushIntervalMS > 0) {
+			flushTimer = Executors.newSingleThreadScheduledExecutor(
+					new ThreadFactoryBuilder().setDaemon(true)
+							.setNameFormat("HDFSAuditDestination-flush-%d")
+							.build());
+			flushTimer.scheduleWithFixedDelay(new Runnable() {
+				@Override
+				public void run() {
+					flushIfNeeded(false);
+				}
+			}, flushIntervalMS, flushIntervalMS, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	@Override
+	public void flush() {
+		flushIfNeeded(true);
 	}
 
 	@Override
 	synchronized public void stop() {
 		isStopped = true;
-		if (logWriter != null) {
-			try {
-				logWriter.flush();
-				logWriter.close();
-			} catch (Throwable t) {
-				logger.error("Error on closing log writter. Exception will be ignored. name="
-						+ getName() + ", fileName=" + currentFileName);
-			}
-			logWriter = null;
+		if (flushTimer != null) {
+			flushTimer.shutdownNow();
+			flushTimer = null;
 		}
+		closeLogFile();
 		logStatus();
 	}
 
+	/**
+	 * With a parent queue, events are counted as delivered once they were
+	 * flushed to the file, rather than when log() returns
+	 */
+	@Override
+	public boolean isReportingDelivery() {
+		return parentQueue != null;
+	}
+
 	// Helper methods in this class
+	synchronized private void flushIfNeeded(boolean force) {
+		if (logWriter == null) {
+			return;
+		}
+		long now = System.currentTimeMillis();
+		if (force || now - lastFlushTime >= flushIntervalMS) {
+			lastFlushTime = now;
+			// PrintWriter doesn't throw. checkError() flushes and tells
+			// whether this or any earlier write failed. hflush() then makes
+			// the data reach the datanodes
+			if (logWriter.checkError() || !hflush()) {
+				logError("Error flushing log file. name=" + getName()
+						+ ", fileName=" + currentFileName);
+				handBackUnflushedEvents();
+
+				// Continue with a new file
+				logWriter.close();
+				logWriter = null;
+				logStream = null;
+				currentFileName = null;
+			} else {
+				reportUnflushedEvents();
+			}
+		}
+	}
+
+	private boolean hflush() {
+		if (logStream == null) {
+			return true;
+		}
+		try {
+			logStream.hflush();
+		} catch (Throwable t) {
+			logError("Error on hflush of log file. name=" + getName()
+					+ ", fileName=" + currentFileName, t);
+			return false;
+		}
+		return true;
+	}
+
+	private void reportUnflushedEvents() {
+		if (unflushedEvents.isEmpty()) {
+			return;
+		}
+		addSuccessCount(unflushedEvents.size());
+		if (parentQueue != null) {
+			parentQueue.logDeliveredBatch(unflushedEvents);
+		}
+		unflushedEvents = new ArrayList<AuditEventBase>();
+		unflushedSize = 0;
+	}
+
+	private void handBackUnflushedEvents() {
+		if (unflushedEvents.isEmpty()) {
+			return;
+		}
+		if (parentQueue != null) {
+			addDeferredCount(unflushedEvents.size());
+			parentQueue.logFailedBatch(unflushedEvents);
+		} else {
+			addFailedCount(unflushedEvents.size());
+			logFailedEvent(unflushedEvents);
+		}
+		unflushedEvents = new ArrayList<AuditEventBase>();
+		unflushedSize = 0;
+	}
+
+	private void closeLogFile() {
+		if (logWriter == null) {
+			return;
+		}
+		// Buffered data is flushed by close(). The events are delivered only
+		// once the file was closed without error
+		logWriter.close();
+		if (logWriter.checkError()) {
+			logError("Error closing log file. name=" + getName()
+					+ ", fileName=" + currentFileName);
+			handBackUnflushedEvents();
+		} else {
+			reportUnflushedEvents();
+		}
+		logWriter = null;
+		logStream = null;
+		currentFileName = null;
+	}
+
 	synchronized private PrintWriter getLogFileStream() throws Throwable {
 		closeFileIfNeeded();
 
@@ -236,8 +390,11 @@ public class HDFSAuditDestination extends AuditDestination {
 			// Create the file to write
 			logger.info("Creating new log file. hdfPath=" + fullPath);
 			FSDataOutputStream ostream = fileSystem.create(hdfPath);
-			logWriter = new PrintWriter(ostream);
+			logStream = ostream;
+			logWriter = new PrintWriter(new BufferedWriter(
+					new OutputStreamWriter(ostream), Math.max(flushSizeBytes, 1)));
 			fileCreateTime = new Date();
+			lastFlushTime = fileCreateTime.getTime();
 			currentFileName = fullPath;
 		}
 		return logWriter;
@@ -263,16 +420,7 @@ public class HDFSAuditDestination extends AuditDestination {
 		if (System.currentTimeMillis() - fileCreateTime.getTime() > fileRolloverSec * 1000) {
 			logger.info("Closing file. Rolling over. name=" + getName()
 					+ ", fileName=" + currentFileName);
-			try {
-				logWriter.flush();
-				logWriter.close();
-			} catch (Throwable t) {
-				logger.error("Error on closing log writter. Exception will be ignored. name="
-						+ getName() + ", fileName=" + currentFileName);
-			}
-
-			logWriter = null;
-			currentFileName = null;
+			closeLogFile();
 		}
 	}
 
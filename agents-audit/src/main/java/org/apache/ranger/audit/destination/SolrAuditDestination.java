@@ -23,6 +23,10 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -30,6 +34,7 @@ import org.apache.ranger.audit.destination.AuditDestination;
 import org.apache.ranger.audit.model.AuditEventBase;
 import org.apache.ranger.audit.model.AuthzAuditEvent;
 import org.apache.ranger.audit.provider.MiscUtil;
+import org.apache.ranger.audit.queue.AuditQueue;
 import org.apache.solr.client.solrj.SolrClient;
 import org.apache.solr.client.solrj.impl.CloudSolrClient;
 import org.apache.solr.client.solrj.impl.LBHttpSolrClient;
@@ -37,15 +42,34 @@ import org.apache.solr.client.solrj.response.UpdateResponse;
 import org.apache.solr.common.SolrException;
 import org.apache.solr.common.SolrInputDocument;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
 public class SolrAuditDestination extends AuditDestination {
 	private static final Log LOG = LogFactory
 			.getLog(SolrAuditDestination.class);
 
 	public static final String PROP_SOLR_URLS = "urls";
 	public static final String PROP_SOLR_ZK = "zookeepers";
+	public static final String PROP_SOLR_MAX_INFLIGHT_BATCHES = "max.inflight.batches";
+	public static final String PROP_SOLR_MAX_INFLIGHT_DOCS = "max.inflight.docs";
+
+	public static final int DEFAULT_MAX_INFLIGHT_BATCHES = 4;
+	public static final int DEFAULT_MAX_INFLIGHT_DOCS = 10000;
+
+	static final int SEND_SUCCESS = 0;
+	static final int SEND_REJECTED = 1;
+	static final int SEND_FAILED = 2;
 
 	SolrClient solrClient = null;
 
+	int maxInflightBatches = DEFAULT_MAX_INFLIGHT_BATCHES;
+	int maxInflightDocs = DEFAULT_MAX_INFLIGHT_DOCS;
+
+	// Batches are sent by these threads when this destination is fed by a
+	// queue. Permits are held for every document not yet acknowledged by Solr
+	ExecutorService sendExecutor = null;
+	Semaphore inflightDocs = null;
+
 	public SolrAuditDestination() {
 	}
 
@@ -53,15 +77,79 @@ public class SolrAuditDestination extends AuditDestination {
 	public void init(Properties props, String propPrefix) {
 		LOG.info("init() called");
 		super.init(props, propPrefix);
+
+		maxInflightBatches = MiscUtil.getIntProperty(props, propPrefix + "."
+				+ PROP_SOLR_MAX_INFLIGHT_BATCHES, DEFAULT_MAX_INFLIGHT_BATCHES);
+		maxInflightDocs = MiscUtil.getIntProperty(props, propPrefix + "."
+				+ PROP_SOLR_MAX_INFLIGHT_DOCS, DEFAULT_MAX_INFLIGHT_DOCS);
+		LOG.info("maxInflightBatches=" + maxInflightBatches
+				+ ", maxInflightDocs=" + maxInflightDocs);
+
 		connect();
 	}
-	
+
+	@Override
+	public void start() {
+		super.start();
+
+		// Without a parent queue there is nobody to report a failed batch
+		// to, so batches are sent on the caller thread
+		if (parentQueue != null && maxInflightBatches > 1
+				&& maxInflightDocs > 0) {
+			inflightDocs = new Semaphore(maxInflightDocs);
+			sendExecutor = Executors.newFixedThreadPool(maxInflightBatches,
+					new ThreadFactoryBuilder().setDaemon(true)
+							.setNameFormat("SolrAuditDestination-%d").build());
+		}
+	}
+
 	@Override
 	public void stop() {
 		super.stop();
+
+		ExecutorService executor = sendExecutor;
+		if (executor != null) {
+			executor.shutdown();
+			try {
+				if (!executor.awaitTermination(
+						AuditQueue.AUDIT_CONSUMER_THREAD_WAIT_MS,
+						TimeUnit.MILLISECONDS)) {
+					LOG.warn("Timed out waiting for in-flight batches to be sent to Solr");
+				}
+			} catch (InterruptedException e) {
+				LOG.info("Interrupted while waiting for in-flight batches. Shutdown might be in progress");
+			}
+		}
 		logStatus();
 	}
 
+	@Override
+	public void waitToComplete() {
+		waitToComplete(-1);
+	}
+
+	@Override
+	public void waitToComplete(long timeout) {
+		Semaphore inflight = inflightDocs;
+		if (inflight == null) {
+			return;
+		}
+		try {
+			// All the permits are back once every in-flight batch completed
+			if (timeout > 0) {
+				if (!inflight.tryAcquire(maxInflightDocs, timeout,
+						TimeUnit.MILLISECONDS)) {
+					return;
+				}
+			} else {
+				inflight.acquire(maxInflightDocs);
+			}
+			inflight.release(maxInflightDocs);
+		} catch (InterruptedException e) {
+			LOG.info("Interrupted while waiting for in-flight batches. Shutdown might be in progress");
+		}
+	}
+
 	synchronized void connect() {
 		if (solrClient == null) {
 			if (solrClient == null) {
@@ -121,6 +209,75 @@ public class SolrAuditDestination extends AuditDestination {
 				}
 			}
 
+			ExecutorService executor = sendExecutor;
+			if (executor == null || executor.isShutdown()) {
+				int result = sendToSolr(events);
+				if (result == SEND_FAILED) {
+					return false;
+				}
+				reportToParentQueue(events, result);
+				return true;
+			}
+
+			// The caller reuses its buffer once log() returns
+			final Collection<AuditEventBase> batch = new ArrayList<AuditEventBase>(
+					events);
+			final int permits = Math.min(batch.size(), maxInflightDocs);
+
+			// Blocks the queue consumer when too many documents are in flight
+			inflightDocs.acquire(permits);
+			try {
+				executor.execute(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							reportToParentQueue(batch, sendToSolr(batch));
+						} finally {
+							inflightDocs.release(permits);
+						}
+					}
+				});
+			} catch (Throwable t) {
+				inflightDocs.release(permits);
+				throw t;
+			}
+		} catch (Throwable t) {
+			addDeferredCount(events.size());
+			logError("Error sending message to Solr", t);
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * With a parent queue, batches are counted as delivered once Solr
+	 * acknowledged them, rather than when log() returns
+	 */
+	@Override
+	public boolean isReportingDelivery() {
+		return parentQueue != null;
+	}
+
+	private void reportToParentQueue(Collection<AuditEventBase> events,
+			int result) {
+		if (parentQueue == null) {
+			return;
+		}
+		if (result == SEND_SUCCESS) {
+			parentQueue.logDeliveredBatch(events);
+		} else if (result == SEND_REJECTED) {
+			parentQueue.logDroppedBatch(events);
+		} else {
+			parentQueue.logFailedBatch(events);
+		}
+	}
+
+	/**
+	 * Sends one batch to Solr. Returns SEND_FAILED only if the batch should
+	 * be retried later; batches rejected by Solr are dropped
+	 */
+	int sendToSolr(Collection<AuditEventBase> events) {
+		try {
 			Collection<SolrInputDocument> docs = new ArrayList<SolrInputDocument>();
 			for (AuditEventBase event : events) {
 				AuthzAuditEvent authzEvent = (AuthzAuditEvent) event;
@@ -133,19 +290,20 @@ public class SolrAuditDestination extends AuditDestination {
 				if (response.getStatus() != 0) {
 					addFailedCount(events.size());
 					logFailedEvent(events, response.toString());
-				} else {
-					addSuccessCount(events.size());
+					return SEND_REJECTED;
 				}
+				addSuccessCount(events.size());
 			} catch (SolrException ex) {
 				addFailedCount(events.size());
 				logFailedEvent(events, ex);
+				return SEND_REJECTED;
 			}
 		} catch (Throwable t) {
 			addDeferredCount(events.size());
 			logError("Error sending message to Solr", t);
-			return false;
+			return SEND_FAILED;
 		}
-		return true;
+		return SEND_SUCCESS;
 	}
 
 	/*
@@ -185,44 +185,44 @@ public abstract class BaseAuditHandler implements AuditHandler {
 		return providerName;
 	}
 
-	public long addTotalCount(int count) {
+	public synchronized long addTotalCount(int count) {
 		totalCount += count;
 		return totalCount;
 	}
 
-	public long addSuccessCount(int count) {
+	public synchronized long addSuccessCount(int count) {
 		totalSuccessCount += count;
 		return totalSuccessCount;
 	}
 
-	public long addFailedCount(int count) {
+	public synchronized long addFailedCount(int count) {
 		totalFailedCount += count;
 		return totalFailedCount;
 	}
 
-	public long addStashedCount(int count) {
+	public synchronized long addStashedCount(int count) {
 		totalStashedCount += count;
 		return totalStashedCount;
 	}
 
-	public long addDeferredCount(int count) {
+	public synchronized long addDeferredCount(int count) {
 		totalDeferredCount += count;
 		return totalDeferredCount;
 	}
 
-	public long getTotalCount() {
+	public synchronized long getTotalCount() {
 		return totalCount;
 	}
 
-	public long getTotalSuccessCount() {
+	public synchronized long getTotalSuccessCount() {
 		return totalSuccessCount;
 	}
 
-	public long getTotalFailedCount() {
+	public synchronized long getTotalFailedCount() {
 		return totalFailedCount;
 	}
 
-	public long getTotalStashedCount() {
+	public synchronized long getTotalStashedCount() {
 		return totalStashedCount;
 	}
 
@@ -230,7 +230,7 @@ public abstract class BaseAuditHandler implements AuditHandler {
 		return lastStashedCount;
 	}
 
-	public long getTotalDeferredCount() {
+	public synchronized long getTotalDeferredCount() {
 		return totalDeferredCount;
 	}
 
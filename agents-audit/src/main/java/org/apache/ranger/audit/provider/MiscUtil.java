@@ -71,6 +71,7 @@ public class MiscUtil {
 	private static String sApplicationType = null;
 	private static UserGroupInformation ugiLoginUser = null;
 	private static Subject subjectLoginUser = null;
+	private static volatile UserGroupResolver userGroupResolver = null;
 
 	private static Map<String, LogHistory> logHistoryList = new Hashtable<String, LogHistory>();
 	private static int logInterval = 30000; // 30 seconds
@@ -481,14 +482,32 @@ public class MiscUtil {
 		return subjectLoginUser;
 	}
 
+	/**
+	 * Looks up the groups of request users; the plugins register their
+	 * shared cache of user to groups mapping
+	 */
+	public interface UserGroupResolver {
+		Set<String> getGroups(String userName);
+	}
+
+	static public void setUserGroupResolver(UserGroupResolver resolver) {
+		userGroupResolver = resolver;
+	}
+
 	/**
 	 * @param userName
-	 * @return
+	 * @return groups of the user, from the registered resolver if any; null
+	 *         if the user has no groups
 	 */
 	static public Set<String> getGroupsForRequestUser(String userName) {
 		if (userName == null) {
 			return null;
 		}
+		UserGroupResolver resolver = userGroupResolver;
+		if (resolver != null) {
+			Set<String> groups = resolver.getGroups(userName);
+			return (groups == null || groups.isEmpty()) ? null : groups;
+		}
 		try {
 			UserGroupInformation ugi = UserGroupInformation
 					.createRemoteUser(userName);
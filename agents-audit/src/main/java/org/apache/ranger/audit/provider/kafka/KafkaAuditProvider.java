@@ -16,19 +16,34 @@
  */
 package org.apache.ranger.audit.provider.kafka;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 import java.util.Properties;
-
-import kafka.javaapi.producer.Producer;
-import kafka.producer.KeyedMessage;
-import kafka.producer.ProducerConfig;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.kafka.clients.producer.Callback;
+import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.serialization.StringSerializer;
 import org.apache.ranger.audit.destination.AuditDestination;
 import org.apache.ranger.audit.model.AuditEventBase;
 import org.apache.ranger.audit.model.AuthzAuditEvent;
 import org.apache.ranger.audit.provider.MiscUtil;
+import org.apache.ranger.audit.queue.AuditQueue;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 public class KafkaAuditProvider extends AuditDestination {
 	private static final Log LOG = LogFactory.getLog(KafkaAuditProvider.class);
@@ -37,44 +52,79 @@ public class KafkaAuditProvider extends AuditDestination {
 	public static final String AUDIT_MAX_FLUSH_INTERVAL_PROP = "xasecure.audit.kafka.async.max.flush.interval.ms";
 	public static final String AUDIT_KAFKA_BROKER_LIST = "xasecure.audit.kafka.broker_list";
 	public static final String AUDIT_KAFKA_TOPIC_NAME = "xasecure.audit.kafka.topic_name";
+
+	public static final String AUDIT_KAFKA_COMPRESSION_TYPE_DEFAULT = "gzip";
+	public static final int AUDIT_KAFKA_BATCH_SIZE_DEFAULT = 64 * 1024;
+	public static final int AUDIT_KAFKA_LINGER_MS_DEFAULT = 50;
+	public static final long AUDIT_KAFKA_BUFFER_MEMORY_DEFAULT = 32 * 1024 * 1024;
+
+	static final String LEGACY_PROP_PREFIX = "xasecure.audit.kafka";
+
 	boolean initDone = false;
 
 	Producer<String, String> producer = null;
 	String topic = null;
 
+	// Sends handed to the producer but not yet acknowledged by the broker,
+	// or failed but not yet handed back to the parent queue
+	final AtomicLong pendingCount = new AtomicLong(0);
+
+	// Failed sends are handed back to the parent queue by this thread, as
+	// the parent queue may spool them to file and the producer callbacks
+	// must not block the producer I/O thread
+	ExecutorService failedEventsExecutor = null;
+	final ConcurrentLinkedQueue<AuditEventBase> failedEvents = new ConcurrentLinkedQueue<AuditEventBase>();
+	final AtomicBoolean isFailedEventsHandOffScheduled = new AtomicBoolean(false);
+
 	@Override
-	public void init(Properties props) {
+	public void init(Properties props, String propPrefix) {
 		LOG.info("init() called");
-		super.init(props);
+		super.init(props, propPrefix);
 
-		topic = MiscUtil.getStringProperty(props,
-				AUDIT_KAFKA_TOPIC_NAME);
+		topic = getKafkaProperty("topic_name");
 		if (topic == null || topic.isEmpty()) {
 			topic = "ranger_audits";
 		}
 
 		try {
 			if (!initDone) {
-				String brokerList = MiscUtil.getStringProperty(props,
-						AUDIT_KAFKA_BROKER_LIST);
+				String brokerList = getKafkaProperty("broker_list");
 				if (brokerList == null || brokerList.isEmpty()) {
 					brokerList = "localhost:9092";
 				}
+				String compressionType = getKafkaProperty("compression.type");
+				if (compressionType == null || compressionType.isEmpty()) {
+					compressionType = AUDIT_KAFKA_COMPRESSION_TYPE_DEFAULT;
+				}
 
 				Properties kakfaProps = new Properties();
 
-				kakfaProps.put("metadata.broker.list", brokerList);
-				kakfaProps.put("serializer.class",
-						"kafka.serializer.StringEncoder");
-				// kakfaProps.put("partitioner.class",
-				// "example.producer.SimplePartitioner");
-				kakfaProps.put("request.required.acks", "1");
+				kakfaProps.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, brokerList);
+				kakfaProps.put(ProducerConfig.ACKS_CONFIG, "1");
+				kakfaProps.put(ProducerConfig.COMPRESSION_TYPE_CONFIG,
+						compressionType);
+				kakfaProps.put(ProducerConfig.BATCH_SIZE_CONFIG, Integer
+						.toString(MiscUtil.parseInteger(
+								getKafkaProperty("batch.size"),
+								AUDIT_KAFKA_BATCH_SIZE_DEFAULT)));
+				kakfaProps.put(ProducerConfig.LINGER_MS_CONFIG, Integer
+						.toString(MiscUtil.parseInteger(
+								getKafkaProperty("linger.ms"),
+								AUDIT_KAFKA_LINGER_MS_DEFAULT)));
+				// buffer.memory bounds the memory held by unsent records. Once
+				// it is used up, send() fails instead of blocking the caller
+				kakfaProps.put(ProducerConfig.BUFFER_MEMORY_CONFIG, Long
+						.toString(MiscUtil.getLongProperty(props,
+								getKafkaPropertyName("buffer.memory"),
+								AUDIT_KAFKA_BUFFER_MEMORY_DEFAULT)));
+				kakfaProps.put(ProducerConfig.BLOCK_ON_BUFFER_FULL_CONFIG,
+						"false");
 
 				LOG.info("Connecting to Kafka producer using properties:"
 						+ kakfaProps.toString());
 
-				ProducerConfig kafkaConfig = new ProducerConfig(kakfaProps);
-				producer = new Producer<String, String>(kafkaConfig);
+				producer = new KafkaProducer<String, String>(kakfaProps,
+						new StringSerializer(), new StringSerializer());
 				initDone = true;
 			}
 		} catch (Throwable t) {
@@ -83,70 +133,61 @@ public class KafkaAuditProvider extends AuditDestination {
 	}
 
 	@Override
-	public boolean log(AuditEventBase event) {
-		if (event instanceof AuthzAuditEvent) {
-			AuthzAuditEvent authzEvent = (AuthzAuditEvent) event;
-
-			if (authzEvent.getAgentHostname() == null) {
-				authzEvent.setAgentHostname(MiscUtil.getHostname());
-			}
-
-			if (authzEvent.getLogType() == null) {
-				authzEvent.setLogType("RangerAudit");
-			}
+	public boolean log(Collection<AuditEventBase> events) {
+		logStatusIfRequired();
+		addTotalCount(events.size());
 
-			if (authzEvent.getEventId() == null) {
-				authzEvent.setEventId(MiscUtil.generateUniqueId());
+		if (producer == null) {
+			for (AuditEventBase event : events) {
+				LOG.info("AUDIT LOG (Kafka Down):" + MiscUtil.stringify(event));
 			}
+			addDeferredCount(events.size());
+			return parentQueue == null;
 		}
 
-		String message = MiscUtil.stringify(event);
-		try {
-
-			if (producer != null) {
-				// TODO: Add partition key
-				KeyedMessage<String, String> keyedMessage = new KeyedMessage<String, String>(
+		List<AuditEventBase> eventList = new ArrayList<AuditEventBase>(events);
+		for (int i = 0; i < eventList.size(); i++) {
+			AuditEventBase event = eventList.get(i);
+			String message = toMessage(event);
+			try {
+				ProducerRecord<String, String> record = new ProducerRecord<String, String>(
 						topic, message);
-				producer.send(keyedMessage);
-			} else {
-				LOG.info("AUDIT LOG (Kafka Down):" + message);
-			}
-		} catch (Throwable t) {
-			LOG.error("Error sending message to Kafka topic. topic=" + topic
-					+ ", message=" + message, t);
-			return false;
-		}
-		return true;
-	}
+				pendingCount.incrementAndGet();
+				producer.send(record, new SendCallback(event));
+			} catch (Throwable t) {
+				pendingCount.decrementAndGet();
+				LOG.error("Error sending message to Kafka topic. topic="
+						+ topic + ", message=" + message, t);
 
-	@Override
-	public boolean log(Collection<AuditEventBase> events) {
-		for (AuditEventBase event : events) {
-			log(event);
+				// Events before this one are already with the producer, so
+				// only the rest of the batch is handed back
+				List<AuditEventBase> unsent = eventList.subList(i,
+						eventList.size());
+				if (parentQueue != null) {
+					parentQueue.logFailedBatch(new ArrayList<AuditEventBase>(
+							unsent));
+				} else {
+					addFailedCount(unsent.size());
+					logFailedEvent(unsent, t);
+				}
+				break;
+			}
 		}
 		return true;
 	}
 
-	@Override
-	public boolean logJSON(String event) {
-		AuditEventBase eventObj = MiscUtil.fromJson(event,
-				AuthzAuditEvent.class);
-		return log(eventObj);
-	}
-
-	@Override
-	public boolean logJSON(Collection<String> events) {
-		for (String event : events) {
-			logJSON(event);
-		}
-		return false;
-	}
-
 	@Override
 	public void start() {
 		LOG.info("start() called");
-		// TODO Auto-generated method stub
+		super.start();
 
+		if (parentQueue != null) {
+			failedEventsExecutor = Executors
+					.newSingleThreadExecutor(new ThreadFactoryBuilder()
+							.setDaemon(true)
+							.setNameFormat("KafkaAuditProvider-failed-%d")
+							.build());
+		}
 	}
 
 	@Override
@@ -154,20 +195,52 @@ public class KafkaAuditProvider extends AuditDestination {
 		LOG.info("stop() called");
 		if (producer != null) {
 			try {
+				// close() waits for the pending sends to complete
 				producer.close();
 			} catch (Throwable t) {
 				LOG.error("Error closing Kafka producer");
 			}
 		}
+
+		ExecutorService executor = failedEventsExecutor;
+		if (executor != null) {
+			executor.shutdown();
+			try {
+				if (!executor.awaitTermination(
+						AuditQueue.AUDIT_CONSUMER_THREAD_WAIT_MS,
+						TimeUnit.MILLISECONDS)) {
+					LOG.warn("Timed out handing back failed Kafka sends. pendingCount="
+							+ pendingCount.get());
+				}
+			} catch (InterruptedException e) {
+				LOG.info("Interrupted while handing back failed Kafka sends. Shutdown might be in progress");
+			}
+		}
+		logStatus();
 	}
 
 	@Override
 	public void waitToComplete() {
 		LOG.info("waitToComplete() called");
+		waitToComplete(-1);
 	}
 	
 	@Override
 	public void waitToComplete(long timeout) {
+		long startTime = System.currentTimeMillis();
+		while (pendingCount.get() > 0) {
+			if (timeout > 0
+					&& (System.currentTimeMillis() - startTime > timeout)) {
+				LOG.warn("Timed out waiting for Kafka sends to complete. pendingCount="
+						+ pendingCount.get());
+				break;
+			}
+			try {
+				Thread.sleep(100);
+			} catch (InterruptedException e) {
+				break;
+			}
+		}
 	}
 
 	@Override
@@ -180,4 +253,154 @@ public class KafkaAuditProvider extends AuditDestination {
 		return true;
 	}
 
+	/**
+	 * With a parent queue, events are counted as delivered once the broker
+	 * acknowledged them, rather than when log() returns
+	 */
+	@Override
+	public boolean isReportingDelivery() {
+		return parentQueue != null;
+	}
+
+	void setProducer(Producer<String, String> producer) {
+		this.producer = producer;
+		this.initDone = producer != null;
+	}
+
+	long getPendingCount() {
+		return pendingCount.get();
+	}
+
+	private void handOffFailedEvent(AuditEventBase event) {
+		failedEvents.add(event);
+
+		ExecutorService executor = failedEventsExecutor;
+		if (executor != null
+				&& isFailedEventsHandOffScheduled.compareAndSet(false, true)) {
+			try {
+				executor.execute(new Runnable() {
+					@Override
+					public void run() {
+						handBackFailedEvents();
+					}
+				});
+				return;
+			} catch (Throwable t) {
+				isFailedEventsHandOffScheduled.set(false);
+				LOG.error("Error scheduling hand back of failed Kafka sends", t);
+			}
+		} else if (executor != null) {
+			// The scheduled hand back picks this event up
+			return;
+		}
+
+		// Not started or already stopped. Nothing may be waiting on the
+		// parent queue anymore, so count the events as failed
+		AuditEventBase failedEvent;
+		while ((failedEvent = failedEvents.poll()) != null) {
+			addFailedCount(1);
+			logFailedEvent(failedEvent, "Kafka send failed");
+			pendingCount.decrementAndGet();
+		}
+	}
+
+	private void handBackFailedEvents() {
+		while (true) {
+			isFailedEventsHandOffScheduled.set(false);
+
+			List<AuditEventBase> batch = new ArrayList<AuditEventBase>();
+			AuditEventBase failedEvent;
+			while ((failedEvent = failedEvents.poll()) != null) {
+				batch.add(failedEvent);
+			}
+			if (!batch.isEmpty()) {
+				try {
+					parentQueue.logFailedBatch(batch);
+				} catch (Throwable t) {
+					LOG.error("Error handing back failed Kafka sends", t);
+				} finally {
+					pendingCount.addAndGet(-batch.size());
+				}
+			}
+
+			// Events added after the poll loop are picked up again unless
+			// another hand back got scheduled for them
+			if (failedEvents.isEmpty()
+					|| !isFailedEventsHandOffScheduled.compareAndSet(false,
+							true)) {
+				break;
+			}
+		}
+	}
+
+	private String toMessage(AuditEventBase event) {
+		if (event instanceof AuthzAuditEvent) {
+			AuthzAuditEvent authzEvent = (AuthzAuditEvent) event;
+
+			if (authzEvent.getAgentHostname() == null) {
+				authzEvent.setAgentHostname(MiscUtil.getHostname());
+			}
+
+			if (authzEvent.getLogType() == null) {
+				authzEvent.setLogType("RangerAudit");
+			}
+
+			if (authzEvent.getEventId() == null) {
+				authzEvent.setEventId(MiscUtil.generateUniqueId());
+			}
+		}
+
+		return MiscUtil.stringify(event);
+	}
+
+	/**
+	 * Properties can be given under the destination prefix
+	 * (xasecure.audit.destination.kafka.*) or the legacy xasecure.audit.kafka.*
+	 * names
+	 */
+	private String getKafkaPropertyName(String name) {
+		if (!PROP_DEFAULT_PREFIX.equals(propPrefix)
+				&& MiscUtil.getStringProperty(props, propPrefix + "." + name) != null) {
+			return propPrefix + "." + name;
+		}
+		return LEGACY_PROP_PREFIX + "." + name;
+	}
+
+	private String getKafkaProperty(String name) {
+		return MiscUtil.getStringProperty(props, getKafkaPropertyName(name));
+	}
+
+	class SendCallback implements Callback {
+		final AuditEventBase event;
+
+		SendCallback(AuditEventBase event) {
+			this.event = event;
+		}
+
+		@Override
+		public void onCompletion(RecordMetadata metadata, Exception exception) {
+			// Runs on the producer I/O thread
+			boolean isHandedOff = false;
+			try {
+				if (exception == null) {
+					addSuccessCount(1);
+					if (parentQueue != null) {
+						parentQueue.logDeliveredBatch(Collections
+								.singletonList(event));
+					}
+				} else if (parentQueue != null) {
+					addDeferredCount(1);
+					handOffFailedEvent(event);
+					isHandedOff = true;
+				} else {
+					addFailedCount(1);
+					logFailedEvent(event, exception);
+				}
+			} finally {
+				if (!isHandedOff) {
+					pendingCount.decrementAndGet();
+				}
+			}
+		}
+	}
 }
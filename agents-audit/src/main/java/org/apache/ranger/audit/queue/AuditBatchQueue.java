@@ -331,7 +331,9 @@ public class AuditBatchQueue extends AuditQueue implements Runnable {
 					}
 				} else {
 					isDestActive = true;
-					addSuccessCount(localBatchBuffer.size());
+					if (!isConsumerReportingDelivery()) {
+						addSuccessCount(localBatchBuffer.size());
+					}
 				}
 				localBatchBuffer.clear();
 			}
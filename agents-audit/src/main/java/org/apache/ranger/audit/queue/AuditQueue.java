@@ -19,11 +19,13 @@
 
 package org.apache.ranger.audit.queue;
 
+import java.util.Collection;
 import java.util.Properties;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.ranger.audit.destination.AuditDestination;
+import org.apache.ranger.audit.model.AuditEventBase;
 import org.apache.ranger.audit.provider.AuditHandler;
 import org.apache.ranger.audit.provider.BaseAuditHandler;
 import org.apache.ranger.audit.provider.MiscUtil;
@@ -80,6 +82,7 @@ public abstract class AuditQueue extends BaseAuditHandler {
 			// If consumer is destination, then the thread should run as server
 			// user
 			isConsumerDestination = true;
+			((AuditDestination) consumer).setParentQueue(this);
 		}
 	}
 
@@ -153,6 +156,42 @@ public abstract class AuditQueue extends BaseAuditHandler {
 		}
 	}
 
+	/**
+	 * Called by the consumer when a batch which was accepted earlier could
+	 * not be delivered. The batch is spooled if spooling is enabled,
+	 * otherwise it is dropped
+	 */
+	public void logFailedBatch(Collection<AuditEventBase> events) {
+		if (fileSpoolerEnabled) {
+			fileSpooler.stashLogs(events);
+			addStashedCount(events.size());
+		} else {
+			addFailedCount(events.size());
+			logFailedEvent(events);
+		}
+	}
+
+	/**
+	 * Called by a consumer which reports delivery, once events it accepted
+	 * have been delivered
+	 */
+	public void logDeliveredBatch(Collection<AuditEventBase> events) {
+		addSuccessCount(events.size());
+	}
+
+	/**
+	 * Called by a consumer which reports delivery, for events it accepted
+	 * and dropped because they can never be delivered
+	 */
+	public void logDroppedBatch(Collection<AuditEventBase> events) {
+		addFailedCount(events.size());
+	}
+
+	public boolean isConsumerReportingDelivery() {
+		return isConsumerDestination
+				&& ((AuditDestination) consumer).isReportingDelivery();
+	}
+
 	public AuditHandler getConsumer() {
 		return consumer;
 	}
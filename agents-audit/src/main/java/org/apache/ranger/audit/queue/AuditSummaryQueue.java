@@ -139,6 +139,32 @@ public class AuditSummaryQueue extends AuditQueue implements Runnable {
 		consumerThread = null;
 	}
 
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.apache.ranger.audit.provider.AuditProvider#waitToComplete(long)
+	 */
+	@Override
+	public void waitToComplete(long timeout) {
+		setDrain(true);
+		Thread thread = consumerThread;
+		if (thread != null) {
+			thread.interrupt();
+			try {
+				// the consumer thread exits after logging the summaries
+				thread.join(timeout > 0 ? timeout : 0);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			if (thread.isAlive()) {
+				logger.warn("Timed out waiting for consumerThread. name="
+						+ getName() + ", queue.size=" + queue.size()
+						+ ", timeout=" + timeout + " ms");
+			}
+		}
+		super.waitToComplete(timeout);
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -0,0 +1,156 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.ranger.audit.destination;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.DriverPropertyInfo;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.SQLNonTransientConnectionException;
+import java.sql.Statement;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * JDBC driver delegating to the driver of the URL following "jdbc:counting:",
+ * which counts the statements sent to the database, and can simulate the
+ * database going down
+ */
+public class CountingJdbcDriver implements Driver {
+	public static final String URL_PREFIX = "jdbc:counting:";
+
+	static final AtomicInteger roundTripCount = new AtomicInteger();
+	static final AtomicInteger insertRoundTripCount = new AtomicInteger();
+	static volatile boolean isDown = false;
+
+	static {
+		try {
+			DriverManager.registerDriver(new CountingJdbcDriver());
+		} catch (SQLException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	static void reset() {
+		roundTripCount.set(0);
+		insertRoundTripCount.set(0);
+		isDown = false;
+	}
+
+	@Override
+	public Connection connect(String url, Properties info) throws SQLException {
+		if (!acceptsURL(url)) {
+			return null;
+		}
+		if (isDown) {
+			throw new SQLNonTransientConnectionException("database is down",
+					"08001");
+		}
+		Connection conn = DriverManager.getConnection(
+				"jdbc:" + url.substring(URL_PREFIX.length()), info);
+
+		return (Connection) wrap(conn, Connection.class, null);
+	}
+
+	@Override
+	public boolean acceptsURL(String url) {
+		return url != null && url.startsWith(URL_PREFIX);
+	}
+
+	@Override
+	public DriverPropertyInfo[] getPropertyInfo(String url, Properties info) {
+		return new DriverPropertyInfo[0];
+	}
+
+	@Override
+	public int getMajorVersion() {
+		return 1;
+	}
+
+	@Override
+	public int getMinorVersion() {
+		return 0;
+	}
+
+	@Override
+	public boolean jdbcCompliant() {
+		return false;
+	}
+
+	public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+		throw new SQLFeatureNotSupportedException();
+	}
+
+	private static Object wrap(final Object target, Class<?> iface,
+			final String sql) {
+		return Proxy.newProxyInstance(CountingJdbcDriver.class.getClassLoader(),
+				new Class<?>[] { iface }, new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method,
+							Object[] args) throws Throwable {
+						String name = method.getName();
+
+						if (isDown && !name.equals("close")
+								&& !name.equals("isClosed")) {
+							throw new SQLNonTransientConnectionException(
+									"connection lost", "08006");
+						}
+						if (name.startsWith("execute")) {
+							roundTripCount.incrementAndGet();
+
+							String stmtSql = sql;
+							if (stmtSql == null && args != null
+									&& args.length > 0
+									&& args[0] instanceof String) {
+								stmtSql = (String) args[0];
+							}
+							if (stmtSql != null
+									&& stmtSql.trim().toUpperCase()
+											.startsWith("INSERT")) {
+								insertRoundTripCount.incrementAndGet();
+							}
+						}
+
+						Object ret;
+						try {
+							ret = method.invoke(target, args);
+						} catch (InvocationTargetException e) {
+							throw e.getCause();
+						}
+
+						if (ret instanceof Statement
+								&& Statement.class.isAssignableFrom(method
+										.getReturnType())) {
+							String stmtSql = (args != null && args.length > 0 && args[0] instanceof String) ? (String) args[0]
+									: null;
+							return wrap(ret, method.getReturnType(), stmtSql);
+						}
+						return ret;
+					}
+				});
+	}
+}
@@ -0,0 +1,81 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.ranger.audit.destination;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.apache.ranger.audit.model.AuditEventBase;
+import org.apache.ranger.audit.provider.AuditHandler;
+import org.apache.ranger.audit.queue.AuditBatchQueue;
+
+/**
+ * Batch queue recording the events handed back by its destination
+ */
+public class RecordingAuditQueue extends AuditBatchQueue {
+	final List<AuditEventBase> failedEvents = new ArrayList<AuditEventBase>();
+	final List<Thread> failedBatchThreads = new ArrayList<Thread>();
+
+	public RecordingAuditQueue(AuditHandler consumer) {
+		super(consumer);
+	}
+
+	@Override
+	public void logFailedBatch(Collection<AuditEventBase> events) {
+		synchronized (failedEvents) {
+			failedEvents.addAll(events);
+			failedBatchThreads.add(Thread.currentThread());
+		}
+		super.logFailedBatch(events);
+	}
+
+	public List<AuditEventBase> getFailedEvents() {
+		synchronized (failedEvents) {
+			return new ArrayList<AuditEventBase>(failedEvents);
+		}
+	}
+
+	/**
+	 * Threads logFailedBatch() was called on
+	 */
+	public List<Thread> getFailedBatchThreads() {
+		synchronized (failedEvents) {
+			return new ArrayList<Thread>(failedBatchThreads);
+		}
+	}
+
+	/**
+	 * Waits for the given number of events to be counted as delivered,
+	 * dropped or handed back
+	 */
+	public boolean waitForCount(long count, long timeoutMs)
+			throws InterruptedException {
+		long endTime = System.currentTimeMillis() + timeoutMs;
+		while (getTotalSuccessCount() + getTotalFailedCount()
+				+ getTotalStashedCount() < count) {
+			if (System.currentTimeMillis() > endTime) {
+				return false;
+			}
+			Thread.sleep(10);
+		}
+		return true;
+	}
+}
@@ -0,0 +1,272 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.ranger.audit.destination;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Properties;
+import java.util.UUID;
+
+import org.apache.ranger.audit.dao.DaoManager;
+import org.apache.ranger.audit.model.AuditEventBase;
+import org.apache.ranger.audit.model.AuthzAuditEvent;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Writes to an in-memory Derby database, through CountingJdbcDriver
+ */
+public class TestDBAuditDestination {
+	static final String PROP_PREFIX = "xasecure.audit.destination.db";
+	// the tables are created in the schema of the user
+	static final String DB_USER = "audit";
+
+	String derbyUrl;
+	DBAuditDestination destination;
+
+	/**
+	 * Takes the database down the given number of persist() calls from now
+	 */
+	static class OutageEvent extends AuthzAuditEvent {
+		int persistCallsBeforeOutage;
+
+		OutageEvent(String user, int persistCallsBeforeOutage) {
+			setUser(user);
+			setEventTime(new Date());
+			this.persistCallsBeforeOutage = persistCallsBeforeOutage;
+		}
+
+		@Override
+		public void persist(DaoManager daoManager) {
+			if (persistCallsBeforeOutage-- == 0) {
+				CountingJdbcDriver.isDown = true;
+			}
+			super.persist(daoManager);
+		}
+	}
+
+	@BeforeClass
+	public static void setUpClass() {
+		// instead of derby.log in the working directory
+		System.setProperty("derby.stream.error.file", "target/derby.log");
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		Class.forName(CountingJdbcDriver.class.getName());
+		CountingJdbcDriver.reset();
+
+		derbyUrl = "derby:memory:audit" + UUID.randomUUID().toString().replace("-", "");
+
+		Connection conn = DriverManager.getConnection("jdbc:" + derbyUrl + ";create=true", DB_USER, DB_USER);
+		try {
+			Statement stmt = conn.createStatement();
+			stmt.execute("CREATE TABLE xa_access_audit (id BIGINT NOT NULL PRIMARY KEY,"
+					+ " repo_type INT, repo_name VARCHAR(255), request_user VARCHAR(255),"
+					+ " event_time TIMESTAMP, access_type VARCHAR(255), resource_path VARCHAR(4000),"
+					+ " resource_type VARCHAR(255), action VARCHAR(2000), access_result INT,"
+					+ " agent_id VARCHAR(255), policy_id BIGINT, result_reason VARCHAR(255),"
+					+ " acl_enforcer VARCHAR(255), session_id VARCHAR(255), client_type VARCHAR(255),"
+					+ " client_ip VARCHAR(255), request_data VARCHAR(4000))");
+			stmt.execute("CREATE SEQUENCE XA_ACCESS_AUDIT_SEQ AS BIGINT START WITH 1");
+			stmt.close();
+		} finally {
+			conn.close();
+		}
+	}
+
+	@After
+	public void tearDown() {
+		CountingJdbcDriver.isDown = false;
+		if (destination != null) {
+			destination.stop();
+		}
+	}
+
+	@Test
+	public void testBatchWritingReducesRoundTrips() throws Exception {
+		int eventCount = 500;
+		int batchSize = 100;
+
+		destination = createDestination(1, 0);
+		CountingJdbcDriver.reset();
+		for (int i = 0; i < eventCount; i += batchSize) {
+			Assert.assertTrue(destination.log(createEvents("user", batchSize)));
+		}
+		int unbatchedRoundTrips = CountingJdbcDriver.roundTripCount.get();
+		int unbatchedInserts = CountingJdbcDriver.insertRoundTripCount.get();
+		destination.stop();
+
+		destination = createDestination(batchSize, 0);
+		CountingJdbcDriver.reset();
+		for (int i = 0; i < eventCount; i += batchSize) {
+			Assert.assertTrue(destination.log(createEvents("user", batchSize)));
+		}
+		int batchedRoundTrips = CountingJdbcDriver.roundTripCount.get();
+		int batchedInserts = CountingJdbcDriver.insertRoundTripCount.get();
+
+		Assert.assertEquals(2 * eventCount, getRowCount());
+		Assert.assertEquals(eventCount, unbatchedInserts);
+		// one statement batch per transaction
+		Assert.assertEquals(eventCount / batchSize, batchedInserts);
+		// ids still take a round trip per event
+		Assert.assertTrue("batched=" + batchedRoundTrips + ", unbatched="
+				+ unbatchedRoundTrips,
+				batchedRoundTrips <= unbatchedRoundTrips - eventCount
+						+ eventCount / batchSize);
+	}
+
+	@Test
+	public void testBadEventIsDroppedWithoutRetry() throws Exception {
+		// a retry would sleep for a minute
+		destination = createDestination(100, 60 * 1000);
+		RecordingAuditQueue queue = new RecordingAuditQueue(destination);
+
+		List<AuditEventBase> events = createEvents("user", 10);
+		events.add(5, createEvent(createLongString(300)));
+
+		long startTime = System.currentTimeMillis();
+		Assert.assertTrue(destination.log(events));
+		Assert.assertTrue(System.currentTimeMillis() - startTime < 30 * 1000);
+
+		Assert.assertEquals(10, getRowCount());
+		Assert.assertEquals(10, destination.getTotalSuccessCount());
+		Assert.assertEquals(1, destination.getTotalFailedCount());
+		Assert.assertEquals(10, queue.getTotalSuccessCount());
+		Assert.assertEquals(1, queue.getTotalFailedCount());
+		Assert.assertTrue(queue.getFailedEvents().isEmpty());
+	}
+
+	@Test
+	public void testDatabaseDownDuringFallbackHandsBackRemainingEvents()
+			throws Exception {
+		destination = createDestination(100, 10);
+		RecordingAuditQueue queue = new RecordingAuditQueue(destination);
+
+		AuditEventBase good1 = createEvent("good1");
+		AuditEventBase bad = createEvent(createLongString(300));
+		// persisted once in the failed batch, then goes down when written
+		// on its own
+		AuditEventBase outage = new OutageEvent("outage", 1);
+		AuditEventBase good2 = createEvent("good2");
+		AuditEventBase good3 = createEvent("good3");
+
+		Assert.assertTrue(destination.log(Arrays.asList(good1, bad, outage,
+				good2, good3)));
+
+		Assert.assertEquals(Arrays.asList(outage, good2, good3),
+				queue.getFailedEvents());
+		Assert.assertEquals(1, destination.getTotalSuccessCount());
+		Assert.assertEquals(1, destination.getTotalFailedCount());
+		Assert.assertEquals(3, destination.getTotalDeferredCount());
+		Assert.assertEquals(1, queue.getTotalSuccessCount());
+		// not spooled, as the queue has no file spool
+		Assert.assertEquals(1 + 3, queue.getTotalFailedCount());
+
+		CountingJdbcDriver.isDown = false;
+		Assert.assertEquals(1, getRowCount());
+	}
+
+	@Test
+	public void testDatabaseDownDefersBatchAfterRetries() throws Exception {
+		destination = createDestination(100, 10);
+		RecordingAuditQueue queue = new RecordingAuditQueue(destination);
+		CountingJdbcDriver.isDown = true;
+
+		Assert.assertFalse(destination.log(createEvents("user", 10)));
+		Assert.assertEquals(10, destination.getTotalDeferredCount());
+		Assert.assertEquals(0, destination.getTotalFailedCount());
+		// the queue spools or drops the whole batch on false
+		Assert.assertTrue(queue.getFailedEvents().isEmpty());
+
+		CountingJdbcDriver.isDown = false;
+		Assert.assertTrue(destination.log(createEvents("user", 10)));
+		Assert.assertEquals(10, getRowCount());
+	}
+
+	private DBAuditDestination createDestination(int batchWriteSize,
+			int retrySleepMs) {
+		Properties props = new Properties();
+		props.setProperty(PROP_PREFIX + "." + DBAuditDestination.PROP_DB_JDBC_DRIVER,
+				CountingJdbcDriver.class.getName());
+		props.setProperty(PROP_PREFIX + "." + DBAuditDestination.PROP_DB_JDBC_URL,
+				CountingJdbcDriver.URL_PREFIX + derbyUrl);
+		props.setProperty(PROP_PREFIX + "." + DBAuditDestination.PROP_DB_USER, DB_USER);
+		props.setProperty(PROP_PREFIX + "." + DBAuditDestination.PROP_DB_PASSWORD, DB_USER);
+		props.setProperty(PROP_PREFIX + "." + DBAuditDestination.PROP_DB_BATCH_WRITE_SIZE,
+				Integer.toString(batchWriteSize));
+		props.setProperty(PROP_PREFIX + "." + DBAuditDestination.PROP_DB_RETRY_TIMES, "2");
+		props.setProperty(PROP_PREFIX + "." + DBAuditDestination.PROP_DB_RETRY_SLEEP_MS,
+				Integer.toString(retrySleepMs));
+
+		DBAuditDestination ret = new DBAuditDestination();
+		ret.init(props, PROP_PREFIX);
+		return ret;
+	}
+
+	private List<AuditEventBase> createEvents(String user, int count) {
+		List<AuditEventBase> ret = new ArrayList<AuditEventBase>();
+		for (int i = 0; i < count; i++) {
+			ret.add(createEvent(user + i));
+		}
+		return ret;
+	}
+
+	private AuditEventBase createEvent(String user) {
+		AuthzAuditEvent ret = new AuthzAuditEvent();
+		ret.setUser(user);
+		ret.setEventTime(new Date());
+		ret.setAccessType("read");
+		ret.setResourcePath("/tmp/" + user);
+		ret.setAccessResult((short) 1);
+		return ret;
+	}
+
+	private static String createLongString(int length) {
+		StringBuilder sb = new StringBuilder();
+		while (sb.length() < length) {
+			sb.append('x');
+		}
+		return sb.toString();
+	}
+
+	private int getRowCount() throws Exception {
+		Connection conn = DriverManager.getConnection("jdbc:" + derbyUrl, DB_USER, DB_USER);
+		try {
+			Statement stmt = conn.createStatement();
+			ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM xa_access_audit");
+			rs.next();
+			int ret = rs.getInt(1);
+			stmt.close();
+			return ret;
+		} finally {
+			conn.close();
+		}
+	}
+}
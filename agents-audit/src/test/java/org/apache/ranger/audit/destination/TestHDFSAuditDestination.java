@@ -0,0 +1,167 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.ranger.audit.destination;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Properties;
+import java.util.UUID;
+
+import org.apache.ranger.audit.model.AuditEventBase;
+import org.apache.ranger.audit.model.AuthzAuditEvent;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestHDFSAuditDestination {
+	static final String PROP_PREFIX = "xasecure.audit.destination.hdfs";
+
+	File logDir;
+	HDFSAuditDestination destination;
+	RecordingAuditQueue queue;
+
+	@Before
+	public void setUp() {
+		logDir = new File("target/test-hdfs-audit/"
+				+ UUID.randomUUID().toString()).getAbsoluteFile();
+
+		Properties props = new Properties();
+		props.setProperty(PROP_PREFIX + "."
+				+ HDFSAuditDestination.PROP_HDFS_DIR, logDir.toURI()
+				.toString());
+		props.setProperty(PROP_PREFIX + "."
+				+ HDFSAuditDestination.PROP_HDFS_SUBDIR, "audit");
+		props.setProperty(PROP_PREFIX + "."
+				+ HDFSAuditDestination.PROP_HDFS_FILE_NAME_FORMAT, "audit.log");
+		// flush only when asked to
+		props.setProperty(PROP_PREFIX + "."
+				+ HDFSAuditDestination.PROP_HDFS_FLUSH_SIZE,
+				String.valueOf(64 * 1024 * 1024));
+		props.setProperty(PROP_PREFIX + "."
+				+ HDFSAuditDestination.PROP_HDFS_FLUSH_INTERVAL,
+				String.valueOf(60 * 60 * 1000));
+
+		destination = new HDFSAuditDestination();
+		destination.init(props, PROP_PREFIX);
+		queue = new RecordingAuditQueue(destination);
+		destination.start();
+	}
+
+	@After
+	public void tearDown() {
+		destination.stop();
+	}
+
+	@Test
+	public void testEventsAreCountedOnceWritten() throws Exception {
+		for (int i = 0; i < 3; i++) {
+			Assert.assertTrue(destination.log(createEvents(100)));
+		}
+		Assert.assertTrue(queue.isConsumerReportingDelivery());
+		Assert.assertEquals(0, destination.getTotalSuccessCount());
+		Assert.assertEquals(0, queue.getTotalSuccessCount());
+
+		destination.flush();
+		Assert.assertEquals(300, destination.getTotalSuccessCount());
+		Assert.assertEquals(300, queue.getTotalSuccessCount());
+
+		Assert.assertTrue(destination.log(createEvents(50)));
+		destination.stop();
+
+		// everything is in the file once it is closed
+		Assert.assertEquals(350, getLineCount());
+		Assert.assertEquals(350, destination.getTotalSuccessCount());
+		Assert.assertEquals(350, queue.getTotalSuccessCount());
+		Assert.assertEquals(0, queue.getTotalFailedCount());
+	}
+
+	@Test
+	public void testWriteErrorHandsBackUnflushedEvents() throws Exception {
+		List<AuditEventBase> events = createEvents(10);
+		Assert.assertTrue(destination.log(events));
+
+		PrintWriter fileWriter = destination.logWriter;
+		destination.logStream = null;
+		destination.logWriter = new PrintWriter(new OutputStreamWriter(
+				new OutputStream() {
+					@Override
+					public void write(int b) throws IOException {
+						throw new IOException("No space left on device");
+					}
+				}));
+		fileWriter.close();
+
+		List<AuditEventBase> failingEvents = createEvents(10);
+		Assert.assertTrue(destination.log(failingEvents));
+		destination.flush();
+
+		events.addAll(failingEvents);
+		Assert.assertEquals(events, queue.getFailedEvents());
+		Assert.assertEquals(0, destination.getTotalSuccessCount());
+		Assert.assertEquals(20, destination.getTotalDeferredCount());
+
+		// The next write goes to a new file
+		Assert.assertTrue(destination.log(createEvents(5)));
+		destination.flush();
+		Assert.assertEquals(5, destination.getTotalSuccessCount());
+		Assert.assertEquals(5, queue.getTotalSuccessCount());
+		Assert.assertEquals(20, queue.getTotalFailedCount());
+	}
+
+	int getLineCount() throws IOException {
+		int ret = 0;
+		File[] files = new File(logDir, "audit").listFiles();
+		for (File file : files) {
+			if (!file.getName().endsWith(".log")) {
+				continue;
+			}
+			BufferedReader reader = new BufferedReader(new FileReader(file));
+			try {
+				while (reader.readLine() != null) {
+					ret++;
+				}
+			} finally {
+				reader.close();
+			}
+		}
+		return ret;
+	}
+
+	List<AuditEventBase> createEvents(int count) {
+		List<AuditEventBase> ret = new ArrayList<AuditEventBase>();
+		for (int i = 0; i < count; i++) {
+			AuthzAuditEvent event = new AuthzAuditEvent();
+			event.setEventId(UUID.randomUUID().toString());
+			event.setUser("user" + i);
+			event.setEventTime(new Date());
+			ret.add(event);
+		}
+		return ret;
+	}
+}
@@ -0,0 +1,223 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.ranger.audit.destination;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.ranger.audit.model.AuditEventBase;
+import org.apache.ranger.audit.model.AuthzAuditEvent;
+import org.apache.ranger.audit.queue.AuditQueue;
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.SolrRequest;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.request.UpdateRequest;
+import org.apache.solr.common.SolrException;
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.util.NamedList;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestSolrAuditDestination {
+	static final String PROP_PREFIX = "xasecure.audit.destination.solr";
+	static final String QUEUE_PROP_PREFIX = PROP_PREFIX + ".batch";
+
+	static final String USER_SOLR_DOWN = "solrDown";
+	static final String USER_REJECTED = "rejected";
+
+	SolrAuditDestination destination;
+	RecordingAuditQueue queue;
+
+	/**
+	 * Slow Solr which fails the batches carrying a marked user
+	 */
+	static class FakeSolrClient extends SolrClient {
+		private static final long serialVersionUID = 1L;
+
+		final long latencyMs;
+		final AtomicInteger inflightBatches = new AtomicInteger();
+		final AtomicInteger inflightDocs = new AtomicInteger();
+		final AtomicInteger maxInflightBatches = new AtomicInteger();
+		final AtomicInteger maxInflightDocs = new AtomicInteger();
+		final AtomicInteger requestCount = new AtomicInteger();
+
+		FakeSolrClient(long latencyMs) {
+			this.latencyMs = latencyMs;
+		}
+
+		@Override
+		public NamedList<Object> request(SolrRequest request)
+				throws SolrServerException, IOException {
+			List<SolrInputDocument> docs = ((UpdateRequest) request)
+					.getDocuments();
+			requestCount.incrementAndGet();
+			updateMax(maxInflightBatches, inflightBatches.incrementAndGet());
+			updateMax(maxInflightDocs, inflightDocs.addAndGet(docs.size()));
+			try {
+				Thread.sleep(latencyMs);
+				for (SolrInputDocument doc : docs) {
+					Object user = doc.getFieldValue("reqUser");
+					if (USER_SOLR_DOWN.equals(user)) {
+						throw new IOException("Connection refused");
+					}
+					if (USER_REJECTED.equals(user)) {
+						throw new SolrException(
+								SolrException.ErrorCode.BAD_REQUEST,
+								"Bad document");
+					}
+				}
+			} catch (InterruptedException e) {
+				throw new IOException(e);
+			} finally {
+				inflightDocs.addAndGet(-docs.size());
+				inflightBatches.decrementAndGet();
+			}
+			return new NamedList<Object>();
+		}
+
+		@Override
+		public void shutdown() {
+		}
+
+		static void updateMax(AtomicInteger max, int value) {
+			int current = max.get();
+			while (value > current && !max.compareAndSet(current, value)) {
+				current = max.get();
+			}
+		}
+	}
+
+	@After
+	public void tearDown() {
+		if (queue != null) {
+			queue.stop();
+		} else if (destination != null) {
+			destination.stop();
+		}
+	}
+
+	@Test
+	public void testSlowSolrIsSentBatchesConcurrently() throws Exception {
+		int eventCount = 1000;
+		int batchSize = 50;
+		int maxInflightDocs = 3 * batchSize;
+
+		Properties props = new Properties();
+		props.setProperty(PROP_PREFIX + "."
+				+ SolrAuditDestination.PROP_SOLR_MAX_INFLIGHT_BATCHES, "4");
+		props.setProperty(PROP_PREFIX + "."
+				+ SolrAuditDestination.PROP_SOLR_MAX_INFLIGHT_DOCS,
+				String.valueOf(maxInflightDocs));
+		props.setProperty(QUEUE_PROP_PREFIX + "." + AuditQueue.PROP_BATCH_SIZE,
+				String.valueOf(batchSize));
+		props.setProperty(QUEUE_PROP_PREFIX + "."
+				+ AuditQueue.PROP_BATCH_INTERVAL, "100");
+
+		FakeSolrClient solr = new FakeSolrClient(100);
+		destination = createDestination(props, solr);
+		queue = new RecordingAuditQueue(destination);
+		queue.init(props, QUEUE_PROP_PREFIX);
+		queue.start();
+
+		for (AuditEventBase event : createEvents("user", eventCount)) {
+			queue.log(event);
+		}
+
+		Assert.assertTrue(queue.waitForCount(eventCount, 60 * 1000));
+		Assert.assertEquals(eventCount, queue.getTotalSuccessCount());
+		Assert.assertEquals(0, queue.getTotalFailedCount());
+		Assert.assertEquals(eventCount, destination.getTotalSuccessCount());
+		Assert.assertTrue("maxInflightBatches="
+				+ solr.maxInflightBatches.get(),
+				solr.maxInflightBatches.get() > 1);
+		Assert.assertTrue("maxInflightDocs=" + solr.maxInflightDocs.get(),
+				solr.maxInflightDocs.get() <= maxInflightDocs);
+	}
+
+	@Test
+	public void testFailedBatchIsHandedBackOnceAcknowledged() throws Exception {
+		destination = createDestination(new Properties(),
+				new FakeSolrClient(50));
+		RecordingAuditQueue parentQueue = new RecordingAuditQueue(destination);
+		destination.start();
+
+		List<AuditEventBase> good = createEvents("user", 10);
+		List<AuditEventBase> solrDown = createEvents(USER_SOLR_DOWN, 10);
+		List<AuditEventBase> rejected = createEvents(USER_REJECTED, 10);
+
+		// The send outcome is not known yet, so nothing is counted here
+		Assert.assertTrue(parentQueue.isConsumerReportingDelivery());
+		Assert.assertTrue(destination.log(good));
+		Assert.assertTrue(destination.log(solrDown));
+		Assert.assertTrue(destination.log(rejected));
+
+		Assert.assertTrue(parentQueue.waitForCount(30, 10 * 1000));
+		destination.waitToComplete();
+
+		Assert.assertEquals(10, parentQueue.getTotalSuccessCount());
+		// the rejected batch is dropped, the other one handed back
+		Assert.assertEquals(20, parentQueue.getTotalFailedCount());
+		Assert.assertEquals(solrDown, parentQueue.getFailedEvents());
+
+		Assert.assertEquals(10, destination.getTotalSuccessCount());
+		Assert.assertEquals(10, destination.getTotalFailedCount());
+		Assert.assertEquals(10, destination.getTotalDeferredCount());
+	}
+
+	@Test
+	public void testSolrDownFailsBatchWithoutParentQueue() throws Exception {
+		destination = createDestination(new Properties(),
+				new FakeSolrClient(0));
+		destination.start();
+
+		Assert.assertTrue(destination.log(createEvents("user", 10)));
+		Assert.assertFalse(destination.log(createEvents(USER_SOLR_DOWN, 10)));
+		Assert.assertTrue(destination.log(createEvents(USER_REJECTED, 10)));
+
+		Assert.assertEquals(10, destination.getTotalSuccessCount());
+		Assert.assertEquals(10, destination.getTotalFailedCount());
+		Assert.assertEquals(10, destination.getTotalDeferredCount());
+	}
+
+	SolrAuditDestination createDestination(Properties props, SolrClient solr) {
+		SolrAuditDestination ret = new SolrAuditDestination();
+		ret.init(props, PROP_PREFIX);
+		ret.solrClient = solr;
+		return ret;
+	}
+
+	List<AuditEventBase> createEvents(String user, int count) {
+		List<AuditEventBase> ret = new ArrayList<AuditEventBase>();
+		for (int i = 0; i < count; i++) {
+			AuthzAuditEvent event = new AuthzAuditEvent();
+			event.setEventId(UUID.randomUUID().toString());
+			event.setUser(user);
+			event.setEventTime(new Date());
+			ret.add(event);
+		}
+		return ret;
+	}
+}
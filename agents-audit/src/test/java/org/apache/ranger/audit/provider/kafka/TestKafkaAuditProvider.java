@@ -0,0 +1,114 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.ranger.audit.provider.kafka;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.ranger.audit.destination.RecordingAuditQueue;
+import org.apache.ranger.audit.model.AuditEventBase;
+import org.apache.ranger.audit.model.AuthzAuditEvent;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestKafkaAuditProvider {
+	KafkaAuditProvider provider;
+	MockProducer producer;
+
+	@Before
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public void setUp() {
+		// MockProducer takes byte[] records, but never looks into them
+		// unless the topic has partitions
+		producer = new MockProducer(false);
+		provider = new KafkaAuditProvider();
+		provider.topic = "ranger_audits";
+		provider.setProducer((Producer) producer);
+	}
+
+	@After
+	public void tearDown() {
+		provider.stop();
+	}
+
+	@Test
+	public void testEventsAreCountedWhenAcknowledged() throws Exception {
+		RecordingAuditQueue queue = new RecordingAuditQueue(provider);
+		provider.start();
+
+		List<AuditEventBase> events = createEvents(3);
+		Assert.assertTrue(queue.isConsumerReportingDelivery());
+		Assert.assertTrue(provider.log(events));
+		Assert.assertEquals(3, producer.history().size());
+		Assert.assertEquals(0, queue.getTotalSuccessCount());
+		Assert.assertEquals(3, provider.getPendingCount());
+
+		// The test thread stands in for the producer I/O thread
+		Assert.assertTrue(producer.completeNext());
+		Assert.assertTrue(producer.errorNext(new RuntimeException(
+				"Broker down")));
+		Assert.assertTrue(producer.completeNext());
+
+		Assert.assertTrue(queue.waitForCount(3, 10 * 1000));
+		provider.waitToComplete(10 * 1000);
+
+		Assert.assertEquals(0, provider.getPendingCount());
+		Assert.assertEquals(2, queue.getTotalSuccessCount());
+		Assert.assertEquals(1, queue.getTotalFailedCount());
+		Assert.assertEquals(Arrays.asList(events.get(1)),
+				queue.getFailedEvents());
+		Assert.assertEquals(2, provider.getTotalSuccessCount());
+		Assert.assertEquals(1, provider.getTotalDeferredCount());
+
+		// handed back off the producer I/O thread
+		Assert.assertEquals(1, queue.getFailedBatchThreads().size());
+		Assert.assertNotSame(Thread.currentThread(), queue
+				.getFailedBatchThreads().get(0));
+	}
+
+	@Test
+	public void testFailedSendIsCountedWithoutParentQueue() throws Exception {
+		provider.start();
+
+		Assert.assertTrue(provider.log(createEvents(2)));
+		Assert.assertTrue(producer.completeNext());
+		Assert.assertTrue(producer.errorNext(new RuntimeException(
+				"Broker down")));
+		provider.waitToComplete(10 * 1000);
+
+		Assert.assertEquals(0, provider.getPendingCount());
+		Assert.assertEquals(1, provider.getTotalSuccessCount());
+		Assert.assertEquals(1, provider.getTotalFailedCount());
+	}
+
+	List<AuditEventBase> createEvents(int count) {
+		List<AuditEventBase> ret = new ArrayList<AuditEventBase>();
+		for (int i = 0; i < count; i++) {
+			AuthzAuditEvent event = new AuthzAuditEvent();
+			event.setUser("user" + i);
+			event.setEventTime(new Date());
+			ret.add(event);
+		}
+		return ret;
+	}
+}
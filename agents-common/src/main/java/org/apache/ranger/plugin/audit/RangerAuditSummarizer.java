@@ -0,0 +1,346 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.ranger.plugin.audit;
+
+import java.util.Date;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.ranger.audit.model.AuthzAuditEvent;
+import org.apache.ranger.audit.provider.AuditHandler;
+import org.apache.ranger.audit.provider.AuditProviderFactory;
+import org.apache.ranger.authorization.hadoop.config.RangerConfiguration;
+import org.apache.ranger.plugin.policyengine.RangerAccessRequest;
+import org.apache.ranger.plugin.policyengine.RangerAccessResource;
+import org.apache.ranger.plugin.policyengine.RangerAccessResult;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Aggregates identical access decisions before an audit event is created.
+ * The first access for a given decision creates the audit event; repeated
+ * accesses within the summary interval only increment its count. Summaries
+ * are sent to the audit provider when the interval elapses.
+ */
+public class RangerAuditSummarizer {
+	private static final Log LOG = LogFactory.getLog(RangerAuditSummarizer.class);
+
+	public static final String PROP_SUMMARY_ENABLED     = "ranger.plugin.audit.summary.enabled";
+	public static final String PROP_SUMMARY_INTERVAL_MS = "ranger.plugin.audit.summary.interval.ms";
+	public static final String PROP_SUMMARY_MAX_ENTRIES = "ranger.plugin.audit.summary.max.entries";
+
+	public static final long DEFAULT_SUMMARY_INTERVAL_MS = 5 * 1000;
+	public static final int  DEFAULT_SUMMARY_MAX_ENTRIES = 100000;
+
+	private static volatile RangerAuditSummarizer sInstance = null;
+	private static volatile boolean               sInitDone = false;
+
+	private final ConcurrentMap<SummaryKey, Summary> summaries;
+	private final long                              intervalMs;
+	private final int                               maxEntries;
+	private final AuditHandler                      auditHandler;
+	private ScheduledExecutorService                flushTimer = null;
+
+	/**
+	 * @return the process wide summarizer, or null if summarization is not enabled
+	 */
+	public static RangerAuditSummarizer getInstance() {
+		if(! sInitDone) {
+			synchronized(RangerAuditSummarizer.class) {
+				if(! sInitDone) {
+					RangerConfiguration config = RangerConfiguration.getInstance();
+
+					if(config.getBoolean(PROP_SUMMARY_ENABLED, false)) {
+						long intervalMs = config.getLong(PROP_SUMMARY_INTERVAL_MS, DEFAULT_SUMMARY_INTERVAL_MS);
+						int  maxEntries = config.getInt(PROP_SUMMARY_MAX_ENTRIES, DEFAULT_SUMMARY_MAX_ENTRIES);
+
+						RangerAuditSummarizer summarizer = new RangerAuditSummarizer(intervalMs, maxEntries, null);
+
+						summarizer.start();
+
+						sInstance = summarizer;
+					}
+
+					sInitDone = true;
+				}
+			}
+		}
+
+		return sInstance;
+	}
+
+	/**
+	 * @param auditHandler handler to send the summaries to; when null, the provider from AuditProviderFactory is used
+	 */
+	public RangerAuditSummarizer(long intervalMs, int maxEntries, AuditHandler auditHandler) {
+		this.summaries    = new ConcurrentHashMap<SummaryKey, Summary>();
+		this.intervalMs   = intervalMs;
+		this.maxEntries   = maxEntries;
+		this.auditHandler = auditHandler;
+
+		LOG.info("RangerAuditSummarizer(intervalMs=" + intervalMs + ", maxEntries=" + maxEntries + ")");
+	}
+
+	public synchronized void start() {
+		if(flushTimer != null || intervalMs <= 0) {
+			return;
+		}
+
+		flushTimer = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+				.setDaemon(true).setNameFormat("RangerAuditSummarizer-%d").build());
+
+		flushTimer.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					flush();
+				} catch(Throwable t) {
+					LOG.error("RangerAuditSummarizer.flush() failed", t);
+				}
+			}
+		}, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+
+		Runtime.getRuntime().addShutdownHook(new Thread("RangerAuditSummarizer-shutdown") {
+			@Override
+			public void run() {
+				flush();
+			}
+		});
+	}
+
+	public synchronized void stop() {
+		if(flushTimer != null) {
+			flushTimer.shutdownNow();
+			flushTimer = null;
+		}
+
+		flush();
+	}
+
+	/**
+	 * Records the access in the summary table. The audit event is created,
+	 * using the given handler, only for the first access of a decision.
+	 *
+	 * @return false if the table is full and the caller should log the audit event itself
+	 */
+	public boolean summarize(RangerAccessResult result, RangerDefaultAuditHandler handler) {
+		RangerAccessRequest request = result.getAccessRequest();
+
+		if(request == null) {
+			return false;
+		}
+
+		SummaryKey key       = new SummaryKey(result, request);
+		Date       eventTime = request.getAccessTime();
+		long       time      = eventTime != null ? eventTime.getTime() : System.currentTimeMillis();
+
+		while(true) {
+			Summary summary = summaries.get(key);
+
+			if(summary == null) {
+				if(summaries.size() >= maxEntries) {
+					return false;
+				}
+
+				AuthzAuditEvent event = handler.getAuthzEvents(result);
+
+				if(event == null) {
+					return true;
+				}
+
+				summary = new Summary(event, time);
+
+				Summary existing = summaries.putIfAbsent(key, summary);
+
+				if(existing == null) {
+					return true;
+				}
+
+				summary = existing;
+			}
+
+			if(summary.add(time)) {
+				return true;
+			}
+
+			// summary was flushed after we looked it up; start a new one
+		}
+	}
+
+	/**
+	 * Sends all the current summaries to the audit provider
+	 */
+	public void flush() {
+		AuditHandler handler = auditHandler != null ? auditHandler : AuditProviderFactory.getAuditProvider();
+
+		for(Iterator<Map.Entry<SummaryKey, Summary>> iter = summaries.entrySet().iterator(); iter.hasNext(); ) {
+			Map.Entry<SummaryKey, Summary> entry = iter.next();
+
+			iter.remove();
+
+			AuthzAuditEvent event = entry.getValue().close();
+
+			if(event != null) {
+				handler.log(event);
+			}
+		}
+	}
+
+	public int size() {
+		return summaries.size();
+	}
+
+	static class Summary {
+		private final AuthzAuditEvent event;
+		private final long            firstTime;
+		private long                  lastTime;
+		private long                  count;
+		private boolean               isClosed = false;
+
+		Summary(AuthzAuditEvent event, long firstTime) {
+			this.event     = event;
+			this.firstTime = firstTime;
+			this.lastTime  = firstTime;
+			this.count     = 1;
+		}
+
+		synchronized boolean add(long time) {
+			if(isClosed) {
+				return false;
+			}
+
+			count++;
+
+			if(time > lastTime) {
+				lastTime = time;
+			}
+
+			return true;
+		}
+
+		synchronized AuthzAuditEvent close() {
+			if(isClosed) {
+				return null;
+			}
+
+			isClosed = true;
+
+			long duration = lastTime - firstTime;
+
+			event.setEventCount(count);
+			event.setEventDurationMS(duration > 0 ? duration : 1);
+
+			return event;
+		}
+	}
+
+	static class SummaryKey {
+		private final String  serviceName;
+		private final String  resourcePath;
+		private final String  resourceType;
+		private final String  user;
+		private final String  accessType;
+		private final String  action;
+		private final String  clientIP;
+		private final String  clientType;
+		private final String  sessionId;
+		private final String  requestData;
+		private final boolean isAllowed;
+		private final long    policyId;
+		private final int     hashCode;
+
+		SummaryKey(RangerAccessResult result, RangerAccessRequest request) {
+			RangerAccessResource resource = request.getResource();
+
+			this.serviceName  = result.getServiceName();
+			this.resourcePath = resource == null ? null : resource.getAsString();
+			this.resourceType = resource == null ? null : resource.getLeafName();
+			this.user         = request.getUser();
+			this.accessType   = request.getAccessType();
+			this.action       = request.getAction();
+			this.clientIP     = request.getClientIPAddress();
+			this.clientType   = request.getClientType();
+			this.sessionId    = request.getSessionId();
+			this.requestData  = request.getRequestData();
+			this.isAllowed    = result.getIsAllowed();
+			this.policyId     = result.getPolicyId();
+
+			int hash = 17;
+
+			hash = 31 * hash + (serviceName == null ? 0 : serviceName.hashCode());
+			hash = 31 * hash + (resourcePath == null ? 0 : resourcePath.hashCode());
+			hash = 31 * hash + (resourceType == null ? 0 : resourceType.hashCode());
+			hash = 31 * hash + (user == null ? 0 : user.hashCode());
+			hash = 31 * hash + (accessType == null ? 0 : accessType.hashCode());
+			hash = 31 * hash + (action == null ? 0 : action.hashCode());
+			hash = 31 * hash + (clientIP == null ? 0 : clientIP.hashCode());
+			hash = 31 * hash + (clientType == null ? 0 : clientType.hashCode());
+			hash = 31 * hash + (sessionId == null ? 0 : sessionId.hashCode());
+			hash = 31 * hash + (requestData == null ? 0 : requestData.hashCode());
+			hash = 31 * hash + (isAllowed ? 1 : 0);
+			hash = 31 * hash + (int)(policyId ^ (policyId >>> 32));
+
+			this.hashCode = hash;
+		}
+
+		@Override
+		public int hashCode() {
+			return hashCode;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if(this == obj) {
+				return true;
+			}
+
+			if(!(obj instanceof SummaryKey)) {
+				return false;
+			}
+
+			SummaryKey other = (SummaryKey)obj;
+
+			return hashCode == other.hashCode
+				&& isAllowed == other.isAllowed
+				&& policyId == other.policyId
+				&& equals(serviceName, other.serviceName)
+				&& equals(resourcePath, other.resourcePath)
+				&& equals(resourceType, other.resourceType)
+				&& equals(user, other.user)
+				&& equals(accessType, other.accessType)
+				&& equals(action, other.action)
+				&& equals(clientIP, other.clientIP)
+				&& equals(clientType, other.clientType)
+				&& equals(sessionId, other.sessionId)
+				&& equals(requestData, other.requestData);
+		}
+
+		private static boolean equals(String str1, String str2) {
+			return str1 == null ? str2 == null : str1.equals(str2);
+		}
+	}
+}
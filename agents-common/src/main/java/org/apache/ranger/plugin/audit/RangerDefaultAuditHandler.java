@@ -47,9 +47,11 @@ public class RangerDefaultAuditHandler implements RangerAccessResultProcessor {
 			LOG.debug("==> RangerDefaultAuditHandler.processResult(" + result + ")");
 		}
 
-		AuthzAuditEvent event = getAuthzEvents(result);
+		if(! summarizeResult(result)) {
+			AuthzAuditEvent event = getAuthzEvents(result);
 
-		logAuthzAudit(event);
+			logAuthzAudit(event);
+		}
 
 		if(LOG.isDebugEnabled()) {
 			LOG.debug("<== RangerDefaultAuditHandler.processResult(" + result + ")");
@@ -62,9 +64,15 @@ public class RangerDefaultAuditHandler implements RangerAccessResultProcessor {
 			LOG.debug("==> RangerDefaultAuditHandler.processResults(" + results + ")");
 		}
 
-		Collection<AuthzAuditEvent> events = getAuthzEvents(results);
+		if(results != null && isSummaryAllowed() && RangerAuditSummarizer.getInstance() != null) {
+			for(RangerAccessResult result : results) {
+				processResult(result);
+			}
+		} else {
+			Collection<AuthzAuditEvent> events = getAuthzEvents(results);
 
-		logAuthzAudits(events);
+			logAuthzAudits(events);
+		}
 
 		if(LOG.isDebugEnabled()) {
 			LOG.debug("<== RangerDefaultAuditHandler.processResults(" + results + ")");
@@ -195,6 +203,26 @@ public class RangerDefaultAuditHandler implements RangerAccessResultProcessor {
 		}
 	}
 
+	/**
+	 * Summarization sends events to the audit provider after the request
+	 * completes, so it is limited to handlers that log every event
+	 * straight to the provider. Subclasses which collect or customize
+	 * events can opt in by overriding this method.
+	 */
+	protected boolean isSummaryAllowed() {
+		return getClass() == RangerDefaultAuditHandler.class;
+	}
+
+	private boolean summarizeResult(RangerAccessResult result) {
+		if(result == null || !result.getIsAudited() || !isSummaryAllowed()) {
+			return false;
+		}
+
+		RangerAuditSummarizer summarizer = RangerAuditSummarizer.getInstance();
+
+		return summarizer != null && summarizer.summarize(result, this);
+	}
+
 	public AuthzAuditEvent createAuthzAuditEvent() {
 		return new AuthzAuditEvent();
 	}
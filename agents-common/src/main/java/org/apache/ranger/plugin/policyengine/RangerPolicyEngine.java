@@ -50,6 +50,14 @@ public interface RangerPolicyEngine {
 
 	Collection<RangerAccessResult> isAccessAllowed(Collection<RangerAccessRequest> requests, RangerAccessResultProcessor resultProcessor);
 
+	/**
+	 * Evaluates requests that differ only in the access type, in a single pass over the policies. The requests are expected
+	 * to share the same resource object; otherwise each request is evaluated separately.
+	 *
+	 * @return results in the same order as the requests
+	 */
+	List<RangerAccessResult> isAccessAllowedForAccessTypes(List<RangerAccessRequest> requests, RangerAccessResultProcessor resultProcessor);
+
 
 	boolean isAccessAllowed(RangerAccessResource resource, String user, Set<String> userGroups, String accessType);
 
@@ -57,5 +65,11 @@ public interface RangerPolicyEngine {
 
 	RangerPolicy getExactMatchPolicy(RangerAccessResource resource);
 
+	/**
+	 * @return true if each policy either matches the resource and every resource under it, or none of them.  In such case the
+	 *         access decision for a user on any resource under the given resource is same as that on the resource itself.
+	 */
+	boolean isAccessUniformForSubtree(RangerAccessResource resource);
+
 	List<RangerPolicy> getAllowedPolicies(String user, Set<String> userGroups, String accessType);
 }
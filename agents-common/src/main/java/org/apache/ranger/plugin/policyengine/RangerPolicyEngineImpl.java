@@ -176,6 +176,25 @@ public class RangerPolicyEngineImpl implements RangerPolicyEngine {
 		return ret;
 	}
 
+	@Override
+	public List<RangerAccessResult> isAccessAllowedForAccessTypes(List<RangerAccessRequest> requests, RangerAccessResultProcessor resultProcessor) {
+		if(LOG.isDebugEnabled()) {
+			LOG.debug("==> RangerPolicyEngineImpl.isAccessAllowedForAccessTypes(" + requests + ")");
+		}
+
+		List<RangerAccessResult> ret = isAccessAllowedNoAudit(requests);
+
+		if(resultProcessor != null) {
+			resultProcessor.processResults(ret);
+		}
+
+		if(LOG.isDebugEnabled()) {
+			LOG.debug("<== RangerPolicyEngineImpl.isAccessAllowedForAccessTypes(" + requests + "): " + ret);
+		}
+
+		return ret;
+	}
+
 	@Override
 	public boolean isAccessAllowed(RangerAccessResource resource, String user, Set<String> userGroups, String accessType) {
 		if(LOG.isDebugEnabled()) {
@@ -246,6 +265,29 @@ public class RangerPolicyEngineImpl implements RangerPolicyEngine {
 		return ret;
 	}
 
+	@Override
+	public boolean isAccessUniformForSubtree(RangerAccessResource resource) {
+		if(LOG.isDebugEnabled()) {
+			LOG.debug("==> RangerPolicyEngineImpl.isAccessUniformForSubtree(" + resource + ")");
+		}
+
+		boolean ret = true;
+
+		for(RangerPolicyEvaluator evaluator : policyRepository.getPolicyEvaluators()) {
+			if(! evaluator.isMatchUniformForSubtree(resource)) {
+				ret = false;
+
+				break;
+			}
+		}
+
+		if(LOG.isDebugEnabled()) {
+			LOG.debug("<== RangerPolicyEngineImpl.isAccessUniformForSubtree(" + resource + "): " + ret);
+		}
+
+		return ret;
+	}
+
 	@Override
 	public List<RangerPolicy> getAllowedPolicies(String user, Set<String> userGroups, String accessType) {
 		if(LOG.isDebugEnabled()) {
@@ -307,6 +349,84 @@ public class RangerPolicyEngineImpl implements RangerPolicyEngine {
 		return ret;
 	}
 
+	protected List<RangerAccessResult> isAccessAllowedNoAudit(List<RangerAccessRequest> requests) {
+		if(LOG.isDebugEnabled()) {
+			LOG.debug("==> RangerPolicyEngineImpl.isAccessAllowedNoAudit(" + requests + ")");
+		}
+
+		List<RangerAccessResult> ret = new ArrayList<RangerAccessResult>();
+
+		if(CollectionUtils.isNotEmpty(requests)) {
+			if(isOnSameResource(requests)) {
+				List<RangerPolicyEvaluator> evaluators   = policyRepository.getPolicyEvaluators();
+				boolean[]                   foundInCache = new boolean[requests.size()];
+
+				for(int i = 0; i < requests.size(); i++) {
+					RangerAccessResult result = createAccessResult(requests.get(i));
+
+					foundInCache[i] = policyRepository.setAuditEnabledFromCache(requests.get(i), result);
+
+					ret.add(result);
+				}
+
+				if(evaluators != null) {
+					for(RangerPolicyEvaluator evaluator : evaluators) {
+						evaluator.evaluate(requests, ret);
+
+						// stop once every result has allowed and audited determined
+						if(isAllDetermined(ret)) {
+							break;
+						}
+					}
+				}
+
+				for(int i = 0; i < requests.size(); i++) {
+					if(! foundInCache[i]) {
+						policyRepository.storeAuditEnabledInCache(requests.get(i), ret.get(i));
+					}
+				}
+			} else {
+				for(RangerAccessRequest request : requests) {
+					ret.add(isAccessAllowedNoAudit(request));
+				}
+			}
+		}
+
+		if(LOG.isDebugEnabled()) {
+			LOG.debug("<== RangerPolicyEngineImpl.isAccessAllowedNoAudit(" + requests + "): " + ret);
+		}
+
+		return ret;
+	}
+
+	private boolean isOnSameResource(List<RangerAccessRequest> requests) {
+		RangerAccessResource resource = null;
+
+		for(RangerAccessRequest request : requests) {
+			if(request == null || request.getResource() == null) {
+				return false;
+			}
+
+			if(resource == null) {
+				resource = request.getResource();
+			} else if(resource != request.getResource()) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	private boolean isAllDetermined(List<RangerAccessResult> results) {
+		for(RangerAccessResult result : results) {
+			if(!result.getIsAccessDetermined() || !result.getIsAuditedDetermined()) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
 	private void setResourceServiceDef(RangerAccessRequest request) {
 		RangerAccessResource resource = request.getResource();
 
@@ -159,6 +159,56 @@ public class RangerDefaultPolicyEvaluator extends RangerAbstractPolicyEvaluator
 		}
 	}
 
+	@Override
+	public void evaluate(List<RangerAccessRequest> requests, List<RangerAccessResult> results) {
+		if(LOG.isDebugEnabled()) {
+			LOG.debug("==> RangerDefaultPolicyEvaluator.evaluate(" + requests + ", " + results + ")");
+		}
+
+		if(requests != null && results != null) {
+			Boolean matchResult     = null;
+			Boolean headMatchResult = null;
+
+			for(int i = 0; i < requests.size() && i < results.size(); i++) {
+				RangerAccessRequest request = requests.get(i);
+				RangerAccessResult  result  = results.get(i);
+
+				if(request == null || result == null || (result.getIsAuditedDetermined() && result.getIsAccessDetermined())) {
+					continue;
+				}
+
+				if(matchResult == null) {
+					matchResult = isMatch(request.getResource());
+				}
+
+				boolean isMatched = matchResult;
+
+				// head match is tried only if no match was found and ANY access was requested
+				if(!isMatched && request.isAccessTypeAny()) {
+					if(headMatchResult == null) {
+						headMatchResult = matchResourceHead(request.getResource());
+					}
+
+					isMatched = headMatchResult;
+				}
+
+				if(isMatched) {
+					if(!result.getIsAuditedDetermined() && isAuditEnabled()) {
+						result.setIsAudited(true);
+					}
+
+					if(!result.getIsAccessDetermined()) {
+						evaluatePolicyItemsForAccess(request, result);
+					}
+				}
+			}
+		}
+
+		if(LOG.isDebugEnabled()) {
+			LOG.debug("<== RangerDefaultPolicyEvaluator.evaluate(" + requests + ", " + results + ")");
+		}
+	}
+
     protected void evaluatePolicyItemsForAccess(RangerAccessRequest request, RangerAccessResult result) {
         if(LOG.isDebugEnabled()) {
             LOG.debug("==> RangerDefaultPolicyEvaluator.evaluatePolicyItemsForAccess(" + request + ", " + result + ")");
@@ -198,6 +248,21 @@ public class RangerDefaultPolicyEvaluator extends RangerAbstractPolicyEvaluator
 		return ret;
 	}
 
+	@Override
+	public boolean isMatchUniformForSubtree(RangerAccessResource resource) {
+		if(LOG.isDebugEnabled()) {
+			LOG.debug("==> RangerDefaultPolicyEvaluator.isMatchUniformForSubtree(" + resource + ")");
+		}
+
+		boolean ret = resourceMatcher == null || resourceMatcher.isMatchUniformForSubtree(resource);
+
+		if(LOG.isDebugEnabled()) {
+			LOG.debug("<== RangerDefaultPolicyEvaluator.isMatchUniformForSubtree(" + resource + "): " + ret);
+		}
+
+		return ret;
+	}
+
 	@Override
 	public boolean isSingleAndExactMatch(RangerAccessResource resource) {
 		if(LOG.isDebugEnabled()) {
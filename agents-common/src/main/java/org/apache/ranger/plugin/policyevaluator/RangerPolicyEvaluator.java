@@ -20,6 +20,7 @@
 package org.apache.ranger.plugin.policyevaluator;
 
 
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -50,10 +51,17 @@ public interface RangerPolicyEvaluator extends Comparable<RangerPolicyEvaluator>
 
 	void evaluate(RangerAccessRequest request, RangerAccessResult result);
 
+	/**
+	 * Evaluates requests that are on the same resource and differ only in the access type; the policy resources are matched once for all of them
+	 */
+	void evaluate(List<RangerAccessRequest> requests, List<RangerAccessResult> results);
+
 	boolean isMatch(RangerAccessResource resource);
 
 	boolean isSingleAndExactMatch(RangerAccessResource resource);
 
+	boolean isMatchUniformForSubtree(RangerAccessResource resource);
+
 	boolean isAccessAllowed(RangerAccessResource resource, String user, Set<String> userGroups, String accessType);
 
 	boolean isAccessAllowed(Map<String, RangerPolicyResource> resources, String user, Set<String> userGroups, String accessType);
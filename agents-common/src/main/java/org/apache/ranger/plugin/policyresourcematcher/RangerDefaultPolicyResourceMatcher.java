@@ -292,6 +292,55 @@ public class RangerDefaultPolicyResourceMatcher implements RangerPolicyResourceM
 		return ret;
 	}
 
+	@Override
+	public boolean isMatchUniformForSubtree(RangerAccessResource resource) {
+		if(LOG.isDebugEnabled()) {
+			LOG.debug("==> RangerDefaultPolicyResourceMatcher.isMatchUniformForSubtree(" + resource + ")");
+		}
+
+		boolean ret = false;
+
+		if(serviceDef != null && serviceDef.getResources() != null) {
+			Collection<String> resourceKeys = resource == null ? null : resource.getKeys();
+			Collection<String> policyKeys   = matchers == null ? null : matchers.keySet();
+
+			boolean keysMatch = CollectionUtils.isEmpty(resourceKeys) || (policyKeys != null && policyKeys.containsAll(resourceKeys));
+
+			if(keysMatch) {
+				ret = true;
+
+				for(RangerResourceDef resourceDef : serviceDef.getResources()) {
+					String                resourceName  = resourceDef.getName();
+					String                resourceValue = resource == null ? null : resource.getValue(resourceName);
+					RangerResourceMatcher matcher       = matchers == null ? null : matchers.get(resourceName);
+
+					if(matcher == null) {
+						continue;
+					}
+
+					// resources under the given one can have any value where it has none, e.g. columns of a column-family
+					if(matcher.isMatchUniformForSubtree(StringUtils.isEmpty(resourceValue) ? null : resourceValue)) {
+						if(!StringUtils.isEmpty(resourceValue) && !matcher.isMatch(resourceValue)) {
+							ret = true; // policy can't match the resource, nor anything under it
+
+							break;
+						}
+					} else {
+						ret = false;
+					}
+				}
+			} else {
+				ret = true; // policy can't match the resource, nor anything under it
+			}
+		}
+
+		if(LOG.isDebugEnabled()) {
+			LOG.debug("<== RangerDefaultPolicyResourceMatcher.isMatchUniformForSubtree(" + resource + "): " + ret);
+		}
+
+		return ret;
+	}
+
 	@Override
 	public String toString() {
 		StringBuilder sb = new StringBuilder();
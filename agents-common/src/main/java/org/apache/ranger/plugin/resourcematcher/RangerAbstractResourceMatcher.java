@@ -129,6 +129,13 @@ public abstract class RangerAbstractResourceMatcher implements RangerResourceMat
 		return ret;
 	}
 
+	@Override
+	public boolean isMatchUniformForSubtree(String resource) {
+		// values aren't hierarchical for this matcher, so nothing is under a given value; without a value, resources under can have
+		// any value, and only a match-any policy is known to match them all
+		return isMatchAny || !StringUtils.isEmpty(resource);
+	}
+
 
 	public String getOption(String name) {
 		String ret = null;
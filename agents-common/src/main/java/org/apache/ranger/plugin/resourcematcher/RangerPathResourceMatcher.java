@@ -37,6 +37,8 @@ public class RangerPathResourceMatcher extends RangerAbstractResourceMatcher {
 	public static final String OPTION_PATH_SEPERATOR       = "pathSeparatorChar";
 	public static final char   DEFAULT_PATH_SEPERATOR_CHAR = org.apache.hadoop.fs.Path.SEPARATOR_CHAR;
 
+	private static final String WILDCARD_CHARS = "*?";
+
 	private boolean      policyIsRecursive    = false;
 	private char         pathSeparatorChar    = DEFAULT_PATH_SEPERATOR_CHAR;
 	private List<String> policyValuesForMatch = null;
@@ -114,6 +116,68 @@ public class RangerPathResourceMatcher extends RangerAbstractResourceMatcher {
 		return ret;
 	}
 
+	@Override
+	public boolean isMatchUniformForSubtree(String resource) {
+		if(LOG.isDebugEnabled()) {
+			LOG.debug("==> RangerPathResourceMatcher.isMatchUniformForSubtree(" + resource + ")");
+		}
+
+		boolean ret = false;
+
+		if(resource == null || isMatchAny) {
+			ret = isMatchAny;
+		} else if(! resource.isEmpty()) {
+			boolean isMatch = isMatch(resource);
+
+			if(policyIsExcludes) {
+				isMatch = !isMatch;
+			}
+
+			if(isMatch) {
+				// a recursive policy that matches a directory matches everything under it as well
+				ret = policyIsRecursive && resource.charAt(resource.length() - 1) != pathSeparatorChar;
+			} else {
+				// no match for the directory; uniform only if none of the policy values could match anything under it
+				String prefix = resource.charAt(resource.length() - 1) == pathSeparatorChar ? resource : (resource + pathSeparatorChar);
+
+				ret = true;
+
+				for(String policyValue : policyValuesForMatch) {
+					if(isMatchPossibleUnder(prefix, policyValue)) {
+						ret = false;
+
+						break;
+					}
+				}
+			}
+		}
+
+		if(LOG.isDebugEnabled()) {
+			LOG.debug("<== RangerPathResourceMatcher.isMatchUniformForSubtree(" + resource + "): " + ret);
+		}
+
+		return ret;
+	}
+
+	private boolean isMatchPossibleUnder(String prefix, String policyValue) {
+		int     wildcardIdx = optWildCard ? StringUtils.indexOfAny(policyValue, WILDCARD_CHARS) : -1;
+		boolean ret;
+
+		if(wildcardIdx == -1) {
+			ret = startsWith(policyValue, prefix) || (policyIsRecursive && startsWith(prefix, policyValue));
+		} else {
+			String literalPrefix = policyValue.substring(0, wildcardIdx);
+
+			ret = startsWith(literalPrefix, prefix) || startsWith(prefix, literalPrefix);
+		}
+
+		return ret;
+	}
+
+	private boolean startsWith(String str, String prefix) {
+		return optIgnoreCase ? StringUtils.startsWithIgnoreCase(str, prefix) : StringUtils.startsWith(str, prefix);
+	}
+
 	private boolean isRecursiveWildCardMatch(String pathToCheck, String wildcardPath, char pathSeparatorChar, IOCase caseSensitivity) {
 		if(LOG.isDebugEnabled()) {
 			LOG.debug("==> RangerPathResourceMatcher.isRecursiveWildCardMatch(" + pathToCheck + ", " + wildcardPath + ", " + pathSeparatorChar + ")");
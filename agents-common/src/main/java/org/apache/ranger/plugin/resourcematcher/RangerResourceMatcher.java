@@ -32,4 +32,10 @@ public interface RangerResourceMatcher {
 	boolean isMatch(String resource);
 
 	boolean isSingleAndExactMatch(String resource);
+
+	/**
+	 * @return true if the match result is known to be the same for the resource and for every resource under it (e.g. files under a directory);
+	 *         a null resource stands for any value
+	 */
+	boolean isMatchUniformForSubtree(String resource);
 }
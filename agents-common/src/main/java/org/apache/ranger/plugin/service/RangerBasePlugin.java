@@ -21,6 +21,7 @@ package org.apache.ranger.plugin.service;
 
 import java.util.Collection;
 import java.util.Hashtable;
+import java.util.List;
 import java.util.Map;
 
 import org.apache.commons.collections.CollectionUtils;
@@ -164,6 +165,28 @@ public class RangerBasePlugin {
 		return null;
 	}
 
+	public List<RangerAccessResult> isAccessAllowedForAccessTypes(List<RangerAccessRequest> requests, RangerAccessResultProcessor resultProcessor) {
+		RangerPolicyEngine policyEngine = this.policyEngine;
+
+		if(policyEngine != null) {
+			policyEngine.preProcess(requests);
+
+			return policyEngine.isAccessAllowedForAccessTypes(requests, resultProcessor);
+		}
+
+		return null;
+	}
+
+	public boolean isAccessUniformForSubtree(RangerAccessResource resource) {
+		RangerPolicyEngine policyEngine = this.policyEngine;
+
+		if(policyEngine != null) {
+			return policyEngine.isAccessUniformForSubtree(resource);
+		}
+
+		return false;
+	}
+
 	public RangerAccessResult createAccessResult(RangerAccessRequest request) {
 		RangerPolicyEngine policyEngine = this.policyEngine;
 
@@ -0,0 +1,312 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.ranger.plugin.util;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.security.GroupMappingServiceProvider;
+import org.apache.hadoop.security.UserGroupInformation;
+import org.apache.ranger.audit.provider.MiscUtil;
+import org.apache.ranger.authorization.hadoop.config.RangerConfiguration;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Process wide cache of user to groups mapping, shared by the plugins so that group lookups (which could
+ * end up in shell or LDAP calls) are not done on every authorization.
+ * <ul>
+ * <li>entries older than expiry.ms are reloaded by the caller</li>
+ * <li>entries older than refresh.ms are returned as is and reloaded in the background</li>
+ * <li>users with no groups are cached for negative.expiry.ms; failed lookups are not cached</li>
+ * <li>when max.entries is reached, expired entries and then a tenth of the entries are evicted</li>
+ * </ul>
+ * Returned group sets are immutable and shared between callers. The process wide instance also resolves the groups
+ * of MiscUtil.getGroupsForRequestUser().
+ */
+public class RangerUserGroupCache implements MiscUtil.UserGroupResolver {
+	private static final Log LOG = LogFactory.getLog(RangerUserGroupCache.class);
+
+	public static final String PROP_EXPIRY_MS          = "ranger.plugin.usergroup.cache.expiry.ms";
+	public static final String PROP_REFRESH_MS         = "ranger.plugin.usergroup.cache.refresh.ms";
+	public static final String PROP_NEGATIVE_EXPIRY_MS = "ranger.plugin.usergroup.cache.negative.expiry.ms";
+	public static final String PROP_MAX_ENTRIES        = "ranger.plugin.usergroup.cache.max.entries";
+
+	public static final long DEFAULT_EXPIRY_MS          = 5 * 60 * 1000;
+	public static final long DEFAULT_REFRESH_MS         = 4 * 60 * 1000;
+	public static final long DEFAULT_NEGATIVE_EXPIRY_MS = 30 * 1000;
+	public static final int  DEFAULT_MAX_ENTRIES        = 10000;
+
+	private static volatile RangerUserGroupCache sInstance = null;
+
+	private final ConcurrentMap<String, CacheEntry> cache = new ConcurrentHashMap<String, CacheEntry>();
+	private final GroupMappingServiceProvider       groupMapping;
+	private final long                              expiryMs;
+	private final long                              refreshMs;
+	private final long                              negativeExpiryMs;
+	private final int                               maxEntries;
+	private final ExecutorService                   refresher;
+
+	private final AtomicLong hitCount     = new AtomicLong();
+	private final AtomicLong missCount    = new AtomicLong();
+	private final AtomicLong refreshCount = new AtomicLong();
+
+	public static RangerUserGroupCache getInstance() {
+		RangerUserGroupCache ret = sInstance;
+
+		if(ret == null) {
+			synchronized(RangerUserGroupCache.class) {
+				ret = sInstance;
+
+				if(ret == null) {
+					RangerConfiguration config = RangerConfiguration.getInstance();
+
+					ret = new RangerUserGroupCache(new UgiGroupMapping(),
+												   config.getLong(PROP_EXPIRY_MS, DEFAULT_EXPIRY_MS),
+												   config.getLong(PROP_REFRESH_MS, DEFAULT_REFRESH_MS),
+												   config.getLong(PROP_NEGATIVE_EXPIRY_MS, DEFAULT_NEGATIVE_EXPIRY_MS),
+												   config.getInt(PROP_MAX_ENTRIES, DEFAULT_MAX_ENTRIES));
+
+					sInstance = ret;
+
+					MiscUtil.setUserGroupResolver(ret);
+				}
+			}
+		}
+
+		return ret;
+	}
+
+	public RangerUserGroupCache(GroupMappingServiceProvider groupMapping, long expiryMs, long refreshMs, long negativeExpiryMs, int maxEntries) {
+		this.groupMapping     = groupMapping;
+		this.expiryMs         = expiryMs;
+		this.refreshMs        = refreshMs < expiryMs ? refreshMs : expiryMs;
+		this.negativeExpiryMs = negativeExpiryMs;
+		this.maxEntries       = maxEntries;
+		this.refresher        = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+										.setDaemon(true).setNameFormat("RangerUserGroupCache-%d").build());
+
+		LOG.info("RangerUserGroupCache(expiryMs=" + expiryMs + ", refreshMs=" + this.refreshMs
+				 + ", negativeExpiryMs=" + negativeExpiryMs + ", maxEntries=" + maxEntries + ")");
+	}
+
+	/**
+	 * @param user short name of the user
+	 * @return immutable set of groups of the user; never null
+	 */
+	@Override
+	public Set<String> getGroups(String user) {
+		if(user == null) {
+			return Collections.emptySet();
+		}
+
+		long       now   = currentTimeMillis();
+		CacheEntry entry = cache.get(user);
+
+		if(entry != null) {
+			long age = now - entry.loadTime;
+
+			if(age < (entry.isNegative ? negativeExpiryMs : expiryMs)) {
+				hitCount.incrementAndGet();
+
+				if(age >= refreshMs && !entry.isNegative) {
+					scheduleRefresh(user, entry);
+				}
+
+				return entry.groups;
+			}
+		}
+
+		missCount.incrementAndGet();
+
+		CacheEntry newEntry = loadEntry(user, now);
+
+		if(newEntry == null) {
+			// the lookup failed; it is retried by the next call
+			return Collections.emptySet();
+		}
+
+		put(user, newEntry);
+
+		return newEntry.groups;
+	}
+
+	public void invalidate(String user) {
+		if(user != null) {
+			cache.remove(user);
+		}
+	}
+
+	public void invalidateAll() {
+		cache.clear();
+	}
+
+	public void stop() {
+		refresher.shutdownNow();
+	}
+
+	public int size() {
+		return cache.size();
+	}
+
+	public long getHitCount() {
+		return hitCount.get();
+	}
+
+	public long getMissCount() {
+		return missCount.get();
+	}
+
+	public long getRefreshCount() {
+		return refreshCount.get();
+	}
+
+	long currentTimeMillis() {
+		return System.currentTimeMillis();
+	}
+
+	private void scheduleRefresh(final String user, final CacheEntry entry) {
+		if(! entry.isRefreshing.compareAndSet(false, true)) {
+			return;
+		}
+
+		try {
+			refresher.execute(new Runnable() {
+				@Override
+				public void run() {
+					CacheEntry newEntry = loadEntry(user, currentTimeMillis());
+
+					// on failure the current entry is kept until it expires, and refreshed again by the next hit
+					if(newEntry != null) {
+						cache.replace(user, entry, newEntry);
+
+						refreshCount.incrementAndGet();
+					} else {
+						entry.isRefreshing.set(false);
+					}
+				}
+			});
+		} catch(RejectedExecutionException excp) {
+			LOG.debug("RangerUserGroupCache: refresher is stopped; " + user + " will be reloaded on expiry");
+		}
+	}
+
+	/**
+	 * @return null if the lookup failed
+	 */
+	private CacheEntry loadEntry(String user, long now) {
+		CacheEntry ret = null;
+
+		try {
+			List<String> groups = groupMapping.getGroups(user);
+
+			if(groups == null || groups.isEmpty()) {
+				ret = new CacheEntry(Collections.<String>emptySet(), now, true);
+			} else {
+				ret = new CacheEntry(Collections.unmodifiableSet(new HashSet<String>(groups)), now, false);
+			}
+		} catch(Throwable excp) {
+			MiscUtil.logErrorMessageByInterval(LOG, "Error getting groups for user. userName=" + user, excp);
+		}
+
+		if(LOG.isDebugEnabled()) {
+			LOG.debug("RangerUserGroupCache.loadEntry(" + user + "): " + (ret == null ? null : ret.groups));
+		}
+
+		return ret;
+	}
+
+	private void put(String user, CacheEntry entry) {
+		if(cache.size() >= maxEntries && !cache.containsKey(user)) {
+			evict();
+		}
+
+		cache.put(user, entry);
+	}
+
+	private void evict() {
+		long now = currentTimeMillis();
+
+		for(Iterator<Map.Entry<String, CacheEntry>> iter = cache.entrySet().iterator(); iter.hasNext(); ) {
+			CacheEntry entry = iter.next().getValue();
+
+			if(now - entry.loadTime >= (entry.isNegative ? negativeExpiryMs : expiryMs)) {
+				iter.remove();
+			}
+		}
+
+		// not enough expired entries to make room with; drop arbitrary ones, a tenth of the entries at a time so that
+		// the next misses don't have to scan the cache again
+		int maxSize = maxEntries - Math.max(1, maxEntries / 10);
+
+		for(Iterator<String> iter = cache.keySet().iterator(); iter.hasNext() && cache.size() > maxSize; ) {
+			iter.next();
+			iter.remove();
+		}
+	}
+
+	static class CacheEntry {
+		final Set<String>   groups;
+		final long          loadTime;
+		final boolean       isNegative;
+		final AtomicBoolean isRefreshing = new AtomicBoolean(false);
+
+		CacheEntry(Set<String> groups, long loadTime, boolean isNegative) {
+			this.groups     = groups;
+			this.loadTime   = loadTime;
+			this.isNegative = isNegative;
+		}
+	}
+
+	/**
+	 * Resolves groups the same way UserGroupInformation does, i.e. using hadoop.security.group.mapping
+	 */
+	static class UgiGroupMapping implements GroupMappingServiceProvider {
+		@Override
+		public List<String> getGroups(String user) throws IOException {
+			String[] groups = UserGroupInformation.createRemoteUser(user).getGroupNames();
+
+			return groups == null ? null : Arrays.asList(groups);
+		}
+
+		@Override
+		public void cacheGroupsRefresh() throws IOException {
+		}
+
+		@Override
+		public void cacheGroupsAdd(List<String> groups) throws IOException {
+		}
+	}
+}
@@ -0,0 +1,253 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.ranger.plugin.audit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.ranger.audit.model.AuditEventBase;
+import org.apache.ranger.audit.model.AuthzAuditEvent;
+import org.apache.ranger.audit.provider.DummyAuditProvider;
+import org.apache.ranger.plugin.model.RangerServiceDef;
+import org.apache.ranger.plugin.model.RangerServiceDef.RangerResourceDef;
+import org.apache.ranger.plugin.policyengine.RangerAccessRequestImpl;
+import org.apache.ranger.plugin.policyengine.RangerAccessResourceImpl;
+import org.apache.ranger.plugin.policyengine.RangerAccessResult;
+import org.junit.Test;
+
+public class TestRangerAuditSummarizer {
+	private static final RangerServiceDef serviceDef = createServiceDef();
+
+	@Test
+	public void testSummaryCountsAndTimes() {
+		CollectingAuditProvider   provider   = new CollectingAuditProvider();
+		RangerAuditSummarizer     summarizer = new RangerAuditSummarizer(0, 1000, provider);
+		RangerDefaultAuditHandler handler    = new RangerDefaultAuditHandler();
+
+		long startTime = 1000000L;
+
+		for(int i = 0; i < 100; i++) {
+			for(int j = 0; j < 3; j++) {
+				assertTrue(summarizer.summarize(createResult("/path/" + j, "user1", true, startTime + i), handler));
+			}
+		}
+
+		assertEquals(3, summarizer.size());
+		assertEquals(0, provider.events.size());
+
+		summarizer.flush();
+
+		assertEquals(0, summarizer.size());
+		assertEquals(3, provider.events.size());
+
+		for(AuditEventBase event : provider.events) {
+			AuthzAuditEvent authzEvent = (AuthzAuditEvent)event;
+
+			assertEquals(100, authzEvent.getEventCount());
+			assertEquals(startTime, authzEvent.getEventTime().getTime());
+			assertEquals(99, authzEvent.getEventDurationMS());
+			assertEquals("user1", authzEvent.getUser());
+		}
+	}
+
+	@Test
+	public void testDistinctDecisions() {
+		CollectingAuditProvider   provider   = new CollectingAuditProvider();
+		RangerAuditSummarizer     summarizer = new RangerAuditSummarizer(0, 1000, provider);
+		RangerDefaultAuditHandler handler    = new RangerDefaultAuditHandler();
+
+		summarizer.summarize(createResult("/path", "user1", true, 1000), handler);
+		summarizer.summarize(createResult("/path", "user1", false, 1000), handler);
+		summarizer.summarize(createResult("/path", "user2", true, 1000), handler);
+		summarizer.summarize(createResult("/path", "user1", true, 1000), handler);
+
+		assertEquals(3, summarizer.size());
+
+		summarizer.flush();
+
+		long totalCount = 0;
+		for(AuditEventBase event : provider.events) {
+			totalCount += ((AuthzAuditEvent)event).getEventCount();
+		}
+
+		assertEquals(3, provider.events.size());
+		assertEquals(4, totalCount);
+	}
+
+	@Test
+	public void testDistinctSessionsAndRequests() {
+		CollectingAuditProvider   provider   = new CollectingAuditProvider();
+		RangerAuditSummarizer     summarizer = new RangerAuditSummarizer(0, 1000, provider);
+		RangerDefaultAuditHandler handler    = new RangerDefaultAuditHandler();
+
+		summarizer.summarize(createResult("/path", "user1", true, 1000, "session1", "cat /path"), handler);
+		summarizer.summarize(createResult("/path", "user1", true, 1000, "session2", "cat /path"), handler);
+		summarizer.summarize(createResult("/path", "user1", true, 1000, "session1", "head /path"), handler);
+		summarizer.summarize(createResult("/path", "user1", true, 1000, "session1", "cat /path"), handler);
+
+		assertEquals(3, summarizer.size());
+
+		summarizer.flush();
+
+		long totalCount = 0;
+		for(AuditEventBase event : provider.events) {
+			totalCount += ((AuthzAuditEvent)event).getEventCount();
+		}
+
+		assertEquals(3, provider.events.size());
+		assertEquals(4, totalCount);
+	}
+
+	@Test
+	public void testMaxEntries() {
+		CollectingAuditProvider   provider   = new CollectingAuditProvider();
+		RangerAuditSummarizer     summarizer = new RangerAuditSummarizer(0, 2, provider);
+		RangerDefaultAuditHandler handler    = new RangerDefaultAuditHandler();
+
+		assertTrue(summarizer.summarize(createResult("/path/1", "user1", true, 1000), handler));
+		assertTrue(summarizer.summarize(createResult("/path/2", "user1", true, 1000), handler));
+		assertFalse(summarizer.summarize(createResult("/path/3", "user1", true, 1000), handler));
+
+		// existing entries still get counted when the table is full
+		assertTrue(summarizer.summarize(createResult("/path/1", "user1", true, 1001), handler));
+	}
+
+	@Test
+	public void testConcurrentSummarizeAndFlush() throws Exception {
+		final CollectingAuditProvider   provider   = new CollectingAuditProvider();
+		final RangerAuditSummarizer     summarizer = new RangerAuditSummarizer(0, 1000, provider);
+		final RangerDefaultAuditHandler handler    = new RangerDefaultAuditHandler();
+
+		final int            threadCount    = 8;
+		final int            countPerThread = 20000;
+		final CountDownLatch startLatch     = new CountDownLatch(1);
+		final AtomicBoolean  isDone         = new AtomicBoolean(false);
+
+		List<Thread> threads = new ArrayList<Thread>();
+
+		for(int t = 0; t < threadCount; t++) {
+			Thread thread = new Thread() {
+				@Override
+				public void run() {
+					try {
+						startLatch.await();
+					} catch(InterruptedException excp) {
+						return;
+					}
+
+					for(int i = 0; i < countPerThread; i++) {
+						summarizer.summarize(createResult("/path/" + (i % 4), "user1", true, 1000 + i), handler);
+					}
+				}
+			};
+
+			thread.start();
+			threads.add(thread);
+		}
+
+		Thread flusher = new Thread() {
+			@Override
+			public void run() {
+				while(!isDone.get()) {
+					summarizer.flush();
+				}
+			}
+		};
+		flusher.start();
+
+		startLatch.countDown();
+
+		for(Thread thread : threads) {
+			thread.join();
+		}
+
+		isDone.set(true);
+		flusher.join();
+
+		summarizer.flush();
+
+		long totalCount = 0;
+		for(AuditEventBase event : provider.events) {
+			totalCount += ((AuthzAuditEvent)event).getEventCount();
+		}
+
+		assertEquals(threadCount * countPerThread, totalCount);
+	}
+
+	private static RangerAccessResult createResult(String path, String user, boolean isAllowed, long accessTime) {
+		return createResult(path, user, isAllowed, accessTime, null, null);
+	}
+
+	private static RangerAccessResult createResult(String path, String user, boolean isAllowed, long accessTime, String sessionId, String requestData) {
+		Map<String, String> elements = new HashMap<String, String>();
+		elements.put("path", path);
+
+		RangerAccessResourceImpl resource = new RangerAccessResourceImpl(elements);
+		resource.setServiceDef(serviceDef);
+
+		RangerAccessRequestImpl request = new RangerAccessRequestImpl(resource, "read", user, Collections.<String>emptySet());
+		request.setAccessTime(new Date(accessTime));
+		request.setClientIPAddress("10.0.0.1");
+		request.setSessionId(sessionId);
+		request.setRequestData(requestData);
+
+		RangerAccessResult result = new RangerAccessResult("svc1", serviceDef, request);
+		result.setIsAllowed(isAllowed);
+		result.setIsAudited(true);
+		result.setPolicyId(isAllowed ? 1 : -1);
+
+		return result;
+	}
+
+	private static RangerServiceDef createServiceDef() {
+		RangerResourceDef resourceDef = new RangerResourceDef();
+		resourceDef.setName("path");
+
+		List<RangerResourceDef> resourceDefs = new ArrayList<RangerResourceDef>();
+		resourceDefs.add(resourceDef);
+
+		RangerServiceDef ret = new RangerServiceDef();
+		ret.setName("test");
+		ret.setResources(resourceDefs);
+
+		return ret;
+	}
+
+	static class CollectingAuditProvider extends DummyAuditProvider {
+		final List<AuditEventBase> events = Collections.synchronizedList(new ArrayList<AuditEventBase>());
+
+		@Override
+		public boolean log(AuditEventBase event) {
+			events.add(event);
+
+			return true;
+		}
+	}
+}
@@ -0,0 +1,97 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.ranger.plugin.audit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.ranger.audit.model.AuthzAuditEvent;
+import org.apache.ranger.plugin.model.RangerServiceDef;
+import org.apache.ranger.plugin.model.RangerServiceDef.RangerResourceDef;
+import org.apache.ranger.plugin.policyengine.RangerAccessRequestImpl;
+import org.apache.ranger.plugin.policyengine.RangerAccessResourceImpl;
+import org.apache.ranger.plugin.policyengine.RangerAccessResult;
+import org.junit.Test;
+
+public class TestRangerMultiResourceAuditHandler {
+	private static final RangerServiceDef serviceDef = createServiceDef();
+
+	@Test
+	public void testEventsOfEachRequestAreKept() {
+		RangerMultiResourceAuditHandler handler = new RangerMultiResourceAuditHandler();
+
+		handler.processResult(createResult("collection1", true));
+		handler.processResults(Arrays.asList(createResult("collection2", true), createResult("collection3", false)));
+
+		assertEquals(3, handler.auditEvents.size());
+	}
+
+	@Test
+	public void testLogAuthzAuditsKeepsEvents() {
+		RangerMultiResourceAuditHandler handler = new RangerMultiResourceAuditHandler();
+
+		Collection<AuthzAuditEvent> events = new ArrayList<AuthzAuditEvent>();
+		events.add(new AuthzAuditEvent());
+		events.add(new AuthzAuditEvent());
+
+		handler.logAuthzAudits(events);
+
+		assertEquals(2, handler.auditEvents.size());
+		assertTrue(handler.auditEvents.containsAll(events));
+	}
+
+	private static RangerAccessResult createResult(String collection, boolean isAllowed) {
+		Map<String, String> elements = new HashMap<String, String>();
+		elements.put("collection", collection);
+
+		RangerAccessResourceImpl resource = new RangerAccessResourceImpl(elements);
+		resource.setServiceDef(serviceDef);
+
+		RangerAccessRequestImpl request = new RangerAccessRequestImpl(resource, "query", "user1", Collections.<String>emptySet());
+
+		RangerAccessResult result = new RangerAccessResult("svc1", serviceDef, request);
+		result.setIsAllowed(isAllowed);
+		result.setIsAudited(true);
+
+		return result;
+	}
+
+	private static RangerServiceDef createServiceDef() {
+		RangerResourceDef resourceDef = new RangerResourceDef();
+		resourceDef.setName("collection");
+
+		List<RangerResourceDef> resourceDefs = new ArrayList<RangerResourceDef>();
+		resourceDefs.add(resourceDef);
+
+		RangerServiceDef ret = new RangerServiceDef();
+		ret.setName("solr");
+		ret.setResources(resourceDefs);
+
+		return ret;
+	}
+}
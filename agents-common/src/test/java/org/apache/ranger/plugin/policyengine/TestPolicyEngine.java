@@ -24,10 +24,12 @@ import static org.junit.Assert.*;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.lang.reflect.Type;
+import java.util.ArrayList;
 import java.util.List;
 
 import org.apache.ranger.plugin.model.RangerPolicy;
 import org.apache.ranger.plugin.model.RangerServiceDef;
+import org.apache.ranger.plugin.model.RangerServiceDef.RangerAccessTypeDef;
 import org.apache.ranger.plugin.policyengine.TestPolicyEngine.PolicyEngineTestCase.TestData;
 import org.apache.ranger.plugin.util.ServicePolicies;
 import org.junit.AfterClass;
@@ -119,9 +121,49 @@ public class TestPolicyEngine {
 			assertEquals("isAllowed mismatched! - " + test.name, expected.getIsAllowed(), result.getIsAllowed());
 			assertEquals("isAudited mismatched! - " + test.name, expected.getIsAudited(), result.getIsAudited());
 			assertEquals("policyId mismatched! - " + test.name, expected.getPolicyId(), result.getPolicyId());
+
+			assertSameResultsForAccessTypes(test.name, test.request, testCase.serviceDef);
+		}
+	}
+
+	// evaluating all access types of the resource in one pass should give the same results as evaluating them one at a time
+	private void assertSameResultsForAccessTypes(String testName, RangerAccessRequest request, RangerServiceDef serviceDef) {
+		List<RangerAccessRequest> requests = new ArrayList<RangerAccessRequest>();
+
+		for(RangerAccessTypeDef accessTypeDef : serviceDef.getAccessTypes()) {
+			requests.add(copyRequest(request, accessTypeDef.getName()));
+		}
+		requests.add(copyRequest(request, request.getAccessType()));
+
+		List<RangerAccessResult> results = policyEngine.isAccessAllowedForAccessTypes(requests, null);
+
+		assertEquals("result count mismatched! - " + testName, requests.size(), results.size());
+
+		for(int i = 0; i < requests.size(); i++) {
+			String             name     = testName + " [" + requests.get(i).getAccessType() + "]";
+			RangerAccessResult expected = policyEngine.isAccessAllowed(requests.get(i), null);
+			RangerAccessResult result   = results.get(i);
+
+			assertEquals("isAllowed mismatched! - " + name, expected.getIsAllowed(), result.getIsAllowed());
+			assertEquals("isAudited mismatched! - " + name, expected.getIsAudited(), result.getIsAudited());
+			assertEquals("policyId mismatched! - " + name, expected.getPolicyId(), result.getPolicyId());
 		}
 	}
 
+	private RangerAccessRequest copyRequest(RangerAccessRequest request, String accessType) {
+		RangerAccessRequestImpl ret = new RangerAccessRequestImpl(request.getResource(), accessType, request.getUser(), request.getUserGroups());
+
+		ret.setAccessTime(request.getAccessTime());
+		ret.setClientIPAddress(request.getClientIPAddress());
+		ret.setClientType(request.getClientType());
+		ret.setAction(request.getAction());
+		ret.setRequestData(request.getRequestData());
+		ret.setSessionId(request.getSessionId());
+		ret.setContext(request.getContext());
+
+		return ret;
+	}
+
 	static class PolicyEngineTestCase {
 		public String             serviceName;
 		public RangerServiceDef   serviceDef;
@@ -0,0 +1,175 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.ranger.plugin.policyengine;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.ranger.plugin.model.RangerPolicy;
+import org.apache.ranger.plugin.model.RangerPolicy.RangerPolicyItem;
+import org.apache.ranger.plugin.model.RangerPolicy.RangerPolicyItemAccess;
+import org.apache.ranger.plugin.model.RangerPolicy.RangerPolicyItemCondition;
+import org.apache.ranger.plugin.model.RangerPolicy.RangerPolicyResource;
+import org.apache.ranger.plugin.model.RangerServiceDef;
+import org.apache.ranger.plugin.model.RangerServiceDef.RangerAccessTypeDef;
+import org.apache.ranger.plugin.model.RangerServiceDef.RangerResourceDef;
+import org.apache.ranger.plugin.policyevaluator.RangerPolicyEvaluator;
+import org.apache.ranger.plugin.resourcematcher.RangerPathResourceMatcher;
+import org.apache.ranger.plugin.util.ServicePolicies;
+import org.junit.Test;
+
+import com.google.common.collect.Sets;
+
+public class TestPolicyEngineAccessTypes {
+	private static final String[]    accessTypes = { "read", "write", "execute" };
+	private static final Set<String> groups      = Sets.newHashSet("users");
+
+	@Test
+	public void testResourceMatchedOncePerPolicy() {
+		RangerPolicyEngine   engine   = createPolicyEngine(20);
+		RangerAccessResource resource = createResource("/data/p5/file1");
+
+		// user has read only; the engine has to go through all the policies for write and execute
+		List<RangerAccessRequest> requests = new ArrayList<RangerAccessRequest>();
+		for(String accessType : accessTypes) {
+			requests.add(new RangerAccessRequestImpl(resource, accessType, "user5", groups));
+		}
+
+		CountingPathMatcher.matchCount.set(0);
+
+		List<Boolean> expected = new ArrayList<Boolean>();
+		for(RangerAccessRequest request : requests) {
+			expected.add(engine.isAccessAllowed(request, null).getIsAllowed());
+		}
+
+		int matchCountSeparate = CountingPathMatcher.matchCount.getAndSet(0);
+
+		List<RangerAccessResult> results = engine.isAccessAllowedForAccessTypes(requests, null);
+
+		int matchCountTogether = CountingPathMatcher.matchCount.get();
+
+		assertEquals(requests.size(), results.size());
+		for(int i = 0; i < results.size(); i++) {
+			assertEquals(requests.get(i), results.get(i).getAccessRequest());
+			assertEquals(requests.get(i).getAccessType(), expected.get(i), results.get(i).getIsAllowed());
+		}
+
+		assertTrue(results.get(0).getIsAllowed());
+		assertFalse(results.get(1).getIsAllowed());
+		assertFalse(results.get(2).getIsAllowed());
+
+		assertEquals(20, matchCountTogether);
+		assertTrue("separate=" + matchCountSeparate + ", together=" + matchCountTogether, matchCountSeparate >= 2 * matchCountTogether);
+	}
+
+	@Test
+	public void testDifferentResources() {
+		RangerPolicyEngine engine = createPolicyEngine(5);
+
+		// requests on different resources are evaluated one at a time
+		List<RangerAccessRequest> requests = new ArrayList<RangerAccessRequest>();
+		requests.add(new RangerAccessRequestImpl(createResource("/data/p1/file1"), "read", "user1", groups));
+		requests.add(new RangerAccessRequestImpl(createResource("/data/p2/file1"), "read", "user1", groups));
+
+		List<RangerAccessResult> results = engine.isAccessAllowedForAccessTypes(requests, null);
+
+		assertEquals(2, results.size());
+		assertTrue(results.get(0).getIsAllowed());
+		assertFalse(results.get(1).getIsAllowed());
+	}
+
+	private RangerAccessResource createResource(String path) {
+		RangerAccessResourceImpl ret = new RangerAccessResourceImpl();
+
+		ret.setValue("path", path);
+
+		return ret;
+	}
+
+	private RangerPolicyEngine createPolicyEngine(int policyCount) {
+		RangerResourceDef resourceDef = new RangerResourceDef();
+		resourceDef.setName("path");
+		resourceDef.setMatcher(CountingPathMatcher.class.getName());
+		Map<String, String> matcherOptions = new HashMap<String, String>();
+		matcherOptions.put("wildCard", "true");
+		resourceDef.setMatcherOptions(matcherOptions);
+
+		List<RangerAccessTypeDef> accessTypeDefs = new ArrayList<RangerAccessTypeDef>();
+		for(String accessType : accessTypes) {
+			RangerAccessTypeDef accessTypeDef = new RangerAccessTypeDef();
+			accessTypeDef.setName(accessType);
+			accessTypeDefs.add(accessTypeDef);
+		}
+
+		RangerServiceDef serviceDef = new RangerServiceDef();
+		serviceDef.setName("hdfs");
+		serviceDef.setResources(Arrays.asList(resourceDef));
+		serviceDef.setAccessTypes(accessTypeDefs);
+
+		List<RangerPolicy> policies = new ArrayList<RangerPolicy>();
+		for(long i = 0; i < policyCount; i++) {
+			policies.add(createPolicy(i, "/data/p" + i, "read", "user" + i));
+		}
+
+		ServicePolicies servicePolicies = new ServicePolicies();
+		servicePolicies.setServiceName("hdfsdev");
+		servicePolicies.setServiceDef(serviceDef);
+		servicePolicies.setPolicies(policies);
+
+		RangerPolicyEngineOptions options = new RangerPolicyEngineOptions();
+		options.evaluatorType = RangerPolicyEvaluator.EVALUATOR_TYPE_OPTIMIZED;
+
+		return new RangerPolicyEngineImpl(servicePolicies, options);
+	}
+
+	private RangerPolicy createPolicy(Long id, String path, String accessType, String user) {
+		Map<String, RangerPolicyResource> resources = new HashMap<String, RangerPolicyResource>();
+		resources.put("path", new RangerPolicyResource(Arrays.asList(path), false, true));
+
+		RangerPolicyItem policyItem = new RangerPolicyItem(Arrays.asList(new RangerPolicyItemAccess(accessType)),
+														   Arrays.asList(user), null,
+														   new ArrayList<RangerPolicyItemCondition>(), false);
+
+		RangerPolicy ret = new RangerPolicy("hdfsdev", "policy" + id, null, null, resources, Arrays.asList(policyItem), null);
+		ret.setId(id);
+
+		return ret;
+	}
+
+	public static class CountingPathMatcher extends RangerPathResourceMatcher {
+		static final AtomicInteger matchCount = new AtomicInteger();
+
+		@Override
+		public boolean isMatch(String resource) {
+			matchCount.incrementAndGet();
+
+			return super.isMatch(resource);
+		}
+	}
+}
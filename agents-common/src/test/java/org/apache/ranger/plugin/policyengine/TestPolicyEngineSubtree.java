@@ -0,0 +1,302 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.ranger.plugin.policyengine;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.ranger.plugin.model.RangerPolicy;
+import org.apache.ranger.plugin.model.RangerPolicy.RangerPolicyItem;
+import org.apache.ranger.plugin.model.RangerPolicy.RangerPolicyItemAccess;
+import org.apache.ranger.plugin.model.RangerPolicy.RangerPolicyItemCondition;
+import org.apache.ranger.plugin.model.RangerPolicy.RangerPolicyResource;
+import org.apache.ranger.plugin.model.RangerServiceDef;
+import org.apache.ranger.plugin.model.RangerServiceDef.RangerAccessTypeDef;
+import org.apache.ranger.plugin.model.RangerServiceDef.RangerResourceDef;
+import org.apache.ranger.plugin.resourcematcher.RangerPathResourceMatcher;
+import org.apache.ranger.plugin.util.ServicePolicies;
+import org.junit.Test;
+
+import com.google.common.collect.Sets;
+
+public class TestPolicyEngineSubtree {
+	private static final Set<String> groups = Sets.newHashSet("analysts");
+
+	@Test
+	public void testUniformSubtrees() {
+		RangerPolicyEngine engine = createPolicyEngine();
+
+		assertTrue(engine.isAccessUniformForSubtree(createResource("/data/d1")));          // recursive /data matches all; nothing else can match under it
+		assertTrue(engine.isAccessUniformForSubtree(createResource("/home/user2")));       // no policy could match
+		assertFalse(engine.isAccessUniformForSubtree(createResource("/data/d3")));         // /data/d3/t* could match under it
+		assertFalse(engine.isAccessUniformForSubtree(createResource("/")));                // everything could match under root
+		assertFalse(engine.isAccessUniformForSubtree(createResource("/home")));            // /home/user1 is under it
+		assertTrue(engine.isAccessUniformForSubtree(createResource("/home/user1/logs")));
+		assertTrue(engine.isAccessUniformForSubtree(createResource("/data/d3/d0")));
+		assertFalse(engine.isAccessUniformForSubtree(createResource("/data/d3/tmp")));     // non-recursive policy matches the directory only
+	}
+
+	@Test
+	public void testSubtreeDecisionsMatchPerDirectoryChecks() {
+		RangerPolicyEngine engine = createPolicyEngine();
+		List<String>       paths  = new ArrayList<String>();
+
+		createTree("/data", 3, 6, paths);
+		createTree("/home", 3, 6, paths);
+		paths.add("/data/d3/tmp");
+		paths.add("/home/user1");
+		paths.add("/home/user1/logs");
+
+		for(String user : new String[] { "user1", "user2" }) {
+			for(String accessType : new String[] { "read", "write" }) {
+				Map<String, Boolean> expected = new HashMap<String, Boolean>();
+
+				for(String path : paths) {
+					expected.put(path, isAccessAllowed(engine, path, user, accessType));
+				}
+
+				Counter              evalCount = new Counter();
+				Map<String, Boolean> actual    = new HashMap<String, Boolean>();
+
+				for(String root : new String[] { "/data", "/home" }) {
+					checkSubtree(engine, root, paths, user, accessType, actual, evalCount);
+				}
+
+				assertEquals(user + ":" + accessType, expected, actual);
+				assertTrue(user + ":" + accessType + ": evalCount=" + evalCount.value, evalCount.value * 10 < paths.size());
+			}
+		}
+	}
+
+	// evaluates a directory; when the decision is uniform for its subtree, it is used for all the descendants
+	@Test
+	public void testUniformColumns() {
+		RangerPolicyEngine engine = createColumnPolicyEngine();
+
+		assertTrue(engine.isAccessUniformForSubtree(createFamilyResource("table1", "family1")));  // all columns, or policies of other families
+		assertFalse(engine.isAccessUniformForSubtree(createFamilyResource("table1", "family2"))); // policy on some of the columns
+		assertFalse(engine.isAccessUniformForSubtree(createFamilyResource("table1", "family3"))); // policy excluding a column
+		assertFalse(engine.isAccessUniformForSubtree(createFamilyResource("table2", "family1"))); // policy on c2 of every family
+		assertTrue(engine.isAccessUniformForSubtree(createFamilyResource("table3", "family4")));  // all columns of wildcard tables
+		assertTrue(engine.isAccessUniformForSubtree(createFamilyResource("table4", "family1")));  // no policy could match
+
+		// the decision for the column-family is that of each of its columns
+		String[][] families = { { "table1", "family1" }, { "table3", "family4" }, { "table4", "family1" } };
+
+		for(String[] family : families) {
+			for(String user : new String[] { "user1", "user2" }) {
+				boolean expected = isAccessAllowed(engine, createFamilyResource(family[0], family[1]), user);
+
+				for(String column : new String[] { "c1", "c2", "c3", "secret" }) {
+					RangerAccessResourceImpl resource = createFamilyResource(family[0], family[1]);
+					resource.setValue("column", column);
+
+					assertEquals(family[0] + ":" + family[1] + ":" + column + " for " + user, expected, isAccessAllowed(engine, resource, user));
+				}
+			}
+		}
+	}
+
+	private void checkSubtree(RangerPolicyEngine engine, String dir, List<String> paths, String user, String accessType, Map<String, Boolean> decisions, Counter evalCount) {
+		boolean isAllowed = isAccessAllowed(engine, dir, user, accessType);
+
+		evalCount.value++;
+		decisions.put(dir, isAllowed);
+
+		List<String> children = getChildren(dir, paths);
+
+		if(engine.isAccessUniformForSubtree(createResource(dir))) {
+			for(String path : paths) {
+				if(path.startsWith(dir + "/")) {
+					decisions.put(path, isAllowed);
+				}
+			}
+		} else {
+			for(String child : children) {
+				checkSubtree(engine, child, paths, user, accessType, decisions, evalCount);
+			}
+		}
+	}
+
+	private List<String> getChildren(String dir, List<String> paths) {
+		List<String> ret = new ArrayList<String>();
+
+		for(String path : paths) {
+			if(path.startsWith(dir + "/") && path.indexOf('/', dir.length() + 1) == -1) {
+				ret.add(path);
+			}
+		}
+
+		return ret;
+	}
+
+	private void createTree(String dir, int depth, int fanOut, List<String> paths) {
+		paths.add(dir);
+
+		if(depth > 0) {
+			for(int i = 0; i < fanOut; i++) {
+				createTree(dir + "/d" + i, depth - 1, fanOut, paths);
+			}
+		}
+	}
+
+	private boolean isAccessAllowed(RangerPolicyEngine engine, String path, String user, String accessType) {
+		RangerAccessRequestImpl request = new RangerAccessRequestImpl(createResource(path), accessType, user, groups);
+
+		RangerAccessResult result = engine.isAccessAllowed(request, null);
+
+		return result != null && result.getIsAllowed();
+	}
+
+	private boolean isAccessAllowed(RangerPolicyEngine engine, RangerAccessResource resource, String user) {
+		RangerAccessRequestImpl request = new RangerAccessRequestImpl(resource, "read", user, groups);
+
+		RangerAccessResult result = engine.isAccessAllowed(request, null);
+
+		return result != null && result.getIsAllowed();
+	}
+
+	private RangerAccessResourceImpl createFamilyResource(String table, String family) {
+		RangerAccessResourceImpl ret = new RangerAccessResourceImpl();
+
+		ret.setValue("table", table);
+		ret.setValue("column-family", family);
+
+		return ret;
+	}
+
+	private RangerAccessResource createResource(String path) {
+		RangerAccessResourceImpl ret = new RangerAccessResourceImpl();
+
+		ret.setValue("path", path);
+
+		return ret;
+	}
+
+	private RangerPolicyEngine createPolicyEngine() {
+		RangerResourceDef resourceDef = new RangerResourceDef();
+		resourceDef.setName("path");
+		resourceDef.setMatcher(RangerPathResourceMatcher.class.getName());
+		Map<String, String> matcherOptions = new HashMap<String, String>();
+		matcherOptions.put("wildCard", "true");
+		matcherOptions.put("ignoreCase", "true");
+		resourceDef.setMatcherOptions(matcherOptions);
+
+		List<RangerAccessTypeDef> accessTypeDefs = new ArrayList<RangerAccessTypeDef>();
+		for(String accessType : new String[] { "read", "write", "execute" }) {
+			RangerAccessTypeDef accessTypeDef = new RangerAccessTypeDef();
+			accessTypeDef.setName(accessType);
+			accessTypeDefs.add(accessTypeDef);
+		}
+
+		RangerServiceDef serviceDef = new RangerServiceDef();
+		serviceDef.setName("hdfs");
+		serviceDef.setResources(Arrays.asList(resourceDef));
+		serviceDef.setAccessTypes(accessTypeDefs);
+
+		List<RangerPolicy> policies = new ArrayList<RangerPolicy>();
+		policies.add(createPolicy(1L, "/data", true, "read", null, "analysts"));
+		policies.add(createPolicy(2L, "/data/d3/t*", false, "write", "user2", null));
+		policies.add(createPolicy(3L, "/home/user1", true, "write", "user1", null));
+
+		ServicePolicies servicePolicies = new ServicePolicies();
+		servicePolicies.setServiceName("hdfsdev");
+		servicePolicies.setServiceDef(serviceDef);
+		servicePolicies.setPolicies(policies);
+
+		return new RangerPolicyEngineImpl(servicePolicies, new RangerPolicyEngineOptions());
+	}
+
+	private RangerPolicyEngine createColumnPolicyEngine() {
+		List<RangerResourceDef> resourceDefs = new ArrayList<RangerResourceDef>();
+		for(String resourceName : new String[] { "table", "column-family", "column" }) {
+			RangerResourceDef resourceDef = new RangerResourceDef();
+			resourceDef.setName(resourceName);
+			Map<String, String> matcherOptions = new HashMap<String, String>();
+			matcherOptions.put("wildCard", "true");
+			resourceDef.setMatcherOptions(matcherOptions);
+			resourceDefs.add(resourceDef);
+		}
+
+		RangerAccessTypeDef accessTypeDef = new RangerAccessTypeDef();
+		accessTypeDef.setName("read");
+
+		RangerServiceDef serviceDef = new RangerServiceDef();
+		serviceDef.setName("hbase");
+		serviceDef.setResources(resourceDefs);
+		serviceDef.setAccessTypes(Arrays.asList(accessTypeDef));
+
+		List<RangerPolicy> policies = new ArrayList<RangerPolicy>();
+		policies.add(createColumnPolicy(1L, "table1", "family1", Arrays.asList("*"), false, "user1"));
+		policies.add(createColumnPolicy(2L, "table1", "family2", Arrays.asList("c1", "c3"), false, "user1"));
+		policies.add(createColumnPolicy(3L, "table1", "family3", Arrays.asList("secret"), true, "user1"));
+		policies.add(createColumnPolicy(4L, "table2", "*", Arrays.asList("c2"), false, "user2"));
+		policies.add(createColumnPolicy(5L, "table3*", "family4", Arrays.asList("*"), false, "user2"));
+
+		ServicePolicies servicePolicies = new ServicePolicies();
+		servicePolicies.setServiceName("hbasedev");
+		servicePolicies.setServiceDef(serviceDef);
+		servicePolicies.setPolicies(policies);
+
+		return new RangerPolicyEngineImpl(servicePolicies, new RangerPolicyEngineOptions());
+	}
+
+	private RangerPolicy createColumnPolicy(Long id, String table, String family, List<String> columns, boolean isExcludes, String user) {
+		Map<String, RangerPolicyResource> resources = new HashMap<String, RangerPolicyResource>();
+		resources.put("table", new RangerPolicyResource(table));
+		resources.put("column-family", new RangerPolicyResource(family));
+		resources.put("column", new RangerPolicyResource(columns, isExcludes, false));
+
+		RangerPolicyItem policyItem = new RangerPolicyItem(Arrays.asList(new RangerPolicyItemAccess("read")), Arrays.asList(user), null,
+														   new ArrayList<RangerPolicyItemCondition>(), false);
+
+		RangerPolicy ret = new RangerPolicy("hbasedev", "policy" + id, null, null, resources, Arrays.asList(policyItem), null);
+		ret.setId(id);
+
+		return ret;
+	}
+
+	private RangerPolicy createPolicy(Long id, String path, boolean isRecursive, String accessType, String user, String group) {
+		Map<String, RangerPolicyResource> resources = new HashMap<String, RangerPolicyResource>();
+		resources.put("path", new RangerPolicyResource(Arrays.asList(path), false, isRecursive));
+
+		RangerPolicyItem policyItem = new RangerPolicyItem(Arrays.asList(new RangerPolicyItemAccess(accessType)),
+														   user == null ? null : Arrays.asList(user),
+														   group == null ? null : Arrays.asList(group),
+														   new ArrayList<RangerPolicyItemCondition>(), false);
+
+		RangerPolicy ret = new RangerPolicy("hdfsdev", "policy" + id, null, null, resources, Arrays.asList(policyItem), null);
+		ret.setId(id);
+
+		return ret;
+	}
+
+	static class Counter {
+		int value = 0;
+	}
+}
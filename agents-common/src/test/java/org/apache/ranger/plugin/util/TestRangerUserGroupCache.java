@@ -0,0 +1,334 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.ranger.plugin.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.hadoop.security.GroupMappingServiceProvider;
+import org.apache.ranger.audit.provider.MiscUtil;
+import org.junit.Test;
+
+import com.google.common.collect.Sets;
+
+public class TestRangerUserGroupCache {
+
+	@Test
+	public void testHitsAndSharedSets() {
+		FakeGroupMapping mapping = new FakeGroupMapping();
+		TestCache        cache   = new TestCache(mapping, 1000, 800, 100, 100);
+
+		mapping.groups.put("user1", Arrays.asList("g1", "g2"));
+
+		Set<String> groups = cache.getGroups("user1");
+		assertEquals(Sets.newHashSet("g1", "g2"), groups);
+
+		for(int i = 0; i < 100; i++) {
+			assertSame(groups, cache.getGroups("user1"));
+		}
+
+		assertEquals(1, mapping.callCount("user1"));
+		assertEquals(100, cache.getHitCount());
+		assertEquals(1, cache.getMissCount());
+
+		try {
+			groups.add("g3");
+			fail("group set should be immutable");
+		} catch(UnsupportedOperationException excp) {
+			// expected
+		}
+
+		cache.stop();
+	}
+
+	@Test
+	public void testExpiry() {
+		FakeGroupMapping mapping = new FakeGroupMapping();
+		TestCache        cache   = new TestCache(mapping, 1000, 1000, 100, 100);
+
+		mapping.groups.put("user1", Arrays.asList("g1"));
+
+		assertEquals(Sets.newHashSet("g1"), cache.getGroups("user1"));
+
+		mapping.groups.put("user1", Arrays.asList("g2"));
+
+		cache.now += 999;
+		assertEquals(Sets.newHashSet("g1"), cache.getGroups("user1"));
+
+		cache.now += 1;
+		assertEquals(Sets.newHashSet("g2"), cache.getGroups("user1"));
+		assertEquals(2, mapping.callCount("user1"));
+
+		cache.stop();
+	}
+
+	@Test
+	public void testNegativeCaching() {
+		FakeGroupMapping mapping = new FakeGroupMapping();
+		TestCache        cache   = new TestCache(mapping, 1000, 800, 100, 100);
+
+		mapping.failingUsers.add("user2");
+
+		assertTrue(cache.getGroups("unknown").isEmpty());
+		assertTrue(cache.getGroups("user2").isEmpty());
+		assertTrue(cache.getGroups("unknown").isEmpty());
+		assertTrue(cache.getGroups("user2").isEmpty());
+
+		// failed lookups are not cached
+		assertEquals(1, mapping.callCount("unknown"));
+		assertEquals(2, mapping.callCount("user2"));
+
+		mapping.failingUsers.remove("user2");
+		mapping.groups.put("user2", Arrays.asList("g1"));
+
+		assertEquals(Sets.newHashSet("g1"), cache.getGroups("user2"));
+		assertEquals(3, mapping.callCount("user2"));
+
+		// negative entries expire sooner
+		mapping.groups.put("unknown", Arrays.asList("g1"));
+		cache.now += 100;
+
+		assertEquals(Sets.newHashSet("g1"), cache.getGroups("unknown"));
+		assertEquals(2, mapping.callCount("unknown"));
+
+		cache.stop();
+	}
+
+	@Test
+	public void testRefreshWithoutBlocking() throws Exception {
+		FakeGroupMapping mapping = new FakeGroupMapping();
+		TestCache        cache   = new TestCache(mapping, 1000, 500, 100, 100);
+
+		mapping.groups.put("user1", Arrays.asList("g1"));
+
+		assertEquals(Sets.newHashSet("g1"), cache.getGroups("user1"));
+
+		// the refresh blocks in group lookup until released
+		mapping.groups.put("user1", Arrays.asList("g2"));
+		mapping.blockLatch = new CountDownLatch(1);
+		cache.now += 600;
+
+		for(int i = 0; i < 10; i++) {
+			assertEquals(Sets.newHashSet("g1"), cache.getGroups("user1"));
+		}
+
+		assertTrue(mapping.enteredLatch.await(10, TimeUnit.SECONDS));
+		mapping.blockLatch.countDown();
+
+		for(int i = 0; i < 1000 && cache.getRefreshCount() == 0; i++) {
+			Thread.sleep(10);
+		}
+
+		assertEquals(1, cache.getRefreshCount());
+		assertEquals(Sets.newHashSet("g2"), cache.getGroups("user1"));
+		assertEquals(2, mapping.callCount("user1"));
+
+		cache.stop();
+	}
+
+	@Test
+	public void testFailedRefreshIsRetried() throws Exception {
+		FakeGroupMapping mapping = new FakeGroupMapping();
+		TestCache        cache   = new TestCache(mapping, 1000, 500, 100, 100);
+
+		mapping.groups.put("user1", Arrays.asList("g1"));
+
+		assertEquals(Sets.newHashSet("g1"), cache.getGroups("user1"));
+
+		mapping.failingUsers.add("user1");
+		cache.now += 600;
+
+		// the current entry is served while the refresh fails
+		assertEquals(Sets.newHashSet("g1"), cache.getGroups("user1"));
+
+		for(int i = 0; i < 1000 && mapping.callCount("user1") < 2; i++) {
+			Thread.sleep(10);
+		}
+
+		// the next hit schedules another refresh
+		mapping.failingUsers.remove("user1");
+		mapping.groups.put("user1", Arrays.asList("g2"));
+
+		for(int i = 0; i < 1000 && cache.getRefreshCount() == 0; i++) {
+			assertEquals(1, cache.getGroups("user1").size());
+			Thread.sleep(10);
+		}
+
+		assertEquals(1, cache.getRefreshCount());
+		assertEquals(Sets.newHashSet("g2"), cache.getGroups("user1"));
+
+		cache.stop();
+	}
+
+	@Test
+	public void testEvictionMakesRoomForSeveralEntries() {
+		FakeGroupMapping mapping = new FakeGroupMapping();
+		TestCache        cache   = new TestCache(mapping, 1000, 800, 100, 100);
+
+		for(int i = 0; i < 101; i++) {
+			mapping.groups.put("user" + i, Arrays.asList("g1"));
+
+			cache.getGroups("user" + i);
+		}
+
+		// a tenth of the entries are evicted to make room for user100
+		assertEquals(91, cache.size());
+		assertEquals(Sets.newHashSet("g1"), cache.getGroups("user100"));
+
+		// expired entries are evicted first
+		cache.now += 1000;
+
+		mapping.groups.put("user101", Arrays.asList("g1"));
+		for(int i = 102; i < 111; i++) {
+			mapping.groups.put("user" + i, Arrays.asList("g1"));
+
+			cache.getGroups("user" + i);
+		}
+		assertEquals(100, cache.size());
+
+		cache.getGroups("user101");
+		assertEquals(10, cache.size());
+
+		cache.stop();
+	}
+
+	@Test
+	public void testGroupsForRequestUser() {
+		FakeGroupMapping mapping = new FakeGroupMapping();
+		TestCache        cache   = new TestCache(mapping, 1000, 800, 100, 100);
+
+		mapping.groups.put("user1", Arrays.asList("g1"));
+
+		MiscUtil.setUserGroupResolver(cache);
+		try {
+			assertEquals(Sets.newHashSet("g1"), MiscUtil.getGroupsForRequestUser("user1"));
+			assertEquals(Sets.newHashSet("g1"), MiscUtil.getGroupsForRequestUser("user1"));
+			assertNull(MiscUtil.getGroupsForRequestUser("unknown"));
+
+			assertEquals(1, mapping.callCount("user1"));
+		} finally {
+			MiscUtil.setUserGroupResolver(null);
+		}
+
+		cache.stop();
+	}
+
+	@Test
+	public void testMaxEntries() {
+		FakeGroupMapping mapping = new FakeGroupMapping();
+		TestCache        cache   = new TestCache(mapping, 1000, 800, 100, 10);
+
+		for(int i = 0; i < 100; i++) {
+			mapping.groups.put("user" + i, Arrays.asList("g1"));
+
+			cache.getGroups("user" + i);
+
+			assertTrue(cache.size() <= 10);
+		}
+
+		cache.stop();
+	}
+
+	static class TestCache extends RangerUserGroupCache {
+		volatile long now = 1000000L;
+
+		TestCache(GroupMappingServiceProvider groupMapping, long expiryMs, long refreshMs, long negativeExpiryMs, int maxEntries) {
+			super(groupMapping, expiryMs, refreshMs, negativeExpiryMs, maxEntries);
+		}
+
+		@Override
+		long currentTimeMillis() {
+			return now;
+		}
+	}
+
+	static class FakeGroupMapping implements GroupMappingServiceProvider {
+		final Map<String, List<String>>   groups       = new ConcurrentHashMap<String, List<String>>();
+		final Set<String>                 failingUsers = Collections.synchronizedSet(new HashSet<String>());
+		final Map<String, AtomicInteger>  callCounts   = new HashMap<String, AtomicInteger>();
+		final CountDownLatch              enteredLatch = new CountDownLatch(1);
+		volatile CountDownLatch           blockLatch   = null;
+
+		@Override
+		public List<String> getGroups(String user) throws IOException {
+			synchronized(callCounts) {
+				AtomicInteger count = callCounts.get(user);
+
+				if(count == null) {
+					count = new AtomicInteger();
+
+					callCounts.put(user, count);
+				}
+
+				count.incrementAndGet();
+			}
+
+			CountDownLatch latch = blockLatch;
+
+			if(latch != null) {
+				enteredLatch.countDown();
+
+				try {
+					latch.await();
+				} catch(InterruptedException excp) {
+					throw new IOException(excp);
+				}
+			}
+
+			if(failingUsers.contains(user)) {
+				throw new IOException("lookup failed for " + user);
+			}
+
+			return groups.get(user);
+		}
+
+		int callCount(String user) {
+			synchronized(callCounts) {
+				AtomicInteger count = callCounts.get(user);
+
+				return count == null ? 0 : count.get();
+			}
+		}
+
+		@Override
+		public void cacheGroupsRefresh() throws IOException {
+		}
+
+		@Override
+		public void cacheGroupsAdd(List<String> groups) throws IOException {
+		}
+	}
+}
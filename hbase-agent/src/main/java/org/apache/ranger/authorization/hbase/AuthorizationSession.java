@@ -177,6 +177,26 @@ public class AuthorizationSession {
 		return this;
 	}
 	
+	/**
+	 * Asks the policy engine if access to every column of the current column family is decided the same as access to the column family
+	 * itself, e.g. if no policy applicable to the column family names specific columns.
+	 * @return true if a column family level request, i.e. one built with a null column, would decide access to each of its columns
+	 */
+	boolean isAccessUniformForColumns() {
+		if (!isProvided(_table) || !isProvided(_columnFamily)) {
+			return false;
+		}
+		RangerAccessResourceImpl resource = new RangerAccessResourceImpl();
+		resource.setValue("table", _table);
+		resource.setValue("column-family", _columnFamily);
+
+		boolean ret = _authorizer.isAccessUniformForSubtree(resource);
+		if (LOG.isDebugEnabled()) {
+			LOG.debug("isAccessUniformForColumns: table=" + _table + ", column-family=" + _columnFamily + ": " + ret);
+		}
+		return ret;
+	}
+
 	AuthorizationSession authorize() {
 		if (LOG.isDebugEnabled()) {
 			LOG.debug("==> AuthorizationSession.authorize: " + getRequestMessage());
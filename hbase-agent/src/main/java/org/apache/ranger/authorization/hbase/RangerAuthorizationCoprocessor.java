@@ -433,43 +433,70 @@ public class RangerAuthorizationCoprocessor extends RangerAuthorizationCoprocess
 					// Restore the access back
 					session.access(access);
 				}
+			} else if (columns.size() > 1 && session.column(null).isAccessUniformForColumns()) {
+				LOG.debug("evaluateAccess: columns collection not empty, but access is uniform for the columns of the family.  Doing family level access check.");
+				session.buildRequest()
+					.authorize();
+				AuthzAuditEvent auditEvent = auditHandler.getAndDiscardMostRecentEvent();
+				if (session.isAuthorized()) {
+					if (LOG.isDebugEnabled()) {
+						LOG.debug("evaluateAccess: has column level access to all columns [" + family + ", " + columns + "]");
+					}
+					// same as when each column is checked: the results cache for the filter gets all the columns
+					somethingIsAccessible = true;
+					columnsAccessAllowed.put(family, new HashSet<String>(columns));
+					if (auditEvent != null) {
+						LOG.debug("evaluateAccess: adding to access-granted-audit-event-set");
+						authorizedEvents.add(auditEvent);
+					}
+				} else {
+					if (LOG.isDebugEnabled()) {
+						LOG.debug("evaluateAccess: no column level access to any column [" + family + ", " + columns + "]");
+					}
+					everythingIsAccessible = false;
+					denialReason = String.format("Insufficient permissions for user ‘%s',action: %s, tableName:%s, family:%s, columns: %s", user.getName(), operation, table, family, columns);
+					if (auditEvent != null && deniedEvent == null) { // we need to capture just one denial event
+						LOG.debug("evaluateAccess: Setting denied access audit event with last auth failure audit event.");
+						deniedEvent = auditEvent;
+					}
+				}
 			} else {
 				LOG.debug("evaluateAccess: columns collection not empty.  Skipping Family level check, will do finer level access check.");
 				Set<String> accessibleColumns = new HashSet<String>(); // will be used in to populate our results cache for the filter
- 				for (String column : columns) {
- 					if (LOG.isDebugEnabled()) {
- 						LOG.debug("evaluateAccess: Processing column: " + column);
- 					}
- 					session.column(column)
- 						.buildRequest()
- 						.authorize();
+				for (String column : columns) {
+					if (LOG.isDebugEnabled()) {
+						LOG.debug("evaluateAccess: Processing column: " + column);
+					}
+					session.column(column)
+						.buildRequest()
+						.authorize();
 					AuthzAuditEvent auditEvent = auditHandler.getAndDiscardMostRecentEvent();
- 					if (session.isAuthorized()) {
+					if (session.isAuthorized()) {
 						if (LOG.isDebugEnabled()) {
 							LOG.debug("evaluateAccess: has column level access [" + family + ", " + column + "]");
 						}
- 						// we need to do 3 things: housekeeping, capturing audit events, building the results cache for filter
- 						somethingIsAccessible = true;
- 						accessibleColumns.add(column);
+						// we need to do 3 things: housekeeping, capturing audit events, building the results cache for filter
+						somethingIsAccessible = true;
+						accessibleColumns.add(column);
 						if (auditEvent != null) {
 							LOG.debug("evaluateAccess: adding to access-granted-audit-event-set");
 							authorizedEvents.add(auditEvent);
 						}
- 					} else {
+					} else {
 						if (LOG.isDebugEnabled()) {
 							LOG.debug("evaluateAccess: no column level access [" + family + ", " + column + "]");
 						}
- 						everythingIsAccessible = false;
- 						denialReason = String.format("Insufficient permissions for user ‘%s',action: %s, tableName:%s, family:%s, column: %s", user.getName(), operation, table, family, column);
+						everythingIsAccessible = false;
+						denialReason = String.format("Insufficient permissions for user ‘%s',action: %s, tableName:%s, family:%s, column: %s", user.getName(), operation, table, family, column);
 						if (auditEvent != null && deniedEvent == null) { // we need to capture just one denial event
 							LOG.debug("evaluateAccess: Setting denied access audit event with last auth failure audit event.");
 							deniedEvent = auditEvent;
 						}
- 					}
-					if (!accessibleColumns.isEmpty()) {
-						columnsAccessAllowed.put(family, accessibleColumns);
 					}
 				}
+				if (!accessibleColumns.isEmpty()) {
+					columnsAccessAllowed.put(family, accessibleColumns);
+				}
 			}
 		}
 		// Cache of auth results are encapsulated the in the filter. Not every caller of the function uses it - only preGet and preOpt will.
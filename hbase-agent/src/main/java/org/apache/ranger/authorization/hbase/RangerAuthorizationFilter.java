@@ -21,6 +21,7 @@ package org.apache.ranger.authorization.hbase;
 
 import java.io.IOException;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
 
@@ -41,6 +42,17 @@ public class RangerAuthorizationFilter extends FilterBase {
 	final Map<String, Set<String>> _columnsAccessAllowed;
 	final AuthorizationSession _session;
 	final HbaseAuditHandler _auditHandler = HbaseFactory.getInstance().getAuditHandler();
+	// decisions already made by this filter, i.e. for the lifetime of the scanner, keyed on the family/column bytes of the cell
+	final Map<ColumnKey, ReturnCode> _columnDecisions = new LinkedHashMap<ColumnKey, ReturnCode>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<ColumnKey, ReturnCode> eldest) {
+			return size() > MAX_CACHED_COLUMN_DECISIONS;
+		}
+	};
+	final ColumnKey _lookupKey = new ColumnKey();
+	static final int MAX_CACHED_COLUMN_DECISIONS = 10000;
 
 	public RangerAuthorizationFilter(AuthorizationSession session, Set<String> familiesAccessAllowed, Set<String> familiesAccessDenied, Set<String> familiesAccessIndeterminate,
 									 Map<String, Set<String>> columnsAccessAllowed) {
@@ -63,6 +75,24 @@ public class RangerAuthorizationFilter extends FilterBase {
 			LOG.debug("==> filterKeyValue");
 		}
 
+		// a scan sees the same columns over and over, so reuse decisions already made for this family/column
+		_lookupKey.set(kv);
+		ReturnCode result = _columnDecisions.get(_lookupKey);
+		if (result == null) {
+			result = evaluate(kv);
+			_columnDecisions.put(_lookupKey.copy(), result);
+		} else if (LOG.isDebugEnabled()) {
+			LOG.debug("filterKeyValue: family/column found in filter's decision cache.");
+		}
+
+		if (LOG.isDebugEnabled()) {
+			LOG.debug("filterKeyValue: " + result);
+		}
+		return result;
+	}
+
+	@SuppressWarnings("deprecation")
+	ReturnCode evaluate(Cell kv) {
 		String family = null;
 		byte[] familyBytes = kv.getFamily();
 		if (familyBytes != null && familyBytes.length > 0) {
@@ -126,9 +156,6 @@ public class RangerAuthorizationFilter extends FilterBase {
 				LOG.debug("filterKeyValue: Access denied.  Denial not audited.");
 			}
 		}
-		if (LOG.isDebugEnabled()) {
-			LOG.debug("filterKeyValue: " + result);
-		}
 		return result;
 	}
 
@@ -143,4 +170,59 @@ public class RangerAuthorizationFilter extends FilterBase {
 
 	}
 
+	/**
+	 * Family/column of a cell, compared by bytes so that cache lookups need neither String conversion nor copies.
+	 * Instances used for lookup point into the cell's backing arrays; instances stored in the cache own their bytes.
+	 */
+	static class ColumnKey {
+		byte[] _familyArray;
+		int _familyOffset;
+		int _familyLength;
+		byte[] _qualifierArray;
+		int _qualifierOffset;
+		int _qualifierLength;
+		int _hashCode;
+
+		void set(Cell cell) {
+			set(cell.getFamilyArray(), cell.getFamilyOffset(), cell.getFamilyLength(),
+					cell.getQualifierArray(), cell.getQualifierOffset(), cell.getQualifierLength());
+		}
+
+		void set(byte[] familyArray, int familyOffset, int familyLength, byte[] qualifierArray, int qualifierOffset, int qualifierLength) {
+			_familyArray = familyArray;
+			_familyOffset = familyOffset;
+			_familyLength = familyLength;
+			_qualifierArray = qualifierArray;
+			_qualifierOffset = qualifierOffset;
+			_qualifierLength = qualifierLength;
+			_hashCode = 31 * Bytes.hashCode(familyArray, familyOffset, familyLength) + Bytes.hashCode(qualifierArray, qualifierOffset, qualifierLength);
+		}
+
+		ColumnKey copy() {
+			ColumnKey result = new ColumnKey();
+			result.set(Bytes.copy(_familyArray, _familyOffset, _familyLength), 0, _familyLength,
+					Bytes.copy(_qualifierArray, _qualifierOffset, _qualifierLength), 0, _qualifierLength);
+			return result;
+		}
+
+		@Override
+		public int hashCode() {
+			return _hashCode;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof ColumnKey)) {
+				return false;
+			}
+			ColumnKey other = (ColumnKey)obj;
+			return _hashCode == other._hashCode
+					&& Bytes.equals(_familyArray, _familyOffset, _familyLength, other._familyArray, other._familyOffset, other._familyLength)
+					&& Bytes.equals(_qualifierArray, _qualifierOffset, _qualifierLength, other._qualifierArray, other._qualifierOffset, other._qualifierLength);
+		}
+	}
+
 }
@@ -23,8 +23,23 @@ package org.apache.ranger.authorization.hbase;
 import static org.junit.Assert.*;
 import static org.mockito.Mockito.*;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
 import org.apache.hadoop.hbase.security.User;
+import org.apache.ranger.plugin.model.RangerPolicy;
+import org.apache.ranger.plugin.model.RangerPolicy.RangerPolicyItem;
+import org.apache.ranger.plugin.model.RangerPolicy.RangerPolicyItemAccess;
+import org.apache.ranger.plugin.model.RangerPolicy.RangerPolicyItemCondition;
+import org.apache.ranger.plugin.model.RangerPolicy.RangerPolicyResource;
+import org.apache.ranger.plugin.model.RangerServiceDef;
+import org.apache.ranger.plugin.model.RangerServiceDef.RangerAccessTypeDef;
+import org.apache.ranger.plugin.model.RangerServiceDef.RangerResourceDef;
 import org.apache.ranger.plugin.service.RangerBasePlugin;
+import org.apache.ranger.plugin.util.ServicePolicies;
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -214,4 +229,102 @@ public class AuthorizationSessionTest {
 	public void testBuildResult() {
 //		fail("Not yet implemented");
 	}
+
+	@Test
+	public void testIsAccessUniformForColumns() {
+		RangerBasePlugin plugin = createPlugin();
+		String[] columns = new String[] { "c1", "c2", "c3", "c4" };
+
+		HbaseAuditHandler handler = new HbaseAuditHandlerImpl();
+		assertTrue(createSession(plugin, handler, "user1", "family1").isAccessUniformForColumns());
+		assertFalse(createSession(plugin, handler, "user1", "family2").isAccessUniformForColumns());
+		assertTrue(createSession(plugin, handler, "user1", "family3").isAccessUniformForColumns());
+		assertFalse(createSession(plugin, handler, "user1", "family4").isAccessUniformForColumns());
+		// column family is needed to tell
+		assertFalse(createSession(plugin, handler, "user1", null).isAccessUniformForColumns());
+
+		for (String family : new String[] { "family1", "family3" }) {
+			for (String userName : new String[] { "user1", "user2" }) {
+				// family level decision, as done by evaluateAccess for uniform families, is that of each column
+				AuthorizationSession session = createSession(plugin, handler, userName, family);
+				boolean expected = session.buildRequest()
+						.authorize()
+						.isAuthorized();
+				for (String column : columns) {
+					session.column(column)
+						.buildRequest()
+						.authorize();
+					assertEquals(family + ":" + column + " for " + userName, expected, session.isAuthorized());
+				}
+			}
+		}
+	}
+
+	AuthorizationSession createSession(RangerBasePlugin plugin, HbaseAuditHandler handler, String userName, String family) {
+		User user = mock(User.class);
+		when(user.getShortName()).thenReturn(userName);
+		when(user.getGroupNames()).thenReturn(new String[] { userName + "-group" });
+		return new AuthorizationSession(plugin)
+			.operation("get")
+			.auditHandler(handler)
+			.user(user)
+			.access("read")
+			.table("table1")
+			.columnFamily(family);
+	}
+
+	RangerBasePlugin createPlugin() {
+		List<RangerPolicy> policies = new ArrayList<RangerPolicy>();
+		// user1 can read all of family1, some columns of family2, nothing in family3 and all but c4 of family4
+		policies.add(createPolicy(1L, "family1", Arrays.asList("*"), "user1-group"));
+		policies.add(createPolicy(2L, "family2", Arrays.asList("c1", "c3"), "user1-group"));
+		policies.add(createPolicy(3L, "family4", Arrays.asList("c4"), true, null, Arrays.asList("user1-group")));
+		// user2 can read only c2 of family2
+		policies.add(createPolicy(4L, "family2", Arrays.asList("c2"), "user2-group"));
+
+		RangerBasePlugin plugin = new RangerBasePlugin("hbase", "hbase");
+		plugin.setPolicies(createServicePolicies(policies));
+		return plugin;
+	}
+
+	static ServicePolicies createServicePolicies(List<RangerPolicy> policies) {
+		RangerServiceDef serviceDef = new RangerServiceDef();
+		serviceDef.setName("hbase");
+		List<RangerResourceDef> resourceDefs = new ArrayList<RangerResourceDef>();
+		for (String resourceName : new String[] { "table", "column-family", "column" }) {
+			RangerResourceDef resourceDef = new RangerResourceDef();
+			resourceDef.setName(resourceName);
+			resourceDefs.add(resourceDef);
+		}
+		serviceDef.setResources(resourceDefs);
+		List<RangerAccessTypeDef> accessTypeDefs = new ArrayList<RangerAccessTypeDef>();
+		for (String accessType : new String[] { "read", "write", "create", "admin" }) {
+			RangerAccessTypeDef accessTypeDef = new RangerAccessTypeDef();
+			accessTypeDef.setName(accessType);
+			accessTypeDefs.add(accessTypeDef);
+		}
+		serviceDef.setAccessTypes(accessTypeDefs);
+
+		ServicePolicies servicePolicies = new ServicePolicies();
+		servicePolicies.setServiceName("hbasedev");
+		servicePolicies.setServiceDef(serviceDef);
+		servicePolicies.setPolicies(policies);
+		return servicePolicies;
+	}
+
+	RangerPolicy createPolicy(Long id, String family, List<String> columns, String group) {
+		return createPolicy(id, family, columns, false, null, Arrays.asList(group));
+	}
+
+	static RangerPolicy createPolicy(Long id, String family, List<String> columns, boolean isExcludes, List<String> users, List<String> groups) {
+		Map<String, RangerPolicyResource> resources = new HashMap<String, RangerPolicyResource>();
+		resources.put("table", new RangerPolicyResource("table1"));
+		resources.put("column-family", new RangerPolicyResource(family));
+		resources.put("column", new RangerPolicyResource(columns, isExcludes, false));
+		RangerPolicyItem policyItem = new RangerPolicyItem(Arrays.asList(new RangerPolicyItemAccess("read")), users,
+				groups, new ArrayList<RangerPolicyItemCondition>(), false);
+		RangerPolicy policy = new RangerPolicy("hbasedev", "policy" + id, null, null, resources, Arrays.asList(policyItem), null);
+		policy.setId(id);
+		return policy;
+	}
 }
@@ -19,12 +19,27 @@
 package org.apache.ranger.authorization.hbase;
 
 import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
 
+import java.lang.reflect.Field;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.NavigableSet;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
 
+import org.apache.hadoop.hbase.HRegionInfo;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.coprocessor.RegionCoprocessorEnvironment;
+import org.apache.hadoop.hbase.regionserver.Region;
+import org.apache.hadoop.hbase.security.User;
+import org.apache.hadoop.hbase.security.access.Permission.Action;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.ranger.authorization.hbase.RangerAuthorizationCoprocessor.ColumnFamilyAccessResult;
+import org.apache.ranger.plugin.model.RangerPolicy;
 import org.junit.Test;
 
 public class RangerAuthorizationCoprocessorTest {
@@ -50,4 +65,66 @@ public class RangerAuthorizationCoprocessorTest {
 		// same for passing in an empty collection
 //		result = _coprocessor.getColumnFamilies(new HashMap<byte[], ? extends Collection<?>>());
 	}
+
+	@Test
+	public void test_evaluateAccess_excludedColumn() throws Exception {
+		// the user can read every column of family1 except secret, so each column is checked
+		String userName = User.getCurrent().getShortName();
+		RangerPolicy policy = AuthorizationSessionTest.createPolicy(1L, "family1", Arrays.asList("secret"), true, Arrays.asList(userName), null);
+
+		ColumnFamilyAccessResult result = evaluateAccess(policy, "family1", "c1", "c2", "secret");
+
+		assertFalse(result._everythingIsAccessible);
+		assertTrue(result._somethingIsAccessible);
+		assertTrue(result._denialReason, result._denialReason.contains("column: secret"));
+		assertEquals(new TreeSet<String>(Arrays.asList("c1", "c2")), new TreeSet<String>(result._filter._columnsAccessAllowed.get("family1")));
+	}
+
+	@Test
+	public void test_evaluateAccess_uniformFamily() throws Exception {
+		// the user can read every column of family1 and nothing else, so a single check decides for all the columns of a family
+		String userName = User.getCurrent().getShortName();
+		RangerPolicy policy = AuthorizationSessionTest.createPolicy(1L, "family1", Arrays.asList("*"), false, Arrays.asList(userName), null);
+
+		ColumnFamilyAccessResult result = evaluateAccess(policy, "family1", "c1", "c2", "c3");
+
+		assertTrue(result._everythingIsAccessible);
+		assertTrue(result._somethingIsAccessible);
+		assertEquals(new TreeSet<String>(Arrays.asList("c1", "c2", "c3")), new TreeSet<String>(result._filter._columnsAccessAllowed.get("family1")));
+
+		result = evaluateAccess(policy, "family2", "c1", "c2", "c3");
+
+		assertFalse(result._everythingIsAccessible);
+		assertFalse(result._somethingIsAccessible);
+		assertTrue(result._denialReason, result._denialReason.contains("family:family2"));
+		assertFalse(result._filter._columnsAccessAllowed.containsKey("family2"));
+	}
+
+	ColumnFamilyAccessResult evaluateAccess(RangerPolicy policy, String family, String... columnNames) throws Exception {
+		RangerHBasePlugin plugin = new RangerHBasePlugin("hbase");
+		plugin.setPolicies(AuthorizationSessionTest.createServicePolicies(Arrays.asList(policy)));
+
+		Field field = RangerAuthorizationCoprocessor.class.getDeclaredField("hbasePlugin");
+		field.setAccessible(true);
+		Object savedPlugin = field.get(null);
+		field.set(null, plugin);
+		try {
+			Region region = mock(Region.class);
+			when(region.getRegionInfo()).thenReturn(new HRegionInfo(TableName.valueOf("table1")));
+			RegionCoprocessorEnvironment env = mock(RegionCoprocessorEnvironment.class);
+			when(env.getRegion()).thenReturn(region);
+
+			NavigableSet<byte[]> columns = new TreeSet<byte[]>(Bytes.BYTES_COMPARATOR);
+			for (String columnName : columnNames) {
+				columns.add(Bytes.toBytes(columnName));
+			}
+			Map<byte[], NavigableSet<byte[]>> familyMap = new TreeMap<byte[], NavigableSet<byte[]>>(Bytes.BYTES_COMPARATOR);
+			familyMap.put(Bytes.toBytes(family), columns);
+
+			RangerAuthorizationCoprocessor coprocessor = new RangerAuthorizationCoprocessor();
+			return coprocessor.evaluateAccess("get", Action.READ, env, familyMap);
+		} finally {
+			field.set(null, savedPlugin);
+		}
+	}
 }
@@ -21,6 +21,8 @@ package org.apache.ranger.authorization.hbase;
 import static org.junit.Assert.assertEquals;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.io.IOException;
@@ -32,7 +34,9 @@ import java.util.Set;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.KeyValue;
 import org.apache.hadoop.hbase.filter.Filter.ReturnCode;
+import org.apache.hadoop.hbase.util.Bytes;
 import org.junit.Test;
 
 import com.google.common.collect.Sets;
@@ -62,46 +66,67 @@ public class RangerAuthorizationFilterTest {
 		RangerAuthorizationFilter filter = new RangerAuthorizationFilter(session, familiesAccessAllowed, familiesAccessDenied, familiesAccessIndeterminate, columnsAccessAllowed);
 
 		// evaluate access for various types of cases
-		Cell aCell = mock(Cell.class);
 		// families with know denied acess
 		for (String family : deniedFamilies) {
-			when(aCell.getFamily()).thenReturn(family.getBytes());
-			assertEquals(ReturnCode.NEXT_COL, filter.filterKeyValue(aCell));
+			assertEquals(ReturnCode.NEXT_COL, filter.filterKeyValue(createCell(family, "some-column")));
 		}
 		// family that isn't in allowed and if cell does not have column then it should be denied
-		when(aCell.getFamily()).thenReturn("family7".getBytes());
-		when(aCell.getQualifier()).thenReturn(null);
-		assertEquals(ReturnCode.NEXT_COL, filter.filterKeyValue(aCell));
+		assertEquals(ReturnCode.NEXT_COL, filter.filterKeyValue(createCell("family7", null)));
 		// families with known partial access
 		for (String column : family7KnowGoodColumns ) {
-			when(aCell.getQualifier()).thenReturn(column.getBytes());
-			assertEquals(ReturnCode.INCLUDE, filter.filterKeyValue(aCell));
+			assertEquals(ReturnCode.INCLUDE, filter.filterKeyValue(createCell("family7", column)));
 		}
-		when(aCell.getFamily()).thenReturn("family8".getBytes());
 		for (String column : family8KnowGoodColumns ) {
-			when(aCell.getQualifier()).thenReturn(column.getBytes());
-			assertEquals(ReturnCode.INCLUDE, filter.filterKeyValue(aCell));
+			assertEquals(ReturnCode.INCLUDE, filter.filterKeyValue(createCell("family8", column)));
 		}
 		// try some columns that are not in the cache
 		for (String column : new String[] { "family8-column3", "family8-column4"}) {
-			when(aCell.getQualifier()).thenReturn(column.getBytes());
-			assertEquals(ReturnCode.NEXT_COL, filter.filterKeyValue(aCell));
+			assertEquals(ReturnCode.NEXT_COL, filter.filterKeyValue(createCell("family8", column)));
 		}
 		// families with known allowed access - for these we need to doctor up the session
 		when(session.isAuthorized()).thenReturn(true);
 		for (String family : allowedFamilies) {
-			when(aCell.getFamily()).thenReturn(family.getBytes());
-			when(aCell.getQualifier()).thenReturn("some-column".getBytes());
-			assertEquals(ReturnCode.INCLUDE, filter.filterKeyValue(aCell));
+			assertEquals(ReturnCode.INCLUDE, filter.filterKeyValue(createCell(family, "some-column")));
 		}
 		when(session.isAuthorized()).thenReturn(false);
 		for (String family : indeterminateFamilies) {
-			when(aCell.getFamily()).thenReturn(family.getBytes());
-			when(aCell.getQualifier()).thenReturn("some-column".getBytes());
-			assertEquals(ReturnCode.NEXT_COL, filter.filterKeyValue(aCell));
+			assertEquals(ReturnCode.NEXT_COL, filter.filterKeyValue(createCell(family, "some-column")));
 		}
 	}
 
+	@Test
+	public void testFilterKeyValueCell_decisionsCachedPerColumn() throws IOException {
+
+		Set<String> familiesAccessIndeterminate = ImmutableSet.of("family1", "family2");
+		Set<String> empty = Collections.emptySet();
+		Map<String, Set<String>> noColumns = Collections.emptyMap();
+
+		AuthorizationSession session = createSessionMock();
+		RangerAuthorizationFilter filter = new RangerAuthorizationFilter(session, empty, empty, familiesAccessIndeterminate, noColumns);
+
+		// every row has the same 5 columns in each of the 2 families, only column0 and column1 are allowed
+		when(session.isAuthorized()).thenReturn(true, true, false, false, false, true, true, false, false, false);
+		int rows = 1000;
+		int included = 0;
+		for (int row = 0; row < rows; row++) {
+			for (String family : familiesAccessIndeterminate) {
+				for (int col = 0; col < 5; col++) {
+					KeyValue cell = new KeyValue(Bytes.toBytes("row" + row), Bytes.toBytes(family), Bytes.toBytes("column" + col), Bytes.toBytes("value"));
+					if (filter.filterKeyValue(cell) == ReturnCode.INCLUDE) {
+						included++;
+					}
+				}
+			}
+		}
+		assertEquals(rows * 2 * 2, included);
+		// one evaluation per distinct column, not per cell
+		verify(session, times(10)).authorize();
+	}
+
+	Cell createCell(String family, String column) {
+		return new KeyValue(Bytes.toBytes("row1"), Bytes.toBytes(family), column == null ? null : Bytes.toBytes(column), Bytes.toBytes("value"));
+	}
+
 	AuthorizationSession createSessionMock() {
 		AuthorizationSession session = mock(AuthorizationSession.class);
 		when(session.column(anyString())).thenReturn(session);
@@ -24,8 +24,11 @@ import static org.apache.ranger.authorization.hadoop.constants.RangerHadoopConst
 import static org.apache.ranger.authorization.hadoop.constants.RangerHadoopConstants.WRITE_ACCCESS_TYPE;
 
 import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.Stack;
@@ -145,6 +148,15 @@ public class RangerHdfsAuthorizer extends INodeAttributeProvider {
 		return ret;
 	}
 
+	// objects reused by checkPermission() calls on the same RPC handler thread. The NameNode asks for a new enforcer on every
+	// permission check, so these are kept here rather than in the enforcer
+	private final ThreadLocal<RangerHdfsAuthzContext> authzContext = new ThreadLocal<RangerHdfsAuthzContext>() {
+		@Override
+		protected RangerHdfsAuthzContext initialValue() {
+			return new RangerHdfsAuthzContext();
+		}
+	};
+
 	@Override
 	public AccessControlEnforcer getExternalAccessControlEnforcer(AccessControlEnforcer defaultEnforcer) {
 		if(LOG.isDebugEnabled()) {
@@ -184,6 +196,7 @@ public class RangerHdfsAuthorizer extends INodeAttributeProvider {
 									FsAction subAccess, boolean ignoreEmptyDir) throws AccessControlException {
 			boolean                accessGranted = false;
 			RangerHdfsPlugin       plugin        = rangerPlugin;
+			RangerHdfsAuthzContext context       = null;
 			RangerHdfsAuditHandler auditHandler  = null;
 			String                 user          = ugi != null ? ugi.getShortUserName() : null;
 			Set<String>            groups        = ugi != null ? Sets.newHashSet(ugi.getGroupNames()) : null;
@@ -198,7 +211,12 @@ public class RangerHdfsAuthorizer extends INodeAttributeProvider {
 
 			try {
 				if(plugin != null && !ArrayUtils.isEmpty(inodes)) {
-					auditHandler = new RangerHdfsAuditHandler(path);
+					context      = acquireAuthzContext();
+					auditHandler = context.auditHandler;
+
+					auditHandler.reset(path);
+					context.accessTime = StringUtil.getUTCDate();
+					context.clientIp   = RangerHdfsAccessRequest.getRemoteIp();
 
 					if(ancestorIndex >= inodes.length) {
 						ancestorIndex = inodes.length - 1;
@@ -227,7 +245,7 @@ public class RangerHdfsAuthorizer extends INodeAttributeProvider {
 						}
 
 						if(node != null) {
-							accessGranted = isAccessAllowed(node, nodeAttribs, FsAction.EXECUTE, user, groups, fsOwner, superGroup, plugin, null);
+							accessGranted = isAccessAllowed(node, nodeAttribs, FsAction.EXECUTE, user, groups, fsOwner, superGroup, plugin, null, context);
 						}
 					}
 
@@ -243,21 +261,21 @@ public class RangerHdfsAuthorizer extends INodeAttributeProvider {
 					if(accessGranted && ancestorAccess != null && ancestor != null) {
 						INodeAttributes ancestorAttribs = inodeAttrs.length > ancestorIndex ? inodeAttrs[ancestorIndex] : null;
 
-						accessGranted = isAccessAllowed(ancestor, ancestorAttribs, ancestorAccess, user, groups, fsOwner, superGroup, plugin, auditHandler);
+						accessGranted = isAccessAllowed(ancestor, ancestorAttribs, ancestorAccess, user, groups, fsOwner, superGroup, plugin, auditHandler, context);
 					}
 
 					// checkParentAccess
 					if(accessGranted && parentAccess != null && parent != null) {
 						INodeAttributes parentAttribs = inodeAttrs.length > 1 ? inodeAttrs[inodeAttrs.length - 2] : null;
 
-						accessGranted = isAccessAllowed(parent, parentAttribs, parentAccess, user, groups, fsOwner, superGroup, plugin, auditHandler);
+						accessGranted = isAccessAllowed(parent, parentAttribs, parentAccess, user, groups, fsOwner, superGroup, plugin, auditHandler, context);
 					}
 
 					// checkINodeAccess
 					if(accessGranted && access != null && inode != null) {
 						INodeAttributes inodeAttribs = inodeAttrs.length > 0 ? inodeAttrs[inodeAttrs.length - 1] : null;
 
-						accessGranted = isAccessAllowed(inode, inodeAttribs, access, user, groups, fsOwner, superGroup, plugin, auditHandler);
+						accessGranted = isAccessAllowed(inode, inodeAttribs, access, user, groups, fsOwner, superGroup, plugin, auditHandler, context);
 					}
 
 					// checkSubAccess
@@ -271,11 +289,20 @@ public class RangerHdfsAuthorizer extends INodeAttributeProvider {
 							if (!(cList.isEmpty() && ignoreEmptyDir)) {
 								INodeAttributes dirAttribs = dir.getSnapshotINode(snapshotId);
 
-								accessGranted = isAccessAllowed(dir, dirAttribs, subAccess, user, groups, fsOwner, superGroup, plugin, auditHandler);
+								accessGranted = isAccessAllowed(dir, dirAttribs, subAccess, user, groups, fsOwner, superGroup, plugin, auditHandler, context);
 
 								if(! accessGranted) {
 									break;
 								}
+
+								// no policy can decide differently for anything under this directory; skip the descendants
+								if(!cList.isEmpty() && plugin.isAccessUniformForSubtree(context.getResource(getPath(dir), null))) {
+									if(LOG.isDebugEnabled()) {
+										LOG.debug("RangerAccessControlEnforcer.checkPermission(): access is uniform under " + getPath(dir) + "; skipping its descendants");
+									}
+
+									continue;
+								}
 							}
 
 							for(INode child : cList) {
@@ -331,25 +358,25 @@ public class RangerHdfsAuthorizer extends INodeAttributeProvider {
 					auditHandler.flushAudit();
 				}
 
+				if(context != null) {
+					releaseAuthzContext(context);
+				}
+
 				if(LOG.isDebugEnabled()) {
 					LOG.debug("<== RangerAccessControlEnforcer.checkPermission(" + path + ", " + access + ", user=" + user + ") : " + accessGranted);
 				}
 			}
 		}
 
-		private boolean isAccessAllowed(INode inode, INodeAttributes inodeAttribs, FsAction access, String user, Set<String> groups, String fsOwner, String superGroup, RangerHdfsPlugin plugin, RangerHdfsAuditHandler auditHandler) {
+		private boolean isAccessAllowed(INode inode, INodeAttributes inodeAttribs, FsAction access, String user, Set<String> groups, String fsOwner, String superGroup, RangerHdfsPlugin plugin, RangerHdfsAuditHandler auditHandler, RangerHdfsAuthzContext context) {
 			boolean ret       = false;
-			String  path      = inode != null ? inode.getFullPathName() : null;
+			String  path      = getPath(inode);
 			String  pathOwner = inodeAttribs != null ? inodeAttribs.getUserName() : null;
 
 			if(pathOwner == null && inode != null) {
 				pathOwner = inode.getUserName();
 			}
 
-			if (RangerHadoopConstants.HDFS_ROOT_FOLDER_PATH_ALT.equals(path)) {
-				path = RangerHadoopConstants.HDFS_ROOT_FOLDER_PATH;
-			}
-
 			if(LOG.isDebugEnabled()) {
 				LOG.debug("==> RangerAccessControlEnforcer.isAccessAllowed(" + path + ", " + access + ", " + user + ")");
 			}
@@ -362,18 +389,28 @@ public class RangerHdfsAuthorizer extends INodeAttributeProvider {
 				accessTypes = access2ActionListMapper.get(FsAction.NONE);
 			}
 
-			for(String accessType : accessTypes) {
-				RangerHdfsAccessRequest request = new RangerHdfsAccessRequest(path, pathOwner, access, accessType, user, groups);
+			// all the access types are evaluated in one pass over the policies, on a single resource
+			List<RangerAccessRequest> requests = context.getRequests(path, pathOwner, access, accessTypes, user, groups);
 
-				RangerAccessResult result = plugin.isAccessAllowed(request, auditHandler);
+			List<RangerAccessResult> results = plugin.isAccessAllowedForAccessTypes(requests, null);
+
+			if (results == null) {
+				LOG.error("RangerAccessControlEnforcer: Internal error: null RangerAccessResult object received back from isAccessAllowed()!");
+			} else {
+				// audit the results in order, up to the first denial
+				for(RangerAccessResult result : results) {
+					if (result == null) {
+						LOG.error("RangerAccessControlEnforcer: Internal error: null RangerAccessResult object received back from isAccessAllowed()!");
+					} else {
+						if(auditHandler != null) {
+							auditHandler.processResult(result);
+						}
 
-				if (result == null) {
-					LOG.error("RangerAccessControlEnforcer: Internal error: null RangerAccessResult object received back from isAccessAllowed()!");
-				} else {
-					ret = result.getIsAllowed();
+						ret = result.getIsAllowed();
 
-					if (!ret) {
-						break;
+						if (!ret) {
+							break;
+						}
 					}
 				}
 			}
@@ -384,6 +421,32 @@ public class RangerHdfsAuthorizer extends INodeAttributeProvider {
 
 			return ret;
 		}
+
+		private RangerHdfsAuthzContext acquireAuthzContext() {
+			RangerHdfsAuthzContext ret = authzContext.get();
+
+			if(ret.isInUse) { // nested call on the same thread; don't disturb the outer call's objects
+				ret = new RangerHdfsAuthzContext();
+			}
+
+			ret.isInUse = true;
+
+			return ret;
+		}
+
+		private void releaseAuthzContext(RangerHdfsAuthzContext context) {
+			context.isInUse = false;
+		}
+
+		private String getPath(INode inode) {
+			String ret = inode != null ? inode.getFullPathName() : null;
+
+			if (RangerHadoopConstants.HDFS_ROOT_FOLDER_PATH_ALT.equals(ret)) {
+				ret = RangerHadoopConstants.HDFS_ROOT_FOLDER_PATH;
+			}
+
+			return ret;
+		}
 	}
 }
 
@@ -411,23 +474,32 @@ class RangerHdfsResource extends RangerAccessResourceImpl {
 
 
 	public RangerHdfsResource(String path, String owner) {
+		reset(path, owner);
+	}
+
+	public void reset(String path, String owner) {
 		super.setValue(KEY_PATH, path);
 		super.setOwnerUser(owner);
 	}
 }
 
 class RangerHdfsAccessRequest extends RangerAccessRequestImpl {
-	public RangerHdfsAccessRequest(String path, String pathOwner, FsAction access, String accessType, String user, Set<String> groups) {
-		super.setResource(new RangerHdfsResource(path, pathOwner));
+	public RangerHdfsAccessRequest() {
+	}
+
+	public void reset(RangerHdfsResource resource, FsAction access, String accessType, String user, Set<String> groups, Date accessTime, String clientIp) {
+		super.setResource(resource);
 		super.setAccessType(accessType);
 		super.setUser(user);
 		super.setUserGroups(groups);
-		super.setAccessTime(StringUtil.getUTCDate());
-		super.setClientIPAddress(getRemoteIp());
+		super.setAccessTime(accessTime);
+		super.setClientIPAddress(clientIp);
 		super.setAction(access.toString());
+
+		getContext().clear();
 	}
 	
-	private static String getRemoteIp() {
+	static String getRemoteIp() {
 		String ret = null ;
 		InetAddress ip = Server.getRemoteIp() ;
 		if (ip != null) {
@@ -437,6 +509,51 @@ class RangerHdfsAccessRequest extends RangerAccessRequestImpl {
 	}
 }
 
+/**
+ * Objects used by one checkPermission() call. An instance is kept per RPC handler thread and reset for each call, so
+ * that the NameNode doesn't allocate them at every permission check.
+ */
+class RangerHdfsAuthzContext {
+	final RangerHdfsAuditHandler        auditHandler = new RangerHdfsAuditHandler(null);
+	final RangerHdfsResource            resource     = new RangerHdfsResource(null, null);
+	final List<RangerHdfsAccessRequest> requestPool  = new ArrayList<RangerHdfsAccessRequest>();
+	final List<RangerAccessRequest>     requests     = new ArrayList<RangerAccessRequest>();
+	Date                                accessTime   = null;
+	String                              clientIp     = null;
+	boolean                             isInUse      = false;
+
+	RangerHdfsResource getResource(String path, String owner) {
+		resource.reset(path, owner);
+
+		return resource;
+	}
+
+	// returns one request per access type, all on the same resource; valid until the next call
+	List<RangerAccessRequest> getRequests(String path, String owner, FsAction access, Set<String> accessTypes, String user, Set<String> groups) {
+		RangerHdfsResource resource = getResource(path, owner);
+
+		requests.clear();
+
+		for(String accessType : accessTypes) {
+			RangerHdfsAccessRequest request;
+
+			if(requests.size() < requestPool.size()) {
+				request = requestPool.get(requests.size());
+			} else {
+				request = new RangerHdfsAccessRequest();
+
+				requestPool.add(request);
+			}
+
+			request.reset(resource, access, accessType, user, groups, accessTime, clientIp);
+
+			requests.add(request);
+		}
+
+		return requests;
+	}
+}
+
 class RangerHdfsAuditHandler extends RangerDefaultAuditHandler {
 	private static final Log LOG = LogFactory.getLog(RangerHdfsAuditHandler.class);
 
@@ -462,7 +579,17 @@ class RangerHdfsAuditHandler extends RangerDefaultAuditHandler {
 	}
 
 	public RangerHdfsAuditHandler(String pathToBeValidated) {
-		auditEvent = new AuthzAuditEvent();
+		reset(pathToBeValidated);
+	}
+
+	public void reset(String pathToBeValidated) {
+		isAuditEnabled = false;
+
+		// an event sent to the audit provider could still be in its async queue, hence is not reused
+		if(auditEvent == null) {
+			auditEvent = new AuthzAuditEvent();
+		}
+
 		auditEvent.setResourcePath(pathToBeValidated);
 	}
 
@@ -520,13 +647,15 @@ class RangerHdfsAuditHandler extends RangerDefaultAuditHandler {
 			LOG.debug("==> RangerHdfsAuditHandler.flushAudit(" + isAuditEnabled + ", " + auditEvent + ")");
 		}
 
-		if(isAuditEnabled && !StringUtils.isEmpty(auditEvent.getAccessType())) {
+		if(isAuditEnabled && auditEvent != null && !StringUtils.isEmpty(auditEvent.getAccessType())) {
 			String username = auditEvent.getUser();
 
 			boolean skipLog = (username != null && excludeUsers != null && excludeUsers.contains(username)) ;
 
 			if (! skipLog) {
 				super.logAuthzAudit(auditEvent);
+
+				auditEvent = null;
 			}
 		}
 
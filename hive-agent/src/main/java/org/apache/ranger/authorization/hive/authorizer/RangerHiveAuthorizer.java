@@ -21,6 +21,7 @@
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -53,10 +54,12 @@ import org.apache.hadoop.security.UserGroupInformation;
 import org.apache.ranger.authorization.hadoop.config.RangerConfiguration;
 import org.apache.ranger.authorization.hadoop.constants.RangerHadoopConstants;
 import org.apache.ranger.authorization.utils.StringUtil;
+import org.apache.ranger.plugin.policyengine.CacheMap;
 import org.apache.ranger.plugin.policyengine.RangerAccessRequest;
 import org.apache.ranger.plugin.policyengine.RangerAccessResult;
 import org.apache.ranger.plugin.service.RangerBasePlugin;
 import org.apache.ranger.plugin.util.GrantRevokeRequest;
+import org.apache.ranger.plugin.util.ServicePolicies;
 
 import com.google.common.collect.Sets;
 
@@ -394,46 +397,8 @@ public class RangerHiveAuthorizer extends RangerHiveAuthorizerBase {
 				LOG.debug(String.format("filterListCmdObjects: user[%s], groups%s", user, groups));
 			}
 			
-			if (ret == null) { // if we got any items to filter then we can't return back a null.  We must return back a list even if its empty.
-				ret = new ArrayList<HivePrivilegeObject>(objs.size());
-			}
-			for (HivePrivilegeObject privilegeObject : objs) {
-				if (LOG.isDebugEnabled()) {
-					HivePrivObjectActionType actionType = privilegeObject.getActionType();
-					HivePrivilegeObjectType objectType = privilegeObject.getType();
-					String objectName = privilegeObject.getObjectName();
-					String dbName = privilegeObject.getDbname();
-					List<String> columns = privilegeObject.getColumns();
-					List<String> partitionKeys = privilegeObject.getPartKeys();
-					String commandString = context.getCommandString();
-					String ipAddress = context.getIpAddress();
-
-					final String format = "filterListCmdObjects: actionType[%s], objectType[%s], objectName[%s], dbName[%s], columns[%s], partitionKeys[%s]; context: commandString[%s], ipAddress[%s]";
-					LOG.debug(String.format(format, actionType, objectType, objectName, dbName, columns, partitionKeys, commandString, ipAddress));
-				}
-				
-				RangerHiveResource resource = createHiveResource(privilegeObject);
-				if (resource == null) {
-					LOG.error("filterListCmdObjects: RangerHiveResource returned by createHiveResource is null");
-				} else {
-					RangerHiveAccessRequest request = new RangerHiveAccessRequest(resource, user, groups, context, sessionContext);
-					RangerAccessResult result = hivePlugin.isAccessAllowed(request);
-					if (result == null) {
-						LOG.error("filterListCmdObjects: Internal error: null RangerAccessResult object received back from isAccessAllowed()!");
-					} else if (!result.getIsAllowed()) {
-						if (!LOG.isDebugEnabled()) {
-							String path = resource.getAsString();
-							LOG.debug(String.format("filterListCmdObjects: Permission denied: user [%s] does not have [%s] privilege on [%s]. resource[%s], request[%s], result[%s]",
-									user, request.getHiveAccessType().name(), path, resource, request, result));
-						}
-					} else {
-						if (LOG.isDebugEnabled()) {
-							LOG.debug(String.format("filterListCmdObjects: access allowed. resource[%s], request[%s], result[%s]", resource, request, result));
-						}
-						ret.add(privilegeObject);
-					}
-				}
-			}
+			// if we got any items to filter then we can't return back a null.  We must return back a list even if its empty.
+			ret = filterListCmdObjects(hivePlugin, objs, user, groups, context, sessionContext);
 		}
 
 		if (LOG.isDebugEnabled()) {
@@ -443,24 +408,93 @@ public class RangerHiveAuthorizer extends RangerHiveAuthorizerBase {
 		return ret;
 	}
 
-	RangerHiveResource createHiveResource(HivePrivilegeObject privilegeObject) {
-		RangerHiveResource resource = null;
+	/**
+	 * Filters the databases or tables of a listing, like SHOW TABLES, down to the ones the user has some access to.  User, groups and access
+	 * type are set up once in a single request, which is reused for all the objects: only the names in its resource change from one object
+	 * to the next.  Objects are audited only if enabled for listings, as a listing can have a very large number of objects.
+	 */
+	static List<HivePrivilegeObject> filterListCmdObjects(RangerHivePlugin          plugin,
+														  List<HivePrivilegeObject> objs,
+														  String                    user,
+														  Set<String>               groups,
+														  HiveAuthzContext          context,
+														  HiveAuthzSessionContext   sessionContext) {
+		List<HivePrivilegeObject> ret = new ArrayList<HivePrivilegeObject>(objs.size());
+
+		RangerHiveResource      resource     = new RangerHiveResource(HiveObjectType.NONE, null);
+		RangerHiveAccessRequest request      = new RangerHiveAccessRequest(resource, user, groups, context, sessionContext);
+		RangerHiveAuditHandler  auditHandler = plugin.isListObjectsAuditEnabled() ? new RangerHiveAuditHandler() : null;
+
+		for (HivePrivilegeObject privilegeObject : objs) {
+			if (LOG.isDebugEnabled()) {
+				HivePrivObjectActionType actionType = privilegeObject.getActionType();
+				HivePrivilegeObjectType objectType = privilegeObject.getType();
+				String objectName = privilegeObject.getObjectName();
+				String dbName = privilegeObject.getDbname();
+				List<String> columns = privilegeObject.getColumns();
+				List<String> partitionKeys = privilegeObject.getPartKeys();
+				String commandString = context == null ? null : context.getCommandString();
+				String ipAddress = context == null ? null : context.getIpAddress();
+
+				final String format = "filterListCmdObjects: actionType[%s], objectType[%s], objectName[%s], dbName[%s], columns[%s], partitionKeys[%s]; context: commandString[%s], ipAddress[%s]";
+				LOG.debug(String.format(format, actionType, objectType, objectName, dbName, columns, partitionKeys, commandString, ipAddress));
+			}
 
-		HivePrivilegeObjectType objectType = privilegeObject.getType();
-		String objectName = privilegeObject.getObjectName();
-		String dbName = privilegeObject.getDbname();
+			if (!setListCmdObject(resource, privilegeObject)) {
+				LOG.error("filterListCmdObjects: unexpected objectType: " + privilegeObject.getType() + ". Skipping object " + privilegeObject.getObjectName());
+				continue;
+			}
 
-		switch(objectType) {
+			RangerAccessResult result = plugin.isAccessAllowed(request, null);
+			if (result == null) {
+				LOG.error("filterListCmdObjects: Internal error: null RangerAccessResult object received back from isAccessAllowed()!");
+				continue;
+			}
+
+			if (auditHandler != null && result.getIsAudited()) {
+				// the event is created right away, before the resource is changed for the next object
+				auditHandler.logAuthzAudit(auditHandler.createAuditEvent(result));
+			}
+
+			if (!result.getIsAllowed()) {
+				if (LOG.isDebugEnabled()) {
+					String path = resource.getAsString();
+					LOG.debug(String.format("filterListCmdObjects: Permission denied: user [%s] does not have [%s] privilege on [%s]. resource[%s], request[%s], result[%s]",
+							user, request.getHiveAccessType().name(), path, resource, request, result));
+				}
+			} else {
+				if (LOG.isDebugEnabled()) {
+					LOG.debug(String.format("filterListCmdObjects: access allowed. resource[%s], request[%s], result[%s]", resource, request, result));
+				}
+				ret.add(privilegeObject);
+			}
+		}
+
+		return ret;
+	}
+
+	/**
+	 * Sets the resource to the database or table of a listing
+	 * @return false if the object is neither a database nor a table
+	 */
+	static boolean setListCmdObject(RangerHiveResource resource, HivePrivilegeObject privilegeObject) {
+		boolean ret = true;
+
+		switch(privilegeObject.getType()) {
 		case DATABASE:
-			resource = new RangerHiveResource(HiveObjectType.DATABASE, objectName);
+			resource.setObjectType(HiveObjectType.DATABASE);
+			resource.setValue(RangerHiveResource.KEY_DATABASE, privilegeObject.getObjectName());
+			resource.setValue(RangerHiveResource.KEY_TABLE, null);
 			break;
 		case TABLE_OR_VIEW:
-			resource = new RangerHiveResource(HiveObjectType.TABLE, dbName, objectName);
+			resource.setObjectType(HiveObjectType.TABLE);
+			resource.setValue(RangerHiveResource.KEY_DATABASE, privilegeObject.getDbname());
+			resource.setValue(RangerHiveResource.KEY_TABLE, privilegeObject.getObjectName());
 			break;
 		default:
-			LOG.warn("RangerHiveAuthorizer.getHiveResource: unexpected objectType:" + objectType);
+			ret = false;
 		}
-		return resource;
+		return ret;
 	}
 
 
@@ -716,20 +750,29 @@ public class RangerHiveAuthorizer extends RangerHiveAuthorizerBase {
         if(action == FsAction.NONE) {
             ret = true;
         } else {
-            try {
-                Path       filePath   = new Path(uri);
-                FileSystem fs         = FileSystem.get(filePath.toUri(), conf);
-                // Path       path       = FileUtils.getPathOrParentThatExists(fs, filePath);
-                // FileStatus fileStatus = fs.getFileStatus(path);
-                FileStatus fileStatus = FileUtils.getPathOrParentThatExists(fs, filePath);
-
-                if (FileUtils.isOwnerOfFileHierarchy(fs, fileStatus, userName)) {
-                    ret = true;
-                } else {
-                    ret = FileUtils.isActionPermittedForFileHierarchy(fs, fileStatus, userName, action);
+            Boolean cached = hivePlugin.getUriPermission(userName, action, uri);
+
+            if(cached != null) {
+                ret = cached;
+            } else {
+                try {
+                    Path       filePath   = new Path(uri);
+                    FileSystem fs         = FileSystem.get(filePath.toUri(), conf);
+                    // Path       path       = FileUtils.getPathOrParentThatExists(fs, filePath);
+                    // FileStatus fileStatus = fs.getFileStatus(path);
+                    FileStatus fileStatus = FileUtils.getPathOrParentThatExists(fs, filePath);
+
+                    if (FileUtils.isOwnerOfFileHierarchy(fs, fileStatus, userName)) {
+                        ret = true;
+                    } else {
+                        ret = FileUtils.isActionPermittedForFileHierarchy(fs, fileStatus, userName, action);
+                    }
+
+                    // errors are not cached, so that the check is retried on the next query
+                    hivePlugin.setUriPermission(userName, action, uri, ret);
+                } catch(Exception excp) {
+                    LOG.error("Error getting permissions for " + uri, excp);
                 }
-            } catch(Exception excp) {
-                LOG.error("Error getting permissions for " + uri, excp);
             }
         }
 
@@ -951,6 +994,15 @@ enum HiveAccessType { NONE, CREATE, ALTER, DROP, INDEX, LOCK, SELECT, UPDATE, US
 class RangerHivePlugin extends RangerBasePlugin {
 	public static boolean UpdateXaPoliciesOnGrantRevoke = RangerHadoopConstants.HIVE_UPDATE_RANGER_POLICIES_ON_GRANT_REVOKE_DEFAULT_VALUE;
 
+	private static final int  DEFAULT_URI_PERMISSION_CACHE_SIZE   = 1000;
+	private static final long DEFAULT_URI_PERMISSION_CACHE_TTL_MS = 30 * 1000;
+
+	private static final boolean DEFAULT_LIST_OBJECTS_AUDIT_ENABLED = false;
+
+	private volatile Map<String, UriPermission> uriPermissionCache        = null;
+	private long                                uriPermissionCacheTtlMs   = DEFAULT_URI_PERMISSION_CACHE_TTL_MS;
+	private boolean                             isListObjectsAuditEnabled = DEFAULT_LIST_OBJECTS_AUDIT_ENABLED;
+
 	public RangerHivePlugin(String appType) {
 		super("hive", appType);
 	}
@@ -960,6 +1012,76 @@ class RangerHivePlugin extends RangerBasePlugin {
 		super.init();
 
 		RangerHivePlugin.UpdateXaPoliciesOnGrantRevoke = RangerConfiguration.getInstance().getBoolean(RangerHadoopConstants.HIVE_UPDATE_RANGER_POLICIES_ON_GRANT_REVOKE_PROP, RangerHadoopConstants.HIVE_UPDATE_RANGER_POLICIES_ON_GRANT_REVOKE_DEFAULT_VALUE);
+
+		String propertyPrefix = "ranger.plugin." + getServiceType();
+		int    cacheSize      = RangerConfiguration.getInstance().getInt(propertyPrefix + ".uri.permission.cache.size", DEFAULT_URI_PERMISSION_CACHE_SIZE);
+
+		uriPermissionCacheTtlMs = RangerConfiguration.getInstance().getLong(propertyPrefix + ".uri.permission.cache.ttl.ms", DEFAULT_URI_PERMISSION_CACHE_TTL_MS);
+		uriPermissionCache      = (cacheSize > 0 && uriPermissionCacheTtlMs > 0) ? Collections.synchronizedMap(new CacheMap<String, UriPermission>(cacheSize)) : null;
+
+		isListObjectsAuditEnabled = RangerConfiguration.getInstance().getBoolean(propertyPrefix + ".list.objects.audit.enabled", DEFAULT_LIST_OBJECTS_AUDIT_ENABLED);
+	}
+
+	/**
+	 * @return true if each database or table returned by SHOW DATABASES/TABLES should be audited
+	 */
+	public boolean isListObjectsAuditEnabled() {
+		return isListObjectsAuditEnabled;
+	}
+
+	void setListObjectsAuditEnabled(boolean isListObjectsAuditEnabled) {
+		this.isListObjectsAuditEnabled = isListObjectsAuditEnabled;
+	}
+
+	@Override
+	public void setPolicies(ServicePolicies policies) {
+		super.setPolicies(policies);
+
+		Map<String, UriPermission> cache = uriPermissionCache;
+
+		if(cache != null) {
+			cache.clear();
+		}
+	}
+
+	/**
+	 * @return the cached result of the filesystem permission check on the uri; null if not cached or expired
+	 */
+	public Boolean getUriPermission(String user, FsAction action, String uri) {
+		Map<String, UriPermission> cache = uriPermissionCache;
+		Boolean                    ret   = null;
+
+		if(cache != null) {
+			UriPermission permission = cache.get(getUriPermissionKey(user, action, uri));
+
+			if(permission != null && (System.currentTimeMillis() - permission.checkTime) < uriPermissionCacheTtlMs) {
+				ret = permission.isAllowed;
+			}
+		}
+
+		return ret;
+	}
+
+	public void setUriPermission(String user, FsAction action, String uri, boolean isAllowed) {
+		Map<String, UriPermission> cache = uriPermissionCache;
+
+		if(cache != null) {
+			cache.put(getUriPermissionKey(user, action, uri), new UriPermission(isAllowed, System.currentTimeMillis()));
+		}
+	}
+
+	private String getUriPermissionKey(String user, FsAction action, String uri) {
+		return user + '\u0000' + action + '\u0000' + uri;
+	}
+
+	static class UriPermission {
+		final boolean isAllowed;
+		final long    checkTime;
+
+		UriPermission(boolean isAllowed, long checkTime) {
+			this.isAllowed = isAllowed;
+			this.checkTime = checkTime;
+		}
 	}
 }
 
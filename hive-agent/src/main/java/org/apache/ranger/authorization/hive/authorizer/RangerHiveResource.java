@@ -78,6 +78,10 @@ public class RangerHiveResource extends RangerAccessResourceImpl {
 		return objectType;
 	}
 
+	public void setObjectType(HiveObjectType objectType) {
+		this.objectType = objectType;
+	}
+
 	public String getDatabase() {
 		return getValue(KEY_DATABASE);
 	}
@@ -0,0 +1,146 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.ranger.authorization.hive.authorizer;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hive.ql.security.authorization.plugin.HivePrivilegeObject;
+import org.apache.hadoop.hive.ql.security.authorization.plugin.HivePrivilegeObject.HivePrivilegeObjectType;
+import org.apache.ranger.plugin.model.RangerPolicy;
+import org.apache.ranger.plugin.model.RangerPolicy.RangerPolicyItem;
+import org.apache.ranger.plugin.model.RangerPolicy.RangerPolicyItemAccess;
+import org.apache.ranger.plugin.model.RangerPolicy.RangerPolicyItemCondition;
+import org.apache.ranger.plugin.model.RangerPolicy.RangerPolicyResource;
+import org.apache.ranger.plugin.model.RangerServiceDef;
+import org.apache.ranger.plugin.model.RangerServiceDef.RangerAccessTypeDef;
+import org.apache.ranger.plugin.model.RangerServiceDef.RangerResourceDef;
+import org.apache.ranger.plugin.policyengine.RangerAccessResult;
+import org.apache.ranger.plugin.util.ServicePolicies;
+import org.junit.Test;
+
+import com.google.common.collect.Sets;
+
+public class RangerHiveAuthorizerTest {
+	private static final Log LOG = LogFactory.getLog(RangerHiveAuthorizerTest.class);
+
+	private final Set<String> groups = Sets.newHashSet("group1");
+
+	@Test
+	public void testFilterListCmdObjects() {
+		RangerHivePlugin plugin = createPlugin();
+
+		List<HivePrivilegeObject> objs = new ArrayList<HivePrivilegeObject>();
+		objs.add(new HivePrivilegeObject(HivePrivilegeObjectType.DATABASE, null, "db1"));
+		objs.add(new HivePrivilegeObject(HivePrivilegeObjectType.TABLE_OR_VIEW, "db1", "tab1"));
+		objs.add(new HivePrivilegeObject(HivePrivilegeObjectType.TABLE_OR_VIEW, "db1", "tab2"));
+		objs.add(new HivePrivilegeObject(HivePrivilegeObjectType.DATABASE, null, "db2"));
+		objs.add(new HivePrivilegeObject(HivePrivilegeObjectType.TABLE_OR_VIEW, "db2", "tab1"));
+		objs.add(new HivePrivilegeObject(HivePrivilegeObjectType.COLUMN, "db1", "tab1"));
+
+		List<HivePrivilegeObject> filtered = RangerHiveAuthorizer.filterListCmdObjects(plugin, objs, "user1", groups, null, null);
+
+		assertEquals(Arrays.asList(objs.get(0), objs.get(1)), filtered);
+		assertTrue(RangerHiveAuthorizer.filterListCmdObjects(plugin, objs, "user2", groups, null, null).isEmpty());
+
+		// same decisions with the objects audited
+		plugin.setListObjectsAuditEnabled(true);
+
+		assertEquals(filtered, RangerHiveAuthorizer.filterListCmdObjects(plugin, objs, "user1", groups, null, null));
+	}
+
+	@Test
+	public void testFilterLargeListCmdObjects() {
+		RangerHivePlugin plugin = createPlugin();
+
+		List<HivePrivilegeObject> objs = new ArrayList<HivePrivilegeObject>();
+		for (int i = 0; i < 100000; i++) {
+			objs.add(new HivePrivilegeObject(HivePrivilegeObjectType.TABLE_OR_VIEW, "db1", "tab" + i));
+		}
+
+		// a request for each object, as done prior to reusing the request
+		long startTime = System.currentTimeMillis();
+		List<HivePrivilegeObject> expected = new ArrayList<HivePrivilegeObject>();
+		for (HivePrivilegeObject obj : objs) {
+			RangerHiveResource resource = new RangerHiveResource(HiveObjectType.TABLE, obj.getDbname(), obj.getObjectName());
+			RangerAccessResult result = plugin.isAccessAllowed(new RangerHiveAccessRequest(resource, "user1", groups, null, null));
+			if (result != null && result.getIsAllowed()) {
+				expected.add(obj);
+			}
+		}
+		long requestPerObjectTimeMs = System.currentTimeMillis() - startTime;
+
+		startTime = System.currentTimeMillis();
+		List<HivePrivilegeObject> filtered = RangerHiveAuthorizer.filterListCmdObjects(plugin, objs, "user1", groups, null, null);
+		long filterTimeMs = System.currentTimeMillis() - startTime;
+
+		LOG.info("filtered " + objs.size() + " tables in " + filterTimeMs + " ms; with a request per table: " + requestPerObjectTimeMs + " ms");
+
+		// tab1, tab10-tab19, tab100-tab199, ...
+		assertEquals(11111, filtered.size());
+		assertEquals(expected, filtered);
+	}
+
+	// user1 has select on db1 and on its tables named tab1*
+	private RangerHivePlugin createPlugin() {
+		RangerServiceDef serviceDef = new RangerServiceDef();
+		serviceDef.setName("hive");
+		List<RangerResourceDef> resourceDefs = new ArrayList<RangerResourceDef>();
+		for (String resourceName : new String[] { RangerHiveResource.KEY_DATABASE, RangerHiveResource.KEY_TABLE, RangerHiveResource.KEY_COLUMN }) {
+			RangerResourceDef resourceDef = new RangerResourceDef();
+			resourceDef.setName(resourceName);
+			resourceDefs.add(resourceDef);
+		}
+		serviceDef.setResources(resourceDefs);
+		List<RangerAccessTypeDef> accessTypeDefs = new ArrayList<RangerAccessTypeDef>();
+		for (String accessType : new String[] { "select", "update" }) {
+			RangerAccessTypeDef accessTypeDef = new RangerAccessTypeDef();
+			accessTypeDef.setName(accessType);
+			accessTypeDefs.add(accessTypeDef);
+		}
+		serviceDef.setAccessTypes(accessTypeDefs);
+
+		Map<String, RangerPolicyResource> resources = new HashMap<String, RangerPolicyResource>();
+		resources.put(RangerHiveResource.KEY_DATABASE, new RangerPolicyResource("db1"));
+		resources.put(RangerHiveResource.KEY_TABLE, new RangerPolicyResource("tab1*"));
+		resources.put(RangerHiveResource.KEY_COLUMN, new RangerPolicyResource("*"));
+		RangerPolicyItem policyItem = new RangerPolicyItem(Arrays.asList(new RangerPolicyItemAccess("select")),
+				Arrays.asList("user1"), null, new ArrayList<RangerPolicyItemCondition>(), false);
+		RangerPolicy policy = new RangerPolicy("hivedev", "policy1", null, null, resources, Arrays.asList(policyItem), null);
+		policy.setId(1L);
+
+		ServicePolicies servicePolicies = new ServicePolicies();
+		servicePolicies.setServiceName("hivedev");
+		servicePolicies.setServiceDef(serviceDef);
+		servicePolicies.setPolicies(Arrays.asList(policy));
+
+		RangerHivePlugin plugin = new RangerHivePlugin("hiveServer2");
+		plugin.setPolicies(servicePolicies);
+		return plugin;
+	}
+}
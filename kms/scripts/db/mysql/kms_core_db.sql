@@ -43,3 +43,4 @@ CREATE TABLE `ranger_keystore` (
   `kms_encoded`varchar(2048),
   PRIMARY KEY (`id`)
 )ENGINE=InnoDB DEFAULT CHARSET=latin1;
+CREATE INDEX `ranger_keystore_alias` ON `ranger_keystore`(`kms_alias`);
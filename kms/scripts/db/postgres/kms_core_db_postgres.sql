@@ -47,3 +47,4 @@ kms_attributes VARCHAR(1024) DEFAULT NULL NULL,
 kms_encoded VARCHAR(2048),
 PRIMARY KEY (id)
 );
+CREATE INDEX ranger_keystore_alias ON ranger_keystore(kms_alias);
@@ -58,3 +58,8 @@ PRIMARY KEY CLUSTERED
 )WITH (PAD_INDEX = OFF,STATISTICS_NORECOMPUTE = OFF,IGNORE_DUP_KEY = OFF,ALLOW_ROW_LOCKS = ON,ALLOW_PAGE_LOCKS = ON) ON [PRIMARY]
 ) ON [PRIMARY]
 GO
+CREATE NONCLUSTERED INDEX [ranger_keystore_alias] ON [dbo].[ranger_keystore]
+(
+	[kms_alias] ASC
+)
+GO
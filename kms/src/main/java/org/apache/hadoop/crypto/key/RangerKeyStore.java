@@ -42,20 +42,32 @@ import java.security.NoSuchAlgorithmException;
 import java.security.UnrecoverableKeyException;
 import java.security.cert.Certificate;
 import java.security.cert.CertificateException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.Enumeration;
-import java.util.Hashtable;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.crypto.SealedObject;
+import javax.crypto.spec.SecretKeySpec;
 import javax.xml.bind.DatatypeConverter;
 
+import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.crypto.key.KeyProvider.Metadata;
+import org.apache.hadoop.crypto.key.kms.server.KMSMetrics;
 import org.apache.log4j.Logger;
 import org.apache.ranger.entity.XXRangerKeyStore;
 import org.apache.ranger.kms.dao.DaoManager;
 import org.apache.ranger.kms.dao.RangerKMSDao;
 
+import com.codahale.metrics.Timer;
+
 /**
  * This class provides the Database store implementation.
  */
@@ -63,6 +75,30 @@ import org.apache.ranger.kms.dao.RangerKMSDao;
 public class RangerKeyStore extends KeyStoreSpi {
 	
 	static final Logger logger = Logger.getLogger(RangerKeyStore.class);
+
+	public static final String KEY_CACHE_MAX_ENTRIES      = "ranger.ks.key.cache.max.entries";
+	public static final String KEY_CACHE_TTL_MS           = "ranger.ks.key.cache.ttl.ms";
+	public static final String KEY_CACHE_ZERO_ON_EVICTION = "ranger.ks.key.cache.zero.on.eviction";
+
+	private static final int     DEFAULT_KEY_CACHE_MAX_ENTRIES      = 10000;
+	private static final long    DEFAULT_KEY_CACHE_TTL_MS           = 10 * 60 * 1000;
+	private static final boolean DEFAULT_KEY_CACHE_ZERO_ON_EVICTION = true;
+
+	// names of the timers and counters of the database operations, in KMSMetrics
+	static final String METRIC_DB_LOAD_ALL         = "keystore.db.load_all";
+	static final String METRIC_DB_LOAD_UPDATE_INFO = "keystore.db.load_update_info";
+	static final String METRIC_DB_LOAD_CHANGED     = "keystore.db.load_changed";
+	static final String METRIC_DB_LOAD_KEY         = "keystore.db.load_key";
+	static final String METRIC_DB_STORE            = "keystore.db.store";
+	static final String METRIC_DB_DELETE           = "keystore.db.delete";
+	static final String METRIC_DB_FAILURES         = "keystore.db.failures";
+	static final String METRIC_LOADED_KEYS         = "keystore.loaded_keys";
+	static final String METRIC_STORED_KEYS         = "keystore.stored_keys";
+
+	private static final String KEY_PROTECTOR_CLASS = "com.sun.crypto.provider.KeyProtector";
+
+	private static volatile Constructor<?> keyProtectorConstructor = null;
+	private static volatile Method         keyProtectorUnseal      = null;
 		
 	private DaoManager daoManager;
 	
@@ -80,15 +116,36 @@ public class RangerKeyStore extends KeyStoreSpi {
         String description;
         String attributes;
         int version;
+        Date updateTime; // update time of the database row, when loaded from or stored in the database
+        boolean isPersisted; // true if the entry was loaded from, or stored in, the database
     }
 
-    private Hashtable<String, Object> keyEntries = new Hashtable<String, Object>();
+    // reads are lock-free; updates are made holding entriesLock, and a reload publishes a new map
+    private volatile ConcurrentHashMap<String, Object> keyEntries = new ConcurrentHashMap<String, Object>();
+    private final Object entriesLock = new Object();
+    private volatile boolean isLoaded = false;
+    private final UnsealedKeyCache keyCache;
+    private volatile char[] keyCachePassword = null;
+    private final AtomicLong unsealCount = new AtomicLong();
     
     RangerKeyStore() {
+    	this.keyCache = new UnsealedKeyCache(0, 0, false);
     }
 
     RangerKeyStore(DaoManager daoManager) {
     	this.daoManager = daoManager;
+    	this.keyCache = new UnsealedKeyCache(0, 0, false);
+	}
+
+    RangerKeyStore(DaoManager daoManager, Configuration conf) {
+    	this.daoManager = daoManager;
+    	this.keyCache = new UnsealedKeyCache(conf.getInt(KEY_CACHE_MAX_ENTRIES, DEFAULT_KEY_CACHE_MAX_ENTRIES),
+    	                                     conf.getLong(KEY_CACHE_TTL_MS, DEFAULT_KEY_CACHE_TTL_MS),
+    	                                     conf.getBoolean(KEY_CACHE_ZERO_ON_EVICTION, DEFAULT_KEY_CACHE_ZERO_ON_EVICTION));
+
+    	logger.info("RangerKeyStore: key cache enabled=" + keyCache.isEnabled()
+    	            + ", maxEntries=" + conf.getInt(KEY_CACHE_MAX_ENTRIES, DEFAULT_KEY_CACHE_MAX_ENTRIES)
+    	            + ", ttlMs=" + conf.getLong(KEY_CACHE_TTL_MS, DEFAULT_KEY_CACHE_TTL_MS));
 	}
 
     String convertAlias(String alias){
@@ -99,29 +156,94 @@ public class RangerKeyStore extends KeyStoreSpi {
     public Key engineGetKey(String alias, char[] password)throws NoSuchAlgorithmException, UnrecoverableKeyException
     {
     	Key key = null;
+    	String keyAlias = convertAlias(alias);
 
-        Object entry = keyEntries.get(alias.toLowerCase());
+        Object entry = keyEntries.get(keyAlias);
 
         if (!(entry instanceof SecretKeyEntry)) {
             return null;
         }
-        
-        Class<?> c = null;
-    	Object o = null;
+
+        SealedObject sealedKey = ((SecretKeyEntry)entry).sealedKey;
+        boolean useKeyCache = keyCache.isEnabled() && isKeyCachePassword(password);
+
+        if (useKeyCache) {
+        	key = keyCache.get(keyAlias, sealedKey);
+
+        	if (key != null) {
+        		return key;
+        	}
+        }
+
 		try {
-			c = Class.forName("com.sun.crypto.provider.KeyProtector");
-			Constructor<?> constructor = c.getDeclaredConstructor(char[].class);
-	        constructor.setAccessible(true);
-	        o = constructor.newInstance(password);	 
-	        Method m = c.getDeclaredMethod("unseal", SealedObject.class);
-            m.setAccessible(true);
-			key = (Key) m.invoke(o, ((SecretKeyEntry)entry).sealedKey);
+			key = unseal(sealedKey, password);
 		} catch (ClassNotFoundException | NoSuchMethodException | SecurityException | InstantiationException | IllegalAccessException | IllegalArgumentException | InvocationTargetException e) {
-			logger.error(e.getMessage());
+			logger.error("Unable to unseal key " + keyAlias, e);
+		}
+
+		// only key material is cached; metadata entries are mutable once returned
+		if (useKeyCache && key instanceof SecretKeySpec) {
+			setKeyCachePassword(password);
+			keyCache.put(keyAlias, sealedKey, (SecretKeySpec)key);
 		}
+
         return key;        
     }
 
+    private Key unseal(SealedObject sealedKey, char[] password) throws ClassNotFoundException, NoSuchMethodException, InstantiationException, IllegalAccessException, InvocationTargetException {
+    	if (keyProtectorUnseal == null) {
+    		initKeyProtector();
+    	}
+
+    	Object keyProtector = keyProtectorConstructor.newInstance(password);
+
+    	unsealCount.incrementAndGet();
+
+    	// later JREs take the maximum length of the sealed key as well
+    	if (keyProtectorUnseal.getParameterTypes().length == 2) {
+    		return (Key) keyProtectorUnseal.invoke(keyProtector, sealedKey, Integer.MAX_VALUE);
+    	} else {
+    		return (Key) keyProtectorUnseal.invoke(keyProtector, sealedKey);
+    	}
+    }
+
+    private static synchronized void initKeyProtector() throws ClassNotFoundException, NoSuchMethodException {
+    	if (keyProtectorUnseal == null) {
+    		Class<?> c = Class.forName(KEY_PROTECTOR_CLASS);
+    		Constructor<?> constructor = c.getDeclaredConstructor(char[].class);
+    		constructor.setAccessible(true);
+
+    		Method unseal = null;
+    		try {
+    			unseal = c.getDeclaredMethod("unseal", SealedObject.class);
+    		} catch (NoSuchMethodException e) {
+    			unseal = c.getDeclaredMethod("unseal", SealedObject.class, int.class);
+    		}
+    		unseal.setAccessible(true);
+
+    		// constructor is published first, as keyProtectorUnseal is checked without the lock
+    		keyProtectorConstructor = constructor;
+    		keyProtectorUnseal = unseal;
+    	}
+    }
+
+    // keys are cached only for the password they were first unsealed with
+    private boolean isKeyCachePassword(char[] password) {
+    	char[] cachePassword = keyCachePassword;
+
+    	return cachePassword == null || Arrays.equals(cachePassword, password);
+    }
+
+    private synchronized void setKeyCachePassword(char[] password) {
+    	if (keyCachePassword == null && password != null) {
+    		keyCachePassword = password.clone();
+    	}
+    }
+
+    long getUnsealCount() {
+    	return unsealCount.get();
+    }
+
     @Override
     public Date engineGetCreationDate(String alias) {
         Object entry = keyEntries.get(convertAlias(alias));
@@ -136,7 +258,7 @@ public class RangerKeyStore extends KeyStoreSpi {
     public void addKeyEntry(String alias, Key key, char[] password, String cipher, int bitLength, String description, int version, String attributes)
         throws KeyStoreException
     {
-        synchronized(keyEntries) {
+        synchronized(entriesLock) {
             try {
             	
             	Class<?> c = null;
@@ -164,6 +286,7 @@ public class RangerKeyStore extends KeyStoreSpi {
                 entry.version = version;
                 entry.attributes = attributes;
                 keyEntries.put(alias.toLowerCase(), entry);                
+                keyCache.remove(alias.toLowerCase());
             } catch (Exception e) {
             	logger.error(e.getMessage());
             	throw new KeyStoreException(e.getMessage());
@@ -175,9 +298,10 @@ public class RangerKeyStore extends KeyStoreSpi {
     public void engineDeleteEntry(String alias)
         throws KeyStoreException
     {
-        synchronized(keyEntries) {
+        synchronized(entriesLock) {
         		dbOperationDelete(convertAlias(alias));
         		keyEntries.remove(convertAlias(alias));	
+        		keyCache.remove(convertAlias(alias));
         }
     }
 
@@ -185,10 +309,16 @@ public class RangerKeyStore extends KeyStoreSpi {
     private void dbOperationDelete(String alias) {
     	try{
 			  if(daoManager != null){
-				  RangerKMSDao rangerKMSDao = new RangerKMSDao(daoManager);			  
-				  rangerKMSDao.deleteByAlias(alias);
+				  RangerKMSDao rangerKMSDao = daoManager.getRangerKMSDao();			  
+				  Timer.Context timer = KMSMetrics.getTimer(METRIC_DB_DELETE).time();
+				  try {
+					  rangerKMSDao.deleteByAlias(alias);
+				  } finally {
+					  timer.stop();
+				  }
 			  }			  
 		}catch(Exception e){
+			KMSMetrics.getCounter(METRIC_DB_FAILURES).inc();
 			logger.error(e.getMessage());
 			e.printStackTrace();
 		}
@@ -214,7 +344,7 @@ public class RangerKeyStore extends KeyStoreSpi {
     public void engineStore(OutputStream stream, char[] password)
         throws IOException, NoSuchAlgorithmException, CertificateException
     {
-        synchronized(keyEntries) {
+        synchronized(entriesLock) {
             // password is mandatory when storing
             if (password == null) {
                 throw new IllegalArgumentException("Ranger Master Key can't be null");
@@ -223,36 +353,76 @@ public class RangerKeyStore extends KeyStoreSpi {
             MessageDigest md = getKeyedMessageDigest(password);            
             
            	byte digest[] = md.digest();    
-           	for (Enumeration<String> e = keyEntries.keys(); e.hasMoreElements();) {
-            	ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                DataOutputStream dos = new DataOutputStream(new DigestOutputStream(baos, md));
-                
-                ObjectOutputStream oos = null;
-            	try{
-            	
-            		String alias = e.nextElement();
-            		Object entry = keyEntries.get(alias);
-
-                    oos = new ObjectOutputStream(dos);
-                    oos.writeObject(((SecretKeyEntry)entry).sealedKey);
-                    
-                    dos.write(digest);
-                    dos.flush();
-                    Long creationDate = ((SecretKeyEntry)entry).date.getTime();
-                    SecretKeyEntry secretKey = (SecretKeyEntry)entry;
-                    XXRangerKeyStore xxRangerKeyStore = mapObjectToEntity(alias,creationDate,baos.toByteArray(), secretKey.cipher_field, secretKey.bit_length, secretKey.description, secretKey.version, secretKey.attributes);
-                    dbOperationStore(xxRangerKeyStore);
-            	}finally {
-                    if (oos != null) {
-                        oos.close();
-                    } else {
-                        dos.close();
-                    }
-                }                
-            }
+
+           	// only the entries added or updated since they were last stored or loaded are written, in one transaction
+           	RangerKMSDao rangerKMSDao = daoManager != null ? daoManager.getRangerKMSDao() : null;
+           	Timer.Context timer = KMSMetrics.getTimer(METRIC_DB_STORE).time();
+           	boolean trxBegan = rangerKMSDao != null && rangerKMSDao.beginTransaction();
+           	List<SecretKeyEntry> storedEntries = new ArrayList<SecretKeyEntry>();
+
+           	try {
+           		for (Enumeration<String> e = keyEntries.keys(); e.hasMoreElements();) {
+           			String alias = e.nextElement();
+           			Object entry = keyEntries.get(alias);
+
+           			if (entry instanceof SecretKeyEntry && !((SecretKeyEntry)entry).isPersisted) {
+           				storeEntry(alias, (SecretKeyEntry)entry, md, digest);
+           				storedEntries.add((SecretKeyEntry)entry);
+           			}
+           		}
+
+           		if (trxBegan) {
+           			rangerKMSDao.commitTransaction();
+           		}
+           	} catch (IOException | RuntimeException e) {
+           		if (trxBegan) {
+           			rangerKMSDao.rollbackTransaction();
+           		}
+           		timer.stop();
+           		KMSMetrics.getCounter(METRIC_DB_FAILURES).inc();
+           		throw e;
+           	}
+
+           	timer.stop();
+           	KMSMetrics.getCounter(METRIC_STORED_KEYS).inc(storedEntries.size());
+
+           	for (SecretKeyEntry entry : storedEntries) {
+           		entry.isPersisted = true;
+           	}
+
+           	if (logger.isDebugEnabled()) {
+           		logger.debug("RangerKeyStore.engineStore(): stored " + storedEntries.size() + " of " + keyEntries.size() + " entries");
+           	}
         }
     }
 
+    private void storeEntry(String alias, SecretKeyEntry secretKey, MessageDigest md, byte[] digest) throws IOException {
+    	ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    	DataOutputStream dos = new DataOutputStream(new DigestOutputStream(baos, md));
+
+    	ObjectOutputStream oos = null;
+    	try{
+    		oos = new ObjectOutputStream(dos);
+    		oos.writeObject(secretKey.sealedKey);
+
+    		dos.write(digest);
+    		dos.flush();
+    		Long creationDate = secretKey.date.getTime();
+    		XXRangerKeyStore xxRangerKeyStore = mapObjectToEntity(alias,creationDate,baos.toByteArray(), secretKey.cipher_field, secretKey.bit_length, secretKey.description, secretKey.version, secretKey.attributes);
+    		XXRangerKeyStore saved = dbOperationStore(xxRangerKeyStore);
+    		if (saved != null) {
+    			// lets the next load of changes find the entry unchanged
+    			secretKey.updateTime = saved.getUpdateTime();
+    		}
+    	}finally {
+    		if (oos != null) {
+    			oos.close();
+    		} else {
+    			dos.close();
+    		}
+    	}
+    }
+
     private XXRangerKeyStore mapObjectToEntity(String alias, Long creationDate,
 		byte[] byteArray, String cipher_field, int bit_length,
 		String description, int version, String attributes) {
@@ -265,31 +435,32 @@ public class RangerKeyStore extends KeyStoreSpi {
     	xxRangerKeyStore.setDescription(description);
     	xxRangerKeyStore.setVersion(version);
     	xxRangerKeyStore.setAttributes(attributes);
+    	// whole seconds, so that the update time read back is the same in databases with datetime columns
+    	long updateTime = xxRangerKeyStore.getUpdateTime().getTime();
+    	xxRangerKeyStore.setUpdateTime(new Date(updateTime - updateTime % 1000));
 		return xxRangerKeyStore;
 	}
 
-	private void dbOperationStore(XXRangerKeyStore rangerKeyStore) {
-		try{
-			  if(daoManager != null){
-				  RangerKMSDao rangerKMSDao = new RangerKMSDao(daoManager);
-				  XXRangerKeyStore xxRangerKeyStore = rangerKMSDao.findByAlias(rangerKeyStore.getAlias());
-				  boolean keyStoreExists = true;
-				  if (xxRangerKeyStore == null) {
-					  xxRangerKeyStore = new XXRangerKeyStore();
-					  keyStoreExists = false;
-				  }
+	private XXRangerKeyStore dbOperationStore(XXRangerKeyStore rangerKeyStore) {
+		// failures are left to the caller, which rolls back the transaction and keeps the entries dirty
+		XXRangerKeyStore ret = null;
+		if(daoManager != null){
+			RangerKMSDao rangerKMSDao = daoManager.getRangerKMSDao();
+			XXRangerKeyStore xxRangerKeyStore = rangerKMSDao.findByAlias(rangerKeyStore.getAlias());
+			boolean keyStoreExists = true;
+			if (xxRangerKeyStore == null) {
+				xxRangerKeyStore = new XXRangerKeyStore();
+				keyStoreExists = false;
+			}
 
-				  xxRangerKeyStore = mapToEntityBean(rangerKeyStore, xxRangerKeyStore, 0);		
-				  if (keyStoreExists) {
-					  xxRangerKeyStore = rangerKMSDao.update(xxRangerKeyStore);
-				  } else {
-					  xxRangerKeyStore = rangerKMSDao.create(xxRangerKeyStore);
-				  }
-			  }
-  		}catch(Exception e){
-  			logger.error(e.getMessage());
-  			e.printStackTrace();
-  		}
+			xxRangerKeyStore = mapToEntityBean(rangerKeyStore, xxRangerKeyStore, 0);
+			if (keyStoreExists) {
+				ret = rangerKMSDao.update(xxRangerKeyStore);
+			} else {
+				ret = rangerKMSDao.create(xxRangerKeyStore);
+			}
+		}
+		return ret;
 	}
 
 	private XXRangerKeyStore mapToEntityBean(XXRangerKeyStore rangerKMSKeyStore, XXRangerKeyStore xxRangerKeyStore,int i) {
@@ -301,6 +472,7 @@ public class RangerKeyStore extends KeyStoreSpi {
 		xxRangerKeyStore.setDescription(rangerKMSKeyStore.getDescription());
 		xxRangerKeyStore.setVersion(rangerKMSKeyStore.getVersion());
 		xxRangerKeyStore.setAttributes(rangerKMSKeyStore.getAttributes());
+		xxRangerKeyStore.setUpdateTime(rangerKMSKeyStore.getUpdateTime());
 		return xxRangerKeyStore;
 	}
 
@@ -309,96 +481,296 @@ public class RangerKeyStore extends KeyStoreSpi {
 	public void engineLoad(InputStream stream, char[] password)
         throws IOException	, NoSuchAlgorithmException, CertificateException
     {
-        synchronized(keyEntries) {
+        synchronized(entriesLock) {
         	List<XXRangerKeyStore> rangerKeyDetails = dbOperationLoad();
-        		
-            DataInputStream dis;
-            MessageDigest md = null;
-           
+
 			if(rangerKeyDetails == null || rangerKeyDetails.size() < 1){
+				if(rangerKeyDetails != null) {
+					isLoaded = true;
+				}
         		return;
         	}
 			
-			keyEntries.clear();     
-			md = getKeyedMessageDigest(password);
+			ConcurrentHashMap<String, Object> newEntries = new ConcurrentHashMap<String, Object>();
+			MessageDigest md = getKeyedMessageDigest(password);
 
 			byte computed[];
             computed = md.digest();
             for(XXRangerKeyStore rangerKey : rangerKeyDetails){
-            	String encoded = rangerKey.getEncoded();
-            	byte[] data = DatatypeConverter.parseBase64Binary(encoded);
-            	
-            	if(data  != null && data.length > 0){
-            		stream = new ByteArrayInputStream(data);
-            	}else{
-            		logger.error("No Key found for alias "+rangerKey.getAlias());
-            	}
-            	
-	             if (computed != null) {	                
-	                int counter = 0; 
-	                for (int i = computed.length-1; i >= 0; i--) {
-	                    if (computed[i] != data[data.length-(1+counter)]) {
-	                        Throwable t = new UnrecoverableKeyException
-	                            ("Password verification failed");
-	                        throw (IOException)new IOException
-	                            ("Keystore was tampered with, or "
-	                            + "password was incorrect").initCause(t);
-	                    }else{
-	                    	counter++;
-	                    }
-	                }
-	             }
-            	
-				if (password != null) {
-					dis = new DataInputStream(new DigestInputStream(stream, md));
-				} else {
-					dis = new DataInputStream(stream);
-				}
-				
-				ObjectInputStream ois = null;
-				try{
-					String alias;
-
-					SecretKeyEntry entry = new SecretKeyEntry();
-
-					//read the alias
-					alias = rangerKey.getAlias();
-
-					//read the (entry creation) date
-					entry.date = new Date(rangerKey.getCreatedDate());
-					entry.cipher_field = rangerKey.getCipher();
-					entry.bit_length = rangerKey.getBitLength();
-					entry.description = rangerKey.getDescription();
-					entry.version = rangerKey.getVersion();
-					entry.attributes = rangerKey.getAttributes();
-					//read the sealed key
-					try {
-						ois = new ObjectInputStream(dis);
-						entry.sealedKey = (SealedObject)ois.readObject();
-					} catch (ClassNotFoundException cnfe) {
-						throw new IOException(cnfe.getMessage());
-					}
-					
-					//Add the entry to the list
-					keyEntries.put(alias, entry);		            
-				 }finally {
-	                if (ois != null) {
-	                    ois.close();
-	                } else {
-	                    dis.close();
-	                }
-	            }
+				SecretKeyEntry entry = loadEntry(rangerKey, md, computed, password);
+
+				//Add the entry to the list
+				newEntries.put(rangerKey.getAlias(), entry);
             }
+
+            KMSMetrics.getCounter(METRIC_LOADED_KEYS).inc(newEntries.size());
+
+            // lookups see either all of the old entries or all of the new ones
+            keyEntries = newEntries;
+            keyCache.clear();
+            isLoaded = true;
         }
     }
 
+	/**
+	 * Brings the key entries in sync with the database by loading only the
+	 * entries that were added or updated since they were last loaded, and by
+	 * removing the entries that were deleted. The database is read without
+	 * holding the lock on the key entries, so that key lookups are not blocked.
+	 * Falls back to engineLoad() when nothing has been loaded yet, or when
+	 * the incremental load fails.
+	 */
+	public void engineLoadChanges(char[] password)
+		throws IOException, NoSuchAlgorithmException, CertificateException
+	{
+		if(!isLoaded || daoManager == null) {
+			engineLoad(null, password);
+
+			return;
+		}
+
+		try {
+			loadChanges(password);
+		} catch(IOException | NoSuchAlgorithmException e) {
+			throw e;
+		} catch(Exception e) {
+			logger.error("Incremental load of keys failed. Reloading all keys", e);
+
+			engineLoad(null, password);
+		}
+	}
+
+	/**
+	 * Loads the given entry from the database, unless it is already loaded.
+	 * Only the given entry is read from the database.
+	 *
+	 * @return true if the entry exists
+	 */
+	public boolean engineLoadKey(String alias, char[] password)
+		throws IOException, NoSuchAlgorithmException
+	{
+		String keyAlias = convertAlias(alias);
+
+		if(keyEntries.containsKey(keyAlias)) {
+			return true;
+		}
+
+		if(daoManager == null) {
+			return false;
+		}
+
+		XXRangerKeyStore rangerKey;
+		Timer.Context    timer = KMSMetrics.getTimer(METRIC_DB_LOAD_KEY).time();
+
+		try {
+			rangerKey = daoManager.getRangerKMSDao().findByAlias(keyAlias);
+		} finally {
+			timer.stop();
+		}
+
+		if(rangerKey == null) {
+			return false;
+		}
+
+		MessageDigest  md         = getKeyedMessageDigest(password);
+		byte           computed[] = md.digest();
+		SecretKeyEntry entry      = loadEntry(rangerKey, md, computed, password);
+
+		KMSMetrics.getCounter(METRIC_LOADED_KEYS).inc();
+
+		synchronized(entriesLock) {
+			// an entry added to this keystore in the meantime is more recent
+			if(!keyEntries.containsKey(keyAlias)) {
+				keyEntries.put(keyAlias, entry);
+				keyCache.remove(keyAlias);
+			}
+		}
+
+		return true;
+	}
+
+	private void loadChanges(char[] password) throws IOException, NoSuchAlgorithmException {
+		RangerKMSDao rangerKMSDao = daoManager.getRangerKMSDao();
+
+		List<Object[]> keyUpdateInfo;
+		Timer.Context  timer = KMSMetrics.getTimer(METRIC_DB_LOAD_UPDATE_INFO).time();
+
+		try {
+			keyUpdateInfo = rangerKMSDao.getAllKeyUpdateInfo();
+		} finally {
+			timer.stop();
+		}
+
+		// entries to load/remove, along with the entry present when the change was detected
+		Map<String, Object> toLoad   = new HashMap<String, Object>();
+		Map<String, Object> toRemove = new HashMap<String, Object>();
+
+		synchronized(entriesLock) {
+			Set<String> aliases = new HashSet<String>();
+
+			for(Object[] info : keyUpdateInfo) {
+				String alias      = (String)info[0];
+				Date   updateTime = (Date)info[1];
+				Number version    = (Number)info[2];
+				Object entry      = keyEntries.get(alias);
+
+				aliases.add(alias);
+
+				if(!isSameAsStored(entry, updateTime, version)) {
+					toLoad.put(alias, entry);
+				}
+			}
+
+			for(Map.Entry<String, Object> entry : keyEntries.entrySet()) {
+				Object value = entry.getValue();
+
+				// entries not yet stored are retained
+				if(!aliases.contains(entry.getKey()) && value instanceof SecretKeyEntry && ((SecretKeyEntry)value).isPersisted) {
+					toRemove.put(entry.getKey(), value);
+				}
+			}
+		}
+
+		Map<String, SecretKeyEntry> loadedEntries = new HashMap<String, SecretKeyEntry>();
+
+		if(!toLoad.isEmpty()) {
+			List<XXRangerKeyStore> rangerKeyDetails;
+
+			timer = KMSMetrics.getTimer(METRIC_DB_LOAD_CHANGED).time();
+
+			try {
+				rangerKeyDetails = rangerKMSDao.getKeysByAlias(toLoad.keySet());
+			} finally {
+				timer.stop();
+			}
+
+			if(rangerKeyDetails != null && !rangerKeyDetails.isEmpty()) {
+				MessageDigest md         = getKeyedMessageDigest(password);
+				byte          computed[] = md.digest();
+
+				for(XXRangerKeyStore rangerKey : rangerKeyDetails) {
+					loadedEntries.put(rangerKey.getAlias(), loadEntry(rangerKey, md, computed, password));
+				}
+			}
+
+			KMSMetrics.getCounter(METRIC_LOADED_KEYS).inc(loadedEntries.size());
+		}
+
+		synchronized(entriesLock) {
+			// skip the entries that were updated/deleted in this keystore while the database was being read
+			for(Map.Entry<String, Object> entry : toRemove.entrySet()) {
+				if(keyEntries.get(entry.getKey()) == entry.getValue()) {
+					keyEntries.remove(entry.getKey());
+					keyCache.remove(entry.getKey());
+				}
+			}
+
+			for(Map.Entry<String, SecretKeyEntry> entry : loadedEntries.entrySet()) {
+				String alias = entry.getKey();
+
+				if(toLoad.containsKey(alias) && keyEntries.get(alias) == toLoad.get(alias)) {
+					keyEntries.put(alias, entry.getValue());
+					keyCache.remove(alias);
+				}
+			}
+		}
+
+		if(logger.isDebugEnabled()) {
+			logger.debug("RangerKeyStore.loadChanges(): keys=" + keyUpdateInfo.size() + ", loaded=" + loadedEntries.size() + ", removed=" + toRemove.size());
+		}
+	}
+
+	private boolean isSameAsStored(Object entry, Date updateTime, Number version) {
+		if(!(entry instanceof SecretKeyEntry)) {
+			return false;
+		}
+
+		SecretKeyEntry secretKeyEntry = (SecretKeyEntry)entry;
+
+		// version is compared as well, since update time could have only a second's precision
+		return secretKeyEntry.isPersisted
+			&& secretKeyEntry.updateTime != null && secretKeyEntry.updateTime.equals(updateTime)
+			&& version != null && secretKeyEntry.version == version.intValue();
+	}
+
+	private SecretKeyEntry loadEntry(XXRangerKeyStore rangerKey, MessageDigest md, byte[] computed, char[] password) throws IOException {
+		InputStream stream = null;
+		DataInputStream dis;
+
+		String encoded = rangerKey.getEncoded();
+		byte[] data = DatatypeConverter.parseBase64Binary(encoded);
+
+		if(data  != null && data.length > 0){
+			stream = new ByteArrayInputStream(data);
+		}else{
+			logger.error("No Key found for alias "+rangerKey.getAlias());
+		}
+
+		if (computed != null) {
+			int counter = 0;
+			for (int i = computed.length-1; i >= 0; i--) {
+				if (computed[i] != data[data.length-(1+counter)]) {
+					Throwable t = new UnrecoverableKeyException
+						("Password verification failed");
+					throw (IOException)new IOException
+						("Keystore was tampered with, or "
+						+ "password was incorrect").initCause(t);
+				}else{
+					counter++;
+				}
+			}
+		}
+
+		if (password != null) {
+			dis = new DataInputStream(new DigestInputStream(stream, md));
+		} else {
+			dis = new DataInputStream(stream);
+		}
+
+		ObjectInputStream ois = null;
+		try{
+			SecretKeyEntry entry = new SecretKeyEntry();
+
+			//read the (entry creation) date
+			entry.date = new Date(rangerKey.getCreatedDate());
+			entry.cipher_field = rangerKey.getCipher();
+			entry.bit_length = rangerKey.getBitLength();
+			entry.description = rangerKey.getDescription();
+			entry.version = rangerKey.getVersion();
+			entry.attributes = rangerKey.getAttributes();
+			entry.updateTime = rangerKey.getUpdateTime();
+			entry.isPersisted = true;
+			//read the sealed key
+			try {
+				ois = new ObjectInputStream(dis);
+				entry.sealedKey = (SealedObject)ois.readObject();
+			} catch (ClassNotFoundException cnfe) {
+				throw new IOException(cnfe.getMessage());
+			}
+
+			return entry;
+		}finally {
+			if (ois != null) {
+				ois.close();
+			} else {
+				dis.close();
+			}
+		}
+	}
+
     private List<XXRangerKeyStore> dbOperationLoad() throws IOException {
     		try{
 			  if(daoManager != null){
-				  RangerKMSDao rangerKMSDao = new RangerKMSDao(daoManager);
-				  return rangerKMSDao.getAllKeys();
+				  RangerKMSDao rangerKMSDao = daoManager.getRangerKMSDao();
+				  Timer.Context timer = KMSMetrics.getTimer(METRIC_DB_LOAD_ALL).time();
+				  try {
+					  return rangerKMSDao.getAllKeys();
+				  } finally {
+					  timer.stop();
+				  }
 			  }			  
     		}catch(Exception e){
+    			KMSMetrics.getCounter(METRIC_DB_FAILURES).inc();
     			e.printStackTrace();
     		}
 			return null;
@@ -479,13 +851,13 @@ public class RangerKeyStore extends KeyStoreSpi {
 	public void engineLoadKeyStoreFile(InputStream stream, char[] storePass, char[] keyPass, char[] masterKey, String fileFormat)
 	        throws IOException, NoSuchAlgorithmException, CertificateException
 	{
-			synchronized(keyEntries) {
+			synchronized(entriesLock) {
 				KeyStore ks;
 				
 				try {
 					ks = KeyStore.getInstance(fileFormat);
 					ks.load(stream, storePass);
-					keyEntries.clear();     
+					ConcurrentHashMap<String, Object> newEntries = new ConcurrentHashMap<String, Object>();
 					for (Enumeration<String> name = ks.aliases(); name.hasMoreElements();){
 						  	  SecretKeyEntry entry = new SecretKeyEntry();
 							  String alias = (String) name.nextElement();
@@ -528,8 +900,10 @@ public class RangerKeyStore extends KeyStoreSpi {
  	                          entry.date = ks.getCreationDate(alias);
 		                      entry.version = (alias.split("@").length == 2)?(Integer.parseInt(alias.split("@")[1])):0;
 		    				  entry.description = k.getFormat()+" - "+ks.getType();
-		                      keyEntries.put(alias, entry);		
+		                      newEntries.put(alias, entry);		
 		    	            }
+					keyEntries = newEntries;
+					keyCache.clear();
 				} catch (Throwable t) {
 					logger.error("Unable to load keystore file ", t);
 					throw new IOException(t) ;
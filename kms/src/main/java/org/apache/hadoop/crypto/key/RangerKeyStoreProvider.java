@@ -32,9 +32,11 @@ import java.security.cert.CertificateException;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.Enumeration;
-import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.crypto.spec.SecretKeySpec;
 
@@ -49,8 +51,7 @@ import org.apache.ranger.kms.dao.DaoManager;
 import org.apache.log4j.Logger;
 
 import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
 
 @InterfaceAudience.Private
 public class RangerKeyStoreProvider extends KeyProvider{
@@ -66,14 +67,28 @@ public class RangerKeyStoreProvider extends KeyProvider{
 	private static final String MK_CREDENTIAL_ALIAS = "ranger.ks.masterkey.credential.alias";
 	private static final String DB_CREDENTIAL_ALIAS = "ranger.ks.jpa.jdbc.credential.alias";
 	private static final String DB_PASSWORD = "ranger.ks.jpa.jdbc.password";
+	private static final String MK_MIGRATE_FORMAT = "ranger.ks.masterkey.migrate.format";
+	private static final String MISSING_KEY_CACHE_TTL_MS = "ranger.ks.missing.key.cache.ttl.ms";
+	private static final String MISSING_KEY_CACHE_MAX_ENTRIES = "ranger.ks.missing.key.cache.max.entries";
+	private static final long DEFAULT_MISSING_KEY_CACHE_TTL_MS = 10 * 1000;
+	private static final int DEFAULT_MISSING_KEY_CACHE_MAX_ENTRIES = 10000;
 	
 	private final RangerKeyStore dbStore;
 	private char[] masterKey;
 	private boolean changed = false;
-	private final Map<String, Metadata> cache = new HashMap<String, Metadata>();
+	// metadata published to readers is not modified; rollNewVersion() publishes an updated copy
+	private final ConcurrentHashMap<String, Metadata> cache = new ConcurrentHashMap<String, Metadata>();
+	// keys whose metadata was created or updated since the last flush
+	private final Set<String> dirtyKeys = new HashSet<String>();
+	private static final ObjectMapper jsonMapper = new ObjectMapper();
 	private DaoManager daoManager;
+	// names not found in the database, with the time they were looked up
+	private final Map<String, Long> missingKeys = new ConcurrentHashMap<String, Long>();
+	private long missingKeyCacheTtlMs;
+	private int missingKeyCacheMaxEntries;
 	
-	private Lock readLock;
+	// lookups don't lock; changes to keys are serialized with this lock
+	private final Lock writeLock = new ReentrantLock();
 
 	public RangerKeyStoreProvider(Configuration conf) throws Throwable {
 		super(conf);
@@ -83,21 +98,36 @@ public class RangerKeyStoreProvider extends KeyProvider{
 		RangerKMSDB rangerKMSDB = new RangerKMSDB(conf);
 		daoManager = rangerKMSDB.getDaoManager();
 		RangerMasterKey rangerMasterKey = new RangerMasterKey(daoManager);		
-		dbStore = new RangerKeyStore(daoManager);		
+		dbStore = new RangerKeyStore(daoManager, conf);
 		String password = conf.get(ENCRYPTION_KEY);
 		if(password == null || password.trim().equals("") || password.trim().equals("_") || password.trim().equals("crypted")){
 			throw new IOException("Master Key Jceks does not exists");
 		}
 		rangerMasterKey.generateMasterKey(password);		
+		if(conf.getBoolean(MK_MIGRATE_FORMAT, false)){
+			rangerMasterKey.migrateMasterKey(password);
+		}
 		//code to retrieve rangerMasterKey password		
 		masterKey = rangerMasterKey.getMasterKey(password).toCharArray();
 		if(masterKey == null){
 			// Master Key does not exists
 	        throw new IOException("Ranger MasterKey does not exists");
 		}
+		init(conf);
+	}
+
+	RangerKeyStoreProvider(Configuration conf, DaoManager daoManager, char[] masterKey) throws IOException {
+		super(conf);
+		this.daoManager = daoManager;
+		this.masterKey = masterKey;
+		dbStore = new RangerKeyStore(daoManager, conf);
+		init(conf);
+	}
+
+	private void init(Configuration conf) throws IOException {
+		missingKeyCacheTtlMs = conf.getLong(MISSING_KEY_CACHE_TTL_MS, DEFAULT_MISSING_KEY_CACHE_TTL_MS);
+		missingKeyCacheMaxEntries = conf.getInt(MISSING_KEY_CACHE_MAX_ENTRIES, DEFAULT_MISSING_KEY_CACHE_MAX_ENTRIES);
         reloadKeys();
-		ReadWriteLock lock = new ReentrantReadWriteLock(true);
-	    readLock = lock.readLock();
 	}
 
 	public static Configuration getDBKSConf() {
@@ -135,12 +165,14 @@ public class RangerKeyStoreProvider extends KeyProvider{
 		}
 	
 	private void loadKeys(char[] masterKey) throws NoSuchAlgorithmException, CertificateException, IOException {
-		dbStore.engineLoad(null, masterKey);
+		dbStore.engineLoadChanges(masterKey);
 	}
 
 	@Override
 	public KeyVersion createKey(String name, byte[] material, Options options)
 			throws IOException {
+		writeLock.lock();
+		try {
 		  reloadKeys() ;
 		  if (dbStore.engineContainsAlias(name) || cache.containsKey(name)) {
 			  throw new IOException("Key " + name + " already exists");
@@ -152,15 +184,20 @@ public class RangerKeyStoreProvider extends KeyProvider{
 	            options.getBitLength() + ", but got " + (8 * material.length));
 	      }
 	      cache.put(name, meta);
+	      dirtyKeys.add(name);
 	      String versionName = buildVersionName(name, 0);
 	      return innerSetKeyVersion(name, versionName, material, meta.getCipher(), meta.getBitLength(), meta.getDescription(), meta.getVersions(), meta.getAttributes());
+		} finally {
+			writeLock.unlock();
+		}
 	}
 	
 	KeyVersion innerSetKeyVersion(String name, String versionName, byte[] material, String cipher, int bitLength, String description, int version, Map<String, String> attributes) throws IOException {
 		try {
-	          ObjectMapper om = new ObjectMapper();
-	          String attribute = om.writeValueAsString(attributes);
+	          String attribute = jsonMapper.writeValueAsString(attributes);
 	          dbStore.addKeyEntry(versionName, new SecretKeySpec(material, cipher), masterKey, cipher, bitLength, description, version, attribute);			
+	          missingKeys.remove(name);
+	          missingKeys.remove(versionName);
 		} catch (KeyStoreException e) {
 			throw new IOException("Can't store key " + versionName,e);
 		}
@@ -170,6 +207,8 @@ public class RangerKeyStoreProvider extends KeyProvider{
 
 	@Override
 	public void deleteKey(String name) throws IOException {
+		writeLock.lock();
+		try {
 		  reloadKeys();
 		  Metadata meta = getMetadata(name);
 	      if (meta == null) {
@@ -193,28 +232,36 @@ public class RangerKeyStoreProvider extends KeyProvider{
 	        throw new IOException("Problem removing " + name + " from " + this, e);
 	      }
 	      cache.remove(name);
+	      dirtyKeys.remove(name);
 	      changed = true;	
+		} finally {
+			writeLock.unlock();
+		}
 	}
 
 	@Override
 	public void flush() throws IOException {
+		writeLock.lock();
 		 try {
 	      if (!changed) {
 	        return;
 	      }
-	      // put all of the updates into the db
-	      for(Map.Entry<String, Metadata> entry: cache.entrySet()) {
+	      // put the updated metadata into the db; key versions added since the last flush are stored along with it
+	      for(String name : dirtyKeys) {
+	        Metadata metadata = cache.get(name);
+	        if (metadata == null) {
+	          throw new IOException("Metadata of key " + name + " is missing");
+	        }
 	        try {
-	          Metadata metadata = entry.getValue();
-	          ObjectMapper om = new ObjectMapper();
-	          String attributes = om.writeValueAsString(metadata.getAttributes());
-	          dbStore.addKeyEntry(entry.getKey(), new KeyMetadata(metadata), masterKey, metadata.getAlgorithm(), metadata.getBitLength(), metadata.getDescription(), metadata.getVersions(), attributes);
+	          String attributes = jsonMapper.writeValueAsString(metadata.getAttributes());
+	          dbStore.addKeyEntry(name, new KeyMetadata(metadata), masterKey, metadata.getAlgorithm(), metadata.getBitLength(), metadata.getDescription(), metadata.getVersions(), attributes);
 	        } catch (KeyStoreException e) {
-	          throw new IOException("Can't set metadata key " + entry.getKey(),e );
+	          throw new IOException("Can't set metadata key " + name,e );
 	        }
 	      }
 	      try {
 	          dbStore.engineStore(null, masterKey);
+	          dirtyKeys.clear();
 	          reloadKeys();
 	        } catch (NoSuchAlgorithmException e) {
 	          throw new IOException("No such algorithm storing key", e);
@@ -224,39 +271,31 @@ public class RangerKeyStoreProvider extends KeyProvider{
 	      changed = false;
 		 }catch (IOException ioe) {
 			  cache.clear();
+			  dirtyKeys.clear();
 			  reloadKeys();
 	          throw ioe;
-	     }		 
+	     } finally {
+			writeLock.unlock();
+	     }
 	}
 
 	@Override
 	public KeyVersion getKeyVersion(String versionName) throws IOException {
-		readLock.lock();
+	    SecretKeySpec key = null;
 	    try {
-	    	SecretKeySpec key = null;
-	    	try {
-	    		if (!dbStore.engineContainsAlias(versionName)) {
-  	    		        dbStore.engineLoad(null, masterKey);
-	    			if (!dbStore.engineContainsAlias(versionName)) {
-	    				return null;
-	    			}
-			}
-	    		key = (SecretKeySpec) dbStore.engineGetKey(versionName, masterKey);
-	    	} catch (NoSuchAlgorithmException e) {
-	    		throw new IOException("Can't get algorithm for key " + key, e);
-	    	} catch (UnrecoverableKeyException e) {
-	    		throw new IOException("Can't recover key " + key, e);
-	    	}
-		catch (CertificateException e) {
-	    		throw new IOException("Certificate exception storing key", e);
-		}
-	    	if (key == null) {
+	    	if (!loadKey(versionName)) {
 	    		return null;
-	    	} else {
-	    		return new KeyVersion(getBaseName(versionName), versionName, key.getEncoded());
 	    	}
-	    } finally {
-	        readLock.unlock();
+	    	key = (SecretKeySpec) dbStore.engineGetKey(versionName, masterKey);
+	    } catch (NoSuchAlgorithmException e) {
+	    	throw new IOException("Can't get algorithm for key " + key, e);
+	    } catch (UnrecoverableKeyException e) {
+	    	throw new IOException("Can't recover key " + key, e);
+	    }
+	    if (key == null) {
+	    	return null;
+	    } else {
+	    	return new KeyVersion(getBaseName(versionName), versionName, key.getEncoded());
 	    }
 	}
 
@@ -283,6 +322,9 @@ public class RangerKeyStoreProvider extends KeyProvider{
 	public List<String> getKeys() throws IOException {
 		ArrayList<String> list = new ArrayList<String>();
 		String alias = null;
+		// reloading drops the cached metadata, which must not race with changes yet to be flushed
+		writeLock.lock();
+		try {
 		reloadKeys() ;
 	    Enumeration<String> e = dbStore.engineAliases();
 		while (e.hasMoreElements()) {
@@ -292,29 +334,29 @@ public class RangerKeyStoreProvider extends KeyProvider{
 		       list.add(alias);
 		   }
 		}
+		} finally {
+			writeLock.unlock();
+		}
 	    return list;
 	}
 
 	@Override
 	public Metadata getMetadata(String name) throws IOException {
 		try {
-			readLock.lock();
-            if (cache.containsKey(name)) {
-	    		Metadata meta = cache.get(name);
-	    		return meta;
+	    	Metadata cachedMeta = cache.get(name);
+	    	if (cachedMeta != null) {
+	    		return cachedMeta;
 	    	}
 	    	try {
-	    		if (!dbStore.engineContainsAlias(name)) {
-	    			dbStore.engineLoad(null, masterKey);
-	    			if (!dbStore.engineContainsAlias(name)) {
-	    				return null;
-	    			}
+	    		if (!loadKey(name)) {
+	    			return null;
 	    		}
 	    		Key key = dbStore.engineGetKey(name, masterKey);
 	    		if(key != null){
 	    			Metadata meta = ((KeyMetadata) key).metadata;
-	    			cache.put(name, meta);
-	    			return meta;
+	    			// metadata published by a writer in the meantime is more recent
+	    			Metadata existing = cache.putIfAbsent(name, meta);
+	    			return existing != null ? existing : meta;
 	    		}
 	    	} catch (NoSuchAlgorithmException e) {
 	    		throw new IOException("Can't get algorithm for " + name, e);
@@ -326,24 +368,31 @@ public class RangerKeyStoreProvider extends KeyProvider{
 		catch(Exception e){
 			throw new IOException("Please try again ", e);
 		}
-		 finally {
-	      readLock.unlock();
-	    }
 	}
 
 	@Override
 	public KeyVersion rollNewVersion(String name, byte[] material)throws IOException {
+		writeLock.lock();
+		try {
 		reloadKeys();
-		Metadata meta = getMetadata(name);
-        if (meta == null) {
+		Metadata currentMeta = getMetadata(name);
+        if (currentMeta == null) {
 	        throw new IOException("Key " + name + " not found");
 	    }
-	    if (meta.getBitLength() != 8 * material.length) {
-	        throw new IOException("Wrong key length. Required " + meta.getBitLength() + ", but got " + (8 * material.length));
+	    if (currentMeta.getBitLength() != 8 * material.length) {
+	        throw new IOException("Wrong key length. Required " + currentMeta.getBitLength() + ", but got " + (8 * material.length));
 	    }
+	    // the metadata returned to readers is left unchanged; the updated copy is published once the new version is added
+	    Metadata meta = new Metadata(currentMeta.serialize());
 	    int nextVersion = meta.addVersion();
+	    dirtyKeys.add(name);
 	    String versionName = buildVersionName(name, nextVersion);
-	    return innerSetKeyVersion(name, versionName, material, meta.getCipher(), meta.getBitLength(), meta.getDescription(), meta.getVersions(), meta.getAttributes());
+	    KeyVersion keyVersion = innerSetKeyVersion(name, versionName, material, meta.getCipher(), meta.getBitLength(), meta.getDescription(), meta.getVersions(), meta.getAttributes());
+	    cache.put(name, meta);
+	    return keyVersion;
+		} finally {
+			writeLock.unlock();
+		}
 	}
 	
 	private static void getFromJceks(Configuration conf, String path, String alias, String key){
@@ -363,9 +412,39 @@ public class RangerKeyStoreProvider extends KeyProvider{
 		}
 	}
     
+    /**
+     * Makes sure the given entry is loaded, by fetching only that entry from the
+     * database if needed. Names not found are remembered for a short while, so
+     * that repeated lookups of unknown keys don't hit the database every time.
+     * @return true if the entry exists
+     */
+    private boolean loadKey(String alias) throws IOException, NoSuchAlgorithmException {
+    	if (dbStore.engineContainsAlias(alias)) {
+    		return true;
+    	}
+
+    	Long missingSince = missingKeys.get(alias);
+    	if (missingSince != null) {
+    		if (System.currentTimeMillis() - missingSince < missingKeyCacheTtlMs) {
+    			return false;
+    		}
+    		missingKeys.remove(alias);
+    	}
+
+    	boolean ret = dbStore.engineLoadKey(alias, masterKey);
+    	if (!ret && missingKeyCacheTtlMs > 0) {
+    		if (missingKeys.size() >= missingKeyCacheMaxEntries) {
+    			missingKeys.clear();
+    		}
+    		missingKeys.put(alias, System.currentTimeMillis());
+    	}
+    	return ret;
+    }
+
     private void reloadKeys() throws IOException {
         try {
-        	cache.clear();
+        	// metadata not yet flushed exists only in the cache
+        	cache.keySet().retainAll(dirtyKeys);
             loadKeys(masterKey);           
         } catch (NoSuchAlgorithmException e) {
             throw new IOException("Can't load Keys");
@@ -17,18 +17,26 @@
 
 package org.apache.hadoop.crypto.key;
 
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
 import java.security.Key;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.security.UnrecoverableKeyException;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.crypto.Cipher;
 import javax.crypto.KeyGenerator;
+import javax.crypto.Mac;
 import javax.crypto.SecretKey;
 import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.PBEKeySpec;
 import javax.crypto.spec.PBEParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
@@ -49,7 +57,27 @@ public class RangerMasterKey {
 	private static final int SALT_SIZE = 8;
 	private static final String PBE_ALGO = "PBEWithMD5AndTripleDES";
 	private static final String MD_ALGO = "MD5";
-	
+
+	// format of the encrypted master key, when not in the legacy format:
+	//   MK_FORMAT_V2 + base64(iterations(4) | salt | iv | mac | encrypted master key)
+	// encryption and MAC keys are derived from the password with KDF_ALGO; the MAC covers all other fields
+	private static final String MK_FORMAT_V2 = "v2:";
+	private static final String KDF_ALGO = "PBKDF2WithHmacSHA1";
+	private static final int KDF_ITERATIONS = 100000;
+	// iteration counts accepted when decrypting; the stored count is checked before the MAC can be
+	private static final int KDF_MIN_ITERATIONS = 1000;
+	private static final int KDF_MAX_ITERATIONS = 10000000;
+	private static final int KDF_SALT_SIZE = 16;
+	private static final String ENC_CIPHER = "AES/CBC/PKCS5Padding";
+	private static final int ENC_KEY_SIZE = 128;
+	private static final int ENC_IV_SIZE = 16;
+	private static final String MAC_ALGO = "HmacSHA256";
+	private static final int MAC_KEY_SIZE = 256;
+	private static final int MAC_SIZE = 32;
+
+	// decrypted master keys, by digest of the password and the encrypted master key; decrypted once per process
+	private static final Map<String, String> decryptedMasterKeys = new ConcurrentHashMap<String, String>();
+
 	private DaoManager daoManager;
 	
 	public RangerMasterKey() {		
@@ -67,13 +95,51 @@ public class RangerMasterKey {
 	 */
 	public String getMasterKey(String password) throws Throwable{		
 		logger.info("Getting Master Key");
-		byte masterKeyByte[] = getEncryptedMK();
-		if(masterKeyByte != null && masterKeyByte.length > 0){
-			String masterKey = decryptMasterKey(masterKeyByte, password);		
+		XXRangerMasterKey rangerMasterKey = getEncryptedMK();
+		String encryptedMasterKey = rangerMasterKey != null ? rangerMasterKey.getMasterKey() : null;
+		if(encryptedMasterKey == null || encryptedMasterKey.trim().isEmpty()){
+			throw new Exception("No Master Key Found");
+		}
+
+		String cacheKey = getCacheKey(password, encryptedMasterKey);
+		String masterKey = decryptedMasterKeys.get(cacheKey);
+		if(masterKey != null){
 			return masterKey;
+		}
+
+		if(encryptedMasterKey.startsWith(MK_FORMAT_V2)){
+			masterKey = decryptMasterKeyV2(encryptedMasterKey, password);
 		}else{
+			masterKey = decryptMasterKey(Base64.decode(encryptedMasterKey), password);
+		}
+		decryptedMasterKeys.put(cacheKey, masterKey);
+		return masterKey;
+	}
+
+	/**
+	 * Re-encrypts a Master Key stored in the legacy format with the current format.
+	 * KMS versions that read only the legacy format can't decrypt the Master Key afterwards,
+	 * so this is done only when asked for, once every KMS instance reads the current format.
+	 * @param password password to be used for decryption and encryption
+	 * @return true if the Master Key was migrated
+	 * 		   false if it already is in the current format
+	 * @throws Throwable
+	 */
+	public boolean migrateMasterKey(String password) throws Throwable{
+		XXRangerMasterKey rangerMasterKey = getEncryptedMK();
+		String encryptedMasterKey = rangerMasterKey != null ? rangerMasterKey.getMasterKey() : null;
+		if(encryptedMasterKey == null || encryptedMasterKey.trim().isEmpty()){
 			throw new Exception("No Master Key Found");
-		}			
+		}
+		if(encryptedMasterKey.startsWith(MK_FORMAT_V2)){
+			return false;
+		}
+
+		logger.info("Migrating Master Key to the current format");
+		String masterKey = decryptMasterKey(Base64.decode(encryptedMasterKey), password);
+		rangerMasterKey.setMasterKey(encryptMasterKeyV2(Base64.decode(masterKey), password));
+		daoManager.getRangerMasterKeyDao().update(rangerMasterKey);
+		return true;
 	}
 	
 	/**
@@ -85,6 +151,9 @@ public class RangerMasterKey {
 	 */
 	public boolean generateMasterKey(String password) throws Throwable{
 		logger.info("Generating Master Key");
+		if(daoManager == null || daoManager.getRangerMasterKeyDao().getAllCount() > 0){
+			return false;
+		}
 		String encryptedMasterKey = encryptMasterKey(password);		
 		String savedKey = saveEncryptedMK(encryptedMasterKey, daoManager);
 		if(savedKey != null && !savedKey.trim().equals("")){
@@ -97,26 +166,109 @@ public class RangerMasterKey {
 	private String decryptMasterKey(byte masterKey[], String password) throws Throwable {
 		logger.debug("Decrypting Master Key");
 		PBEKeySpec pbeKeyspec = getPBEParameterSpec(password) ;
-		byte[] masterKeyFromDBDecrypted = decryptKey(masterKey, pbeKeyspec) ;
+		byte[] masterKeyFromDBDecrypted;
+		try {
+			masterKeyFromDBDecrypted = decryptKey(masterKey, pbeKeyspec) ;
+		} catch(GeneralSecurityException e) {
+			throw new UnrecoverableKeyException("Unable to decrypt Master Key; password could be incorrect");
+		}
+		if(masterKeyFromDBDecrypted.length != MK_KeySize / 8){
+			throw new UnrecoverableKeyException("Unable to decrypt Master Key; password could be incorrect");
+		}
 		SecretKey masterKeyFromDB = getMasterKeyFromBytes(masterKeyFromDBDecrypted) ;
 		return Base64.encode(masterKeyFromDB.getEncoded());
 	}
 
-	private byte[] getEncryptedMK() throws Base64DecodingException {
+	private String decryptMasterKeyV2(String encryptedMasterKey, String password) throws Throwable {
+		logger.debug("Decrypting Master Key");
+		ByteBuffer buffer = ByteBuffer.wrap(Base64.decode(encryptedMasterKey.substring(MK_FORMAT_V2.length())));
+		int iterations = buffer.getInt();
+		if(iterations < KDF_MIN_ITERATIONS || iterations > KDF_MAX_ITERATIONS){
+			throw new UnrecoverableKeyException("Unable to decrypt Master Key; invalid iteration count " + iterations);
+		}
+		byte[] salt = new byte[KDF_SALT_SIZE];
+		byte[] iv = new byte[ENC_IV_SIZE];
+		byte[] mac = new byte[MAC_SIZE];
+		buffer.get(salt).get(iv).get(mac);
+		byte[] encrypted = new byte[buffer.remaining()];
+		buffer.get(encrypted);
+
+		SecretKey[] keys = deriveKeys(password, salt, iterations);
+		if(!MessageDigest.isEqual(mac, computeMac(keys[1], iterations, salt, iv, encrypted))){
+			throw new UnrecoverableKeyException("Unable to decrypt Master Key; password is incorrect");
+		}
+
+		Cipher c = Cipher.getInstance(ENC_CIPHER);
+		c.init(Cipher.DECRYPT_MODE, keys[0], new IvParameterSpec(iv));
+		return Base64.encode(getMasterKeyFromBytes(c.doFinal(encrypted)).getEncoded());
+	}
+
+	private String encryptMasterKeyV2(byte[] masterKey, String password) throws Throwable {
+		SecureRandom random = new SecureRandom();
+		byte[] salt = new byte[KDF_SALT_SIZE];
+		byte[] iv = new byte[ENC_IV_SIZE];
+		random.nextBytes(salt);
+		random.nextBytes(iv);
+
+		int iterations = getKdfIterations();
+		SecretKey[] keys = deriveKeys(password, salt, iterations);
+		Cipher c = Cipher.getInstance(ENC_CIPHER);
+		c.init(Cipher.ENCRYPT_MODE, keys[0], new IvParameterSpec(iv));
+		byte[] encrypted = c.doFinal(masterKey);
+		byte[] mac = computeMac(keys[1], iterations, salt, iv, encrypted);
+
+		ByteBuffer buffer = ByteBuffer.allocate(4 + salt.length + iv.length + mac.length + encrypted.length);
+		buffer.putInt(iterations).put(salt).put(iv).put(mac).put(encrypted);
+		return MK_FORMAT_V2 + Base64.encode(buffer.array());
+	}
+
+	// returns the encryption key and the MAC key
+	private SecretKey[] deriveKeys(String password, byte[] salt, int iterations) throws GeneralSecurityException {
+		PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, ENC_KEY_SIZE + MAC_KEY_SIZE);
+		byte[] derived = SecretKeyFactory.getInstance(KDF_ALGO).generateSecret(spec).getEncoded();
+		spec.clearPassword();
+		SecretKey[] ret = new SecretKey[] {
+			new SecretKeySpec(derived, 0, ENC_KEY_SIZE / 8, MK_CIPHER),
+			new SecretKeySpec(derived, ENC_KEY_SIZE / 8, MAC_KEY_SIZE / 8, MAC_ALGO)
+		};
+		Arrays.fill(derived, (byte)0);
+		return ret;
+	}
+
+	private byte[] computeMac(SecretKey macKey, int iterations, byte[] salt, byte[] iv, byte[] encrypted) throws GeneralSecurityException {
+		Mac mac = Mac.getInstance(MAC_ALGO);
+		mac.init(macKey);
+		mac.update(ByteBuffer.allocate(4).putInt(iterations).array());
+		mac.update(salt);
+		mac.update(iv);
+		return mac.doFinal(encrypted);
+	}
+
+	// number of KDF iterations used when encrypting the master key; the count used is stored with it
+	protected int getKdfIterations() {
+		return KDF_ITERATIONS;
+	}
+
+	private static String getCacheKey(String password, String encryptedMasterKey) throws Exception {
+		MessageDigest md = MessageDigest.getInstance("SHA-256");
+		md.update(password.getBytes("UTF-8"));
+		md.update((byte)0);
+		md.update(encryptedMasterKey.getBytes("UTF-8"));
+		return Base64.encode(md.digest());
+	}
+
+	private XXRangerMasterKey getEncryptedMK() throws Base64DecodingException {
 		logger.debug("Retrieving Encrypted Master Key from database");
 		try{
 			  if(daoManager != null){
-				  RangerMasterKeyDao rangerKMSDao = new RangerMasterKeyDao(daoManager);
+				  RangerMasterKeyDao rangerKMSDao = daoManager.getRangerMasterKeyDao();
 				  List<XXRangerMasterKey> lstRangerMasterKey = rangerKMSDao.getAll();
 				  if(lstRangerMasterKey.size() < 1){
 					  throw new Exception("No Master Key exists");
 				  }else if(lstRangerMasterKey.size() > 1){
 					  throw new Exception("More than one Master Key exists");
 				  }else {
-					  XXRangerMasterKey rangerMasterKey = rangerKMSDao.getById(lstRangerMasterKey.get(0).getId());
-					  String masterKeyStr = rangerMasterKey.getMasterKey();
-					  byte[] masterKeyFromDBEncrypted = Base64.decode(masterKeyStr) ;
-					  return masterKeyFromDBEncrypted;
+					  return rangerKMSDao.getById(lstRangerMasterKey.get(0).getId());
 				  }
 			  }			  
 		  }catch(Exception e){
@@ -133,7 +285,7 @@ public class RangerMasterKey {
 		  xxRangerMasterKey.setMasterKey(encryptedMasterKey);
 		  try{
 			  if(daoManager != null){
-				  RangerMasterKeyDao rangerKMSDao = new RangerMasterKeyDao(daoManager);
+				  RangerMasterKeyDao rangerKMSDao = daoManager.getRangerMasterKeyDao();
 				  Long l = rangerKMSDao.getAllCount();
 				  if(l < 1){
 					  XXRangerMasterKey rangerMasterKey = rangerKMSDao.create(xxRangerMasterKey);
@@ -149,10 +301,7 @@ public class RangerMasterKey {
 	private String encryptMasterKey(String password) throws Throwable {
 			logger.debug("Encrypting Master Key");
 			Key secretKey = generateMasterKey();
-			PBEKeySpec pbeKeySpec = getPBEParameterSpec(password);
-			byte[] masterKeyToDB = encryptKey(secretKey.getEncoded(), pbeKeySpec);
-			String masterKey = Base64.encode(masterKeyToDB) ;
-			return masterKey;
+			return encryptMasterKeyV2(secretKey.getEncoded(), password);
 	}
 	
 	private Key generateMasterKey() throws NoSuchAlgorithmException{
@@ -170,15 +319,6 @@ public class RangerMasterKey {
 		PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iteration) ;		 
 		return spec ;
 	}
-	private byte[] encryptKey(byte[] data, PBEKeySpec keyspec) throws Throwable {
-		SecretKey key = getPasswordKey(keyspec) ;
-		PBEParameterSpec paramSpec = new PBEParameterSpec(keyspec.getSalt(), keyspec.getIterationCount()) ;
-		Cipher c = Cipher.getInstance(key.getAlgorithm()) ;
-		c.init(Cipher.ENCRYPT_MODE, key,paramSpec);
-		byte[] encrypted = c.doFinal(data) ;
-		 
-		return encrypted ;
-	}
 	private SecretKey getPasswordKey(PBEKeySpec keyspec) throws Throwable {
 		SecretKeyFactory factory = SecretKeyFactory.getInstance(PBE_ALGO) ;
 		SecretKey PbKey = factory.generateSecret(keyspec) ;
@@ -0,0 +1,172 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.crypto.key;
+
+import java.security.Key;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.crypto.SealedObject;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Cache of the unsealed key material of RangerKeyStore entries, so that
+ * keys are not decrypted with the master key on every lookup.
+ * Entries expire after ttlMs; least recently used entries are evicted
+ * beyond maxEntries. An entry is used only for the sealed key it was
+ * unsealed from, so a rolled, reloaded or deleted key is never served.
+ * When zeroOnEviction is set, the cached material is overwritten as
+ * entries leave the cache.
+ * Lookups don't take a cache-wide lock; only the entry being read is
+ * locked while its material is copied, so that it can't be zeroed midway.
+ */
+class UnsealedKeyCache {
+	private final int     maxEntries;
+	private final long    ttlMs;
+	private final boolean zeroOnEviction;
+
+	private final ConcurrentHashMap<String, CachedKey> cache = new ConcurrentHashMap<String, CachedKey>();
+
+	UnsealedKeyCache(int maxEntries, long ttlMs, boolean zeroOnEviction) {
+		this.maxEntries     = maxEntries;
+		this.ttlMs          = ttlMs;
+		this.zeroOnEviction = zeroOnEviction;
+	}
+
+	boolean isEnabled() {
+		return maxEntries > 0 && ttlMs > 0;
+	}
+
+	/**
+	 * @return a copy of the cached key; null if not cached, expired or cached for a different sealed key
+	 */
+	Key get(String alias, SealedObject sealedKey) {
+		CachedKey cachedKey = cache.get(alias);
+
+		if(cachedKey == null) {
+			return null;
+		}
+
+		if(cachedKey.sealedKey != sealedKey || currentTimeMillis() - cachedKey.loadTime >= ttlMs) {
+			remove(alias, cachedKey);
+
+			return null;
+		}
+
+		cachedKey.accessTime = System.nanoTime();
+
+		synchronized(cachedKey) {
+			if(cachedKey.isEvicted) {
+				return null;
+			}
+
+			return new SecretKeySpec(cachedKey.material, cachedKey.algorithm);
+		}
+	}
+
+	void put(String alias, SealedObject sealedKey, SecretKeySpec key) {
+		CachedKey cachedKey = new CachedKey(sealedKey, key.getAlgorithm(), key.getEncoded(), currentTimeMillis());
+
+		evicted(cache.put(alias, cachedKey));
+
+		if(cache.size() > maxEntries) {
+			evict();
+		}
+	}
+
+	void remove(String alias) {
+		evicted(cache.remove(alias));
+	}
+
+	void clear() {
+		for(String alias : cache.keySet()) {
+			remove(alias);
+		}
+	}
+
+	int size() {
+		return cache.size();
+	}
+
+	long currentTimeMillis() {
+		return System.currentTimeMillis();
+	}
+
+	private void remove(String alias, CachedKey cachedKey) {
+		if(cache.remove(alias, cachedKey)) {
+			evicted(cachedKey);
+		}
+	}
+
+	// removes the least recently used entries; a tenth of the entries are removed at a time, so that puts don't sort the entries every time
+	private synchronized void evict() {
+		int toRemove = cache.size() - (maxEntries - maxEntries / 10);
+
+		if(toRemove <= 0) {
+			return;
+		}
+
+		List<Map.Entry<String, CachedKey>> entries = new ArrayList<Map.Entry<String, CachedKey>>(cache.entrySet());
+
+		Collections.sort(entries, new Comparator<Map.Entry<String, CachedKey>>() {
+			@Override
+			public int compare(Map.Entry<String, CachedKey> e1, Map.Entry<String, CachedKey> e2) {
+				long diff = e1.getValue().accessTime - e2.getValue().accessTime;
+
+				return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+			}
+		});
+
+		for(int i = 0; i < toRemove && i < entries.size(); i++) {
+			remove(entries.get(i).getKey(), entries.get(i).getValue());
+		}
+	}
+
+	private void evicted(CachedKey cachedKey) {
+		if(cachedKey != null) {
+			synchronized(cachedKey) {
+				cachedKey.isEvicted = true;
+
+				if(zeroOnEviction) {
+					Arrays.fill(cachedKey.material, (byte)0);
+				}
+			}
+		}
+	}
+
+	private static final class CachedKey {
+		final SealedObject sealedKey;
+		final String       algorithm;
+		final byte[]       material;
+		final long         loadTime;
+		volatile long      accessTime = System.nanoTime();
+		boolean            isEvicted  = false;
+
+		CachedKey(SealedObject sealedKey, String algorithm, byte[] material, long loadTime) {
+			this.sealedKey = sealedKey;
+			this.algorithm = algorithm;
+			this.material  = material;
+			this.loadTime  = loadTime;
+		}
+	}
+}
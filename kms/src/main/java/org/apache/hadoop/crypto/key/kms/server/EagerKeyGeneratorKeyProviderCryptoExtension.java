@@ -24,14 +24,12 @@ import java.security.NoSuchAlgorithmException;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Queue;
-import java.util.concurrent.ExecutionException;
 
 import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.crypto.key.KeyProvider;
 import org.apache.hadoop.crypto.key.KeyProviderCryptoExtension;
 import org.apache.hadoop.crypto.key.kms.ValueQueue;
-import org.apache.hadoop.crypto.key.kms.ValueQueue.SyncGenerationPolicy;
 
 /**
  * A {@link KeyProviderCryptoExtension} that pre-generates and caches encrypted
@@ -60,6 +58,17 @@ public class EagerKeyGeneratorKeyProviderCryptoExtension
       KEY_CACHE_PREFIX + "num.fill.threads";
   public static final int KMS_KEY_CACHE_NUM_REFILL_THREADS_DEFAULT = 2;
 
+  public static final String KMS_KEY_CACHE_MAX_PENDING_REFILLS =
+      KEY_CACHE_PREFIX + "max.pending.refills";
+  public static final int KMS_KEY_CACHE_MAX_PENDING_REFILLS_DEFAULT = 1000;
+
+  /**
+   * Prefix of the size and low watermark of the cache of a specific key, e.g.
+   * hadoop.security.kms.encrypted.key.cache.key.mykey.size
+   */
+  public static final String KMS_KEY_CACHE_KEY_PREFIX =
+      KEY_CACHE_PREFIX + "key.";
+
 
   private static class CryptoExtension
       implements KeyProviderCryptoExtension.CryptoExtension {
@@ -85,48 +94,54 @@ public class EagerKeyGeneratorKeyProviderCryptoExtension
     }
 
     private KeyProviderCryptoExtension keyProviderCryptoExtension;
-    private final ValueQueue<EncryptedKeyVersion> encKeyVersionQueue;
+    private final EncryptedKeyVersionPool encKeyVersionPool;
 
-    public CryptoExtension(Configuration conf,
+    public CryptoExtension(final Configuration conf,
         KeyProviderCryptoExtension keyProviderCryptoExtension) {
       this.keyProviderCryptoExtension = keyProviderCryptoExtension;
-      encKeyVersionQueue =
-          new ValueQueue<KeyProviderCryptoExtension.EncryptedKeyVersion>(
-              conf.getInt(KMS_KEY_CACHE_SIZE,
-                  KMS_KEY_CACHE_SIZE_DEFAULT),
-              conf.getFloat(KMS_KEY_CACHE_LOW_WATERMARK,
-                  KMS_KEY_CACHE_LOW_WATERMARK_DEFAULT),
-              conf.getInt(KMS_KEY_CACHE_EXPIRY_MS,
-                  KMS_KEY_CACHE_EXPIRY_DEFAULT),
-              conf.getInt(KMS_KEY_CACHE_NUM_REFILL_THREADS,
-                  KMS_KEY_CACHE_NUM_REFILL_THREADS_DEFAULT),
-              SyncGenerationPolicy.LOW_WATERMARK, new EncryptedQueueRefiller()
-          );
+      final int size = conf.getInt(KMS_KEY_CACHE_SIZE,
+          KMS_KEY_CACHE_SIZE_DEFAULT);
+      final float lowWatermark = conf.getFloat(KMS_KEY_CACHE_LOW_WATERMARK,
+          KMS_KEY_CACHE_LOW_WATERMARK_DEFAULT);
+      encKeyVersionPool = new EncryptedKeyVersionPool(
+          new EncryptedKeyVersionPool.PoolConfig() {
+            @Override
+            public int getSize(String keyName) {
+              return conf.getInt(KMS_KEY_CACHE_KEY_PREFIX + keyName + ".size",
+                  size);
+            }
+
+            @Override
+            public float getLowWatermark(String keyName) {
+              return conf.getFloat(
+                  KMS_KEY_CACHE_KEY_PREFIX + keyName + ".low.watermark",
+                  lowWatermark);
+            }
+          },
+          conf.getInt(KMS_KEY_CACHE_EXPIRY_MS,
+              KMS_KEY_CACHE_EXPIRY_DEFAULT),
+          conf.getInt(KMS_KEY_CACHE_NUM_REFILL_THREADS,
+              KMS_KEY_CACHE_NUM_REFILL_THREADS_DEFAULT),
+          conf.getInt(KMS_KEY_CACHE_MAX_PENDING_REFILLS,
+              KMS_KEY_CACHE_MAX_PENDING_REFILLS_DEFAULT),
+          new EncryptedQueueRefiller());
     }
 
     @Override
     public void warmUpEncryptedKeys(String... keyNames) throws
                                                         IOException {
-      try {
-        encKeyVersionQueue.initializeQueuesForKeys(keyNames);
-      } catch (ExecutionException e) {
-        throw new IOException(e);
-      }
+      encKeyVersionPool.warmUp(keyNames);
     }
 
     @Override
     public void drain(String keyName) {
-      encKeyVersionQueue.drain(keyName);
+      encKeyVersionPool.drain(keyName);
     }
 
     @Override
     public EncryptedKeyVersion generateEncryptedKey(String encryptionKeyName)
         throws IOException, GeneralSecurityException {
-      try {
-        return encKeyVersionQueue.getNext(encryptionKeyName);
-      } catch (ExecutionException e) {
-        throw new IOException(e);
-      }
+      return encKeyVersionPool.getNext(encryptionKeyName);
     }
 
     @Override
@@ -141,7 +156,8 @@ public class EagerKeyGeneratorKeyProviderCryptoExtension
   /**
    * This class is a proxy for a <code>KeyProviderCryptoExtension</code> that
    * decorates the underlying <code>CryptoExtension</code> with one that eagerly
-   * caches pre-generated Encrypted Keys using a <code>ValueQueue</code>
+   * caches pre-generated Encrypted Keys using an
+   * <code>EncryptedKeyVersionPool</code>
    *
    * @param conf Configuration object to load parameters from
    * @param keyProviderCryptoExtension <code>KeyProviderCryptoExtension</code>
@@ -153,6 +169,13 @@ public class EagerKeyGeneratorKeyProviderCryptoExtension
         new CryptoExtension(conf, keyProviderCryptoExtension));
   }
 
+  /**
+   * @return the pool of pre-generated Encrypted Keys, for its statistics
+   */
+  public EncryptedKeyVersionPool getEncryptedKeyVersionPool() {
+    return ((CryptoExtension) getExtension()).encKeyVersionPool;
+  }
+
   @Override
   public KeyVersion rollNewVersion(String name)
       throws NoSuchAlgorithmException, IOException {
@@ -0,0 +1,348 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.crypto.key.kms.server;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.crypto.key.KeyProviderCryptoExtension.EncryptedKeyVersion;
+import org.apache.hadoop.crypto.key.kms.ValueQueue.QueueRefiller;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Pool of pre-generated encrypted keys, one per key name.
+ * <p/>
+ * Callers take keys from the pool without waiting for generation; once a
+ * pool falls below its low watermark it is refilled up to its size on a
+ * bounded executor. A caller finding the pool empty generates a single key
+ * itself, and counts as a miss. Keys generated before the pool of a key is
+ * drained, for example on key roll, are never handed out. Pools of keys not
+ * used within the expiry time are removed.
+ */
+@InterfaceAudience.Private
+public class EncryptedKeyVersionPool {
+  private static final Logger LOG =
+      LoggerFactory.getLogger(EncryptedKeyVersionPool.class);
+
+  /**
+   * Size and low watermark of the pool of a key.
+   */
+  public interface PoolConfig {
+    int getSize(String keyName);
+
+    float getLowWatermark(String keyName);
+  }
+
+  private static class KeyPool {
+    private final String keyName;
+    private final int size;
+    private final int lowWatermarkCount;
+    private final Queue<EncryptedKeyVersion> queue =
+        new ConcurrentLinkedQueue<EncryptedKeyVersion>();
+    // number of keys in queue; ConcurrentLinkedQueue.size() is not constant time
+    private final AtomicInteger count = new AtomicInteger();
+    private final AtomicBoolean isRefillPending = new AtomicBoolean(false);
+    private volatile long lastAccessTime = System.currentTimeMillis();
+    private int generation = 0;
+
+    private KeyPool(String keyName, int size, float lowWatermark) {
+      this.keyName = keyName;
+      this.size = size;
+      this.lowWatermarkCount = Math.max(1, (int) (size * lowWatermark));
+    }
+
+    private EncryptedKeyVersion poll() {
+      EncryptedKeyVersion ret = queue.poll();
+      if (ret != null) {
+        count.decrementAndGet();
+      }
+      return ret;
+    }
+
+    private synchronized int getGeneration() {
+      return generation;
+    }
+
+    private synchronized boolean addAll(int fromGeneration,
+        Queue<EncryptedKeyVersion> keys) {
+      if (fromGeneration != generation) {
+        return false;
+      }
+      queue.addAll(keys);
+      count.addAndGet(keys.size());
+      return true;
+    }
+
+    private synchronized void clear() {
+      generation++;
+      queue.clear();
+      count.set(0);
+    }
+  }
+
+  private final ConcurrentMap<String, KeyPool> pools =
+      new ConcurrentHashMap<String, KeyPool>();
+  private final PoolConfig poolConfig;
+  private final long expiryMs;
+  private final QueueRefiller<EncryptedKeyVersion> refiller;
+  private final ThreadPoolExecutor executor;
+
+  private final AtomicLong hitCount = new AtomicLong();
+  private final AtomicLong missCount = new AtomicLong();
+  private final AtomicLong refillCount = new AtomicLong();
+  private final AtomicLong refillTimeMs = new AtomicLong();
+  private final AtomicLong maxRefillTimeMs = new AtomicLong();
+  private final AtomicLong refillRejectedCount = new AtomicLong();
+  private final AtomicLong lastPruneTime =
+      new AtomicLong(System.currentTimeMillis());
+
+  /**
+   * @param poolConfig size and low watermark of the pool of each key
+   * @param expiryMs a pool not used for this long is drained on next use,
+   * or removed
+   * @param numRefillThreads number of threads refilling the pools
+   * @param maxPendingRefills number of refills that can wait for a thread;
+   * pools are not refilled in the background beyond that
+   * @param refiller generates the encrypted keys
+   */
+  public EncryptedKeyVersionPool(PoolConfig poolConfig, long expiryMs,
+      int numRefillThreads, int maxPendingRefills,
+      QueueRefiller<EncryptedKeyVersion> refiller) {
+    this.poolConfig = poolConfig;
+    this.expiryMs = expiryMs;
+    this.refiller = refiller;
+    this.executor = new ThreadPoolExecutor(numRefillThreads, numRefillThreads,
+        0L, TimeUnit.MILLISECONDS,
+        new LinkedBlockingQueue<Runnable>(maxPendingRefills),
+        new ThreadFactoryBuilder().setDaemon(true)
+            .setNameFormat("EncryptedKeyVersionPool-refill-%d").build());
+  }
+
+  /**
+   * Returns a pre-generated encrypted key, or a newly generated one when the
+   * pool of the key is empty.
+   */
+  public EncryptedKeyVersion getNext(String keyName) throws IOException {
+    KeyPool pool = getPool(keyName);
+    EncryptedKeyVersion ret = pool.poll();
+
+    if (ret != null) {
+      hitCount.incrementAndGet();
+    } else {
+      missCount.incrementAndGet();
+      Queue<EncryptedKeyVersion> keys = new LinkedList<EncryptedKeyVersion>();
+      try {
+        refiller.fillQueueForKey(keyName, keys, 1);
+      } catch (IOException | RuntimeException e) {
+        // a key that can't be generated, for example one that doesn't exist,
+        // keeps no pool
+        removePool(keyName, pool);
+        throw e;
+      }
+      ret = keys.poll();
+      if (ret == null) {
+        removePool(keyName, pool);
+        throw new IOException("No encrypted key generated for " + keyName);
+      }
+    }
+
+    if (pool.count.get() < pool.lowWatermarkCount) {
+      scheduleRefill(pool);
+    }
+
+    return ret;
+  }
+
+  /**
+   * Fills the pools of the given keys, waiting for the keys to be generated.
+   */
+  public void warmUp(String... keyNames) throws IOException {
+    for (String keyName : keyNames) {
+      refill(getPool(keyName));
+    }
+  }
+
+  /**
+   * Discards the keys in the pool of the given key, including the ones being
+   * generated at the moment, and the pool itself.
+   */
+  public void drain(String keyName) {
+    KeyPool pool = pools.get(keyName);
+    if (pool != null) {
+      removePool(keyName, pool);
+    }
+  }
+
+  public void shutdown() {
+    executor.shutdownNow();
+  }
+
+  public int getPoolCount() {
+    return pools.size();
+  }
+
+  public int getPoolSize(String keyName) {
+    KeyPool pool = pools.get(keyName);
+    return pool == null ? 0 : pool.size;
+  }
+
+  public int getAvailableCount(String keyName) {
+    KeyPool pool = pools.get(keyName);
+    return pool == null ? 0 : pool.count.get();
+  }
+
+  public long getHitCount() {
+    return hitCount.get();
+  }
+
+  public long getMissCount() {
+    return missCount.get();
+  }
+
+  public long getRefillCount() {
+    return refillCount.get();
+  }
+
+  public long getRefillTimeMs() {
+    return refillTimeMs.get();
+  }
+
+  public long getMaxRefillTimeMs() {
+    return maxRefillTimeMs.get();
+  }
+
+  public long getRefillRejectedCount() {
+    return refillRejectedCount.get();
+  }
+
+  private KeyPool getPool(String keyName) {
+    long now = System.currentTimeMillis();
+    KeyPool pool = pools.get(keyName);
+
+    if (pool == null) {
+      removeIdlePools(now);
+
+      KeyPool newPool = new KeyPool(keyName, poolConfig.getSize(keyName),
+          poolConfig.getLowWatermark(keyName));
+      pool = pools.putIfAbsent(keyName, newPool);
+      if (pool == null) {
+        pool = newPool;
+      }
+    } else if (now - pool.lastAccessTime >= expiryMs) {
+      pool.clear();
+    }
+
+    pool.lastAccessTime = now;
+
+    return pool;
+  }
+
+  private void removePool(String keyName, KeyPool pool) {
+    pool.clear();
+    pools.remove(keyName, pool);
+  }
+
+  // removes the pools not used within the expiry time; at most once in that time
+  private void removeIdlePools(long now) {
+    long lastPrune = lastPruneTime.get();
+    if (now - lastPrune < expiryMs
+        || !lastPruneTime.compareAndSet(lastPrune, now)) {
+      return;
+    }
+    for (Iterator<KeyPool> iter = pools.values().iterator(); iter.hasNext();) {
+      KeyPool pool = iter.next();
+      if (now - pool.lastAccessTime >= expiryMs) {
+        pool.clear();
+        iter.remove();
+      }
+    }
+  }
+
+  private void scheduleRefill(final KeyPool pool) {
+    if (!pool.isRefillPending.compareAndSet(false, true)) {
+      return;
+    }
+
+    try {
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            refill(pool);
+          } catch (Throwable e) {
+            LOG.warn("Failed to refill encrypted keys of " + pool.keyName, e);
+          } finally {
+            pool.isRefillPending.set(false);
+          }
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      // callers generate keys themselves until a refill can be scheduled
+      pool.isRefillPending.set(false);
+      refillRejectedCount.incrementAndGet();
+    }
+  }
+
+  private void refill(KeyPool pool) throws IOException {
+    int numKeys = pool.size - pool.count.get();
+
+    if (numKeys <= 0) {
+      return;
+    }
+
+    long startTime = System.currentTimeMillis();
+    int fromGeneration = pool.getGeneration();
+    Queue<EncryptedKeyVersion> keys = new LinkedList<EncryptedKeyVersion>();
+
+    refiller.fillQueueForKey(pool.keyName, keys, numKeys);
+
+    boolean isAdded = pool.addAll(fromGeneration, keys);
+    long elapsedMs = System.currentTimeMillis() - startTime;
+
+    refillCount.incrementAndGet();
+    refillTimeMs.addAndGet(elapsedMs);
+    for (long max = maxRefillTimeMs.get(); elapsedMs > max;
+        max = maxRefillTimeMs.get()) {
+      if (maxRefillTimeMs.compareAndSet(max, elapsedMs)) {
+        break;
+      }
+    }
+
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("refill(" + pool.keyName + "): generated " + keys.size()
+          + " keys in " + elapsedMs + "ms" + (isAdded ? "" : "; discarded"));
+    }
+  }
+}
@@ -30,6 +30,8 @@ import org.apache.hadoop.crypto.key.kms.KMSClientProvider;
 import org.apache.hadoop.crypto.key.kms.server.KMSACLsType.Type;
 import org.apache.hadoop.security.token.delegation.web.HttpUserGroupInformation;
 
+import com.codahale.metrics.Timer;
+
 import javax.servlet.http.HttpServletRequest;
 import javax.ws.rs.Consumes;
 import javax.ws.rs.DELETE;
@@ -89,6 +91,20 @@ public class KMS {
     KMSWebApp.getACLs().assertAccess(aclType, ugi, operation, key, clientIp);
   }
 
+  // runs the action as the given user, recording its time and failures in the metrics of the operation
+  private static <T> T doAs(KMSOp operation, UserGroupInformation user,
+      PrivilegedExceptionAction<T> action) throws Exception {
+    Timer.Context timer = KMSMetrics.time(operation);
+    try {
+      return user.doAs(action);
+    } catch (Exception e) {
+      KMSMetrics.failed(operation);
+      throw e;
+    } finally {
+      timer.stop();
+    }
+  }
+
   private static KeyProvider.KeyVersion removeKeyMaterial(
       KeyProvider.KeyVersion keyVersion) {
     return new KMSClientProvider.KMSKeyVersion(keyVersion.getName(),
@@ -135,7 +151,7 @@ public class KMS {
     options.setDescription(description);
     options.setAttributes(attributes);
 
-    KeyProvider.KeyVersion keyVersion = user.doAs(
+    KeyProvider.KeyVersion keyVersion = doAs(KMSOp.CREATE_KEY, user,
         new PrivilegedExceptionAction<KeyVersion>() {
           @Override
           public KeyVersion run() throws Exception {
@@ -181,7 +197,7 @@ public class KMS {
     assertAccess(Type.DELETE, user, KMSOp.DELETE_KEY, name, request.getRemoteAddr());
     KMSClientProvider.checkNotEmpty(name, "name");
 
-    user.doAs(new PrivilegedExceptionAction<Void>() {
+    doAs(KMSOp.DELETE_KEY, user, new PrivilegedExceptionAction<Void>() {
       @Override
       public Void run() throws Exception {
         provider.deleteKey(name);
@@ -212,7 +228,7 @@ public class KMS {
           KMSOp.ROLL_NEW_VERSION, name, request.getRemoteAddr());
     }
 
-    KeyProvider.KeyVersion keyVersion = user.doAs(
+    KeyProvider.KeyVersion keyVersion = doAs(KMSOp.ROLL_NEW_VERSION, user,
         new PrivilegedExceptionAction<KeyVersion>() {
           @Override
           public KeyVersion run() throws Exception {
@@ -246,7 +262,7 @@ public class KMS {
         new String[keyNamesList.size()]);
     assertAccess(Type.GET_METADATA, user, KMSOp.GET_KEYS_METADATA, request.getRemoteAddr());
 
-    KeyProvider.Metadata[] keysMeta = user.doAs(
+    KeyProvider.Metadata[] keysMeta = doAs(KMSOp.GET_KEYS_METADATA, user,
         new PrivilegedExceptionAction<KeyProvider.Metadata[]>() {
           @Override
           public KeyProvider.Metadata[] run() throws Exception {
@@ -268,7 +284,7 @@ public class KMS {
     UserGroupInformation user = HttpUserGroupInformation.get();
     assertAccess(Type.GET_KEYS, user, KMSOp.GET_KEYS, request.getRemoteAddr());
 
-    List<String> json = user.doAs(
+    List<String> json = doAs(KMSOp.GET_KEYS, user,
         new PrivilegedExceptionAction<List<String>>() {
           @Override
           public List<String> run() throws Exception {
@@ -299,7 +315,7 @@ public class KMS {
     KMSWebApp.getAdminCallsMeter().mark();
     assertAccess(Type.GET_METADATA, user, KMSOp.GET_METADATA, name, request.getRemoteAddr());
 
-    KeyProvider.Metadata metadata = user.doAs(
+    KeyProvider.Metadata metadata = doAs(KMSOp.GET_METADATA, user,
         new PrivilegedExceptionAction<KeyProvider.Metadata>() {
           @Override
           public KeyProvider.Metadata run() throws Exception {
@@ -324,7 +340,7 @@ public class KMS {
     KMSWebApp.getKeyCallsMeter().mark();
     assertAccess(Type.GET, user, KMSOp.GET_CURRENT_KEY, name, request.getRemoteAddr());
 
-    KeyVersion keyVersion = user.doAs(
+    KeyVersion keyVersion = doAs(KMSOp.GET_CURRENT_KEY, user,
         new PrivilegedExceptionAction<KeyVersion>() {
           @Override
           public KeyVersion run() throws Exception {
@@ -351,7 +367,7 @@ public class KMS {
     KMSWebApp.getKeyCallsMeter().mark();
     assertAccess(Type.GET, user, KMSOp.GET_KEY_VERSION, request.getRemoteAddr());
 
-    KeyVersion keyVersion = user.doAs(
+    KeyVersion keyVersion = doAs(KMSOp.GET_KEY_VERSION, user,
         new PrivilegedExceptionAction<KeyVersion>() {
           @Override
           public KeyVersion run() throws Exception {
@@ -390,7 +406,7 @@ public class KMS {
           new LinkedList<EncryptedKeyVersion>();
       try {
 
-        user.doAs(
+        doAs(KMSOp.GENERATE_EEK, user,
             new PrivilegedExceptionAction<Void>() {
               @Override
               public Void run() throws Exception {
@@ -448,7 +464,7 @@ public class KMS {
           KMSRESTConstants.MATERIAL_FIELD);
       final byte[] encMaterial = Base64.decodeBase64(encMaterialStr);
 
-      KeyProvider.KeyVersion retKeyVersion = user.doAs(
+      KeyProvider.KeyVersion retKeyVersion = doAs(KMSOp.DECRYPT_EEK, user,
           new PrivilegedExceptionAction<KeyVersion>() {
             @Override
             public KeyVersion run() throws Exception {
@@ -484,7 +500,7 @@ public class KMS {
     KMSWebApp.getKeyCallsMeter().mark();
     assertAccess(Type.GET, user, KMSOp.GET_KEY_VERSIONS, name, request.getRemoteAddr());
 
-    List<KeyVersion> ret = user.doAs(
+    List<KeyVersion> ret = doAs(KMSOp.GET_KEY_VERSIONS, user,
         new PrivilegedExceptionAction<List<KeyVersion>>() {
           @Override
           public List<KeyVersion> run() throws Exception {
@@ -31,7 +31,9 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
@@ -41,6 +43,10 @@ import java.util.regex.Pattern;
  * Provides access to the <code>AccessControlList</code>s used by KMS,
  * hot-reloading them if the <code>dbks-site.xml</code> file where the ACLs
  * are defined has been updated.
+ * <p/>
+ * Decisions are cached per user, key and operation for a while, so that the
+ * groups of the user are not looked up on every call. The cache is discarded
+ * when the ACLs are reloaded.
  */
 @InterfaceAudience.Private
 public class KMSACLs implements Runnable, KeyACLs {
@@ -64,10 +70,69 @@ public class KMSACLs implements Runnable, KeyACLs {
   private ScheduledExecutorService executorService;
   private long lastReload;
 
+  /**
+   * Decisions are only added to the cache they were read from; a decision
+   * made with ACLs replaced in the meantime ends up in a discarded cache.
+   */
+  private volatile ConcurrentHashMap<DecisionKey, Decision> decisionCache =
+      new ConcurrentHashMap<DecisionKey, Decision>();
+  private final int decisionCacheSize;
+  private final long decisionCacheTtlMs;
+
+  private static final class DecisionKey {
+    private final Object op;
+    private final String user;
+    private final String keyName;
+
+    private DecisionKey(Object op, String user, String keyName) {
+      this.op = op;
+      this.user = user;
+      this.keyName = keyName;
+    }
+
+    @Override
+    public int hashCode() {
+      int hash = op.hashCode();
+      hash = 31 * hash + (user == null ? 0 : user.hashCode());
+      hash = 31 * hash + (keyName == null ? 0 : keyName.hashCode());
+      return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj) {
+        return true;
+      }
+      if (!(obj instanceof DecisionKey)) {
+        return false;
+      }
+      DecisionKey other = (DecisionKey) obj;
+      return op == other.op
+          && (user == null ? other.user == null : user.equals(other.user))
+          && (keyName == null ? other.keyName == null
+              : keyName.equals(other.keyName));
+    }
+  }
+
+  private static final class Decision {
+    private final boolean isAllowed;
+    private final long time;
+
+    private Decision(boolean isAllowed, long time) {
+      this.isAllowed = isAllowed;
+      this.time = time;
+    }
+  }
+
   KMSACLs(Configuration conf) {
     if (conf == null) {
       conf = loadACLs();
     }
+    decisionCacheSize = conf.getInt(KMSConfiguration.ACL_DECISION_CACHE_SIZE,
+        KMSConfiguration.ACL_DECISION_CACHE_SIZE_DEFAULT);
+    decisionCacheTtlMs = conf.getLong(
+        KMSConfiguration.ACL_DECISION_CACHE_TTL_MS,
+        KMSConfiguration.ACL_DECISION_CACHE_TTL_MS_DEFAULT);
     setKMSACLs(conf);
     setKeyACLs(conf);
   }
@@ -153,6 +218,9 @@ public class KMSACLs implements Runnable, KeyACLs {
       if (KMSConfiguration.isACLsFileNewer(lastReload)) {
         setKMSACLs(loadACLs());
         setKeyACLs(loadACLs());
+        // only after the new ACLs are in place, so that they are used for
+        // all the decisions added to the new cache
+        decisionCache = new ConcurrentHashMap<DecisionKey, Decision>();
       }
     } catch (Exception ex) {
       LOG.warn(
@@ -196,11 +264,19 @@ public class KMSACLs implements Runnable, KeyACLs {
    */
   @Override
   public boolean hasAccess(Type type, UserGroupInformation ugi, String clientIp) {
+    ConcurrentHashMap<DecisionKey, Decision> cache = decisionCache;
+    DecisionKey decisionKey = new DecisionKey(type, ugi.getUserName(), null);
+    Decision decision = getCachedDecision(cache, decisionKey);
+    if (decision != null) {
+      return decision.isAllowed;
+    }
+
     boolean access = acls.get(type).isUserAllowed(ugi);
     if (access) {
       AccessControlList blacklist = blacklistedAcls.get(type);
       access = (blacklist == null) || !blacklist.isUserInList(ugi);
     }
+    cacheDecision(cache, decisionKey, access);
     return access;
   }
 
@@ -221,6 +297,21 @@ public class KMSACLs implements Runnable, KeyACLs {
   @Override
   public boolean hasAccessToKey(String keyName, UserGroupInformation ugi,
       KeyOpType opType) {
+    ConcurrentHashMap<DecisionKey, Decision> cache = decisionCache;
+    DecisionKey decisionKey =
+        new DecisionKey(opType, ugi.getUserName(), keyName);
+    Decision decision = getCachedDecision(cache, decisionKey);
+    if (decision != null) {
+      return decision.isAllowed;
+    }
+
+    boolean access = checkKeyAccess(keyName, ugi, opType);
+    cacheDecision(cache, decisionKey, access);
+    return access;
+  }
+
+  private boolean checkKeyAccess(String keyName, UserGroupInformation ugi,
+      KeyOpType opType) {
     Map<KeyOpType, AccessControlList> keyAcl = keyAcls.get(keyName);
     if (keyAcl == null) {
       // Get KeyAcl map of DEFAULT KEY.
@@ -242,4 +333,35 @@ public class KMSACLs implements Runnable, KeyACLs {
   public boolean isACLPresent(String keyName, KeyOpType opType) {
     return (keyAcls.containsKey(keyName) || defaultKeyAcls.containsKey(opType));
   }
+
+  int getDecisionCacheSize() {
+    return decisionCache.size();
+  }
+
+  private Decision getCachedDecision(
+      ConcurrentHashMap<DecisionKey, Decision> cache, DecisionKey key) {
+    Decision ret = (decisionCacheSize > 0) ? cache.get(key) : null;
+    if (ret != null
+        && System.currentTimeMillis() - ret.time >= decisionCacheTtlMs) {
+      cache.remove(key, ret);
+      ret = null;
+    }
+    return ret;
+  }
+
+  private void cacheDecision(ConcurrentHashMap<DecisionKey, Decision> cache,
+      DecisionKey key, boolean isAllowed) {
+    if (decisionCacheSize <= 0) {
+      return;
+    }
+    if (cache.size() >= decisionCacheSize) {
+      // drop arbitrary entries to make room; decisions are cheap to recompute
+      for (Iterator<DecisionKey> iter = cache.keySet().iterator();
+          iter.hasNext() && cache.size() >= decisionCacheSize;) {
+        iter.next();
+        iter.remove();
+      }
+    }
+    cache.put(key, new Decision(isAllowed, System.currentTimeMillis()));
+  }
 }
@@ -18,71 +18,124 @@
 package org.apache.hadoop.crypto.key.kms.server;
 
 import org.apache.hadoop.security.UserGroupInformation;
+import org.apache.ranger.audit.dao.DaoManager;
+import org.apache.ranger.audit.destination.AuditDestination;
+import org.apache.ranger.audit.model.AuditEventBase;
+import org.apache.ranger.audit.provider.AuditHandler;
+import org.apache.ranger.audit.queue.AuditQueue;
+import org.apache.ranger.audit.queue.AuditSummaryQueue;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Joiner;
 import com.google.common.base.Strings;
-import com.google.common.cache.Cache;
-import com.google.common.cache.CacheBuilder;
-import com.google.common.cache.RemovalListener;
-import com.google.common.cache.RemovalNotification;
 import com.google.common.collect.Sets;
-import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
+import java.util.Collection;
+import java.util.Date;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Properties;
 import java.util.Set;
-import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Provides convenience methods for audit logging consistently the different
  * types of events.
+ * <p/>
+ * Events are handed to a Ranger audit summary queue, so request threads
+ * never wait for the audit log. The queue aggregates the events of the same
+ * status, operation, key and user within a window, and logs a single message
+ * for them at the end of the window, along with their count. Events of
+ * operations other than key accesses are aggregated only if their messages
+ * are the same too.
+ * <p/>
+ * The queue is bounded; when it is full, events are logged by the request
+ * thread without aggregation, so none are lost.
  */
 public class KMSAudit {
 
-  private static class AuditEvent {
-    private final AtomicLong accessCount = new AtomicLong(-1);
+  static class KMSAuditEvent extends AuditEventBase {
+    private final OpStatus opStatus;
+    private final KMS.KMSOp op;
     private final String keyName;
     private final String user;
-    private final KMS.KMSOp op;
     private final String extraMsg;
-    private final long startTime = System.currentTimeMillis();
+    private final Date eventTime = new Date();
+    private long eventCount = 1;
+    private long eventDurationMS = 0;
 
-    private AuditEvent(String keyName, String user, KMS.KMSOp op, String msg) {
+    private KMSAuditEvent(OpStatus opStatus, KMS.KMSOp op, String keyName,
+        String user, String extraMsg) {
+      this.opStatus = opStatus;
+      this.op = op;
       this.keyName = keyName;
       this.user = user;
-      this.op = op;
-      this.extraMsg = msg;
+      this.extraMsg = extraMsg;
     }
 
-    public String getExtraMsg() {
-      return extraMsg;
+    @Override
+    public void persist(DaoManager daoManager) {
+      // KMS audit events are only logged
     }
 
-    public AtomicLong getAccessCount() {
-      return accessCount;
+    @Override
+    public String getEventKey() {
+      // the message of key access events is the same for every access; other
+      // events, like key creation and rollover, are told apart by their message
+      return opStatus + "#" + op + "#" + keyName + "#" + user
+          + (AGGREGATE_OPS.contains(op) ? "" : "#" + extraMsg);
     }
 
-    public String getKeyName() {
-      return keyName;
+    @Override
+    public Date getEventTime() {
+      return eventTime;
     }
 
-    public String getUser() {
-      return user;
+    @Override
+    public void setEventCount(long eventCount) {
+      this.eventCount = eventCount;
     }
 
-    public KMS.KMSOp getOp() {
-      return op;
+    @Override
+    public void setEventDurationMS(long eventDurationMS) {
+      this.eventDurationMS = eventDurationMS;
     }
 
-    public long getStartTime() {
-      return startTime;
+    public long getEventCount() {
+      return eventCount;
+    }
+
+    @Override
+    public String toString() {
+      List<String> kvs = new LinkedList<String>();
+      if (op != null) {
+        kvs.add("op=" + op);
+      }
+      if (!Strings.isNullOrEmpty(keyName)) {
+        kvs.add("key=" + keyName);
+      }
+      if (!Strings.isNullOrEmpty(user)) {
+        kvs.add("user=" + user);
+      }
+      kvs.add("accessCount=" + eventCount);
+      kvs.add("interval=" + eventDurationMS + "ms");
+      return opStatus + "[" + Joiner.on(", ").join(kvs) + "] " + extraMsg;
+    }
+  }
+
+  /**
+   * Writes the aggregated events to the KMS audit log.
+   */
+  private static class AuditLogDestination extends AuditDestination {
+    @Override
+    public boolean log(Collection<AuditEventBase> events) {
+      for (AuditEventBase event : events) {
+        AUDIT_LOG.info("{}", event);
+      }
+      addTotalCount(events.size());
+      addSuccessCount(events.size());
+      return true;
     }
   }
 
@@ -90,19 +143,26 @@ public class KMSAudit {
     OK, UNAUTHORIZED, UNAUTHENTICATED, ERROR;
   }
 
-  private static Set<KMS.KMSOp> AGGREGATE_OPS_WHITELIST = Sets.newHashSet(
+  private static final Set<KMS.KMSOp> AGGREGATE_OPS = Sets.immutableEnumSet(
     KMS.KMSOp.GET_KEY_VERSION, KMS.KMSOp.GET_CURRENT_KEY,
     KMS.KMSOp.DECRYPT_EEK, KMS.KMSOp.GENERATE_EEK
   );
 
-  private Cache<String, AuditEvent> cache;
+  public static final String KMS_LOGGER_NAME = "kms-audit";
 
-  private ScheduledExecutorService executor;
+  private static final String QUEUE_PROPERTY_PREFIX = "ranger.kms.audit.summary";
 
-  public static final String KMS_LOGGER_NAME = "kms-audit";
+  // how long shutdown waits for the queued events to be logged
+  private static final long SHUTDOWN_TIMEOUT_MS = 10000;
 
   private static Logger AUDIT_LOG = LoggerFactory.getLogger(KMS_LOGGER_NAME);
 
+  private final AuditHandler destination;
+
+  private final AuditSummaryQueue queue;
+
+  private final AtomicLong overflowCount = new AtomicLong();
+
   /**
    * Create a new KMSAudit.
    *
@@ -110,87 +170,41 @@ public class KMSAudit {
    *                 to reduce log traffic. A single message for aggregated
    *                 events is printed at the end of the window, along with a
    *                 count of the number of aggregated events.
+   * @param queueSize Maximum number of events waiting for aggregation. Events
+   *                  beyond it are logged synchronously.
    */
+  KMSAudit(long windowMs, int queueSize) {
+    this(windowMs, queueSize, new AuditLogDestination());
+  }
+
   KMSAudit(long windowMs) {
-    cache = CacheBuilder.newBuilder()
-        .expireAfterWrite(windowMs, TimeUnit.MILLISECONDS)
-        .removalListener(
-            new RemovalListener<String, AuditEvent>() {
-              @Override
-              public void onRemoval(
-                  RemovalNotification<String, AuditEvent> entry) {
-                AuditEvent event = entry.getValue();
-                if (event.getAccessCount().get() > 0) {
-                  KMSAudit.this.logEvent(event);
-                  event.getAccessCount().set(0);
-                  KMSAudit.this.cache.put(entry.getKey(), event);
-                }
-              }
-            }).build();
-    executor = Executors.newScheduledThreadPool(1, new ThreadFactoryBuilder()
-        .setDaemon(true).setNameFormat(KMS_LOGGER_NAME + "_thread").build());
-    executor.scheduleAtFixedRate(new Runnable() {
-      @Override
-      public void run() {
-        cache.cleanUp();
-      }
-    }, windowMs / 10, windowMs / 10, TimeUnit.MILLISECONDS);
+    this(windowMs, KMSConfiguration.KMS_AUDIT_QUEUE_SIZE_DEFAULT);
   }
 
-  private void logEvent(AuditEvent event) {
-    AUDIT_LOG.info(
-        "OK[op={}, key={}, user={}, accessCount={}, interval={}ms] {}",
-        event.getOp(), event.getKeyName(), event.getUser(),
-        event.getAccessCount().get(),
-        (System.currentTimeMillis() - event.getStartTime()),
-        event.getExtraMsg());
+  KMSAudit(long windowMs, int queueSize, AuditHandler destination) {
+    Properties props = new Properties();
+    props.setProperty(QUEUE_PROPERTY_PREFIX + "."
+        + AuditSummaryQueue.PROP_SUMMARY_INTERVAL, Long.toString(windowMs));
+    props.setProperty(QUEUE_PROPERTY_PREFIX + "." + AuditQueue.PROP_QUEUE_SIZE,
+        Integer.toString(queueSize));
+
+    this.destination = destination;
+    destination.init(props, QUEUE_PROPERTY_PREFIX + ".destination");
+    queue = new AuditSummaryQueue(destination);
+    queue.init(props, QUEUE_PROPERTY_PREFIX);
+    queue.start();
   }
 
   private void op(OpStatus opStatus, final KMS.KMSOp op, final String user,
       final String key, final String extraMsg) {
-    if (!Strings.isNullOrEmpty(user) && !Strings.isNullOrEmpty(key)
-        && (op != null)
-        && AGGREGATE_OPS_WHITELIST.contains(op)) {
-      String cacheKey = createCacheKey(user, key, op);
-      if (opStatus == OpStatus.UNAUTHORIZED) {
-        cache.invalidate(cacheKey);
-        AUDIT_LOG.info("UNAUTHORIZED[op={}, key={}, user={}] {}", op, key, user,
-            extraMsg);
-      } else {
-        try {
-          AuditEvent event = cache.get(cacheKey, new Callable<AuditEvent>() {
-            @Override
-            public AuditEvent call() throws Exception {
-              return new AuditEvent(key, user, op, extraMsg);
-            }
-          });
-          // Log first access (initialized as -1 so
-          // incrementAndGet() == 0 implies first access)
-          if (event.getAccessCount().incrementAndGet() == 0) {
-            event.getAccessCount().incrementAndGet();
-            logEvent(event);
-          }
-        } catch (ExecutionException ex) {
-          throw new RuntimeException(ex);
-        }
-      }
-    } else {
-      List<String> kvs = new LinkedList<String>();
-      if (op != null) {
-        kvs.add("op=" + op);
-      }
-      if (!Strings.isNullOrEmpty(key)) {
-        kvs.add("key=" + key);
-      }
-      if (!Strings.isNullOrEmpty(user)) {
-        kvs.add("user=" + user);
-      }
-      if (kvs.size() == 0) {
-        AUDIT_LOG.info("{} {}", opStatus.toString(), extraMsg);
-      } else {
-        String join = Joiner.on(", ").join(kvs);
-        AUDIT_LOG.info("{}[{}] {}", opStatus.toString(), join, extraMsg);
-      }
+    KMSAuditEvent event = new KMSAuditEvent(opStatus, op, key, user, extraMsg);
+
+    // the queue refuses events only when full; rather than losing the event,
+    // the request thread logs it without aggregation
+    if (!queue.log(event)) {
+      overflowCount.incrementAndGet();
+      KMSMetrics.getCounter("audit.overflow").inc();
+      destination.log(event);
     }
   }
 
@@ -220,11 +234,19 @@ public class KMSAudit {
         + " URL:" + url + " ErrorMsg:'" + extraMsg + "'");
   }
 
-  private static String createCacheKey(String user, String key, KMS.KMSOp op) {
-    return user + "#" + key + "#" + op;
+  /**
+   * @return number of events logged synchronously because the queue was full
+   */
+  public long getOverflowCount() {
+    return overflowCount.get();
   }
 
+  /**
+   * Stops the queue, after the events in it are logged, waiting for them at
+   * most {@link #SHUTDOWN_TIMEOUT_MS}.
+   */
   public void shutdown() {
-    executor.shutdownNow();
+    queue.waitToComplete(SHUTDOWN_TIMEOUT_MS);
+    queue.stop();
   }
 }
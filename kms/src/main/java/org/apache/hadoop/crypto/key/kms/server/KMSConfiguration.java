@@ -56,6 +56,10 @@ public class KMSConfiguration {
   // Delay for Audit logs that need aggregation
   public static final String KMS_AUDIT_AGGREGATION_WINDOW = CONFIG_PREFIX +
       "audit.aggregation.window.ms";
+  // Bound of the events waiting for aggregation; events that don't fit are
+  // logged by the request thread
+  public static final String KMS_AUDIT_QUEUE_SIZE = CONFIG_PREFIX +
+      "audit.queue.size";
   
   //for authorizer
   public static final String KMS_SECURITY_AUTHORIZER = CONFIG_PREFIX + "security.authorization.manager";
@@ -67,6 +71,7 @@ public class KMSConfiguration {
   public static final long CURR_KEY_CACHE_TIMEOUT_DEFAULT = 30 * 1000;
   // 10 secs
   public static final long KMS_AUDIT_AGGREGATION_WINDOW_DEFAULT = 10000;
+  public static final int KMS_AUDIT_QUEUE_SIZE_DEFAULT = 1024 * 1024;
 
   // Property to Enable/Disable per Key authorization
   public static final String KEY_AUTHORIZATION_ENABLE = CONFIG_PREFIX +
@@ -74,6 +79,16 @@ public class KMSConfiguration {
 
   public static final boolean KEY_AUTHORIZATION_ENABLE_DEFAULT = true;
 
+  // Cache of the ACL decisions, cleared when the ACLs are reloaded
+  public static final String ACL_DECISION_CACHE_SIZE = CONFIG_PREFIX +
+      "acl.decision.cache.size";
+  public static final String ACL_DECISION_CACHE_TTL_MS = CONFIG_PREFIX +
+      "acl.decision.cache.ttl.ms";
+
+  public static final int ACL_DECISION_CACHE_SIZE_DEFAULT = 10000;
+  // 1 min
+  public static final long ACL_DECISION_CACHE_TTL_MS_DEFAULT = 60 * 1000;
+
   static Configuration getConfiguration(boolean loadHadoopDefaults,
       String ... resources) {
     Configuration conf = new Configuration(loadHadoopDefaults);
@@ -0,0 +1,95 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.crypto.key.kms.server;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.crypto.key.kms.server.KMS.KMSOp;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.SharedMetricRegistries;
+import com.codahale.metrics.Timer;
+
+/**
+ * Timers and counters of the KMS operations, in the metric registry shared
+ * by the KMS web application and the key store. The registry is exposed
+ * through JMX, and so by KMSJMXServlet.
+ * <p/>
+ * Metrics are looked up in the registry on every use, so that they are
+ * reported in the registry current at that time.
+ */
+@InterfaceAudience.Private
+public class KMSMetrics {
+  public static final String REGISTRY_NAME = "kms";
+  public static final String METRICS_PREFIX = "hadoop.kms.";
+
+  private static final Map<KMSOp, String> OP_TIMERS =
+      new EnumMap<KMSOp, String>(KMSOp.class);
+  private static final Map<KMSOp, String> OP_FAILURE_COUNTERS =
+      new EnumMap<KMSOp, String>(KMSOp.class);
+
+  static {
+    for (KMSOp op : KMSOp.values()) {
+      String opName = METRICS_PREFIX + op.name().toLowerCase();
+      OP_TIMERS.put(op, opName + ".timer");
+      OP_FAILURE_COUNTERS.put(op, opName + ".failures.counter");
+    }
+  }
+
+  private KMSMetrics() {
+  }
+
+  public static MetricRegistry getRegistry() {
+    return SharedMetricRegistries.getOrCreate(REGISTRY_NAME);
+  }
+
+  /**
+   * Removes the shared registry, and so all the metrics in it.
+   */
+  public static void removeRegistry() {
+    SharedMetricRegistries.remove(REGISTRY_NAME);
+  }
+
+  public static Timer getTimer(String name) {
+    return getRegistry().timer(METRICS_PREFIX + name + ".timer");
+  }
+
+  public static Counter getCounter(String name) {
+    return getRegistry().counter(METRICS_PREFIX + name + ".counter");
+  }
+
+  public static Timer getTimer(KMSOp op) {
+    return getRegistry().timer(OP_TIMERS.get(op));
+  }
+
+  public static Counter getFailureCounter(KMSOp op) {
+    return getRegistry().counter(OP_FAILURE_COUNTERS.get(op));
+  }
+
+  public static Timer.Context time(KMSOp op) {
+    return getTimer(op).time();
+  }
+
+  public static void failed(KMSOp op) {
+    getFailureCounter(op).inc();
+  }
+}
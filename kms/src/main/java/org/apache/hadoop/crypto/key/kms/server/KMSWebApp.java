@@ -17,6 +17,7 @@
  */
 package org.apache.hadoop.crypto.key.kms.server;
 
+import com.codahale.metrics.Gauge;
 import com.codahale.metrics.JmxReporter;
 import com.codahale.metrics.Meter;
 import com.codahale.metrics.MetricRegistry;
@@ -66,6 +67,8 @@ public class KMSWebApp implements ServletContextListener {
       "generate_eek.calls.meter";
   private static final String DECRYPT_EEK_METER = METRICS_PREFIX +
       "decrypt_eek.calls.meter";
+  private static final String EEK_POOL_GAUGE_PREFIX = METRICS_PREFIX +
+      "eek_pool.";
 
   private static Logger LOG;
   private static MetricRegistry metricRegistry;
@@ -82,6 +85,7 @@ public class KMSWebApp implements ServletContextListener {
   private static Meter invalidCallsMeter;
   private static KMSAudit kmsAudit;
   private static KeyProviderCryptoExtension keyProviderCryptoExtension;
+  private static EncryptedKeyVersionPool encKeyVersionPool;
 
   static {
     SLF4JBridgeHandler.removeHandlersForRootLogger();
@@ -134,7 +138,7 @@ public class KMSWebApp implements ServletContextListener {
       kmsAcls = getAcls(kmsConf.get(KMSConfiguration.KMS_SECURITY_AUTHORIZER));
       kmsAcls.startReloader();
 
-      metricRegistry = new MetricRegistry();
+      metricRegistry = KMSMetrics.getRegistry();
       jmxReporter = JmxReporter.forRegistry(metricRegistry).build();
       jmxReporter.start();
       generateEEKCallsMeter = metricRegistry.register(GENERATE_EEK_METER,
@@ -153,7 +157,9 @@ public class KMSWebApp implements ServletContextListener {
       kmsAudit =
           new KMSAudit(kmsConf.getLong(
               KMSConfiguration.KMS_AUDIT_AGGREGATION_WINDOW,
-              KMSConfiguration.KMS_AUDIT_AGGREGATION_WINDOW_DEFAULT));
+              KMSConfiguration.KMS_AUDIT_AGGREGATION_WINDOW_DEFAULT),
+              kmsConf.getInt(KMSConfiguration.KMS_AUDIT_QUEUE_SIZE,
+              KMSConfiguration.KMS_AUDIT_QUEUE_SIZE_DEFAULT));
 
       // this is required for the the JMXJsonServlet to work properly.
       // the JMXJsonServlet is behind the authentication filter,
@@ -191,9 +197,12 @@ public class KMSWebApp implements ServletContextListener {
 
       keyProviderCryptoExtension = KeyProviderCryptoExtension.
           createKeyProviderCryptoExtension(keyProvider);
-      keyProviderCryptoExtension =
+      EagerKeyGeneratorKeyProviderCryptoExtension eagerKeyGenerator =
           new EagerKeyGeneratorKeyProviderCryptoExtension(kmsConf,
               keyProviderCryptoExtension);
+      encKeyVersionPool = eagerKeyGenerator.getEncryptedKeyVersionPool();
+      registerEEKPoolGauges(encKeyVersionPool);
+      keyProviderCryptoExtension = eagerKeyGenerator;
       if (kmsConf.getBoolean(KMSConfiguration.KEY_AUTHORIZATION_ENABLE,
           KMSConfiguration.KEY_AUTHORIZATION_ENABLE_DEFAULT)) {
         keyProviderCryptoExtension =
@@ -223,6 +232,58 @@ public class KMSWebApp implements ServletContextListener {
     }
   }
 
+  private void registerEEKPoolGauges(final EncryptedKeyVersionPool pool) {
+    metricRegistry.register(EEK_POOL_GAUGE_PREFIX + "hits.gauge",
+        new Gauge<Long>() {
+          @Override
+          public Long getValue() {
+            return pool.getHitCount();
+          }
+        });
+    metricRegistry.register(EEK_POOL_GAUGE_PREFIX + "misses.gauge",
+        new Gauge<Long>() {
+          @Override
+          public Long getValue() {
+            return pool.getMissCount();
+          }
+        });
+    metricRegistry.register(EEK_POOL_GAUGE_PREFIX + "refills.gauge",
+        new Gauge<Long>() {
+          @Override
+          public Long getValue() {
+            return pool.getRefillCount();
+          }
+        });
+    metricRegistry.register(EEK_POOL_GAUGE_PREFIX + "refill_time_ms.gauge",
+        new Gauge<Long>() {
+          @Override
+          public Long getValue() {
+            return pool.getRefillTimeMs();
+          }
+        });
+    metricRegistry.register(EEK_POOL_GAUGE_PREFIX + "max_refill_time_ms.gauge",
+        new Gauge<Long>() {
+          @Override
+          public Long getValue() {
+            return pool.getMaxRefillTimeMs();
+          }
+        });
+    metricRegistry.register(EEK_POOL_GAUGE_PREFIX + "refills_rejected.gauge",
+        new Gauge<Long>() {
+          @Override
+          public Long getValue() {
+            return pool.getRefillRejectedCount();
+          }
+        });
+    metricRegistry.register(EEK_POOL_GAUGE_PREFIX + "pools.gauge",
+        new Gauge<Integer>() {
+          @Override
+          public Integer getValue() {
+            return pool.getPoolCount();
+          }
+        });
+  }
+
   @SuppressWarnings("unchecked")
   private KeyACLs getAcls(String clsStr) throws IOException {
 	  KeyACLs keyAcl = null;
@@ -249,11 +310,15 @@ public class KMSWebApp implements ServletContextListener {
 
 @Override
   public void contextDestroyed(ServletContextEvent sce) {
+    if (encKeyVersionPool != null) {
+      encKeyVersionPool.shutdown();
+    }
     kmsAudit.shutdown();
     kmsAcls.stopReloader();
     jmxReporter.stop();
     jmxReporter.close();
     metricRegistry = null;
+    KMSMetrics.removeRegistry();
     LOG.info("KMS Stopped");
   }
 
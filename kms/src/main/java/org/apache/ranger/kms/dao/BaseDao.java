@@ -47,8 +47,14 @@ public abstract class BaseDao<T> {
 	private void init(DaoManagerBase daoManager) {
 		this.daoManager = (DaoManager) daoManager;
 
-		ParameterizedType genericSuperclass = (ParameterizedType) getClass()
-				.getGenericSuperclass();
+		// find the type argument of BaseDao, even when the dao has been subclassed
+		Type superClass = getClass().getGenericSuperclass();
+
+		while (!(superClass instanceof ParameterizedType)) {
+			superClass = ((Class<?>) superClass).getGenericSuperclass();
+		}
+
+		ParameterizedType genericSuperclass = (ParameterizedType) superClass;
 
 		Type type = genericSuperclass.getActualTypeArguments()[0];
 
@@ -101,7 +107,8 @@ public abstract class BaseDao<T> {
 		if(em != null) {
 			EntityTransaction et = em.getTransaction();
 
-			if(et != null) {
+			// a failed commit may already have ended the transaction
+			if(et != null && et.isActive()) {
 				et.rollback();
 			}
 		}
@@ -17,11 +17,14 @@
 
 package org.apache.ranger.kms.dao;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 
 import org.apache.ranger.entity.XXRangerKeyStore;
 
 public class RangerKMSDao extends BaseDao<XXRangerKeyStore> {
+	private static final int MAX_ALIASES_PER_QUERY = 500;
 
 	public RangerKMSDao(DaoManagerBase daoManager) {
 		super(daoManager);
@@ -39,4 +42,40 @@ public class RangerKMSDao extends BaseDao<XXRangerKeyStore> {
 		List<XXRangerKeyStore> xxr = super.getAllKeys("XXRangerKeyStore.getAllKeys");
 		return xxr;
 	}
+
+	/**
+	 * @return alias, update time and version of all the keys; used to find the keys that changed
+	 * without reading the key material
+	 */
+	public List<Object[]> getAllKeyUpdateInfo(){
+		return getEntityManager()
+				.createNamedQuery("XXRangerKeyStore.getAllKeyUpdateInfo", Object[].class).getResultList();
+	}
+
+	public List<XXRangerKeyStore> getKeysByAlias(Collection<String> aliases){
+		List<XXRangerKeyStore> ret = new ArrayList<XXRangerKeyStore>();
+		List<String> batch = new ArrayList<String>();
+
+		for(String alias : aliases) {
+			batch.add(alias);
+
+			if(batch.size() == MAX_ALIASES_PER_QUERY) {
+				ret.addAll(findByAliases(batch));
+				batch.clear();
+			}
+		}
+
+		if(!batch.isEmpty()) {
+			ret.addAll(findByAliases(batch));
+		}
+
+		return ret;
+	}
+
+	private List<XXRangerKeyStore> findByAliases(List<String> aliases){
+		return getEntityManager()
+				.createNamedQuery("XXRangerKeyStore.findByAliases", tClass)
+				.setParameter("aliases", aliases)
+				.setHint("eclipselink.refresh", "true").getResultList();
+	}
 }
@@ -0,0 +1,178 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.crypto.key;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.ranger.entity.XXRangerKeyStore;
+import org.apache.ranger.kms.dao.DaoManager;
+import org.apache.ranger.kms.dao.RangerKMSDao;
+
+/**
+ * Keeps the rows in memory; update time is truncated to seconds, as in databases with datetime columns
+ */
+class InMemoryKMSDao extends RangerKMSDao {
+  final Map<String, XXRangerKeyStore> rows = new LinkedHashMap<String, XXRangerKeyStore>();
+
+  int     fullLoadCount       = 0;
+  int     updateInfoCount     = 0;
+  int     findByAliasCount    = 0;
+  int     loadedRowCount      = 0;
+  int     writeCount          = 0;
+  int     transactionCount    = 0;
+  int     rollbackCount       = 0;
+  boolean inTransaction       = false;
+  boolean freezeTime          = false;
+  boolean failIncrementalLoad = false;
+  boolean failWrites          = false;
+  long    now                 = 1000000000L;
+
+  InMemoryKMSDao(DaoManager daoManager) {
+    super(daoManager);
+  }
+
+  @Override
+  public synchronized XXRangerKeyStore findByAlias(String alias) {
+    findByAliasCount++;
+
+    return copy(rows.get(alias));
+  }
+
+  @Override
+  public synchronized int deleteByAlias(String alias) {
+    return rows.remove(alias) == null ? 0 : 1;
+  }
+
+  @Override
+  public synchronized List<XXRangerKeyStore> getAllKeys() {
+    fullLoadCount++;
+
+    return getKeysByAlias(new ArrayList<String>(rows.keySet()));
+  }
+
+  @Override
+  public synchronized List<Object[]> getAllKeyUpdateInfo() {
+    updateInfoCount++;
+
+    if (failIncrementalLoad) {
+      throw new IllegalStateException("incremental load failure");
+    }
+
+    List<Object[]> ret = new ArrayList<Object[]>();
+
+    for (XXRangerKeyStore row : rows.values()) {
+      ret.add(new Object[] { row.getAlias(), row.getUpdateTime(), row.getVersion() });
+    }
+
+    return ret;
+  }
+
+  @Override
+  public synchronized List<XXRangerKeyStore> getKeysByAlias(Collection<String> aliases) {
+    List<XXRangerKeyStore> ret = new ArrayList<XXRangerKeyStore>();
+
+    for (String alias : aliases) {
+      XXRangerKeyStore row = rows.get(alias);
+
+      if (row != null) {
+        ret.add(copy(row));
+      }
+    }
+
+    loadedRowCount += ret.size();
+
+    return ret;
+  }
+
+  @Override
+  public synchronized XXRangerKeyStore create(XXRangerKeyStore obj) {
+    return save(obj);
+  }
+
+  @Override
+  public synchronized XXRangerKeyStore update(XXRangerKeyStore obj) {
+    return save(obj);
+  }
+
+  @Override
+  public synchronized boolean beginTransaction() {
+    if (inTransaction) {
+      return false;
+    }
+
+    inTransaction = true;
+    transactionCount++;
+
+    return true;
+  }
+
+  @Override
+  public synchronized void commitTransaction() {
+    inTransaction = false;
+  }
+
+  @Override
+  public synchronized void rollbackTransaction() {
+    inTransaction = false;
+    rollbackCount++;
+  }
+
+  private XXRangerKeyStore save(XXRangerKeyStore obj) {
+    if (failWrites) {
+      throw new IllegalStateException("write failure");
+    }
+
+    writeCount++;
+
+    if (!freezeTime) {
+      now += 1000;
+    }
+
+    XXRangerKeyStore row = copy(obj);
+    row.setUpdateTime(new Date(now - now % 1000));
+
+    rows.put(row.getAlias(), row);
+
+    return copy(row);
+  }
+
+  private static XXRangerKeyStore copy(XXRangerKeyStore obj) {
+    if (obj == null) {
+      return null;
+    }
+
+    XXRangerKeyStore ret = new XXRangerKeyStore();
+    ret.setId(obj.getId());
+    ret.setAlias(obj.getAlias());
+    ret.setCreatedDate(obj.getCreatedDate());
+    ret.setEncoded(obj.getEncoded());
+    ret.setCipher(obj.getCipher());
+    ret.setBitLength(obj.getBitLength());
+    ret.setDescription(obj.getDescription());
+    ret.setVersion(obj.getVersion());
+    ret.setAttributes(obj.getAttributes());
+    ret.setUpdateTime(obj.getUpdateTime());
+
+    return ret;
+  }
+}
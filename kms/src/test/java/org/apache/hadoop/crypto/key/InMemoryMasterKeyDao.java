@@ -0,0 +1,93 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.crypto.key;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.ranger.entity.XXRangerMasterKey;
+import org.apache.ranger.kms.dao.DaoManager;
+import org.apache.ranger.kms.dao.RangerMasterKeyDao;
+
+class InMemoryMasterKeyDao extends RangerMasterKeyDao {
+  final List<XXRangerMasterKey> rows = new ArrayList<XXRangerMasterKey>();
+
+  int updateCount = 0;
+
+  InMemoryMasterKeyDao(DaoManager daoManager) {
+    super(daoManager);
+  }
+
+  @Override
+  public synchronized List<XXRangerMasterKey> getAll() {
+    List<XXRangerMasterKey> ret = new ArrayList<XXRangerMasterKey>();
+
+    for (XXRangerMasterKey row : rows) {
+      ret.add(copy(row));
+    }
+
+    return ret;
+  }
+
+  @Override
+  public synchronized Long getAllCount() {
+    return (long) rows.size();
+  }
+
+  @Override
+  public synchronized XXRangerMasterKey getById(Long id) {
+    for (XXRangerMasterKey row : rows) {
+      if (row.getId().equals(id)) {
+        return copy(row);
+      }
+    }
+
+    return null;
+  }
+
+  @Override
+  public synchronized XXRangerMasterKey create(XXRangerMasterKey obj) {
+    obj.setId((long) rows.size() + 1);
+    rows.add(copy(obj));
+
+    return obj;
+  }
+
+  @Override
+  public synchronized XXRangerMasterKey update(XXRangerMasterKey obj) {
+    updateCount++;
+
+    for (int i = 0; i < rows.size(); i++) {
+      if (rows.get(i).getId().equals(obj.getId())) {
+        rows.set(i, copy(obj));
+      }
+    }
+
+    return obj;
+  }
+
+  private static XXRangerMasterKey copy(XXRangerMasterKey obj) {
+    XXRangerMasterKey ret = new XXRangerMasterKey();
+    ret.setId(obj.getId());
+    ret.setCipher(obj.getCipher());
+    ret.setBitLength(obj.getBitLength());
+    ret.setMasterKey(obj.getMasterKey());
+
+    return ret;
+  }
+}
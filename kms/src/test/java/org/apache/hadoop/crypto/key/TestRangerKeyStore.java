@@ -0,0 +1,322 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.crypto.key;
+
+import javax.crypto.NullCipher;
+import javax.crypto.SealedObject;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.crypto.key.kms.server.KMSMetrics;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class TestRangerKeyStore {
+  private static final char[] MASTER_KEY = "masterkey".toCharArray();
+  private static final int    KEY_COUNT  = 500;
+
+  private InMemoryDaoManager daoManager;
+
+  @BeforeClass
+  public static void setUpClass() {
+    // sealing with the default iteration count makes creating hundreds of keys too slow for a unit test
+    System.setProperty("jdk.jceks.iterationCount", "10000");
+    // later JREs allow only SecretKeySpec to be unsealed, unless the filter lets key metadata through
+    System.setProperty("jceks.key.serialFilter", "java.lang.Enum;java.security.KeyRep;java.security.KeyRep$Type;"
+        + "javax.crypto.spec.SecretKeySpec;org.apache.hadoop.crypto.key.RangerKeyStoreProvider$KeyMetadata;!*");
+  }
+
+  @Before
+  public void setUp() throws Exception {
+    daoManager = new InMemoryDaoManager();
+
+    // keys stored by another instance of KMS
+    RangerKeyStore writer = new RangerKeyStore(daoManager);
+    for (int i = 0; i < KEY_COUNT; i++) {
+      addKey(writer, "key" + i + "@0", 0);
+    }
+    writer.engineStore(null, MASTER_KEY);
+  }
+
+  @Test
+  public void testLoadChangesReadsOnlyChangedKeys() throws Exception {
+    RangerKeyStore keyStore = new RangerKeyStore(daoManager);
+
+    keyStore.engineLoadChanges(MASTER_KEY);
+    Assert.assertEquals(KEY_COUNT, keyStore.engineSize());
+    Assert.assertEquals(KEY_COUNT, daoManager.dao.loadedRowCount);
+
+    // nothing changed
+    daoManager.dao.loadedRowCount = 0;
+    keyStore.engineLoadChanges(MASTER_KEY);
+    Assert.assertEquals(0, daoManager.dao.loadedRowCount);
+
+    // a key added by another instance
+    RangerKeyStore writer = new RangerKeyStore(daoManager);
+    addKey(writer, "newkey@0", 0);
+    writer.engineStore(null, MASTER_KEY);
+
+    keyStore.engineLoadChanges(MASTER_KEY);
+    Assert.assertEquals(1, daoManager.dao.loadedRowCount);
+    Assert.assertEquals(KEY_COUNT + 1, keyStore.engineSize());
+    Assert.assertArrayEquals(getMaterial("newkey@0", 0), keyStore.engineGetKey("newkey@0", MASTER_KEY).getEncoded());
+
+    // a key deleted by another instance
+    daoManager.dao.loadedRowCount = 0;
+    writer.engineDeleteEntry("key1@0");
+
+    keyStore.engineLoadChanges(MASTER_KEY);
+    Assert.assertEquals(0, daoManager.dao.loadedRowCount);
+    Assert.assertFalse(keyStore.engineContainsAlias("key1@0"));
+    Assert.assertEquals(KEY_COUNT, keyStore.engineSize());
+    Assert.assertEquals(1, daoManager.dao.fullLoadCount);
+  }
+
+  @Test
+  public void testLoadChangesDetectsUpdateWithinSameSecond() throws Exception {
+    RangerKeyStore keyStore = new RangerKeyStore(daoManager);
+    keyStore.engineLoadChanges(MASTER_KEY);
+
+    // update time is stored with a precision of seconds; the version tells the updates apart
+    daoManager.dao.freezeTime = true;
+
+    RangerKeyStore writer = new RangerKeyStore(daoManager);
+    addKey(writer, "key2@0", 1);
+    writer.engineStore(null, MASTER_KEY);
+    keyStore.engineLoadChanges(MASTER_KEY);
+
+    addKey(writer, "key2@0", 2);
+    writer.engineStore(null, MASTER_KEY);
+
+    daoManager.dao.loadedRowCount = 0;
+    keyStore.engineLoadChanges(MASTER_KEY);
+    Assert.assertEquals(1, daoManager.dao.loadedRowCount);
+    Assert.assertArrayEquals(getMaterial("key2@0", 2), keyStore.engineGetKey("key2@0", MASTER_KEY).getEncoded());
+  }
+
+  @Test
+  public void testLoadChangesRetainsKeysNotYetStored() throws Exception {
+    RangerKeyStore keyStore = new RangerKeyStore(daoManager);
+    keyStore.engineLoadChanges(MASTER_KEY);
+
+    addKey(keyStore, "unstored@0", 0);
+    keyStore.engineLoadChanges(MASTER_KEY);
+
+    Assert.assertTrue(keyStore.engineContainsAlias("unstored@0"));
+    Assert.assertEquals(KEY_COUNT + 1, keyStore.engineSize());
+  }
+
+  @Test
+  public void testLoadChangesFallsBackToFullLoad() throws Exception {
+    RangerKeyStore keyStore = new RangerKeyStore(daoManager);
+    keyStore.engineLoadChanges(MASTER_KEY);
+
+    RangerKeyStore writer = new RangerKeyStore(daoManager);
+    addKey(writer, "newkey@0", 0);
+    writer.engineStore(null, MASTER_KEY);
+
+    daoManager.dao.failIncrementalLoad = true;
+    keyStore.engineLoadChanges(MASTER_KEY);
+
+    Assert.assertEquals(2, daoManager.dao.fullLoadCount);
+    Assert.assertEquals(KEY_COUNT + 1, keyStore.engineSize());
+  }
+
+  @Test
+  public void testKeyCacheAcrossRollover() throws Exception {
+    RangerKeyStore keyStore = new RangerKeyStore(daoManager, createConf(100, 60000));
+    keyStore.engineLoadChanges(MASTER_KEY);
+
+    for (int i = 0; i < 10; i++) {
+      Assert.assertArrayEquals(getMaterial("key1@0", 0), keyStore.engineGetKey("key1@0", MASTER_KEY).getEncoded());
+    }
+    Assert.assertEquals(1, keyStore.getUnsealCount());
+
+    // new version of the key
+    addKey(keyStore, "key1@1", 1);
+    Assert.assertArrayEquals(getMaterial("key1@1", 1), keyStore.engineGetKey("key1@1", MASTER_KEY).getEncoded());
+    Assert.assertArrayEquals(getMaterial("key1@0", 0), keyStore.engineGetKey("key1@0", MASTER_KEY).getEncoded());
+    Assert.assertEquals(2, keyStore.getUnsealCount());
+
+    // key deleted and created again with the same name
+    keyStore.engineDeleteEntry("key1@0");
+    Assert.assertNull(keyStore.engineGetKey("key1@0", MASTER_KEY));
+    addKey(keyStore, "key1@0", 5);
+    Assert.assertArrayEquals(getMaterial("key1@0", 5), keyStore.engineGetKey("key1@0", MASTER_KEY).getEncoded());
+
+    // key replaced by another instance
+    Assert.assertArrayEquals(getMaterial("key2@0", 0), keyStore.engineGetKey("key2@0", MASTER_KEY).getEncoded());
+    RangerKeyStore writer = new RangerKeyStore(daoManager);
+    addKey(writer, "key2@0", 1);
+    writer.engineStore(null, MASTER_KEY);
+    keyStore.engineLoadChanges(MASTER_KEY);
+    Assert.assertArrayEquals(getMaterial("key2@0", 1), keyStore.engineGetKey("key2@0", MASTER_KEY).getEncoded());
+
+    // a different password is not served from the cache
+    Assert.assertNull(keyStore.engineGetKey("key2@0", "wrong".toCharArray()));
+  }
+
+  @Test
+  public void testKeyCacheMaxEntries() throws Exception {
+    RangerKeyStore keyStore = new RangerKeyStore(daoManager, createConf(2, 60000));
+    keyStore.engineLoadChanges(MASTER_KEY);
+
+    keyStore.engineGetKey("key0@0", MASTER_KEY);
+    keyStore.engineGetKey("key1@0", MASTER_KEY);
+    keyStore.engineGetKey("key0@0", MASTER_KEY);
+    Assert.assertEquals(2, keyStore.getUnsealCount());
+
+    // evicts key1@0, the least recently used
+    keyStore.engineGetKey("key2@0", MASTER_KEY);
+    keyStore.engineGetKey("key0@0", MASTER_KEY);
+    Assert.assertEquals(3, keyStore.getUnsealCount());
+    keyStore.engineGetKey("key1@0", MASTER_KEY);
+    Assert.assertEquals(4, keyStore.getUnsealCount());
+  }
+
+  @Test
+  public void testKeyCacheExpiry() throws Exception {
+    final long[] now = new long[] { 1000 };
+
+    UnsealedKeyCache cache = new UnsealedKeyCache(10, 100, true) {
+      @Override
+      long currentTimeMillis() {
+        return now[0];
+      }
+    };
+
+    SealedObject  sealedKey = new SealedObject("key", new NullCipher());
+    SecretKeySpec key       = new SecretKeySpec(getMaterial("key", 0), "AES");
+
+    cache.put("key", sealedKey, key);
+    now[0] += 99;
+    Assert.assertEquals(key, cache.get("key", sealedKey));
+    Assert.assertNull(cache.get("key", new SealedObject("key", new NullCipher())));
+
+    cache.put("key", sealedKey, key);
+    now[0] += 100;
+    Assert.assertNull(cache.get("key", sealedKey));
+    Assert.assertEquals(0, cache.size());
+  }
+
+  @Test
+  public void testKeyCacheAvoidsUnsealing() throws Exception {
+    RangerKeyStore cached   = new RangerKeyStore(daoManager, createConf(100, 60000));
+    RangerKeyStore uncached = new RangerKeyStore(daoManager, createConf(0, 60000));
+    cached.engineLoadChanges(MASTER_KEY);
+    uncached.engineLoadChanges(MASTER_KEY);
+
+    getKey(uncached, 100);
+    getKey(cached, 100);
+
+    Assert.assertEquals(100, uncached.getUnsealCount());
+    Assert.assertEquals(1, cached.getUnsealCount());
+  }
+
+  @Test
+  public void testStoredKeysAreNotLoadedAgain() throws Exception {
+    RangerKeyStore keyStore = new RangerKeyStore(daoManager);
+    keyStore.engineLoadChanges(MASTER_KEY);
+
+    addKey(keyStore, "newkey@0", 0);
+    addKey(keyStore, "key2@0", 1);
+    keyStore.engineStore(null, MASTER_KEY);
+
+    daoManager.dao.loadedRowCount = 0;
+    keyStore.engineLoadChanges(MASTER_KEY);
+    Assert.assertEquals(0, daoManager.dao.loadedRowCount);
+    Assert.assertArrayEquals(getMaterial("key2@0", 1), keyStore.engineGetKey("key2@0", MASTER_KEY).getEncoded());
+  }
+
+  @Test
+  public void testFailedStoreKeepsEntriesUnpersisted() throws Exception {
+    RangerKeyStore writer = new RangerKeyStore(daoManager);
+    addKey(writer, "newkey@0", 0);
+
+    daoManager.dao.failWrites = true;
+    try {
+      writer.engineStore(null, MASTER_KEY);
+      Assert.fail("engineStore() should fail when the key can't be written");
+    } catch (IllegalStateException excp) {
+      // expected
+    }
+    Assert.assertEquals(1, daoManager.dao.rollbackCount);
+    Assert.assertNull(daoManager.dao.findByAlias("newkey@0"));
+
+    // the entry is written by the next store
+    daoManager.dao.failWrites = false;
+    writer.engineStore(null, MASTER_KEY);
+    Assert.assertNotNull(daoManager.dao.findByAlias("newkey@0"));
+  }
+
+  @Test
+  public void testDatabaseOperationMetrics() throws Exception {
+    long loadAllCount = KMSMetrics.getTimer(RangerKeyStore.METRIC_DB_LOAD_ALL).getCount();
+    long loadChangedCount = KMSMetrics.getTimer(RangerKeyStore.METRIC_DB_LOAD_CHANGED).getCount();
+    long storeCount = KMSMetrics.getTimer(RangerKeyStore.METRIC_DB_STORE).getCount();
+    long deleteCount = KMSMetrics.getTimer(RangerKeyStore.METRIC_DB_DELETE).getCount();
+    long loadedKeys = KMSMetrics.getCounter(RangerKeyStore.METRIC_LOADED_KEYS).getCount();
+    long storedKeys = KMSMetrics.getCounter(RangerKeyStore.METRIC_STORED_KEYS).getCount();
+
+    RangerKeyStore keyStore = new RangerKeyStore(daoManager);
+    keyStore.engineLoadChanges(MASTER_KEY);
+
+    RangerKeyStore writer = new RangerKeyStore(daoManager);
+    addKey(writer, "newkey@0", 0);
+    writer.engineStore(null, MASTER_KEY);
+    writer.engineDeleteEntry("key1@0");
+    keyStore.engineLoadChanges(MASTER_KEY);
+
+    Assert.assertEquals(loadAllCount + 1, KMSMetrics.getTimer(RangerKeyStore.METRIC_DB_LOAD_ALL).getCount());
+    Assert.assertEquals(loadChangedCount + 1, KMSMetrics.getTimer(RangerKeyStore.METRIC_DB_LOAD_CHANGED).getCount());
+    Assert.assertEquals(storeCount + 1, KMSMetrics.getTimer(RangerKeyStore.METRIC_DB_STORE).getCount());
+    Assert.assertEquals(deleteCount + 1, KMSMetrics.getTimer(RangerKeyStore.METRIC_DB_DELETE).getCount());
+    Assert.assertEquals(loadedKeys + KEY_COUNT + 1, KMSMetrics.getCounter(RangerKeyStore.METRIC_LOADED_KEYS).getCount());
+    Assert.assertEquals(storedKeys + 1, KMSMetrics.getCounter(RangerKeyStore.METRIC_STORED_KEYS).getCount());
+  }
+
+  private static void getKey(RangerKeyStore keyStore, int count) throws Exception {
+    for (int i = 0; i < count; i++) {
+      Assert.assertArrayEquals(getMaterial("key3@0", 0), keyStore.engineGetKey("key3@0", MASTER_KEY).getEncoded());
+    }
+  }
+
+  private static Configuration createConf(int maxEntries, long ttlMs) {
+    Configuration conf = new Configuration(false);
+    conf.setInt(RangerKeyStore.KEY_CACHE_MAX_ENTRIES, maxEntries);
+    conf.setLong(RangerKeyStore.KEY_CACHE_TTL_MS, ttlMs);
+    return conf;
+  }
+
+  private static void addKey(RangerKeyStore keyStore, String alias, int version) throws Exception {
+    keyStore.addKeyEntry(alias, new SecretKeySpec(getMaterial(alias, version), "AES"), MASTER_KEY, "AES/CTR/NoPadding", 128, null, version, "{}");
+  }
+
+  private static byte[] getMaterial(String alias, int version) {
+    byte[] ret  = new byte[16];
+    int    hash = (alias + version).hashCode();
+
+    for (int i = 0; i < ret.length; i++) {
+      ret[i] = (byte) (hash >> (i % 4 * 8));
+    }
+
+    return ret;
+  }
+}
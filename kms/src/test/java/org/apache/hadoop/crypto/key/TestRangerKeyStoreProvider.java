@@ -0,0 +1,285 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.crypto.key;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.crypto.key.KeyProvider.KeyVersion;
+import org.apache.hadoop.crypto.key.KeyProvider.Options;
+import org.apache.hadoop.crypto.key.KeyProviderCryptoExtension.EncryptedKeyVersion;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class TestRangerKeyStoreProvider {
+  private static final char[] MASTER_KEY = "masterkey".toCharArray();
+
+  private InMemoryDaoManager daoManager;
+
+  @BeforeClass
+  public static void setUpClass() {
+    // sealing with the default iteration count is too slow for a unit test
+    System.setProperty("jdk.jceks.iterationCount", "10000");
+    // later JREs allow only SecretKeySpec to be unsealed, unless the filter lets key metadata through
+    System.setProperty("jceks.key.serialFilter", "java.lang.Enum;java.security.KeyRep;java.security.KeyRep$Type;"
+        + "javax.crypto.spec.SecretKeySpec;org.apache.hadoop.crypto.key.RangerKeyStoreProvider$KeyMetadata;!*");
+  }
+
+  @Before
+  public void setUp() throws Exception {
+    daoManager = new InMemoryDaoManager();
+
+    RangerKeyStoreProvider writer = createProvider(0);
+    createKey(writer, "key1");
+  }
+
+  @Test
+  public void testUnknownKeyLookups() throws Exception {
+    RangerKeyStoreProvider provider = createProvider(60000);
+    InMemoryKMSDao         dao      = resetCounts();
+
+    for (int i = 0; i < 1000; i++) {
+      Assert.assertNull(provider.getKeyVersion("unknown@0"));
+      Assert.assertNull(provider.getMetadata("unknown"));
+    }
+
+    // one lookup for each name; the keystore is not reloaded
+    Assert.assertEquals(2, dao.findByAliasCount);
+    Assert.assertEquals(0, dao.updateInfoCount);
+    Assert.assertEquals(0, dao.fullLoadCount);
+
+    Assert.assertNotNull(provider.getMetadata("key1"));
+    Assert.assertEquals(2, dao.findByAliasCount);
+  }
+
+  @Test
+  public void testUnknownKeyLookupsWithoutMissingKeyCache() throws Exception {
+    RangerKeyStoreProvider provider = createProvider(0);
+    InMemoryKMSDao         dao      = resetCounts();
+
+    for (int i = 0; i < 100; i++) {
+      Assert.assertNull(provider.getKeyVersion("unknown@0"));
+    }
+
+    Assert.assertEquals(100, dao.findByAliasCount);
+    Assert.assertEquals(0, dao.updateInfoCount);
+    Assert.assertEquals(0, dao.fullLoadCount);
+  }
+
+  @Test
+  public void testKeyCreatedByAnotherInstance() throws Exception {
+    RangerKeyStoreProvider provider = createProvider(0);
+
+    Assert.assertNull(provider.getMetadata("key2"));
+
+    createKey(createProvider(0), "key2");
+
+    InMemoryKMSDao dao = resetCounts();
+
+    Assert.assertEquals(1, provider.getMetadata("key2").getVersions());
+    Assert.assertArrayEquals(getMaterial("key2"), provider.getKeyVersion("key2@0").getMaterial());
+    Assert.assertEquals(2, dao.findByAliasCount);
+    Assert.assertEquals(0, dao.updateInfoCount);
+  }
+
+  @Test
+  public void testKeyCreatedAfterMiss() throws Exception {
+    RangerKeyStoreProvider provider = createProvider(60000);
+
+    Assert.assertNull(provider.getMetadata("key3"));
+    Assert.assertNull(provider.getKeyVersion("key3@0"));
+
+    createKey(provider, "key3");
+
+    Assert.assertEquals(1, provider.getMetadata("key3").getVersions());
+    Assert.assertArrayEquals(getMaterial("key3"), provider.getKeyVersion("key3@0").getMaterial());
+
+    KeyVersion keyVersion = provider.rollNewVersion("key3", getMaterial("key3.1"));
+    provider.flush();
+    Assert.assertArrayEquals(getMaterial("key3.1"), provider.getKeyVersion(keyVersion.getVersionName()).getMaterial());
+  }
+
+  @Test
+  public void testFlushWritesOnlyChangedKeys() throws Exception {
+    RangerKeyStoreProvider writer = createProvider(0);
+    for (int i = 0; i < 20; i++) {
+      createKey(writer, "key" + (i + 10));
+    }
+
+    RangerKeyStoreProvider provider = createProvider(0);
+    InMemoryKMSDao         dao      = resetCounts();
+
+    // key version and metadata of the new key, in one transaction
+    createKey(provider, "key4");
+    Assert.assertEquals(2, dao.writeCount);
+    Assert.assertEquals(1, dao.transactionCount);
+
+    // new key version and updated metadata
+    dao.writeCount = 0;
+    provider.rollNewVersion("key10", getMaterial("key10.1"));
+    provider.flush();
+    Assert.assertEquals(2, dao.writeCount);
+
+    dao.writeCount = 0;
+    provider.flush();
+    Assert.assertEquals(0, dao.writeCount);
+
+    RangerKeyStoreProvider reader = createProvider(0);
+    Assert.assertEquals(22, reader.getKeys().size());
+    Assert.assertEquals(2, reader.getMetadata("key10").getVersions());
+    Assert.assertArrayEquals(getMaterial("key10.1"), reader.getKeyVersion("key10@1").getMaterial());
+    Assert.assertArrayEquals(getMaterial("key4"), reader.getCurrentKey("key4").getMaterial());
+  }
+
+  @Test
+  public void testReloadKeepsChangesNotFlushed() throws Exception {
+    RangerKeyStoreProvider provider = createProvider(0);
+    Options                options  = new Options(new Configuration(false));
+    options.setCipher("AES/CTR/NoPadding");
+    options.setBitLength(128);
+
+    provider.createKey("key5", getMaterial("key5"), options);
+    Assert.assertTrue(provider.getKeys().contains("key1"));
+    provider.createKey("key6", getMaterial("key6"), options);
+    provider.rollNewVersion("key1", getMaterial("key1.1"));
+    provider.flush();
+
+    RangerKeyStoreProvider reader = createProvider(0);
+    Assert.assertEquals(1, reader.getMetadata("key5").getVersions());
+    Assert.assertEquals(1, reader.getMetadata("key6").getVersions());
+    Assert.assertEquals(2, reader.getMetadata("key1").getVersions());
+  }
+
+  @Test
+  public void testConcurrentLookups() throws Exception {
+    final int keyCount    = 10;
+    final int threadCount = 8;
+    final int opCount     = 2000;
+
+    final RangerKeyStoreProvider provider = createProvider(60000);
+    for (int i = 0; i < keyCount; i++) {
+      createKey(provider, "ckey" + i);
+    }
+
+    final KeyProviderCryptoExtension cryptoExtension = KeyProviderCryptoExtension.createKeyProviderCryptoExtension(provider);
+    final List<EncryptedKeyVersion>  eeks            = new ArrayList<EncryptedKeyVersion>();
+    for (int i = 0; i < keyCount; i++) {
+      eeks.add(cryptoExtension.generateEncryptedKey("ckey" + i));
+    }
+    final List<KeyVersion> deks = new ArrayList<KeyVersion>();
+    for (EncryptedKeyVersion eek : eeks) {
+      deks.add(cryptoExtension.decryptEncryptedKey(eek));
+    }
+
+    final CountDownLatch             startLatch = new CountDownLatch(1);
+    final AtomicReference<Throwable> failure    = new AtomicReference<Throwable>();
+    List<Thread>                     threads    = new ArrayList<Thread>();
+
+    for (int t = 0; t < threadCount; t++) {
+      final int threadId = t;
+
+      threads.add(new Thread() {
+        @Override
+        public void run() {
+          try {
+            startLatch.await();
+
+            for (int i = 0; i < opCount; i++) {
+              int k = (threadId + i) % keyCount;
+
+              Assert.assertArrayEquals(getMaterial("ckey" + k), provider.getKeyVersion("ckey" + k + "@0").getMaterial());
+              Assert.assertArrayEquals(deks.get(k).getMaterial(), cryptoExtension.decryptEncryptedKey(eeks.get(k)).getMaterial());
+              Assert.assertTrue(provider.getMetadata("ckey" + k).getVersions() >= 1);
+            }
+          } catch (Throwable e) {
+            failure.compareAndSet(null, e);
+          }
+        }
+      });
+    }
+
+    for (Thread thread : threads) {
+      thread.start();
+    }
+
+    startLatch.countDown();
+
+    // a writer rolls keys while the lookups are in progress
+    for (int i = 0; i < 5; i++) {
+      provider.rollNewVersion("ckey" + i, getMaterial("ckey" + i + ".1"));
+      provider.flush();
+    }
+
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    if (failure.get() != null) {
+      throw new AssertionError(failure.get());
+    }
+
+    for (int i = 0; i < 5; i++) {
+      Assert.assertEquals(2, provider.getMetadata("ckey" + i).getVersions());
+      Assert.assertArrayEquals(getMaterial("ckey" + i + ".1"), provider.getCurrentKey("ckey" + i).getMaterial());
+    }
+  }
+
+  private RangerKeyStoreProvider createProvider(long missingKeyCacheTtlMs) throws Exception {
+    // hadoop defaults are loaded for the crypto codecs used to generate and decrypt encrypted keys
+    Configuration conf = new Configuration();
+    conf.setLong("ranger.ks.missing.key.cache.ttl.ms", missingKeyCacheTtlMs);
+
+    return new RangerKeyStoreProvider(conf, daoManager, MASTER_KEY);
+  }
+
+  private InMemoryKMSDao resetCounts() {
+    InMemoryKMSDao dao = daoManager.dao;
+
+    dao.findByAliasCount = 0;
+    dao.updateInfoCount  = 0;
+    dao.fullLoadCount    = 0;
+    dao.writeCount       = 0;
+    dao.transactionCount = 0;
+
+    return dao;
+  }
+
+  private static void createKey(RangerKeyStoreProvider provider, String name) throws Exception {
+    Options options = new Options(new Configuration(false));
+    options.setCipher("AES/CTR/NoPadding");
+    options.setBitLength(128);
+
+    provider.createKey(name, getMaterial(name), options);
+    provider.flush();
+  }
+
+  private static byte[] getMaterial(String name) {
+    byte[] ret = new byte[16];
+
+    for (int i = 0; i < ret.length; i++) {
+      ret[i] = (byte) (name.hashCode() >> (i % 4 * 8));
+    }
+
+    return ret;
+  }
+}
@@ -0,0 +1,189 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.crypto.key;
+
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.security.UnrecoverableKeyException;
+import java.util.Arrays;
+import java.util.Map;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.PBEParameterSpec;
+import javax.xml.bind.DatatypeConverter;
+
+import org.apache.ranger.entity.XXRangerMasterKey;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestRangerMasterKey {
+  private static final String PASSWORD = "mkpassword";
+
+  private InMemoryDaoManager daoManager;
+
+  @Before
+  public void setUp() throws Exception {
+    daoManager = new InMemoryDaoManager();
+    getDecryptedMasterKeys().clear();
+  }
+
+  @Test
+  public void testGenerateMasterKey() throws Throwable {
+    RangerMasterKey rangerMasterKey = createMasterKey();
+
+    Assert.assertTrue(rangerMasterKey.generateMasterKey(PASSWORD));
+    Assert.assertFalse(rangerMasterKey.generateMasterKey(PASSWORD));
+    Assert.assertTrue(getStoredMasterKey().startsWith("v2:"));
+
+    String masterKey = rangerMasterKey.getMasterKey(PASSWORD);
+    Assert.assertEquals(32, DatatypeConverter.parseBase64Binary(masterKey).length);
+
+    getDecryptedMasterKeys().clear();
+    Assert.assertEquals(masterKey, createMasterKey().getMasterKey(PASSWORD));
+  }
+
+  @Test
+  public void testLegacyFormatIsNotMigratedOnRead() throws Throwable {
+    byte[] material = storeLegacyMasterKey();
+    String legacyMasterKey = getStoredMasterKey();
+
+    String masterKey = createMasterKey().getMasterKey(PASSWORD);
+
+    Assert.assertArrayEquals(material, DatatypeConverter.parseBase64Binary(masterKey));
+    Assert.assertEquals(legacyMasterKey, getStoredMasterKey());
+    Assert.assertEquals(0, daoManager.masterKeyDao.updateCount);
+  }
+
+  @Test
+  public void testMigrationFromLegacyFormat() throws Throwable {
+    byte[] material = storeLegacyMasterKey();
+
+    Assert.assertTrue(createMasterKey().migrateMasterKey(PASSWORD));
+    Assert.assertTrue(getStoredMasterKey().startsWith("v2:"));
+    Assert.assertEquals(1, daoManager.masterKeyDao.updateCount);
+
+    // the migrated master key decrypts to the same key, and is not migrated again
+    String masterKey = createMasterKey().getMasterKey(PASSWORD);
+    Assert.assertArrayEquals(material, DatatypeConverter.parseBase64Binary(masterKey));
+    Assert.assertFalse(createMasterKey().migrateMasterKey(PASSWORD));
+    Assert.assertEquals(1, daoManager.masterKeyDao.updateCount);
+  }
+
+  @Test
+  public void testWrongPassword() throws Throwable {
+    storeLegacyMasterKey();
+    String legacyMasterKey = getStoredMasterKey();
+
+    try {
+      createMasterKey().migrateMasterKey("wrongpassword");
+      Assert.fail("master key should not be decrypted with a wrong password");
+    } catch (UnrecoverableKeyException e) {
+      // expected
+    }
+    Assert.assertEquals(legacyMasterKey, getStoredMasterKey());
+    Assert.assertEquals(0, daoManager.masterKeyDao.updateCount);
+
+    createMasterKey().migrateMasterKey(PASSWORD);
+
+    try {
+      createMasterKey().getMasterKey("wrongpassword");
+      Assert.fail("master key should not be decrypted with a wrong password");
+    } catch (UnrecoverableKeyException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testInvalidIterationCount() throws Throwable {
+    createMasterKey().generateMasterKey(PASSWORD);
+
+    for (int iterations : new int[] { 0, -1, 999, 10000001, Integer.MAX_VALUE }) {
+      byte[] stored = DatatypeConverter.parseBase64Binary(getStoredMasterKey().substring("v2:".length()));
+      ByteBuffer.wrap(stored).putInt(iterations);
+      daoManager.masterKeyDao.rows.get(0).setMasterKey("v2:" + DatatypeConverter.printBase64Binary(stored));
+
+      try {
+        createMasterKey().getMasterKey(PASSWORD);
+        Assert.fail("master key should not be decrypted with " + iterations + " iterations");
+      } catch (UnrecoverableKeyException e) {
+        // expected
+      }
+    }
+  }
+
+  @Test
+  public void testMasterKeyIsDecryptedOnce() throws Throwable {
+    createMasterKey().generateMasterKey(PASSWORD);
+
+    String masterKey = createMasterKey().getMasterKey(PASSWORD);
+    Assert.assertEquals(masterKey, createMasterKey().getMasterKey(PASSWORD));
+    Assert.assertEquals(1, getDecryptedMasterKeys().size());
+  }
+
+  private RangerMasterKey createMasterKey() {
+    // the default iteration count makes encrypting the master key too slow for a unit test
+    return new RangerMasterKey(daoManager) {
+      @Override
+      protected int getKdfIterations() {
+        return 1000;
+      }
+    };
+  }
+
+  private byte[] storeLegacyMasterKey() throws Exception {
+    byte[] material = new byte[32];
+    new SecureRandom().nextBytes(material);
+
+    XXRangerMasterKey row = new XXRangerMasterKey();
+    row.setCipher("AES");
+    row.setBitLength(256);
+    row.setMasterKey(encryptLegacy(material, PASSWORD));
+    daoManager.masterKeyDao.create(row);
+
+    return material;
+  }
+
+  // PBEWithMD5AndTripleDES, salted with the digest of the password, as done by earlier versions
+  private static String encryptLegacy(byte[] material, String password) throws Exception {
+    byte[]     salt      = Arrays.copyOf(MessageDigest.getInstance("MD5").digest(password.getBytes()), 8);
+    PBEKeySpec keySpec   = new PBEKeySpec(password.toCharArray(), salt, password.length() + 1);
+    SecretKey  key       = SecretKeyFactory.getInstance("PBEWithMD5AndTripleDES").generateSecret(keySpec);
+    Cipher     cipher    = Cipher.getInstance(key.getAlgorithm());
+    cipher.init(Cipher.ENCRYPT_MODE, key, new PBEParameterSpec(salt, keySpec.getIterationCount()));
+
+    return DatatypeConverter.printBase64Binary(cipher.doFinal(material));
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Map<String, String> getDecryptedMasterKeys() throws Exception {
+    Field field = RangerMasterKey.class.getDeclaredField("decryptedMasterKeys");
+    field.setAccessible(true);
+
+    return (Map<String, String>) field.get(null);
+  }
+
+  private String getStoredMasterKey() {
+    return daoManager.masterKeyDao.rows.get(0).getMasterKey();
+  }
+}
@@ -182,14 +182,21 @@ public class MiniKMS {
     // we need to do a special handling for MiniKMS to work when in a dir and
     // when in a JAR in the classpath thanks to Jetty way of handling of webapps
     // when they are in the a DIR, WAR or JAR.
+    // without a kms-webapp/ dir in the classpath, the webapp of this module
+    // is used, when run from the module directory.
     URL webXmlUrl = cl.getResource("kms-webapp/WEB-INF/web.xml");
-    if (webXmlUrl == null) {
+    File moduleWebapp = new File("src/main/webapp");
+    if (webXmlUrl == null &&
+        !new File(moduleWebapp, "WEB-INF/web.xml").exists()) {
       throw new RuntimeException(
           "Could not find kms-webapp/ dir in test classpath");
     }
-    boolean webXmlInJar = webXmlUrl.getPath().contains(".jar!/");
+    boolean webXmlInJar = webXmlUrl != null &&
+        webXmlUrl.getPath().contains(".jar!/");
     String webappPath;
-    if (webXmlInJar) {
+    if (webXmlUrl == null) {
+      webappPath = moduleWebapp.getAbsolutePath();
+    } else if (webXmlInJar) {
       File webInf = new File("target/" + UUID.randomUUID().toString() +
           "/kms-webapp/WEB-INF");
       webInf.mkdirs();
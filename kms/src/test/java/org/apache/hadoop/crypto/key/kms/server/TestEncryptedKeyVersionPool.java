@@ -0,0 +1,305 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.crypto.key.kms.server;
+
+import java.io.IOException;
+import java.net.URI;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.crypto.key.KeyProvider;
+import org.apache.hadoop.crypto.key.KeyProvider.KeyVersion;
+import org.apache.hadoop.crypto.key.KeyProvider.Options;
+import org.apache.hadoop.crypto.key.KeyProviderCryptoExtension;
+import org.apache.hadoop.crypto.key.KeyProviderCryptoExtension.EncryptedKeyVersion;
+import org.apache.hadoop.crypto.key.UserProvider;
+import org.apache.hadoop.crypto.key.kms.ValueQueue.QueueRefiller;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestEncryptedKeyVersionPool {
+
+  /**
+   * Generates keys named after the key and the number of keys generated
+   * before, taking genTimeMs for each key.
+   */
+  private static class FakeRefiller
+      implements QueueRefiller<EncryptedKeyVersion> {
+    private final long genTimeMs;
+    private final AtomicInteger generated = new AtomicInteger();
+
+    private FakeRefiller(long genTimeMs) {
+      this.genTimeMs = genTimeMs;
+    }
+
+    @Override
+    public void fillQueueForKey(String keyName,
+        Queue<EncryptedKeyVersion> keyQueue, int numKeys) throws IOException {
+      for (int i = 0; i < numKeys; i++) {
+        try {
+          Thread.sleep(genTimeMs);
+        } catch (InterruptedException e) {
+          throw new IOException(e);
+        }
+        keyQueue.add(new EncryptedKeyVersion(keyName,
+            keyName + "@" + generated.incrementAndGet(), new byte[16], null) {
+        });
+      }
+    }
+  }
+
+  private static EncryptedKeyVersionPool.PoolConfig poolConfig(
+      final int size, final float lowWatermark) {
+    return new EncryptedKeyVersionPool.PoolConfig() {
+      @Override
+      public int getSize(String keyName) {
+        return keyName.startsWith("big") ? size * 5 : size;
+      }
+
+      @Override
+      public float getLowWatermark(String keyName) {
+        return lowWatermark;
+      }
+    };
+  }
+
+  @Test
+  public void testPerKeySizing() throws Exception {
+    EncryptedKeyVersionPool pool = new EncryptedKeyVersionPool(
+        poolConfig(10, 0.5f), 60000, 2, 100, new FakeRefiller(0));
+
+    pool.warmUp("k1", "bigk2");
+
+    Assert.assertEquals(10, pool.getPoolSize("k1"));
+    Assert.assertEquals(10, pool.getAvailableCount("k1"));
+    Assert.assertEquals(50, pool.getPoolSize("bigk2"));
+    Assert.assertEquals(50, pool.getAvailableCount("bigk2"));
+
+    pool.shutdown();
+  }
+
+  @Test
+  public void testBurstIsServedFromPool() throws Exception {
+    final EncryptedKeyVersionPool pool = new EncryptedKeyVersionPool(
+        poolConfig(100, 0.5f), 60000, 2, 100, new FakeRefiller(1));
+    final int burstCount = 5;
+    final int threadCount = 4;
+    // each burst takes the pool below its low watermark
+    final int keysPerThread = 15;
+
+    pool.warmUp("k1");
+
+    for (int burst = 0; burst < burstCount; burst++) {
+      final CountDownLatch startLatch = new CountDownLatch(1);
+      final AtomicReference<Throwable> failure =
+          new AtomicReference<Throwable>();
+      List<Thread> threads = new ArrayList<Thread>();
+
+      for (int t = 0; t < threadCount; t++) {
+        threads.add(new Thread() {
+          @Override
+          public void run() {
+            try {
+              startLatch.await();
+              for (int i = 0; i < keysPerThread; i++) {
+                Assert.assertNotNull(pool.getNext("k1"));
+              }
+            } catch (Throwable e) {
+              failure.compareAndSet(null, e);
+            }
+          }
+        });
+      }
+      for (Thread thread : threads) {
+        thread.start();
+      }
+      startLatch.countDown();
+      for (Thread thread : threads) {
+        thread.join();
+      }
+      if (failure.get() != null) {
+        throw new AssertionError(failure.get());
+      }
+
+      // wait for the background refill between bursts; a refill adds all of its keys at once
+      for (int i = 0; i < 500 && pool.getAvailableCount("k1") < 50; i++) {
+        Thread.sleep(10);
+      }
+    }
+
+    long requestCount = burstCount * threadCount * keysPerThread;
+
+    Assert.assertEquals(requestCount, pool.getHitCount() + pool.getMissCount());
+    Assert.assertTrue("misses=" + pool.getMissCount(),
+        pool.getMissCount() * 20 <= requestCount);
+    Assert.assertTrue(pool.getRefillCount() >= burstCount);
+    Assert.assertTrue(pool.getMaxRefillTimeMs() > 0);
+
+    pool.shutdown();
+  }
+
+  @Test
+  public void testEmptyPoolDoesNotWaitForRefill() throws Exception {
+    EncryptedKeyVersionPool pool = new EncryptedKeyVersionPool(
+        poolConfig(100, 0.5f), 60000, 1, 100, new FakeRefiller(5));
+
+    // the first caller generates one key, instead of waiting for the pool
+    long startTime = System.currentTimeMillis();
+    Assert.assertNotNull(pool.getNext("k1"));
+    Assert.assertTrue(System.currentTimeMillis() - startTime < 250);
+    Assert.assertEquals(1, pool.getMissCount());
+
+    pool.shutdown();
+  }
+
+  @Test
+  public void testDrainDiscardsKeysBeingGenerated() throws Exception {
+    final CountDownLatch refillStarted = new CountDownLatch(1);
+    final CountDownLatch drained = new CountDownLatch(1);
+    final AtomicInteger generated = new AtomicInteger();
+
+    QueueRefiller<EncryptedKeyVersion> refiller =
+        new QueueRefiller<EncryptedKeyVersion>() {
+          @Override
+          public void fillQueueForKey(String keyName,
+              Queue<EncryptedKeyVersion> keyQueue, int numKeys)
+              throws IOException {
+            if (numKeys > 1) {
+              refillStarted.countDown();
+              try {
+                drained.await();
+              } catch (InterruptedException e) {
+                throw new IOException(e);
+              }
+            }
+            for (int i = 0; i < numKeys; i++) {
+              keyQueue.add(new EncryptedKeyVersion(keyName,
+                  keyName + "@" + generated.incrementAndGet(), new byte[16],
+                  null) {
+              });
+            }
+          }
+        };
+
+    EncryptedKeyVersionPool pool = new EncryptedKeyVersionPool(
+        poolConfig(10, 0.5f), 60000, 1, 100, refiller);
+
+    pool.getNext("k1");
+    Assert.assertTrue(refillStarted.await(10, TimeUnit.SECONDS));
+    pool.drain("k1");
+    drained.countDown();
+
+    for (int i = 0; i < 100 && pool.getRefillCount() == 0; i++) {
+      Thread.sleep(10);
+    }
+    Assert.assertEquals(1, pool.getRefillCount());
+    Assert.assertEquals(0, pool.getAvailableCount("k1"));
+
+    pool.shutdown();
+  }
+
+  @Test
+  public void testPoolsAreRemoved() throws Exception {
+    QueueRefiller<EncryptedKeyVersion> refiller =
+        new QueueRefiller<EncryptedKeyVersion>() {
+          private final FakeRefiller fakeRefiller = new FakeRefiller(0);
+
+          @Override
+          public void fillQueueForKey(String keyName,
+              Queue<EncryptedKeyVersion> keyQueue, int numKeys)
+              throws IOException {
+            if (keyName.startsWith("nokey")) {
+              throw new IOException("Key " + keyName + " doesn't exist");
+            }
+            fakeRefiller.fillQueueForKey(keyName, keyQueue, numKeys);
+          }
+        };
+    EncryptedKeyVersionPool pool = new EncryptedKeyVersionPool(
+        poolConfig(10, 0.5f), 200, 1, 100, refiller);
+
+    // keys that can't be generated keep no pool
+    for (int i = 0; i < 100; i++) {
+      try {
+        pool.getNext("nokey" + i);
+        Assert.fail("no key should be generated for nokey" + i);
+      } catch (IOException e) {
+        // expected
+      }
+    }
+    Assert.assertEquals(0, pool.getPoolCount());
+
+    pool.warmUp("k1", "k2");
+    Assert.assertEquals(2, pool.getPoolCount());
+
+    pool.drain("k1");
+    Assert.assertEquals(1, pool.getPoolCount());
+
+    // k2 is idle once expired, and removed when another pool is created
+    Thread.sleep(300);
+    pool.warmUp("k3");
+    Assert.assertEquals(0, pool.getAvailableCount("k2"));
+    Assert.assertEquals(1, pool.getPoolCount());
+
+    pool.shutdown();
+  }
+
+  @Test
+  public void testEagerKeyGenerator() throws Exception {
+    Configuration conf = new Configuration();
+    conf.setInt(EagerKeyGeneratorKeyProviderCryptoExtension.KMS_KEY_CACHE_SIZE, 10);
+    conf.setInt(EagerKeyGeneratorKeyProviderCryptoExtension.KMS_KEY_CACHE_KEY_PREFIX + "k2.size", 40);
+
+    KeyProvider kp =
+        new UserProvider.Factory().createProvider(new URI("user:///"), conf);
+    Options options = new Options(conf);
+    options.setCipher("AES");
+    options.setBitLength(128);
+    kp.createKey("k1", SecureRandom.getSeed(16), options);
+    kp.createKey("k2", SecureRandom.getSeed(16), options);
+
+    EagerKeyGeneratorKeyProviderCryptoExtension kpExt =
+        new EagerKeyGeneratorKeyProviderCryptoExtension(conf,
+            KeyProviderCryptoExtension.createKeyProviderCryptoExtension(kp));
+    EncryptedKeyVersionPool pool = kpExt.getEncryptedKeyVersionPool();
+
+    kpExt.warmUpEncryptedKeys("k1", "k2");
+    Assert.assertEquals(10, pool.getAvailableCount("k1"));
+    Assert.assertEquals(40, pool.getAvailableCount("k2"));
+
+    EncryptedKeyVersion eek = kpExt.generateEncryptedKey("k1");
+    Assert.assertEquals("k1@0", eek.getEncryptionKeyVersionName());
+    KeyVersion dek = kpExt.decryptEncryptedKey(eek);
+    Assert.assertEquals(16, dek.getMaterial().length);
+    Assert.assertEquals(1, pool.getHitCount());
+
+    // keys encrypted with the old version are not served after roll
+    kpExt.rollNewVersion("k1", SecureRandom.getSeed(16));
+    Assert.assertEquals(0, pool.getAvailableCount("k1"));
+    Assert.assertEquals("k1@1",
+        kpExt.generateEncryptedKey("k1").getEncryptionKeyVersionName());
+
+    pool.shutdown();
+  }
+}
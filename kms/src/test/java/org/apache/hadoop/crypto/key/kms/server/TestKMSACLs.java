@@ -17,11 +17,22 @@
  */
 package org.apache.hadoop.crypto.key.kms.server;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.crypto.key.kms.server.KMSACLsType.Type;
+import org.apache.hadoop.crypto.key.kms.server.KeyAuthorizationKeyProvider.KeyOpType;
 import org.apache.hadoop.security.UserGroupInformation;
 import org.junit.Assert;
 import org.junit.Test;
+import org.mockito.Mockito;
 
 public class TestKMSACLs {
 
@@ -50,4 +61,147 @@ public class TestKMSACLs {
           UserGroupInformation.createRemoteUser("foo"), ipAddress));
     }
   }
+
+  @Test
+  public void testDecisionsAreCached() {
+    Configuration conf = new Configuration(false);
+    conf.set(Type.CREATE.getAclConfigKey(), "bar g1");
+    KMSACLs acls = new KMSACLs(conf);
+    UserGroupInformation ugi = Mockito.mock(UserGroupInformation.class);
+    Mockito.when(ugi.getUserName()).thenReturn("foo");
+    Mockito.when(ugi.getShortUserName()).thenReturn("foo");
+    Mockito.when(ugi.getGroupNames()).thenReturn(new String[] { "g1" });
+
+    for (int i = 0; i < 10; i++) {
+      Assert.assertTrue(acls.hasAccess(Type.CREATE, ugi, ipAddress));
+    }
+    // groups are looked up only for the first check
+    Mockito.verify(ugi, Mockito.times(1)).getGroupNames();
+    Assert.assertEquals(1, acls.getDecisionCacheSize());
+  }
+
+  @Test
+  public void testDecisionCacheDisabled() {
+    Configuration conf = new Configuration(false);
+    conf.setInt(KMSConfiguration.ACL_DECISION_CACHE_SIZE, 0);
+    conf.set(Type.CREATE.getAclConfigKey(), "bar g1");
+    KMSACLs acls = new KMSACLs(conf);
+    UserGroupInformation ugi = Mockito.mock(UserGroupInformation.class);
+    Mockito.when(ugi.getUserName()).thenReturn("foo");
+    Mockito.when(ugi.getShortUserName()).thenReturn("foo");
+    Mockito.when(ugi.getGroupNames()).thenReturn(new String[] { "g1" });
+
+    for (int i = 0; i < 3; i++) {
+      Assert.assertTrue(acls.hasAccess(Type.CREATE, ugi, ipAddress));
+    }
+    Mockito.verify(ugi, Mockito.times(3)).getGroupNames();
+    Assert.assertEquals(0, acls.getDecisionCacheSize());
+  }
+
+  @Test
+  public void testReloadDiscardsCachedDecisions() throws Exception {
+    File confDir = new File("target/" + UUID.randomUUID()).getAbsoluteFile();
+    Assert.assertTrue(confDir.mkdirs());
+    String oldConfDir = System.getProperty(KMSConfiguration.KMS_CONFIG_DIR);
+    System.setProperty(KMSConfiguration.KMS_CONFIG_DIR,
+        confDir.getAbsolutePath());
+    try {
+      writeACLs(confDir, "foo", 0);
+      KMSACLs acls = new KMSACLs();
+      UserGroupInformation foo = UserGroupInformation.createRemoteUser("foo");
+
+      Assert.assertTrue(acls.hasAccess(Type.CREATE, foo, ipAddress));
+      Assert.assertTrue(acls.hasAccessToKey("k1", foo, KeyOpType.DECRYPT_EEK));
+      Assert.assertEquals(2, acls.getDecisionCacheSize());
+
+      // revoke; the file must be newer than the last reload
+      writeACLs(confDir, "bar", 10000);
+      acls.run();
+
+      Assert.assertFalse(acls.hasAccess(Type.CREATE, foo, ipAddress));
+      Assert.assertFalse(acls.hasAccessToKey("k1", foo, KeyOpType.DECRYPT_EEK));
+    } finally {
+      if (oldConfDir == null) {
+        System.clearProperty(KMSConfiguration.KMS_CONFIG_DIR);
+      } else {
+        System.setProperty(KMSConfiguration.KMS_CONFIG_DIR, oldConfDir);
+      }
+    }
+  }
+
+  @Test
+  public void testNoStaleGrantAfterConcurrentReload() throws Exception {
+    File confDir = new File("target/" + UUID.randomUUID()).getAbsoluteFile();
+    Assert.assertTrue(confDir.mkdirs());
+    String oldConfDir = System.getProperty(KMSConfiguration.KMS_CONFIG_DIR);
+    System.setProperty(KMSConfiguration.KMS_CONFIG_DIR,
+        confDir.getAbsolutePath());
+    try {
+      writeACLs(confDir, "foo", 0);
+      final KMSACLs acls = new KMSACLs();
+      final UserGroupInformation foo =
+          UserGroupInformation.createRemoteUser("foo");
+      final AtomicBoolean isReloaded = new AtomicBoolean(false);
+      final AtomicBoolean isDone = new AtomicBoolean(false);
+      final AtomicInteger staleGrants = new AtomicInteger();
+      List<Thread> threads = new ArrayList<Thread>();
+
+      for (int t = 0; t < 4; t++) {
+        threads.add(new Thread() {
+          @Override
+          public void run() {
+            while (!isDone.get()) {
+              boolean isAfterReload = isReloaded.get();
+              boolean isAllowed =
+                  acls.hasAccess(Type.CREATE, foo, ipAddress)
+                  || acls.hasAccessToKey("k1", foo, KeyOpType.DECRYPT_EEK);
+              if (isAfterReload && isAllowed) {
+                staleGrants.incrementAndGet();
+              }
+            }
+          }
+        });
+      }
+      for (Thread thread : threads) {
+        thread.start();
+      }
+
+      Thread.sleep(100);
+      writeACLs(confDir, "bar", 10000);
+      acls.run();
+      isReloaded.set(true);
+      Thread.sleep(100);
+      isDone.set(true);
+
+      for (Thread thread : threads) {
+        thread.join();
+      }
+      Assert.assertEquals(0, staleGrants.get());
+      Assert.assertFalse(acls.hasAccess(Type.CREATE, foo, ipAddress));
+    } finally {
+      if (oldConfDir == null) {
+        System.clearProperty(KMSConfiguration.KMS_CONFIG_DIR);
+      } else {
+        System.setProperty(KMSConfiguration.KMS_CONFIG_DIR, oldConfDir);
+      }
+    }
+  }
+
+  // grants CREATE and DECRYPT_EEK of key k1 to user only
+  private static void writeACLs(File confDir, String user, long mtimeOffsetMs)
+      throws Exception {
+    Configuration conf = new Configuration(false);
+    conf.set(Type.CREATE.getAclConfigKey(), user);
+    conf.set(KMSConfiguration.KEY_ACL_PREFIX + "k1."
+        + KeyOpType.DECRYPT_EEK, user);
+    File file = new File(confDir, KMSConfiguration.KMS_ACLS_XML);
+    OutputStream out = new FileOutputStream(file);
+    try {
+      conf.writeXml(out);
+    } finally {
+      out.close();
+    }
+    Assert.assertTrue(
+        file.setLastModified(System.currentTimeMillis() + mtimeOffsetMs));
+  }
 }
@@ -21,11 +21,24 @@ import java.io.ByteArrayOutputStream;
 import java.io.FilterOutputStream;
 import java.io.OutputStream;
 import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import org.apache.hadoop.crypto.key.kms.server.KMS.KMSOp;
 import org.apache.hadoop.security.UserGroupInformation;
 import org.apache.log4j.LogManager;
 import org.apache.log4j.PropertyConfigurator;
+import org.apache.ranger.audit.destination.AuditDestination;
+import org.apache.ranger.audit.model.AuditEventBase;
 import org.junit.After;
 import org.junit.Assert;
 import org.junit.Before;
@@ -79,6 +92,17 @@ public class TestKMSAudit {
     return logOutput;
   }
 
+  // access counts logged for the given status, op, key and user, in order
+  private static List<Long> getAccessCounts(String out, String prefix) {
+    List<Long> ret = new ArrayList<Long>();
+    Matcher matcher = Pattern.compile(Pattern.quote(prefix)
+        + ", accessCount=(\\d+), interval=\\d+ms\\]").matcher(out);
+    while (matcher.find()) {
+      ret.add(Long.parseLong(matcher.group(1)));
+    }
+    return ret;
+  }
+
   @Test
   public void testAggregation() throws Exception {
     UserGroupInformation luser = Mockito.mock(UserGroupInformation.class);
@@ -91,20 +115,27 @@ public class TestKMSAudit {
     kmsAudit.ok(luser, KMSOp.DECRYPT_EEK, "k1", "testmsg");
     kmsAudit.ok(luser, KMSOp.DECRYPT_EEK, "k1", "testmsg");
     kmsAudit.ok(luser, KMSOp.DECRYPT_EEK, "k1", "testmsg");
+    kmsAudit.ok(luser, KMSOp.GET_KEYS, "testmsg");
+    kmsAudit.ok(luser, KMSOp.GET_KEYS, "testmsg");
+    kmsAudit.ok(luser, KMSOp.DECRYPT_EEK, "k2", "testmsg");
     Thread.sleep(1500);
     kmsAudit.ok(luser, KMSOp.DECRYPT_EEK, "k1", "testmsg");
     Thread.sleep(1500);
     String out = getAndResetLogOutput();
     System.out.println(out);
-    Assert.assertTrue(
-        out.matches(
-            "OK\\[op=DECRYPT_EEK, key=k1, user=luser, accessCount=1, interval=[^m]{1,4}ms\\] testmsg"
-            // Not aggregated !!
-            + "OK\\[op=DELETE_KEY, key=k1, user=luser\\] testmsg"
-            + "OK\\[op=ROLL_NEW_VERSION, key=k1, user=luser\\] testmsg"
-            // Aggregated
-            + "OK\\[op=DECRYPT_EEK, key=k1, user=luser, accessCount=6, interval=[^m]{1,4}ms\\] testmsg"
-            + "OK\\[op=DECRYPT_EEK, key=k1, user=luser, accessCount=1, interval=[^m]{1,4}ms\\] testmsg"));
+
+    // all the operations are aggregated, per key
+    Assert.assertEquals(Arrays.asList(6L, 1L),
+        getAccessCounts(out, "OK[op=DECRYPT_EEK, key=k1, user=luser"));
+    Assert.assertEquals(Arrays.asList(1L),
+        getAccessCounts(out, "OK[op=DECRYPT_EEK, key=k2, user=luser"));
+    Assert.assertEquals(Arrays.asList(1L),
+        getAccessCounts(out, "OK[op=DELETE_KEY, key=k1, user=luser"));
+    Assert.assertEquals(Arrays.asList(1L),
+        getAccessCounts(out, "OK[op=ROLL_NEW_VERSION, key=k1, user=luser"));
+    Assert.assertEquals(Arrays.asList(2L),
+        getAccessCounts(out, "OK[op=GET_KEYS, user=luser"));
+    Assert.assertTrue(out.contains("] testmsg"));
   }
 
   @Test
@@ -123,13 +154,139 @@ public class TestKMSAudit {
     Thread.sleep(2000);
     String out = getAndResetLogOutput();
     System.out.println(out);
-    Assert.assertTrue(
-        out.matches(
-            "UNAUTHORIZED\\[op=GENERATE_EEK, key=k2, user=luser\\] "
-            + "OK\\[op=GENERATE_EEK, key=k3, user=luser, accessCount=1, interval=[^m]{1,4}ms\\] testmsg"
-            + "OK\\[op=GENERATE_EEK, key=k3, user=luser, accessCount=5, interval=[^m]{1,4}ms\\] testmsg"
-            + "UNAUTHORIZED\\[op=GENERATE_EEK, key=k3, user=luser\\] "
-            + "OK\\[op=GENERATE_EEK, key=k3, user=luser, accessCount=1, interval=[^m]{1,4}ms\\] testmsg"));
+
+    Assert.assertEquals(Arrays.asList(1L),
+        getAccessCounts(out, "UNAUTHORIZED[op=GENERATE_EEK, key=k2, user=luser"));
+    Assert.assertEquals(Arrays.asList(6L),
+        getAccessCounts(out, "OK[op=GENERATE_EEK, key=k3, user=luser"));
+    Assert.assertEquals(Arrays.asList(1L),
+        getAccessCounts(out, "UNAUTHORIZED[op=GENERATE_EEK, key=k3, user=luser"));
+  }
+
+  @Test
+  public void testAdminOpsWithDistinctMessagesAreNotAggregated() throws Exception {
+    UserGroupInformation luser = Mockito.mock(UserGroupInformation.class);
+    Mockito.when(luser.getShortUserName()).thenReturn("luser");
+    kmsAudit.ok(luser, KMSOp.ROLL_NEW_VERSION, "k1", "NewVersion:k1@1");
+    kmsAudit.ok(luser, KMSOp.ROLL_NEW_VERSION, "k1", "NewVersion:k1@2");
+    Thread.sleep(1500);
+    String out = getAndResetLogOutput();
+
+    Assert.assertEquals(Arrays.asList(1L, 1L),
+        getAccessCounts(out, "OK[op=ROLL_NEW_VERSION, key=k1, user=luser"));
+    Assert.assertTrue(out.contains("] NewVersion:k1@1"));
+    Assert.assertTrue(out.contains("] NewVersion:k1@2"));
+  }
+
+  /**
+   * Audit log destination that blocks the first call until released, and
+   * counts the events logged for each event key.
+   */
+  private static class BlockingDestination extends AuditDestination {
+    private final CountDownLatch entered = new CountDownLatch(1);
+    private final CountDownLatch released = new CountDownLatch(1);
+    private final CountDownLatch stopped = new CountDownLatch(1);
+    private final AtomicBoolean blocking = new AtomicBoolean(true);
+    private final Map<String, Long> counts = new HashMap<String, Long>();
+
+    @Override
+    public boolean log(Collection<AuditEventBase> events) {
+      if (blocking.compareAndSet(true, false)) {
+        entered.countDown();
+        try {
+          released.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+      synchronized (counts) {
+        for (AuditEventBase event : events) {
+          Long count = counts.get(event.getEventKey());
+          counts.put(event.getEventKey(), (count == null ? 0 : count)
+              + ((KMSAudit.KMSAuditEvent) event).getEventCount());
+        }
+      }
+      return true;
+    }
+
+    @Override
+    public void stop() {
+      stopped.countDown();
+    }
+  }
+
+  @Test
+  public void testRequestPathDoesNotBlockOnAuditLog() throws Exception {
+    final int userCount = 4;
+    final int keyCount = 10;
+    final int eventsPerKey = 5000;
+
+    BlockingDestination destination = new BlockingDestination();
+    KMSAudit audit = new KMSAudit(100,
+        KMSConfiguration.KMS_AUDIT_QUEUE_SIZE_DEFAULT, destination);
+    UserGroupInformation[] users = new UserGroupInformation[userCount];
+    // mocks would record every call
+    for (int u = 0; u < userCount; u++) {
+      users[u] = UserGroupInformation.createRemoteUser("user" + u);
+    }
+
+    // the audit log is stuck on the first event
+    audit.ok(users[0], KMSOp.DECRYPT_EEK, "k0", "");
+    Assert.assertTrue(destination.entered.await(10, TimeUnit.SECONDS));
+
+    long startTime = System.currentTimeMillis();
+    for (int i = 0; i < eventsPerKey; i++) {
+      for (int u = 0; u < userCount; u++) {
+        for (int k = 0; k < keyCount; k++) {
+          audit.ok(users[u], KMSOp.DECRYPT_EEK, "k" + k, "");
+        }
+      }
+    }
+    long elapsedMs = System.currentTimeMillis() - startTime;
+    Assert.assertTrue("elapsedMs=" + elapsedMs, elapsedMs < 10000);
+    Assert.assertEquals(0, audit.getOverflowCount());
+
+    destination.released.countDown();
+    audit.shutdown();
+    // shutdown waits for the queued events to be logged
+    Assert.assertEquals(0, destination.stopped.getCount());
+
+    // all the events are logged, aggregated per user and key
+    Assert.assertEquals(userCount * keyCount, destination.counts.size());
+    for (int u = 0; u < userCount; u++) {
+      for (int k = 0; k < keyCount; k++) {
+        Long count = destination.counts.get("OK#DECRYPT_EEK#k" + k + "#user" + u);
+        Assert.assertEquals(Long.valueOf(eventsPerKey
+            + (u == 0 && k == 0 ? 1 : 0)), count);
+      }
+    }
+  }
+
+  @Test
+  public void testFullQueueIsLoggedSynchronously() throws Exception {
+    final int queueSize = 10;
+    final int eventCount = 1000;
+
+    BlockingDestination destination = new BlockingDestination();
+    KMSAudit audit = new KMSAudit(100, queueSize, destination);
+    UserGroupInformation user = UserGroupInformation.createRemoteUser("user0");
+
+    // the audit log is stuck on the first event
+    audit.ok(user, KMSOp.DECRYPT_EEK, "k0", "");
+    Assert.assertTrue(destination.entered.await(10, TimeUnit.SECONDS));
+
+    for (int i = 0; i < eventCount; i++) {
+      audit.ok(user, KMSOp.DECRYPT_EEK, "k0", "");
+    }
+    Assert.assertEquals(eventCount - queueSize, audit.getOverflowCount());
+
+    destination.released.countDown();
+    audit.shutdown();
+    Assert.assertEquals(0, destination.stopped.getCount());
+
+    // no event is lost, whether it was aggregated or not
+    Assert.assertEquals(Long.valueOf(eventCount + 1),
+        destination.counts.get("OK#DECRYPT_EEK#k0#user0"));
   }
 
 }
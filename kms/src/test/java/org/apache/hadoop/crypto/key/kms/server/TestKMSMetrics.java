@@ -0,0 +1,138 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.crypto.key.kms.server;
+
+import java.io.File;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.crypto.key.KeyProvider;
+import org.apache.hadoop.crypto.key.KeyProviderCryptoExtension;
+import org.apache.hadoop.crypto.key.KeyProviderCryptoExtension.EncryptedKeyVersion;
+import org.apache.hadoop.crypto.key.kms.KMSClientProvider;
+import org.apache.hadoop.crypto.key.kms.server.KMS.KMSOp;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestKMSMetrics {
+
+  private MiniKMS miniKMS;
+
+  @Before
+  public void setUp() throws Exception {
+    File confDir = new File("target/" + UUID.randomUUID()).getAbsoluteFile();
+    Assert.assertTrue(confDir.mkdirs());
+
+    miniKMS = new MiniKMS.Builder().setKmsConfDir(confDir).build();
+    miniKMS.start();
+  }
+
+  @After
+  public void tearDown() {
+    if (miniKMS != null) {
+      miniKMS.stop();
+    }
+  }
+
+  @Test
+  public void testOperationMetrics() throws Exception {
+    Configuration conf = new Configuration();
+    URL kmsUrl = miniKMS.getKMSUrl();
+    KeyProvider kp = new KMSClientProvider(new URI(KMSClientProvider.SCHEME_NAME
+        + "://" + kmsUrl.getProtocol() + "@" + kmsUrl.getAuthority()
+        + kmsUrl.getPath()), conf);
+    KeyProviderCryptoExtension kpExt =
+        KeyProviderCryptoExtension.createKeyProviderCryptoExtension(kp);
+
+    kp.createKey("k1", new KeyProvider.Options(conf));
+    for (int i = 0; i < 3; i++) {
+      EncryptedKeyVersion eek = kpExt.generateEncryptedKey("k1");
+      kpExt.decryptEncryptedKey(eek);
+    }
+    kp.rollNewVersion("k1");
+    kp.getMetadata("k1");
+    try {
+      kp.rollNewVersion("nokey");
+      Assert.fail("roll of a missing key should fail");
+    } catch (Exception e) {
+      // expected
+    }
+
+    Map<String, Map<String, Object>> metrics = getJMXMetrics(kmsUrl);
+
+    Assert.assertEquals(1, getCount(metrics, KMSOp.CREATE_KEY, ".timer"));
+    Assert.assertEquals(3, getCount(metrics, KMSOp.DECRYPT_EEK, ".timer"));
+    Assert.assertEquals(2, getCount(metrics, KMSOp.ROLL_NEW_VERSION, ".timer"));
+    Assert.assertEquals(1, getCount(metrics, KMSOp.ROLL_NEW_VERSION,
+        ".failures.counter"));
+    Assert.assertEquals(1, getCount(metrics, KMSOp.GET_METADATA, ".timer"));
+    // the client fetches encrypted keys in batches
+    Assert.assertTrue(getCount(metrics, KMSOp.GENERATE_EEK, ".timer") >= 1);
+    Assert.assertNotNull(metrics.get("hadoop.kms.eek_pool.hits.gauge"));
+    Assert.assertNotNull(metrics.get("hadoop.kms.eek_pool.max_refill_time_ms.gauge"));
+    Assert.assertNotNull(metrics.get("hadoop.kms.eek_pool.refills_rejected.gauge"));
+
+    Map<String, Object> decryptTimer =
+        metrics.get("hadoop.kms.decrypt_eek.timer");
+    Assert.assertTrue(((Number) decryptTimer.get("Max")).doubleValue() > 0);
+  }
+
+  private static long getCount(Map<String, Map<String, Object>> metrics,
+      KMSOp op, String suffix) {
+    Map<String, Object> metric = metrics.get(KMSMetrics.METRICS_PREFIX
+        + op.name().toLowerCase() + suffix);
+    Assert.assertNotNull(op + suffix, metric);
+    return ((Number) metric.get("Count")).longValue();
+  }
+
+  // metrics exposed through KMSJMXServlet, by name
+  @SuppressWarnings("unchecked")
+  private static Map<String, Map<String, Object>> getJMXMetrics(URL kmsUrl)
+      throws Exception {
+    URL url = new URL(kmsUrl + "/jmx?qry=metrics:*&user.name="
+        + System.getProperty("user.name"));
+    HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+    Assert.assertEquals(HttpURLConnection.HTTP_OK, conn.getResponseCode());
+
+    Map<String, Object> json;
+    InputStream in = conn.getInputStream();
+    try {
+      json = new ObjectMapper().readValue(in, Map.class);
+    } finally {
+      in.close();
+    }
+
+    Map<String, Map<String, Object>> ret =
+        new HashMap<String, Map<String, Object>>();
+    for (Map<String, Object> bean : (List<Map<String, Object>>) json.get("beans")) {
+      String name = (String) bean.get("name");
+      ret.put(name.substring(name.indexOf("name=") + "name=".length()), bean);
+    }
+    return ret;
+  }
+}
@@ -0,0 +1,129 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.ranger.kms.dao;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+
+import org.apache.ranger.entity.XXRangerKeyStore;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Runs the queries of RangerKMSDao against an in-memory Derby database.
+ */
+public class TestRangerKMSDao {
+  private EntityManagerFactory emf;
+  private RangerKMSDao         dao;
+
+  @BeforeClass
+  public static void setUpClass() {
+    // instead of derby.log in the working directory
+    System.setProperty("derby.stream.error.file", "target/derby.log");
+  }
+
+  @Before
+  public void setUp() {
+    Map<String, String> properties = new HashMap<String, String>();
+    properties.put("javax.persistence.jdbc.driver", "org.apache.derby.jdbc.EmbeddedDriver");
+    properties.put("javax.persistence.jdbc.url", "jdbc:derby:memory:kms" + UUID.randomUUID().toString().replace("-", "") + ";create=true");
+    properties.put("javax.persistence.jdbc.user", "kms");
+    properties.put("javax.persistence.jdbc.password", "kms");
+    properties.put("eclipselink.ddl-generation", "create-tables");
+    properties.put("eclipselink.ddl-generation.output-mode", "database");
+
+    emf = Persistence.createEntityManagerFactory("persistence_ranger_server", properties);
+
+    DaoManager daoManager = new DaoManager();
+    daoManager.setEntityManagerFactory(emf);
+    dao = daoManager.getRangerKMSDao();
+  }
+
+  @After
+  public void tearDown() {
+    if (emf != null) {
+      dao.getEntityManager().close();
+      emf.close();
+    }
+  }
+
+  @Test
+  public void testGetAllKeyUpdateInfo() {
+    Date updateTime = new Date(1000000000000L);
+    createKey("key1", 0, updateTime);
+    createKey("key1@0", 1, updateTime);
+
+    Map<String, Object[]> infos = new HashMap<String, Object[]>();
+    for (Object[] info : dao.getAllKeyUpdateInfo()) {
+      Assert.assertEquals(3, info.length);
+      infos.put((String) info[0], info);
+    }
+
+    Assert.assertEquals(2, infos.size());
+    Assert.assertEquals(updateTime.getTime(), ((Date) infos.get("key1")[1]).getTime());
+    Assert.assertEquals(0, ((Number) infos.get("key1")[2]).intValue());
+    Assert.assertEquals(1, ((Number) infos.get("key1@0")[2]).intValue());
+  }
+
+  @Test
+  public void testGetKeysByAlias() {
+    List<String> aliases = new ArrayList<String>();
+    for (int i = 0; i < 1200; i++) {
+      createKey("key" + i, i, new Date());
+      if (i % 2 == 0) {
+        aliases.add("key" + i);
+      }
+    }
+    aliases.add("nokey");
+
+    // more aliases than fit in a single query
+    List<XXRangerKeyStore> keys = dao.getKeysByAlias(aliases);
+
+    Assert.assertEquals(600, keys.size());
+    for (XXRangerKeyStore key : keys) {
+      Assert.assertEquals("key" + key.getVersion(), key.getAlias());
+      Assert.assertEquals(0, key.getVersion() % 2);
+    }
+
+    Assert.assertTrue(dao.getKeysByAlias(Arrays.asList("nokey")).isEmpty());
+  }
+
+  private void createKey(String alias, int version, Date updateTime) {
+    XXRangerKeyStore key = new XXRangerKeyStore();
+    key.setAlias(alias);
+    key.setCreatedDate(updateTime.getTime());
+    key.setEncoded("encoded");
+    key.setCipher("AES");
+    key.setBitLength(128);
+    key.setVersion(version);
+    key.setAttributes("{}");
+    key.setUpdateTime(updateTime);
+    dao.create(key);
+  }
+}
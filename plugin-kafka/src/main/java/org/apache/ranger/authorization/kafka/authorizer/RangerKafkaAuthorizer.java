@@ -22,6 +22,9 @@ package org.apache.ranger.authorization.kafka.authorizer;
 import java.io.IOException;
 import java.security.Principal;
 import java.util.Date;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.security.auth.Subject;
 
@@ -40,12 +43,16 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.security.UserGroupInformation;
 import org.apache.ranger.audit.provider.MiscUtil;
+import org.apache.ranger.authorization.hadoop.config.RangerConfiguration;
 import org.apache.ranger.authorization.utils.StringUtil;
 import org.apache.ranger.plugin.audit.RangerDefaultAuditHandler;
 import org.apache.ranger.plugin.policyengine.RangerAccessRequestImpl;
 import org.apache.ranger.plugin.policyengine.RangerAccessResourceImpl;
 import org.apache.ranger.plugin.policyengine.RangerAccessResult;
+import org.apache.ranger.plugin.policyengine.RangerAccessResultProcessor;
 import org.apache.ranger.plugin.service.RangerBasePlugin;
+import org.apache.ranger.plugin.util.RangerUserGroupCache;
+import org.apache.ranger.plugin.util.ServicePolicies;
 
 import scala.collection.immutable.HashSet;
 import scala.collection.immutable.Set;
@@ -66,7 +73,7 @@ public class RangerKafkaAuthorizer implements Authorizer {
 	public static final String ACCESS_TYPE_DESCRIBE = "describe";
 	public static final String ACCESS_TYPE_KAFKA_ADMIN = "kafka_admin";
 
-	private static volatile RangerBasePlugin rangerPlugin = null;
+	private static volatile RangerKafkaPlugin rangerPlugin = null;
 	long lastLogTime = 0;
 	int errorLogFreq = 30000; // Log after every 30 seconds
 
@@ -94,7 +101,7 @@ public class RangerKafkaAuthorizer implements Authorizer {
 				logger.error("Error getting principal.", t);
 			}
 
-			rangerPlugin = new RangerBasePlugin("kafka", "kafka");
+			rangerPlugin = new RangerKafkaPlugin();
 			logger.info("Calling plugin.init()");
 			rangerPlugin.init();
 
@@ -124,11 +131,8 @@ public class RangerKafkaAuthorizer implements Authorizer {
 			userName = StringUtils.substringBefore(userName, "/");
 			userName = StringUtils.substringBefore(userName, "@");
 		}
-		java.util.Set<String> userGroups = MiscUtil
-				.getGroupsForRequestUser(userName);
 		String ip = session.host();
 
-		Date eventTime = StringUtil.getUTCDate();
 		String accessType = mapToRangerAccessType(operation);
 		boolean validationFailed = false;
 		String validationStr = "";
@@ -142,32 +146,43 @@ public class RangerKafkaAuthorizer implements Authorizer {
 			validationFailed = true;
 			validationStr += "Unsupported access type. operation=" + operation;
 		}
-		String action = accessType;
-
-		RangerAccessRequestImpl rangerRequest = new RangerAccessRequestImpl();
-		rangerRequest.setUser(userName);
-		rangerRequest.setUserGroups(userGroups);
-		rangerRequest.setClientIPAddress(ip);
-		rangerRequest.setAccessTime(eventTime);
-
-		RangerAccessResourceImpl rangerResource = new RangerAccessResourceImpl();
-		rangerRequest.setResource(rangerResource);
-		rangerRequest.setAccessType(accessType);
-		rangerRequest.setAction(action);
-		rangerRequest.setRequestData(resource.name());
 
+		String resourceKey = null;
 		if (resource.resourceType().equals(ResourceType.TOPIC)) {
-			rangerResource.setValue(KEY_TOPIC, resource.name());
+			resourceKey = KEY_TOPIC;
 		} else if (resource.resourceType().equals(ResourceType.CLUSTER)) {
 			// CLUSTER should go as null
-			// rangerResource.setValue(KEY_CLUSTER, resource.name());
+			resourceKey = KEY_CLUSTER;
 		} else if (resource.resourceType().equals(ResourceType.CONSUMER_GROUP)) {
-			rangerResource.setValue(KEY_CONSUMER_GROUP, resource.name());
+			resourceKey = KEY_CONSUMER_GROUP;
 		} else {
 			logger.fatal("Unsupported resourceType=" + resource.resourceType());
 			validationFailed = true;
 		}
 
+		// decisions are added to the cache they were looked up in, so that a decision made with policies replaced in
+		// the meantime is not served
+		ConcurrentMap<RangerKafkaPlugin.DecisionKey, RangerKafkaPlugin.Decision> decisionCache = rangerPlugin.getDecisionCache();
+		RangerKafkaPlugin.DecisionKey decisionKey = null;
+		if (!validationFailed) {
+			decisionKey = new RangerKafkaPlugin.DecisionKey(userName, ip, resourceKey, resource.name(), accessType);
+
+			RangerKafkaPlugin.Decision decision = rangerPlugin.getCachedDecision(decisionCache, decisionKey);
+
+			if (decision != null) {
+				if (decision.isAudited) {
+					auditCachedDecision(decision, createRequest(userName, ip, resourceKey, resource.name(), accessType));
+				}
+
+				if (logger.isDebugEnabled()) {
+					logger.debug("cached decision: " + decisionKey + ", return=" + decision.isAllowed);
+				}
+				return decision.isAllowed;
+			}
+		}
+
+		RangerAccessRequestImpl rangerRequest = createRequest(userName, ip, resourceKey, resource.name(), accessType);
+
 		boolean returnValue = true;
 		if (validationFailed) {
 			MiscUtil.logErrorMessageByInterval(logger, validationStr
@@ -183,6 +198,8 @@ public class RangerKafkaAuthorizer implements Authorizer {
 					returnValue = false;
 				} else {
 					returnValue = result.getIsAllowed();
+
+					rangerPlugin.cacheDecision(decisionCache, decisionKey, result);
 				}
 			} catch (Throwable t) {
 				logger.error("Error while calling isAccessAllowed(). request="
@@ -196,6 +213,59 @@ public class RangerKafkaAuthorizer implements Authorizer {
 		return returnValue;
 	}
 
+	private RangerAccessRequestImpl createRequest(String userName, String ip, String resourceKey, String resourceName, String accessType) {
+		java.util.Set<String> userGroups = RangerUserGroupCache.getInstance()
+				.getGroups(userName);
+		Date eventTime = StringUtil.getUTCDate();
+		String action = accessType;
+
+		RangerAccessRequestImpl rangerRequest = new RangerAccessRequestImpl();
+		rangerRequest.setUser(userName);
+		rangerRequest.setUserGroups(userGroups);
+		rangerRequest.setClientIPAddress(ip);
+		rangerRequest.setAccessTime(eventTime);
+
+		RangerAccessResourceImpl rangerResource = new RangerAccessResourceImpl();
+		rangerRequest.setResource(rangerResource);
+		rangerRequest.setAccessType(accessType);
+		rangerRequest.setAction(action);
+		rangerRequest.setRequestData(resourceName);
+
+		// CLUSTER should go as null
+		if (resourceKey != null && !resourceKey.equals(KEY_CLUSTER)) {
+			rangerResource.setValue(resourceKey, resourceName);
+		}
+		return rangerRequest;
+	}
+
+	// for tests, in place of initialize()
+	static void setRangerPlugin(RangerKafkaPlugin plugin) {
+		rangerPlugin = plugin;
+	}
+
+	/**
+	 * Sends the cached decision to the audit handler, as if the request was evaluated by the policy engine; with audit
+	 * summarization enabled, the repeated decisions end up in a single summarized audit event
+	 */
+	private void auditCachedDecision(RangerKafkaPlugin.Decision decision, RangerAccessRequestImpl rangerRequest) {
+		RangerAccessResultProcessor resultProcessor = rangerPlugin.getResultProcessor();
+
+		if (resultProcessor != null) {
+			RangerAccessResult result = rangerPlugin.createAccessResult(rangerRequest);
+			if (result != null) {
+				// service-def is otherwise set by the policy engine; the audit handler needs it to stringify the resource
+				((RangerAccessResourceImpl) rangerRequest.getResource()).setServiceDef(rangerPlugin.getServiceDef());
+
+				result.setIsAllowed(decision.isAllowed);
+				result.setIsAudited(decision.isAudited);
+				result.setPolicyId(decision.policyId);
+				result.setReason(decision.reason);
+
+				resultProcessor.processResult(result);
+			}
+		}
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -279,3 +349,167 @@ public class RangerKafkaAuthorizer implements Authorizer {
 		return null;
 	}
 }
+
+class RangerKafkaPlugin extends RangerBasePlugin {
+	private static final Log LOG = LogFactory.getLog(RangerKafkaPlugin.class);
+
+	private static final int  DEFAULT_DECISION_CACHE_SIZE   = 10000;
+	private static final long DEFAULT_DECISION_CACHE_TTL_MS = 60 * 1000;
+
+	private volatile ConcurrentMap<DecisionKey, Decision> decisionCache      = new ConcurrentHashMap<DecisionKey, Decision>();
+	private int                                           decisionCacheSize  = DEFAULT_DECISION_CACHE_SIZE;
+	private long                                          decisionCacheTtlMs = DEFAULT_DECISION_CACHE_TTL_MS;
+
+	public RangerKafkaPlugin() {
+		super("kafka", "kafka");
+	}
+
+	@Override
+	public void init() {
+		super.init();
+
+		String propertyPrefix = "ranger.plugin." + getServiceType();
+
+		decisionCacheSize  = RangerConfiguration.getInstance().getInt(propertyPrefix + ".decision.cache.size", DEFAULT_DECISION_CACHE_SIZE);
+		decisionCacheTtlMs = RangerConfiguration.getInstance().getLong(propertyPrefix + ".decision.cache.ttl.ms", DEFAULT_DECISION_CACHE_TTL_MS);
+
+		LOG.info("RangerKafkaPlugin: decisionCacheSize=" + decisionCacheSize + ", decisionCacheTtlMs=" + decisionCacheTtlMs);
+	}
+
+	@Override
+	public void setPolicies(ServicePolicies policies) {
+		super.setPolicies(policies);
+
+		// decisions made with earlier policies are no longer valid; the cache is replaced rather than cleared, so that
+		// a decision being made with the earlier policies is not added to the new cache
+		decisionCache = new ConcurrentHashMap<DecisionKey, Decision>();
+	}
+
+	public ConcurrentMap<DecisionKey, Decision> getDecisionCache() {
+		return decisionCache;
+	}
+
+	/**
+	 * @return the cached decision; null if not found or expired
+	 */
+	public Decision getCachedDecision(ConcurrentMap<DecisionKey, Decision> cache, DecisionKey key) {
+		Decision ret = decisionCacheSize > 0 ? cache.get(key) : null;
+
+		if (ret != null && (System.currentTimeMillis() - ret.time) >= decisionCacheTtlMs) {
+			cache.remove(key, ret);
+
+			ret = null;
+		}
+
+		return ret;
+	}
+
+	public void cacheDecision(ConcurrentMap<DecisionKey, Decision> cache, DecisionKey key, RangerAccessResult result) {
+		if (decisionCacheSize <= 0 || key == null || result == null) {
+			return;
+		}
+
+		if (cache.size() >= decisionCacheSize) {
+			evictDecisions(cache);
+		}
+
+		cache.put(key, new Decision(result, System.currentTimeMillis()));
+	}
+
+	/**
+	 * Removes the expired decisions; if the cache is still full, a tenth of the decisions are dropped, so that the
+	 * next additions don't have to make room again. Decisions are cheap to recompute.
+	 */
+	private void evictDecisions(ConcurrentMap<DecisionKey, Decision> cache) {
+		long now = System.currentTimeMillis();
+
+		for (Iterator<Decision> iter = cache.values().iterator(); iter.hasNext(); ) {
+			if ((now - iter.next().time) >= decisionCacheTtlMs) {
+				iter.remove();
+			}
+		}
+
+		int maxSize = decisionCacheSize - Math.max(1, decisionCacheSize / 10);
+
+		for (Iterator<Decision> iter = cache.values().iterator(); iter.hasNext() && cache.size() > maxSize; ) {
+			iter.next();
+			iter.remove();
+		}
+	}
+
+	static class Decision {
+		final boolean isAllowed;
+		final boolean isAudited;
+		final long    policyId;
+		final String  reason;
+		final long    time;
+
+		Decision(RangerAccessResult result, long time) {
+			this.isAllowed = result.getIsAllowed();
+			this.isAudited = result.getIsAudited();
+			this.policyId  = result.getPolicyId();
+			this.reason    = result.getReason();
+			this.time      = time;
+		}
+	}
+
+	/**
+	 * Client IP is part of the key, as policy conditions can depend on it
+	 */
+	static class DecisionKey {
+		private final String user;
+		private final String ip;
+		private final String resourceType;
+		private final String resourceName;
+		private final String accessType;
+		private final int    hashCode;
+
+		DecisionKey(String user, String ip, String resourceType, String resourceName, String accessType) {
+			this.user         = user;
+			this.ip           = ip;
+			this.resourceType = resourceType;
+			this.resourceName = resourceName;
+			this.accessType   = accessType;
+
+			int hash = 17;
+
+			hash = 31 * hash + (user == null ? 0 : user.hashCode());
+			hash = 31 * hash + (ip == null ? 0 : ip.hashCode());
+			hash = 31 * hash + (resourceType == null ? 0 : resourceType.hashCode());
+			hash = 31 * hash + (resourceName == null ? 0 : resourceName.hashCode());
+			hash = 31 * hash + (accessType == null ? 0 : accessType.hashCode());
+
+			this.hashCode = hash;
+		}
+
+		@Override
+		public int hashCode() {
+			return hashCode;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+
+			if (!(obj instanceof DecisionKey)) {
+				return false;
+			}
+
+			DecisionKey other = (DecisionKey) obj;
+
+			return hashCode == other.hashCode
+				&& StringUtils.equals(user, other.user)
+				&& StringUtils.equals(ip, other.ip)
+				&& StringUtils.equals(resourceType, other.resourceType)
+				&& StringUtils.equals(resourceName, other.resourceName)
+				&& StringUtils.equals(accessType, other.accessType);
+		}
+
+		@Override
+		public String toString() {
+			return "DecisionKey={user=" + user + ", ip=" + ip + ", resourceType=" + resourceType + ", resourceName=" + resourceName + ", accessType=" + accessType + "}";
+		}
+	}
+}
@@ -0,0 +1,218 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.ranger.authorization.kafka.authorizer;
+
+import static org.junit.Assert.*;
+
+import java.security.Principal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import kafka.network.RequestChannel.Session;
+import kafka.security.auth.Operation;
+import kafka.security.auth.Resource;
+import kafka.security.auth.ResourceType;
+
+import org.apache.ranger.plugin.model.RangerPolicy;
+import org.apache.ranger.plugin.model.RangerPolicy.RangerPolicyItem;
+import org.apache.ranger.plugin.model.RangerPolicy.RangerPolicyItemAccess;
+import org.apache.ranger.plugin.model.RangerPolicy.RangerPolicyItemCondition;
+import org.apache.ranger.plugin.model.RangerPolicy.RangerPolicyResource;
+import org.apache.ranger.plugin.model.RangerServiceDef;
+import org.apache.ranger.plugin.model.RangerServiceDef.RangerAccessTypeDef;
+import org.apache.ranger.plugin.model.RangerServiceDef.RangerResourceDef;
+import org.apache.ranger.plugin.policyengine.RangerAccessResult;
+import org.apache.ranger.plugin.policyengine.RangerAccessRequestImpl;
+import org.apache.ranger.plugin.policyengine.RangerAccessResourceImpl;
+import org.apache.ranger.plugin.util.ServicePolicies;
+import org.junit.After;
+import org.junit.Test;
+
+public class RangerKafkaAuthorizerTest {
+	private static final String CLIENT_IP = "127.0.0.1";
+
+	private final RangerKafkaAuthorizer authorizer = new RangerKafkaAuthorizer();
+	private final Session               session1   = createSession("user1");
+	private final Resource              topic1     = new Resource(ResourceType.TOPIC, "topic1");
+
+	@After
+	public void tearDown() {
+		RangerKafkaAuthorizer.setRangerPlugin(null);
+	}
+
+	@Test
+	public void testRevokedGrantIsNotCached() {
+		RangerKafkaPlugin plugin = new RangerKafkaPlugin();
+		plugin.setPolicies(createServicePolicies("user1"));
+		RangerKafkaAuthorizer.setRangerPlugin(plugin);
+
+		assertTrue(authorizer.authorize(session1, Operation.READ, topic1));
+		assertEquals(1, plugin.getDecisionCache().size());
+		// served from the cache
+		assertTrue(authorizer.authorize(session1, Operation.READ, topic1));
+		assertFalse(authorizer.authorize(session1, Operation.WRITE, topic1));
+
+		plugin.setPolicies(createServicePolicies("user2"));
+
+		assertTrue(plugin.getDecisionCache().isEmpty());
+		assertFalse(authorizer.authorize(session1, Operation.READ, topic1));
+		assertFalse(authorizer.authorize(session1, Operation.READ, topic1));
+		assertTrue(authorizer.authorize(createSession("user2"), Operation.READ, topic1));
+	}
+
+	@Test
+	public void testNoStaleGrantAfterConcurrentSetPolicies() throws Exception {
+		final RangerKafkaPlugin plugin      = new RangerKafkaPlugin();
+		final AtomicBoolean     isReloaded  = new AtomicBoolean(false);
+		final AtomicBoolean     isDone      = new AtomicBoolean(false);
+		final AtomicInteger     staleGrants = new AtomicInteger();
+		List<Thread>            threads     = new ArrayList<Thread>();
+
+		plugin.setPolicies(createServicePolicies("user1"));
+		RangerKafkaAuthorizer.setRangerPlugin(plugin);
+
+		for (int t = 0; t < 4; t++) {
+			threads.add(new Thread() {
+				@Override
+				public void run() {
+					while (!isDone.get()) {
+						boolean isAfterReload = isReloaded.get();
+						boolean isAllowed     = authorizer.authorize(session1, Operation.READ, topic1);
+
+						if (isAfterReload && isAllowed) {
+							staleGrants.incrementAndGet();
+						}
+					}
+				}
+			});
+		}
+		for (Thread thread : threads) {
+			thread.start();
+		}
+
+		Thread.sleep(100);
+		plugin.setPolicies(createServicePolicies("user2"));
+		isReloaded.set(true);
+		Thread.sleep(100);
+		isDone.set(true);
+
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertEquals(0, staleGrants.get());
+		assertFalse(authorizer.authorize(session1, Operation.READ, topic1));
+	}
+
+	@Test
+	public void testExpiredDecisionsAreEvictedFirst() {
+		RangerKafkaPlugin plugin = new RangerKafkaPlugin();
+		plugin.setPolicies(createServicePolicies("user1"));
+
+		ConcurrentMap<RangerKafkaPlugin.DecisionKey, RangerKafkaPlugin.Decision> cache = plugin.getDecisionCache();
+		RangerAccessResult result  = plugin.isAccessAllowed(createRequest("user1", "topic1"), null);
+		long               now     = System.currentTimeMillis();
+		int                maxSize = 10000;
+
+		// the default size and ttl: half of the decisions are expired
+		for (int i = 0; i < maxSize; i++) {
+			cache.put(createDecisionKey("topic" + i), new RangerKafkaPlugin.Decision(result, i % 2 == 0 ? now - 120 * 1000 : now));
+		}
+
+		plugin.cacheDecision(cache, createDecisionKey("newtopic"), result);
+
+		assertEquals(maxSize / 2 + 1, cache.size());
+		for (int i = 1; i < maxSize; i += 2) {
+			assertNotNull(cache.get(createDecisionKey("topic" + i)));
+		}
+		assertNotNull(cache.get(createDecisionKey("newtopic")));
+
+		// with no expired decisions, a tenth of them is dropped
+		for (int i = 0; i < maxSize; i += 2) {
+			cache.put(createDecisionKey("topic" + i), new RangerKafkaPlugin.Decision(result, now));
+		}
+
+		plugin.cacheDecision(cache, createDecisionKey("newtopic2"), result);
+
+		assertEquals(maxSize - maxSize / 10 + 1, cache.size());
+		assertNotNull(cache.get(createDecisionKey("newtopic2")));
+	}
+
+	private static Session createSession(final String userName) {
+		Principal principal = new Principal() {
+			@Override
+			public String getName() {
+				return userName + "@EXAMPLE.COM";
+			}
+		};
+
+		return new Session(principal, CLIENT_IP);
+	}
+
+	private static RangerKafkaPlugin.DecisionKey createDecisionKey(String topic) {
+		return new RangerKafkaPlugin.DecisionKey("user1", CLIENT_IP, RangerKafkaAuthorizer.KEY_TOPIC, topic, RangerKafkaAuthorizer.ACCESS_TYPE_READ);
+	}
+
+	private static RangerAccessRequestImpl createRequest(String userName, String topic) {
+		RangerAccessResourceImpl resource = new RangerAccessResourceImpl();
+		resource.setValue(RangerKafkaAuthorizer.KEY_TOPIC, topic);
+
+		RangerAccessRequestImpl request = new RangerAccessRequestImpl();
+		request.setResource(resource);
+		request.setUser(userName);
+		request.setAccessType(RangerKafkaAuthorizer.ACCESS_TYPE_READ);
+		request.setClientIPAddress(CLIENT_IP);
+		return request;
+	}
+
+	// grants consume of topic1 to the user only
+	private static ServicePolicies createServicePolicies(String user) {
+		RangerServiceDef serviceDef = new RangerServiceDef();
+		serviceDef.setName("kafka");
+		RangerResourceDef resourceDef = new RangerResourceDef();
+		resourceDef.setName(RangerKafkaAuthorizer.KEY_TOPIC);
+		serviceDef.setResources(Arrays.asList(resourceDef));
+		List<RangerAccessTypeDef> accessTypeDefs = new ArrayList<RangerAccessTypeDef>();
+		for (String accessType : new String[] { RangerKafkaAuthorizer.ACCESS_TYPE_READ, RangerKafkaAuthorizer.ACCESS_TYPE_WRITE }) {
+			RangerAccessTypeDef accessTypeDef = new RangerAccessTypeDef();
+			accessTypeDef.setName(accessType);
+			accessTypeDefs.add(accessTypeDef);
+		}
+		serviceDef.setAccessTypes(accessTypeDefs);
+
+		Map<String, RangerPolicyResource> resources = new HashMap<String, RangerPolicyResource>();
+		resources.put(RangerKafkaAuthorizer.KEY_TOPIC, new RangerPolicyResource("topic1"));
+		RangerPolicyItem policyItem = new RangerPolicyItem(Arrays.asList(new RangerPolicyItemAccess(RangerKafkaAuthorizer.ACCESS_TYPE_READ)),
+				Arrays.asList(user), null, new ArrayList<RangerPolicyItemCondition>(), false);
+		RangerPolicy policy = new RangerPolicy("kafkadev", "policy1", null, null, resources, Arrays.asList(policyItem), null);
+		policy.setId(1L);
+
+		ServicePolicies servicePolicies = new ServicePolicies();
+		servicePolicies.setServiceName("kafkadev");
+		servicePolicies.setServiceDef(serviceDef);
+		servicePolicies.setPolicies(Arrays.asList(policy));
+		return servicePolicies;
+	}
+}
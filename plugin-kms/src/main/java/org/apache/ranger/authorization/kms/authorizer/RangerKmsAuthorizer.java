@@ -22,7 +22,11 @@ package org.apache.ranger.authorization.kms.authorizer;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
@@ -41,13 +45,17 @@ import org.apache.hadoop.security.AccessControlException;
 import org.apache.hadoop.security.UserGroupInformation;
 import org.apache.hadoop.security.authorize.AccessControlList;
 import org.apache.hadoop.security.authorize.AuthorizationException;
+import org.apache.commons.lang.StringUtils;
 import org.apache.ranger.audit.provider.MiscUtil;
+import org.apache.ranger.authorization.hadoop.config.RangerConfiguration;
 import org.apache.ranger.authorization.utils.StringUtil;
 import org.apache.ranger.plugin.audit.RangerDefaultAuditHandler;
 import org.apache.ranger.plugin.policyengine.RangerAccessRequestImpl;
 import org.apache.ranger.plugin.policyengine.RangerAccessResourceImpl;
 import org.apache.ranger.plugin.policyengine.RangerAccessResult;
+import org.apache.ranger.plugin.policyengine.RangerAccessResultProcessor;
 import org.apache.ranger.plugin.service.RangerBasePlugin;
+import org.apache.ranger.plugin.util.ServicePolicies;
 import org.mortbay.log.Log;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -182,21 +190,8 @@ public class RangerKmsAuthorizer implements Runnable, KeyACLs {
 		  if(LOG.isDebugEnabled()) {
 				LOG.debug("==> RangerKmsAuthorizer.hasAccess(" + type + ", " + ugi + ")");
 			}
-			boolean ret = false;
-			RangerKMSPlugin plugin = kmsPlugin;
-			String rangerAccessType = getRangerAccessType(type);
-			AccessControlList blacklist = blacklistedAcls.get(type);
-		    ret = (blacklist == null) || !blacklist.isUserInList(ugi);
-		    if(!ret){
-		    	LOG.debug("Operation "+rangerAccessType+" blocked in the blacklist for user "+ugi.getUserName());
-		    }
-		    
-			if(plugin != null && ret) {				
-				RangerKMSAccessRequest request = new RangerKMSAccessRequest("", rangerAccessType, ugi, clientIp);
-				RangerAccessResult result = plugin.isAccessAllowed(request);
-				ret = result == null ? false : result.getIsAllowed();
-			}
-			
+			boolean ret = hasAccess(type, ugi, "", clientIp);
+
 			if(LOG.isDebugEnabled()) {
 				LOG.debug("<== RangerkmsAuthorizer.hasAccess(" + type + ", " + ugi + "): " + ret);
 			}
@@ -217,10 +212,8 @@ public class RangerKmsAuthorizer implements Runnable, KeyACLs {
 		    	LOG.debug("Operation "+rangerAccessType+" blocked in the blacklist for user "+ugi.getUserName());
 		    }
 		    
-			if(plugin != null && ret) {				
-				RangerKMSAccessRequest request = new RangerKMSAccessRequest(keyName, rangerAccessType, ugi, clientIp);
-				RangerAccessResult result = plugin.isAccessAllowed(request);
-				ret = result == null ? false : result.getIsAllowed();
+			if(plugin != null && ret) {
+				ret = isAccessAllowed(plugin, ugi, keyName, rangerAccessType, clientIp);
 			}
 			
 			if(LOG.isDebugEnabled()) {
@@ -230,6 +223,57 @@ public class RangerKmsAuthorizer implements Runnable, KeyACLs {
 			return ret;
 	  }
 
+	  static boolean isAccessAllowed(RangerKMSPlugin plugin, UserGroupInformation ugi, String keyName, String rangerAccessType, String clientIp) {
+		  boolean ret;
+
+		  // decisions are added to the cache they were looked up in, so that a decision made with policies
+		  // replaced in the meantime is not served
+		  ConcurrentMap<RangerKMSPlugin.DecisionKey, RangerKMSPlugin.Decision> decisionCache = plugin.getDecisionCache();
+		  Set<String>                 groups      = Sets.newHashSet(ugi.getGroupNames());
+		  RangerKMSPlugin.DecisionKey decisionKey = new RangerKMSPlugin.DecisionKey(ugi.getShortUserName(), groups, clientIp, keyName, rangerAccessType);
+		  RangerKMSPlugin.Decision    decision    = plugin.getCachedDecision(decisionCache, decisionKey);
+
+		  if(decision != null) {
+			  if(decision.isAudited) {
+				  auditCachedDecision(plugin, decision, new RangerKMSAccessRequest(keyName, rangerAccessType, ugi, groups, clientIp));
+			  }
+
+			  ret = decision.isAllowed;
+		  } else {
+			  RangerKMSAccessRequest request = new RangerKMSAccessRequest(keyName, rangerAccessType, ugi, groups, clientIp);
+			  RangerAccessResult result = plugin.isAccessAllowed(request);
+			  ret = result == null ? false : result.getIsAllowed();
+
+			  plugin.cacheDecision(decisionCache, decisionKey, result);
+		  }
+
+		  return ret;
+	  }
+
+	  /**
+	   * Sends the cached decision to the audit handler, as if the request was evaluated by the policy engine; with audit
+	   * summarization enabled, the repeated decisions end up in a single summarized audit event
+	   */
+	  private static void auditCachedDecision(RangerKMSPlugin plugin, RangerKMSPlugin.Decision decision, RangerKMSAccessRequest request) {
+		  RangerAccessResultProcessor resultProcessor = plugin.getResultProcessor();
+
+		  if(resultProcessor != null) {
+			  RangerAccessResult result = plugin.createAccessResult(request);
+
+			  if(result != null) {
+				  // service-def is otherwise set by the policy engine; the audit handler needs it to stringify the resource
+				  ((RangerAccessResourceImpl) request.getResource()).setServiceDef(plugin.getServiceDef());
+
+				  result.setIsAllowed(decision.isAllowed);
+				  result.setIsAudited(decision.isAudited);
+				  result.setPolicyId(decision.policyId);
+				  result.setReason(decision.reason);
+
+				  resultProcessor.processResult(result);
+			  }
+		  }
+	  }
+
 	  @Override
 	  public void assertAccess(Type aclType, UserGroupInformation ugi, KMSOp operation, String key, String clientIp)
 	      throws AccessControlException {
@@ -349,6 +393,15 @@ public class RangerKmsAuthorizer implements Runnable, KeyACLs {
 
 	
 	class RangerKMSPlugin extends RangerBasePlugin {
+		private static final Logger LOG = LoggerFactory.getLogger(RangerKMSPlugin.class);
+
+		private static final int  DEFAULT_DECISION_CACHE_SIZE   = 10000;
+		private static final long DEFAULT_DECISION_CACHE_TTL_MS = 60 * 1000;
+
+		private volatile ConcurrentMap<DecisionKey, Decision> decisionCache      = new ConcurrentHashMap<DecisionKey, Decision>();
+		private int                                           decisionCacheSize  = DEFAULT_DECISION_CACHE_SIZE;
+		private long                                          decisionCacheTtlMs = DEFAULT_DECISION_CACHE_TTL_MS;
+
 		public RangerKMSPlugin() {
 			super("kms", "kms");
 		}
@@ -357,10 +410,154 @@ public class RangerKmsAuthorizer implements Runnable, KeyACLs {
 		public void init() {
 			super.init();
 
+			String propertyPrefix = "ranger.plugin." + getServiceType();
+
+			decisionCacheSize  = RangerConfiguration.getInstance().getInt(propertyPrefix + ".decision.cache.size", DEFAULT_DECISION_CACHE_SIZE);
+			decisionCacheTtlMs = RangerConfiguration.getInstance().getLong(propertyPrefix + ".decision.cache.ttl.ms", DEFAULT_DECISION_CACHE_TTL_MS);
+
+			LOG.info("RangerKMSPlugin: decisionCacheSize=" + decisionCacheSize + ", decisionCacheTtlMs=" + decisionCacheTtlMs);
+
 			RangerDefaultAuditHandler auditHandler = new RangerDefaultAuditHandler();
 
 			super.setResultProcessor(auditHandler);
 		}
+
+		@Override
+		public void setPolicies(ServicePolicies policies) {
+			super.setPolicies(policies);
+
+			// decisions made with earlier policies are no longer valid; the cache is replaced rather than cleared, so
+			// that a decision being made with the earlier policies is not added to the new cache
+			decisionCache = new ConcurrentHashMap<DecisionKey, Decision>();
+		}
+
+		public ConcurrentMap<DecisionKey, Decision> getDecisionCache() {
+			return decisionCache;
+		}
+
+		/**
+		 * @return the cached decision; null if not found or expired
+		 */
+		public Decision getCachedDecision(ConcurrentMap<DecisionKey, Decision> cache, DecisionKey key) {
+			Decision ret = decisionCacheSize > 0 ? cache.get(key) : null;
+
+			if (ret != null && (System.currentTimeMillis() - ret.time) >= decisionCacheTtlMs) {
+				cache.remove(key, ret);
+
+				ret = null;
+			}
+
+			return ret;
+		}
+
+		public void cacheDecision(ConcurrentMap<DecisionKey, Decision> cache, DecisionKey key, RangerAccessResult result) {
+			if (decisionCacheSize <= 0 || key == null || result == null) {
+				return;
+			}
+
+			if (cache.size() >= decisionCacheSize) {
+				evictDecisions(cache);
+			}
+
+			cache.put(key, new Decision(result, System.currentTimeMillis()));
+		}
+
+		/**
+		 * Removes the expired decisions; if the cache is still full, a tenth of the decisions are dropped, so that
+		 * the next additions don't have to make room again. Decisions are cheap to recompute.
+		 */
+		private void evictDecisions(ConcurrentMap<DecisionKey, Decision> cache) {
+			long now = System.currentTimeMillis();
+
+			for (Iterator<Decision> iter = cache.values().iterator(); iter.hasNext(); ) {
+				if ((now - iter.next().time) >= decisionCacheTtlMs) {
+					iter.remove();
+				}
+			}
+
+			int maxSize = decisionCacheSize - Math.max(1, decisionCacheSize / 10);
+
+			for (Iterator<Decision> iter = cache.values().iterator(); iter.hasNext() && cache.size() > maxSize; ) {
+				iter.next();
+				iter.remove();
+			}
+		}
+
+		static class Decision {
+			final boolean isAllowed;
+			final boolean isAudited;
+			final long    policyId;
+			final String  reason;
+			final long    time;
+
+			Decision(RangerAccessResult result, long time) {
+				this.isAllowed = result.getIsAllowed();
+				this.isAudited = result.getIsAudited();
+				this.policyId  = result.getPolicyId();
+				this.reason    = result.getReason();
+				this.time      = time;
+			}
+		}
+
+		/**
+		 * Client IP is part of the key, as policy conditions can depend on it
+		 */
+		static class DecisionKey {
+			private final String      user;
+			private final Set<String> groups;
+			private final String      ip;
+			private final String      keyName;
+			private final String      accessType;
+			private final int         hashCode;
+
+			DecisionKey(String user, Set<String> groups, String ip, String keyName, String accessType) {
+				this.user       = user;
+				this.groups     = groups;
+				this.ip         = ip;
+				this.keyName    = keyName;
+				this.accessType = accessType;
+
+				int hash = 17;
+
+				hash = 31 * hash + (user == null ? 0 : user.hashCode());
+				hash = 31 * hash + (groups == null ? 0 : groups.hashCode());
+				hash = 31 * hash + (ip == null ? 0 : ip.hashCode());
+				hash = 31 * hash + (keyName == null ? 0 : keyName.hashCode());
+				hash = 31 * hash + (accessType == null ? 0 : accessType.hashCode());
+
+				this.hashCode = hash;
+			}
+
+			@Override
+			public int hashCode() {
+				return hashCode;
+			}
+
+			@Override
+			public boolean equals(Object obj) {
+				if (this == obj) {
+					return true;
+				}
+
+				if (!(obj instanceof DecisionKey)) {
+					return false;
+				}
+
+				DecisionKey other = (DecisionKey) obj;
+
+				return hashCode == other.hashCode
+					&& StringUtils.equals(user, other.user)
+					&& (groups == null ? other.groups == null : groups.equals(other.groups))
+					&& StringUtils.equals(ip, other.ip)
+					&& StringUtils.equals(keyName, other.keyName)
+					&& StringUtils.equals(accessType, other.accessType);
+			}
+
+			@Override
+			public String toString() {
+				return "DecisionKey={user=" + user + ", groups=" + groups + ", ip=" + ip + ", keyName=" + keyName + ", accessType=" + accessType + "}";
+			}
+		}
 	}
 
 	class RangerKMSResource extends RangerAccessResourceImpl {
@@ -373,10 +570,14 @@ public class RangerKmsAuthorizer implements Runnable, KeyACLs {
 
 	class RangerKMSAccessRequest extends RangerAccessRequestImpl {
 		public RangerKMSAccessRequest(String keyName, String accessType, UserGroupInformation ugi, String clientIp) {
+			this(keyName, accessType, ugi, Sets.newHashSet(ugi.getGroupNames()), clientIp);
+		}
+
+		public RangerKMSAccessRequest(String keyName, String accessType, UserGroupInformation ugi, Set<String> groups, String clientIp) {
 			super.setResource(new RangerKMSResource(keyName));
 			super.setAccessType(accessType);
 			super.setUser(ugi.getShortUserName());
-			super.setUserGroups(Sets.newHashSet(ugi.getGroupNames()));
+			super.setUserGroups(groups);
 			super.setAccessTime(StringUtil.getUTCDate());
 			super.setClientIPAddress(clientIp);			
 			super.setAction(accessType);
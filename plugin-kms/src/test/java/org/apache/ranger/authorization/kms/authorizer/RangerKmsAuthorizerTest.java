@@ -0,0 +1,177 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.ranger.authorization.kms.authorizer;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.hadoop.security.UserGroupInformation;
+import org.apache.ranger.plugin.model.RangerPolicy;
+import org.apache.ranger.plugin.model.RangerPolicy.RangerPolicyItem;
+import org.apache.ranger.plugin.model.RangerPolicy.RangerPolicyItemAccess;
+import org.apache.ranger.plugin.model.RangerPolicy.RangerPolicyItemCondition;
+import org.apache.ranger.plugin.model.RangerPolicy.RangerPolicyResource;
+import org.apache.ranger.plugin.model.RangerServiceDef;
+import org.apache.ranger.plugin.model.RangerServiceDef.RangerAccessTypeDef;
+import org.apache.ranger.plugin.model.RangerServiceDef.RangerResourceDef;
+import org.apache.ranger.plugin.policyengine.RangerAccessResult;
+import org.apache.ranger.plugin.util.ServicePolicies;
+import org.junit.Test;
+
+public class RangerKmsAuthorizerTest {
+	private static final String CLIENT_IP = "127.0.0.1";
+
+	private final UserGroupInformation user1 = UserGroupInformation.createUserForTesting("user1", new String[] { "group1" });
+
+	@Test
+	public void testRevokedGrantIsNotCached() {
+		RangerKMSPlugin plugin = new RangerKMSPlugin();
+		plugin.setPolicies(createServicePolicies("user1"));
+
+		assertTrue(RangerKmsAuthorizer.isAccessAllowed(plugin, user1, "key1", RangerKmsAuthorizer.ACCESS_TYPE_DECRYPT_EEK, CLIENT_IP));
+		assertEquals(1, plugin.getDecisionCache().size());
+		// served from the cache
+		assertTrue(RangerKmsAuthorizer.isAccessAllowed(plugin, user1, "key1", RangerKmsAuthorizer.ACCESS_TYPE_DECRYPT_EEK, CLIENT_IP));
+
+		plugin.setPolicies(createServicePolicies("user2"));
+
+		assertTrue(plugin.getDecisionCache().isEmpty());
+		assertFalse(RangerKmsAuthorizer.isAccessAllowed(plugin, user1, "key1", RangerKmsAuthorizer.ACCESS_TYPE_DECRYPT_EEK, CLIENT_IP));
+		assertFalse(RangerKmsAuthorizer.isAccessAllowed(plugin, user1, "key1", RangerKmsAuthorizer.ACCESS_TYPE_DECRYPT_EEK, CLIENT_IP));
+	}
+
+	@Test
+	public void testNoStaleGrantAfterConcurrentSetPolicies() throws Exception {
+		final RangerKMSPlugin plugin      = new RangerKMSPlugin();
+		final AtomicBoolean   isReloaded  = new AtomicBoolean(false);
+		final AtomicBoolean   isDone      = new AtomicBoolean(false);
+		final AtomicInteger   staleGrants = new AtomicInteger();
+		List<Thread>          threads     = new ArrayList<Thread>();
+
+		plugin.setPolicies(createServicePolicies("user1"));
+
+		for (int t = 0; t < 4; t++) {
+			threads.add(new Thread() {
+				@Override
+				public void run() {
+					while (!isDone.get()) {
+						boolean isAfterReload = isReloaded.get();
+						boolean isAllowed     = RangerKmsAuthorizer.isAccessAllowed(plugin, user1, "key1", RangerKmsAuthorizer.ACCESS_TYPE_DECRYPT_EEK, CLIENT_IP);
+
+						if (isAfterReload && isAllowed) {
+							staleGrants.incrementAndGet();
+						}
+					}
+				}
+			});
+		}
+		for (Thread thread : threads) {
+			thread.start();
+		}
+
+		Thread.sleep(100);
+		plugin.setPolicies(createServicePolicies("user2"));
+		isReloaded.set(true);
+		Thread.sleep(100);
+		isDone.set(true);
+
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertEquals(0, staleGrants.get());
+		assertFalse(RangerKmsAuthorizer.isAccessAllowed(plugin, user1, "key1", RangerKmsAuthorizer.ACCESS_TYPE_DECRYPT_EEK, CLIENT_IP));
+	}
+
+	@Test
+	public void testExpiredDecisionsAreEvictedFirst() {
+		RangerKMSPlugin plugin = new RangerKMSPlugin();
+		plugin.setPolicies(createServicePolicies("user1"));
+
+		ConcurrentMap<RangerKMSPlugin.DecisionKey, RangerKMSPlugin.Decision> cache = plugin.getDecisionCache();
+		RangerAccessResult result  = plugin.isAccessAllowed(new RangerKMSAccessRequest("key1", RangerKmsAuthorizer.ACCESS_TYPE_DECRYPT_EEK, user1, CLIENT_IP));
+		long               now     = System.currentTimeMillis();
+		int                maxSize = 10000;
+
+		// the default size and ttl: half of the decisions are expired
+		for (int i = 0; i < maxSize; i++) {
+			cache.put(createDecisionKey("key" + i), new RangerKMSPlugin.Decision(result, i % 2 == 0 ? now - 120 * 1000 : now));
+		}
+
+		plugin.cacheDecision(cache, createDecisionKey("newkey"), result);
+
+		assertEquals(maxSize / 2 + 1, cache.size());
+		for (int i = 1; i < maxSize; i += 2) {
+			assertNotNull(cache.get(createDecisionKey("key" + i)));
+		}
+		assertNotNull(cache.get(createDecisionKey("newkey")));
+
+		// with no expired decisions, a tenth of them is dropped
+		for (int i = 0; i < maxSize; i += 2) {
+			cache.put(createDecisionKey("key" + i), new RangerKMSPlugin.Decision(result, now));
+		}
+
+		plugin.cacheDecision(cache, createDecisionKey("newkey2"), result);
+
+		assertEquals(maxSize - maxSize / 10 + 1, cache.size());
+		assertNotNull(cache.get(createDecisionKey("newkey2")));
+	}
+
+	private static RangerKMSPlugin.DecisionKey createDecisionKey(String keyName) {
+		return new RangerKMSPlugin.DecisionKey("user1", Collections.singleton("group1"), CLIENT_IP, keyName, RangerKmsAuthorizer.ACCESS_TYPE_DECRYPT_EEK);
+	}
+
+	// grants decrypteek of key1 to the user only
+	private static ServicePolicies createServicePolicies(String user) {
+		RangerServiceDef serviceDef = new RangerServiceDef();
+		serviceDef.setName("kms");
+		RangerResourceDef resourceDef = new RangerResourceDef();
+		resourceDef.setName("keyname");
+		serviceDef.setResources(Arrays.asList(resourceDef));
+		List<RangerAccessTypeDef> accessTypeDefs = new ArrayList<RangerAccessTypeDef>();
+		for (String accessType : new String[] { RangerKmsAuthorizer.ACCESS_TYPE_DECRYPT_EEK, RangerKmsAuthorizer.ACCESS_TYPE_GENERATE_EEK }) {
+			RangerAccessTypeDef accessTypeDef = new RangerAccessTypeDef();
+			accessTypeDef.setName(accessType);
+			accessTypeDefs.add(accessTypeDef);
+		}
+		serviceDef.setAccessTypes(accessTypeDefs);
+
+		Map<String, RangerPolicyResource> resources = new HashMap<String, RangerPolicyResource>();
+		resources.put("keyname", new RangerPolicyResource("key1"));
+		RangerPolicyItem policyItem = new RangerPolicyItem(Arrays.asList(new RangerPolicyItemAccess(RangerKmsAuthorizer.ACCESS_TYPE_DECRYPT_EEK)),
+				Arrays.asList(user), null, new ArrayList<RangerPolicyItemCondition>(), false);
+		RangerPolicy policy = new RangerPolicy("kmsdev", "policy1", null, null, resources, Arrays.asList(policyItem), null);
+		policy.setId(1L);
+
+		ServicePolicies servicePolicies = new ServicePolicies();
+		servicePolicies.setServiceName("kmsdev");
+		servicePolicies.setServiceDef(serviceDef);
+		servicePolicies.setPolicies(Arrays.asList(policy));
+		return servicePolicies;
+	}
+}
@@ -24,6 +24,7 @@ import java.security.Principal;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.Enumeration;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -38,6 +39,7 @@ import org.apache.ranger.plugin.policyengine.RangerAccessRequestImpl;
 import org.apache.ranger.plugin.policyengine.RangerAccessResourceImpl;
 import org.apache.ranger.plugin.policyengine.RangerAccessResult;
 import org.apache.ranger.plugin.service.RangerBasePlugin;
+import org.apache.ranger.plugin.util.RangerUserGroupCache;
 import org.apache.solr.security.AuthorizationContext.RequestType;
 import org.apache.solr.security.AuthorizationPlugin;
 import org.apache.solr.security.AuthorizationResponse;
@@ -147,11 +149,16 @@ public class RangerSolrAuthorizer implements AuthorizationPlugin {
 
 		String requestData = context.getResource() + ":" + context.getParams();
 
-		// Create the list of requests for access check. Each field is broken
-		// into a request
+		// Create the list of requests for access check. Each collection is
+		// checked once, even if it appears more than once in the request
 		List<RangerAccessRequestImpl> rangerRequests = new ArrayList<RangerAccessRequestImpl>();
+		Set<String> collectionNames = new HashSet<String>();
 		for (CollectionRequest collectionRequest : context
 				.getCollectionRequests()) {
+			if (collectionRequest.collectionName != null
+					&& !collectionNames.add(collectionRequest.collectionName)) {
+				continue;
+			}
 
 			List<RangerAccessRequestImpl> requestsForCollection = createRequests(
 					userName, userGroups, ip, eventTime, context,
@@ -297,9 +304,7 @@ public class RangerSolrAuthorizer implements AuthorizationPlugin {
 	 * @return
 	 */
 	private Set<String> getGroupsForUser(String name) {
-		// TODO: Need to implement this method
-
-		return null;
+		return RangerUserGroupCache.getInstance().getGroups(name);
 	}
 
 	String mapToRangerAccessType(AuthorizationContext context) {
@@ -59,12 +59,17 @@ public class StormRangerPlugin extends RangerBasePlugin {
 	}
 
 	public RangerAccessRequest buildAccessRequest(String _user, String[] _groups, String _clientIp, String _topology, String _operation) {
+		Set<String> groups = _groups == null ? null : Sets.newHashSet(_groups);
+
+		return buildAccessRequest(_user, groups, _clientIp, _topology, _operation);
+	}
+
+	public RangerAccessRequest buildAccessRequest(String _user, Set<String> _groups, String _clientIp, String _topology, String _operation) {
 		
 		RangerAccessRequestImpl request = new RangerAccessRequestImpl();
 		request.setUser(_user);
-		if (_groups != null && _groups.length > 0) {
-			Set<String> groups = Sets.newHashSet(_groups);
-			request.setUserGroups(groups);
+		if (_groups != null && !_groups.isEmpty()) {
+			request.setUserGroups(_groups);
 		}
 		request.setAccessType(_operation);
 		request.setClientIPAddress(_clientIp);
@@ -21,12 +21,13 @@
 
 import java.security.Principal;
 import java.util.Map;
+import java.util.Set;
 
 import org.apache.hadoop.security.UserGroupInformation;
 import org.apache.ranger.authorization.storm.StormRangerPlugin;
-import org.apache.ranger.authorization.utils.StringUtil;
 import org.apache.ranger.plugin.policyengine.RangerAccessRequest;
 import org.apache.ranger.plugin.policyengine.RangerAccessResult;
+import org.apache.ranger.plugin.util.RangerUserGroupCache;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -78,7 +79,7 @@ public class RangerStormAuthorizer implements IAuthorizer {
 			}
 	
 			String userName = null ;
-			String[] groups = null ;
+			Set<String> groups = null ;
 	
 			Principal user = aRequestContext.principal() ;
 			
@@ -87,9 +88,10 @@ public class RangerStormAuthorizer implements IAuthorizer {
 				if (userName != null) {
 					UserGroupInformation ugi = UserGroupInformation.createRemoteUser(userName) ;
 					userName = ugi.getShortUserName() ;
-					groups = ugi.getGroupNames() ;
+					// groups come from the shared cache, rather than from a group mapping lookup on every request
+					groups = RangerUserGroupCache.getInstance().getGroups(userName) ;
 					if (LOG.isDebugEnabled()) {
-						LOG.debug("User found from principal [" + user.getName() + "] => user:[" + userName + "], groups:[" + StringUtil.toString(groups) + "]") ;
+						LOG.debug("User found from principal [" + user.getName() + "] => user:[" + userName + "], groups:[" + groups + "]") ;
 					}
 
 				}
@@ -104,7 +106,7 @@ public class RangerStormAuthorizer implements IAuthorizer {
 				isAuditEnabled = result != null && result.getIsAudited();
 				
 				if (LOG.isDebugEnabled()) {
-					LOG.debug("User found from principal [" + userName + "], groups [" + StringUtil.toString(groups) + "]: verifying using [" + plugin.getClass().getName() + "], allowedFlag => [" + accessAllowed + "], Audit Enabled:" + isAuditEnabled);
+					LOG.debug("User found from principal [" + userName + "], groups [" + groups + "]: verifying using [" + plugin.getClass().getName() + "], allowedFlag => [" + accessAllowed + "], Audit Enabled:" + isAuditEnabled);
 				}
 			}
 			else {